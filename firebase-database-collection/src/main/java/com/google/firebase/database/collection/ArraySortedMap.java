@@ -49,6 +49,18 @@ public class ArraySortedMap<K, V> extends ImmutableSortedMap<K, V> {
         new ArrayList<K>(map.keySet()), map, Builder.<K>identityTranslator(), comparator);
   }
 
+  /**
+   * Builds a map from keys that are already sorted according to {@code comparator}. The i-th entry
+   * of {@code values} is the value for the i-th key. The keys are not sorted again.
+   */
+  @SuppressWarnings("unchecked")
+  static <K, V> ArraySortedMap<K, V> fromSortedLists(
+      List<K> sortedKeys, List<V> values, Comparator<K> comparator) {
+    K[] keyArray = (K[]) sortedKeys.toArray();
+    V[] valueArray = (V[]) values.toArray();
+    return new ArraySortedMap<K, V>(comparator, keyArray, valueArray);
+  }
+
   private final K[] keys;
   private final V[] values;
   private final Comparator<K> comparator;
@@ -56,6 +56,65 @@ public abstract class ImmutableSortedMap<K, V> implements Iterable<Map.Entry<K,
 
   public abstract Comparator<K> getComparator();
 
+  /**
+   * Returns a map that contains the entries of this map and all entries of {@code other}. If both
+   * maps contain a key, the entry from {@code other} is used. Both maps must be ordered by the same
+   * comparator.
+   *
+   * <p>If {@code other} is large compared to this map, both maps are merged in a single pass and
+   * the result is built bottom-up, which takes O(n + m) time instead of O(m log(n)) for repeated
+   * calls to {@link #insert}.
+   */
+  @SuppressWarnings("ReferenceEquality") // Both maps must use the same comparator instance
+  public ImmutableSortedMap<K, V> insertAll(ImmutableSortedMap<K, V> other) {
+    if (other.isEmpty()) {
+      return this;
+    } else if (this.isEmpty() && other.getComparator() == this.getComparator()) {
+      return other;
+    }
+
+    int totalSize = this.size() + other.size();
+    int treeDepth = 32 - Integer.numberOfLeadingZeros(totalSize);
+    if ((long) other.size() * treeDepth < totalSize) {
+      // Each insert only copies the path to the new node, which is cheaper than rebuilding the
+      // entire map if only a few entries are added.
+      ImmutableSortedMap<K, V> result = this;
+      for (Map.Entry<K, V> entry : other) {
+        result = result.insert(entry.getKey(), entry.getValue());
+      }
+      return result;
+    }
+
+    Comparator<K> comparator = getComparator();
+    SortedMapBuilder<K, V> builder = new SortedMapBuilder<>(comparator, totalSize);
+    Iterator<Map.Entry<K, V>> thisIterator = this.iterator();
+    Iterator<Map.Entry<K, V>> otherIterator = other.iterator();
+    Map.Entry<K, V> thisEntry = thisIterator.hasNext() ? thisIterator.next() : null;
+    Map.Entry<K, V> otherEntry = otherIterator.next();
+    while (thisEntry != null || otherEntry != null) {
+      int cmp;
+      if (thisEntry == null) {
+        cmp = 1;
+      } else if (otherEntry == null) {
+        cmp = -1;
+      } else {
+        cmp = comparator.compare(thisEntry.getKey(), otherEntry.getKey());
+      }
+
+      if (cmp < 0) {
+        builder.add(thisEntry.getKey(), thisEntry.getValue());
+        thisEntry = thisIterator.hasNext() ? thisIterator.next() : null;
+      } else {
+        builder.add(otherEntry.getKey(), otherEntry.getValue());
+        if (cmp == 0) {
+          thisEntry = thisIterator.hasNext() ? thisIterator.next() : null;
+        }
+        otherEntry = otherIterator.hasNext() ? otherIterator.next() : null;
+      }
+    }
+    return builder.build();
+  }
+
   @Override
   @SuppressWarnings("unchecked")
   public boolean equals(Object o) {
@@ -52,7 +52,7 @@ public class ImmutableSortedSet<T> implements Iterable<T> {
             comparator);
   }
 
-  private ImmutableSortedSet(ImmutableSortedMap<T, Void> map) {
+  ImmutableSortedSet(ImmutableSortedMap<T, Void> map) {
     this.map = map;
   }
 
@@ -87,6 +87,7 @@ public class ImmutableSortedSet<T> implements Iterable<T> {
     return new ImmutableSortedSet<T>(map.insert(entry, null));
   }
 
+  @SuppressWarnings("ReferenceEquality") // Detect unchanged immutable instance
   public ImmutableSortedSet<T> unionWith(ImmutableSortedSet<T> other) {
     ImmutableSortedSet<T> result = this;
 
@@ -96,11 +97,8 @@ public class ImmutableSortedSet<T> implements Iterable<T> {
       other = this;
     }
 
-    for (T elem : other) {
-      result = result.insert(elem);
-    }
-
-    return result;
+    ImmutableSortedMap<T, Void> newMap = result.map.insertAll(other.map);
+    return (newMap == result.map) ? result : new ImmutableSortedSet<T>(newMap);
   }
 
   public T getMinEntry() {
@@ -0,0 +1,73 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.collection;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Builds an ImmutableSortedMap from entries that are added in ascending key order.
+ *
+ * <p>Since the entries are already sorted, the map is built in linear time without sorting and
+ * without an intermediate hash map. This is considerably cheaper than growing a map through
+ * repeated calls to {@link ImmutableSortedMap#insert}, which copies O(log n) nodes per entry.
+ *
+ * <p>A builder can only be used to build a single map.
+ */
+public final class SortedMapBuilder<K, V> {
+  private final Comparator<K> comparator;
+  private final List<K> keys;
+  private final List<V> values;
+
+  public SortedMapBuilder(Comparator<K> comparator) {
+    this.comparator = comparator;
+    this.keys = new ArrayList<>();
+    this.values = new ArrayList<>();
+  }
+
+  public SortedMapBuilder(Comparator<K> comparator, int expectedSize) {
+    this.comparator = comparator;
+    this.keys = new ArrayList<>(expectedSize);
+    this.values = new ArrayList<>(expectedSize);
+  }
+
+  /**
+   * Appends an entry to the map.
+   *
+   * @throws IllegalArgumentException if the key is not greater than the previously added key.
+   */
+  public SortedMapBuilder<K, V> add(K key, V value) {
+    if (!keys.isEmpty() && comparator.compare(keys.get(keys.size() - 1), key) >= 0) {
+      throw new IllegalArgumentException("Keys must be added in ascending order: " + key);
+    }
+    keys.add(key);
+    values.add(value);
+    return this;
+  }
+
+  /** Returns the number of entries that have been added so far. */
+  public int size() {
+    return keys.size();
+  }
+
+  public ImmutableSortedMap<K, V> build() {
+    if (keys.size() < ImmutableSortedMap.Builder.ARRAY_TO_RB_TREE_SIZE_THRESHOLD) {
+      return ArraySortedMap.fromSortedLists(keys, values, comparator);
+    } else {
+      return RBTreeSortedMap.fromSortedLists(keys, values, comparator);
+    }
+  }
+}
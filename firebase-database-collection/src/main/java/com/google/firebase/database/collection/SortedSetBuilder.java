@@ -0,0 +1,48 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.collection;
+
+import java.util.Comparator;
+
+/**
+ * Builds an ImmutableSortedSet from elements that are added in ascending order. See {@link
+ * SortedMapBuilder} for details.
+ */
+public final class SortedSetBuilder<T> {
+  private final SortedMapBuilder<T, Void> mapBuilder;
+
+  public SortedSetBuilder(Comparator<T> comparator) {
+    this.mapBuilder = new SortedMapBuilder<>(comparator);
+  }
+
+  /**
+   * Appends an element to the set.
+   *
+   * @throws IllegalArgumentException if the element is not greater than the previously added one.
+   */
+  public SortedSetBuilder<T> add(T element) {
+    mapBuilder.add(element, null);
+    return this;
+  }
+
+  /** Returns the number of elements that have been added so far. */
+  public int size() {
+    return mapBuilder.size();
+  }
+
+  public ImmutableSortedSet<T> build() {
+    return new ImmutableSortedSet<>(mapBuilder.build());
+  }
+}
@@ -0,0 +1,125 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.collection;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.util.Comparator;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the bulk construction APIs of ImmutableSortedMap with repeated calls to insert().
+ *
+ * <p>Each benchmark runs a number of warmup iterations followed by measured iterations and prints
+ * the average time per operation. The benchmarks are skipped unless the tests are run with {@code
+ * -PrunBenchmarks=true}.
+ */
+public class ImmutableSortedMapBenchmark {
+
+  private static final Comparator<Integer> IntComparator =
+      StandardComparator.getComparator(Integer.class);
+
+  private static final int[] SIZES = {1000, 10000, 100000};
+  private static final int WARMUP_ITERATIONS = 3;
+  private static final int MEASURED_ITERATIONS = 10;
+
+  /** Prevents the JIT from eliminating the benchmarked code. */
+  private static int sink;
+
+  @Before
+  public void setUp() {
+    assumeTrue(
+        "Benchmarks are only run if 'runBenchmarks' is set",
+        Boolean.getBoolean("runBenchmarks"));
+  }
+
+  @Test
+  public void buildFromSortedInput() {
+    for (int size : SIZES) {
+      measure(
+          "repeated insert",
+          size,
+          () -> {
+            ImmutableSortedMap<Integer, Integer> map =
+                ImmutableSortedMap.Builder.emptyMap(IntComparator);
+            for (int i = 0; i < size; ++i) {
+              map = map.insert(i, i);
+            }
+            sink += map.size();
+          });
+      measure(
+          "SortedMapBuilder",
+          size,
+          () -> {
+            SortedMapBuilder<Integer, Integer> builder =
+                new SortedMapBuilder<>(IntComparator, size);
+            for (int i = 0; i < size; ++i) {
+              builder.add(i, i);
+            }
+            sink += builder.build().size();
+          });
+    }
+  }
+
+  @Test
+  public void mergeSortedBatch() {
+    for (int size : SIZES) {
+      ImmutableSortedMap<Integer, Integer> existing = buildEvenKeys(size);
+      ImmutableSortedMap<Integer, Integer> batch = buildOddKeys(size);
+      measure(
+          "repeated insert",
+          size,
+          () -> {
+            ImmutableSortedMap<Integer, Integer> map = existing;
+            for (Map.Entry<Integer, Integer> entry : batch) {
+              map = map.insert(entry.getKey(), entry.getValue());
+            }
+            sink += map.size();
+          });
+      measure("insertAll", size, () -> sink += existing.insertAll(batch).size());
+    }
+  }
+
+  private static ImmutableSortedMap<Integer, Integer> buildEvenKeys(int size) {
+    SortedMapBuilder<Integer, Integer> builder = new SortedMapBuilder<>(IntComparator, size);
+    for (int i = 0; i < size; ++i) {
+      builder.add(2 * i, i);
+    }
+    return builder.build();
+  }
+
+  private static ImmutableSortedMap<Integer, Integer> buildOddKeys(int size) {
+    SortedMapBuilder<Integer, Integer> builder = new SortedMapBuilder<>(IntComparator, size);
+    for (int i = 0; i < size; ++i) {
+      builder.add(2 * i + 1, i);
+    }
+    return builder.build();
+  }
+
+  private static void measure(String name, int size, Runnable operation) {
+    for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+      operation.run();
+    }
+
+    long start = System.nanoTime();
+    for (int i = 0; i < MEASURED_ITERATIONS; ++i) {
+      operation.run();
+    }
+    double millisPerOp = (System.nanoTime() - start) / 1e6 / MEASURED_ITERATIONS;
+    System.out.println(String.format("%s (%d entries): %.3f ms/op", name, size, millisPerOp));
+  }
+}
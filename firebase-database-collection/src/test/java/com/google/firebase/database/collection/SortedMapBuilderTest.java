@@ -0,0 +1,170 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.collection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.Test;
+
+public class SortedMapBuilderTest {
+
+  private static Comparator<Integer> IntComparator =
+      StandardComparator.getComparator(Integer.class);
+
+  private static ImmutableSortedMap<Integer, Integer> buildMap(int size) {
+    SortedMapBuilder<Integer, Integer> builder = new SortedMapBuilder<>(IntComparator);
+    for (int i = 0; i < size; ++i) {
+      builder.add(i, i * 10);
+    }
+    return builder.build();
+  }
+
+  private static <K, V> void assertMapEquals(Map<K, V> expected, ImmutableSortedMap<K, V> actual) {
+    assertEquals(expected.size(), actual.size());
+    List<K> actualKeys = new ArrayList<>();
+    for (Map.Entry<K, V> entry : actual) {
+      actualKeys.add(entry.getKey());
+      assertEquals(expected.get(entry.getKey()), entry.getValue());
+      assertEquals(expected.get(entry.getKey()), actual.get(entry.getKey()));
+    }
+    assertEquals(new ArrayList<>(expected.keySet()), actualKeys);
+  }
+
+  @Test
+  public void buildsEmptyMap() {
+    ImmutableSortedMap<Integer, Integer> map = buildMap(0);
+    assertTrue(map.isEmpty());
+  }
+
+  @Test
+  public void buildsArrayMapForSmallInput() {
+    ImmutableSortedMap<Integer, Integer> map =
+        buildMap(ImmutableSortedMap.Builder.ARRAY_TO_RB_TREE_SIZE_THRESHOLD - 1);
+    assertTrue(map instanceof ArraySortedMap);
+    assertEquals(ImmutableSortedMap.Builder.ARRAY_TO_RB_TREE_SIZE_THRESHOLD - 1, map.size());
+  }
+
+  @Test
+  public void buildsTreeMapForLargeInput() {
+    for (int size = ImmutableSortedMap.Builder.ARRAY_TO_RB_TREE_SIZE_THRESHOLD;
+        size < 1000;
+        size += 17) {
+      ImmutableSortedMap<Integer, Integer> map = buildMap(size);
+      assertTrue(map instanceof RBTreeSortedMap);
+
+      TreeMap<Integer, Integer> expected = new TreeMap<>();
+      for (int i = 0; i < size; ++i) {
+        expected.put(i, i * 10);
+      }
+      assertMapEquals(expected, map);
+      assertEquals(size / 2, map.indexOf(size / 2));
+    }
+  }
+
+  @Test
+  public void builtMapSupportsUpdates() {
+    ImmutableSortedMap<Integer, Integer> map = buildMap(100);
+    map = map.insert(1000, 1).remove(0).insert(50, 5);
+
+    assertEquals(100, map.size());
+    assertEquals(1, (int) map.getMinKey());
+    assertEquals(1000, (int) map.getMaxKey());
+    assertEquals(5, (int) map.get(50));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsUnsortedInput() {
+    new SortedMapBuilder<Integer, Integer>(IntComparator).add(2, 2).add(1, 1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsDuplicateKeys() {
+    new SortedMapBuilder<Integer, Integer>(IntComparator).add(1, 1).add(1, 2);
+  }
+
+  @Test
+  public void insertAllMergesMaps() {
+    Random random = new Random(42);
+    for (int iteration = 0; iteration < 200; ++iteration) {
+      TreeMap<Integer, Integer> expected = new TreeMap<>();
+      ImmutableSortedMap<Integer, Integer> map =
+          ImmutableSortedMap.Builder.emptyMap(IntComparator);
+      int existingCount = random.nextInt(200);
+      for (int i = 0; i < existingCount; ++i) {
+        int key = random.nextInt(400);
+        map = map.insert(key, i);
+        expected.put(key, i);
+      }
+
+      TreeMap<Integer, Integer> batch = new TreeMap<>();
+      int batchCount = random.nextInt(200);
+      for (int i = 0; i < batchCount; ++i) {
+        batch.put(random.nextInt(400), -i);
+      }
+      SortedMapBuilder<Integer, Integer> builder = new SortedMapBuilder<>(IntComparator);
+      for (Map.Entry<Integer, Integer> entry : batch.entrySet()) {
+        builder.add(entry.getKey(), entry.getValue());
+      }
+
+      ImmutableSortedMap<Integer, Integer> merged = map.insertAll(builder.build());
+      expected.putAll(batch);
+      assertMapEquals(expected, merged);
+    }
+  }
+
+  @Test
+  public void insertAllWithEmptyMapReturnsSameInstance() {
+    ImmutableSortedMap<Integer, Integer> map = buildMap(10);
+    ImmutableSortedMap<Integer, Integer> empty =
+        ImmutableSortedMap.Builder.emptyMap(IntComparator);
+
+    assertSame(map, map.insertAll(empty));
+    assertSame(map, empty.insertAll(map));
+  }
+
+  @Test
+  public void unionWithContainsAllElements() {
+    SortedSetBuilder<Integer> evens = new SortedSetBuilder<>(IntComparator);
+    SortedSetBuilder<Integer> odds = new SortedSetBuilder<>(IntComparator);
+    for (int i = 0; i < 100; ++i) {
+      if (i % 2 == 0) {
+        evens.add(i);
+      } else {
+        odds.add(i);
+      }
+    }
+
+    ImmutableSortedSet<Integer> union = evens.build().unionWith(odds.build());
+
+    List<Integer> elements = new ArrayList<>();
+    for (Integer element : union) {
+      elements.add(element);
+    }
+    Integer[] expected = new Integer[100];
+    for (int i = 0; i < 100; ++i) {
+      expected[i] = i;
+    }
+    assertEquals(Arrays.asList(expected), elements);
+  }
+}
@@ -27,6 +27,9 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import androidx.test.platform.app.InstrumentationRegistry;
 import com.google.firebase.database.DatabaseException;
@@ -45,7 +48,10 @@ import com.google.firebase.database.snapshot.ChildKey;
 import com.google.firebase.database.snapshot.EmptyNode;
 import com.google.firebase.database.snapshot.Node;
 import com.google.firebase.database.snapshot.PathIndex;
+import com.google.firebase.database.util.JsonMapper;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -550,6 +556,69 @@ public class SqlPersistenceStorageEngineTest {
     assertTrue(Math.abs(estimatedServerCacheSize - totalExpectedSize) < 20 * numNodes);
   }
 
+  @Test
+  public void testUpgradeConvertsJsonRowsToBinaryFormat() throws Exception {
+    engine.close();
+
+    // Set up a database in the JSON format of version 2.
+    Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    String cacheId = "test-upgrade";
+    context.deleteDatabase(cacheId);
+    SQLiteDatabase db = context.openOrCreateDatabase(cacheId, Context.MODE_PRIVATE, null);
+    db.execSQL("CREATE TABLE serverCache (path TEXT PRIMARY KEY, value BLOB);");
+    db.execSQL(
+        "CREATE TABLE writes (id INTEGER, path TEXT, type TEXT, part INTEGER, node BLOB, UNIQUE "
+            + "(id, part));");
+    db.execSQL(
+        "CREATE TABLE trackedQueries (id INTEGER PRIMARY KEY, path TEXT, "
+            + "queryParams TEXT, lastUse INTEGER, complete INTEGER, active INTEGER);");
+    db.execSQL("CREATE TABLE trackedKeys (id INTEGER, key TEXT);");
+
+    CompoundWrite merge = compoundWrite("{'foo': {'bar': 1, 'baz': 'string'}, 'quu': true}");
+    byte[] sampleJson = toJson(SAMPLE_NODE.getValue(true));
+    byte[] leafJson = toJson("a leaf that is split into two parts");
+    insertServerCacheRow(db, "/foo/", sampleJson);
+    insertServerCacheRow(db, "/leaf/.part-0000", Arrays.copyOfRange(leafJson, 0, 10));
+    insertServerCacheRow(db, "/leaf/.part-0001", Arrays.copyOfRange(leafJson, 10, leafJson.length));
+    insertWriteRow(db, 1, "/foo/bar/", "o", null, sampleJson);
+    insertWriteRow(db, 2, "/foo/", "m", null, toJson(merge.getValue(true)));
+    db.setVersion(2);
+    db.close();
+
+    DatabaseConfig ctx = new DatabaseConfig();
+    ctx.setLogger(new DefaultLogger(Logger.Level.DEBUG, null));
+    engine = new SqlPersistenceStorageEngine(context, ctx, cacheId);
+
+    assertEquals(SAMPLE_NODE, engine.serverCache(path("foo")));
+    assertEquals(
+        NodeFromJSON("a leaf that is split into two parts"), engine.serverCache(path("leaf")));
+    assertEquals(
+        asList(writeRecord(1, path("foo/bar"), SAMPLE_NODE), writeRecord(2, path("foo"), merge)),
+        engine.loadUserWrites());
+  }
+
+  private static byte[] toJson(Object value) throws IOException {
+    return JsonMapper.serializeJsonValue(value).getBytes("UTF-8");
+  }
+
+  private static void insertServerCacheRow(SQLiteDatabase db, String path, byte[] value) {
+    ContentValues values = new ContentValues();
+    values.put("path", path);
+    values.put("value", value);
+    db.insert("serverCache", null, values);
+  }
+
+  private static void insertWriteRow(
+      SQLiteDatabase db, long id, String path, String type, Integer part, byte[] node) {
+    ContentValues values = new ContentValues();
+    values.put("id", id);
+    values.put("path", path);
+    values.put("type", type);
+    values.put("part", part);
+    values.put("node", node);
+    db.insert("writes", null, values);
+  }
+
   @Test
   public void testSaveAndLoadTrackedQueries() {
 
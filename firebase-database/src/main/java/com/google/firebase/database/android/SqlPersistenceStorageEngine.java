@@ -27,6 +27,7 @@ import com.google.firebase.database.DatabaseException;
 import com.google.firebase.database.core.CompoundWrite;
 import com.google.firebase.database.core.Path;
 import com.google.firebase.database.core.UserWriteRecord;
+import com.google.firebase.database.core.persistence.BinaryNodeFormat;
 import com.google.firebase.database.core.persistence.PersistenceStorageEngine;
 import com.google.firebase.database.core.persistence.PruneForest;
 import com.google.firebase.database.core.persistence.TrackedQuery;
@@ -38,11 +39,14 @@ import com.google.firebase.database.logging.LogWrapper;
 import com.google.firebase.database.snapshot.ChildKey;
 import com.google.firebase.database.snapshot.ChildrenNode;
 import com.google.firebase.database.snapshot.EmptyNode;
+import com.google.firebase.database.snapshot.JsonNodeParser;
 import com.google.firebase.database.snapshot.NamedNode;
 import com.google.firebase.database.snapshot.Node;
-import com.google.firebase.database.snapshot.NodeUtilities;
 import com.google.firebase.database.util.JsonMapper;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
@@ -93,13 +97,13 @@ import java.util.Set;
  * <p>To ensure prefix queries work on paths, each path must start and end with a '/'.
  *
  * <p>Schema: - writes table + id: unique id across restarts + path: path for this write as string +
- * node: serialized node/merge-map as JSON (utf-8) bytes + part: The part number for
+ * node: serialized node/merge in the format of BinaryNodeFormat + part: The part number for
  * multi-part/split writes starting with 0, NULL if not split + type: 'o' for overwrite and 'm' for
- * merge - serverCache + path: path for this node as string + value: serialized node as JSON (utf-8)
- * bytes - trackedQueries + id: unique id across restarts + path: Path of query. + query: A
- * serialization of the query parameters. + lastUse: When this query was last used (e.g. there was
- * an active listener). + complete: Whether serverCache contains complete data for the query. +
- * active: Whether we have an active listener for the query. - trackedKeys + id: id of the
+ * merge - serverCache + path: path for this node as string + value: serialized node in the format
+ * of BinaryNodeFormat - trackedQueries + id: unique id across restarts + path: Path of query. +
+ * query: A serialization of the query parameters. + lastUse: When this query was last used (e.g.
+ * there was an active listener). + complete: Whether serverCache contains complete data for the
+ * query. + active: Whether we have an active listener for the query. - trackedKeys + id: id of the
  * trackedQuery for which this is a tracked key. + key: The tracked key belonging to the
  * trackedQuery identified by id.
  */
@@ -155,7 +159,7 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
   private static final Charset UTF8_CHARSET = Charset.forName("UTF-8");
 
   private static class PersistentCacheOpenHelper extends SQLiteOpenHelper {
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 3;
 
     public PersistentCacheOpenHelper(Context context, String cacheId) {
       super(context, cacheId, null, DATABASE_VERSION);
@@ -172,6 +176,10 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
       assert newVersion == DATABASE_VERSION : "Why is onUpgrade() called with a different version?";
+      if (oldVersion > 2) {
+        throw new AssertionError("We don't handle upgrading to " + newVersion);
+      }
+
       if (oldVersion <= 1) {
         // Leave old writes table.
 
@@ -185,8 +193,125 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
         // Create tracked queries/keys.
         db.execSQL(CREATE_TRACKED_KEYS);
         db.execSQL(CREATE_TRACKED_QUERIES);
-      } else {
-        throw new AssertionError("We don't handle upgrading to " + newVersion);
+      }
+
+      // Version 3 stores nodes in the binary format instead of JSON.
+      convertServerCacheToBinaryFormat(db);
+      convertWritesToBinaryFormat(db);
+    }
+
+    private void convertServerCacheToBinaryFormat(SQLiteDatabase db) {
+      List<String> pathKeys = new ArrayList<String>();
+      Cursor cursor =
+          db.query(
+              SERVER_CACHE_TABLE,
+              new String[] {PATH_COLUMN_NAME},
+              null,
+              null,
+              null,
+              null,
+              PATH_COLUMN_NAME);
+      try {
+        while (cursor.moveToNext()) {
+          pathKeys.add(cursor.getString(0));
+        }
+      } finally {
+        cursor.close();
+      }
+
+      int i = 0;
+      while (i < pathKeys.size()) {
+        // The parts of a split node are consecutive, since they are ordered by their path key.
+        List<String> rowKeys = new ArrayList<String>();
+        String pathKey = pathKeys.get(i);
+        if (pathKey.endsWith(FIRST_PART_KEY)) {
+          pathKey = pathKey.substring(0, pathKey.length() - FIRST_PART_KEY.length());
+          while (i < pathKeys.size() && pathKeys.get(i).startsWith(pathKey + PART_KEY_PREFIX)) {
+            rowKeys.add(pathKeys.get(i++));
+          }
+        } else {
+          rowKeys.add(pathKey);
+          i++;
+        }
+
+        List<byte[]> payloads = new ArrayList<byte[]>();
+        for (String rowKey : rowKeys) {
+          cursor =
+              db.query(
+                  SERVER_CACHE_TABLE,
+                  new String[] {VALUE_COLUMN_NAME},
+                  PATH_COLUMN_NAME + " = ?",
+                  new String[] {rowKey},
+                  null,
+                  null,
+                  null);
+          try {
+            cursor.moveToFirst();
+            payloads.add(cursor.getBlob(0));
+          } finally {
+            cursor.close();
+          }
+          db.delete(SERVER_CACHE_TABLE, PATH_COLUMN_NAME + " = ?", new String[] {rowKey});
+        }
+        insertServerCacheRows(db, pathKey, serializeNode(deserializeNode(payloads)));
+      }
+    }
+
+    private void convertWritesToBinaryFormat(SQLiteDatabase db) {
+      List<Long> writeIds = new ArrayList<Long>();
+      Cursor cursor =
+          db.query(
+              /* distinct= */ true,
+              WRITES_TABLE,
+              new String[] {WRITE_ID_COLUMN_NAME},
+              null,
+              null,
+              null,
+              null,
+              WRITE_ID_COLUMN_NAME,
+              null);
+      try {
+        while (cursor.moveToNext()) {
+          writeIds.add(cursor.getLong(0));
+        }
+      } finally {
+        cursor.close();
+      }
+
+      for (long writeId : writeIds) {
+        String[] arguments = new String[] {String.valueOf(writeId)};
+        String pathKey = null;
+        String type = null;
+        List<byte[]> payloads = new ArrayList<byte[]>();
+        cursor =
+            db.query(
+                WRITES_TABLE,
+                new String[] {PATH_COLUMN_NAME, WRITE_TYPE_COLUMN_NAME, WRITE_NODE_COLUMN_NAME},
+                WRITE_ID_COLUMN_NAME + " = ?",
+                arguments,
+                null,
+                null,
+                WRITE_PART_COLUMN_NAME);
+        try {
+          while (cursor.moveToNext()) {
+            pathKey = cursor.getString(0);
+            type = cursor.getString(1);
+            payloads.add(cursor.getBlob(2));
+          }
+        } finally {
+          cursor.close();
+        }
+
+        List<byte[]> serialized;
+        if (WRITE_TYPE_OVERWRITE.equals(type)) {
+          serialized = serializeNode(deserializeNode(payloads));
+        } else if (WRITE_TYPE_MERGE.equals(type)) {
+          serialized = serializeMerge(deserializeMerge(payloads));
+        } else {
+          throw new IllegalStateException("Got invalid write type: " + type);
+        }
+        db.delete(WRITES_TABLE, WRITE_ID_COLUMN_NAME + " = ?", arguments);
+        insertWriteRows(db, writeId, pathKey, type, serialized);
       }
     }
 
@@ -218,7 +343,7 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
   public void saveUserOverwrite(Path path, Node node, long writeId) {
     verifyInsideTransaction();
     long start = System.currentTimeMillis();
-    byte[] serializedNode = serializeObject(node.getValue(true));
+    List<byte[]> serializedNode = serializeNode(node);
     saveWrite(path, writeId, WRITE_TYPE_OVERWRITE, serializedNode);
     long duration = System.currentTimeMillis() - start;
     if (logger.logsDebug()) {
@@ -230,7 +355,7 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
   public void saveUserMerge(Path path, CompoundWrite children, long writeId) {
     verifyInsideTransaction();
     long start = System.currentTimeMillis();
-    byte[] serializedNode = serializeObject(children.getValue(true));
+    List<byte[]> serializedNode = serializeMerge(children);
     saveWrite(path, writeId, WRITE_TYPE_MERGE, serializedNode);
     long duration = System.currentTimeMillis() - start;
     if (logger.logsDebug()) {
@@ -277,29 +402,24 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
         long writeId = cursor.getLong(0);
         Path path = new Path(cursor.getString(1));
         String type = cursor.getString(2);
-        byte[] serialized;
+        List<byte[]> serialized = new ArrayList<byte[]>();
         if (cursor.isNull(3)) {
           // single part write
-          serialized = cursor.getBlob(4);
+          serialized.add(cursor.getBlob(4));
         } else {
           // multi part write
-          List<byte[]> parts = new ArrayList<byte[]>();
           do {
-            parts.add(cursor.getBlob(4));
+            serialized.add(cursor.getBlob(4));
           } while (cursor.moveToNext() && cursor.getLong(0) == writeId);
           // move cursor one back so it points to last part of writes
           cursor.moveToPrevious();
-          serialized = joinBytes(parts);
         }
-        String serializedString = new String(serialized, UTF8_CHARSET);
-        Object writeValue = JsonMapper.parseJsonValue(serializedString);
         UserWriteRecord record;
         if (WRITE_TYPE_OVERWRITE.equals(type)) {
-          Node set = NodeUtilities.NodeFromJSON(writeValue);
+          Node set = deserializeNode(serialized);
           record = new UserWriteRecord(writeId, path, set, /*visible=*/ true);
         } else if (WRITE_TYPE_MERGE.equals(type)) {
-          @SuppressWarnings("unchecked")
-          CompoundWrite merge = CompoundWrite.fromValue((Map<String, Object>) writeValue);
+          CompoundWrite merge = deserializeMerge(serialized);
           record = new UserWriteRecord(writeId, path, merge);
         } else {
           throw new IllegalStateException("Got invalid write type: " + type);
@@ -311,36 +431,38 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
         logger.debug(String.format("Loaded %d writes in %dms", writes.size(), duration));
       }
       return writes;
-    } catch (IOException e) {
-      throw new RuntimeException("Failed to load writes", e);
     } finally {
       cursor.close();
     }
   }
 
-  private void saveWrite(Path path, long writeId, String type, byte[] serializedWrite) {
+  private void saveWrite(Path path, long writeId, String type, List<byte[]> serializedWrite) {
     verifyInsideTransaction();
     database.delete(
         WRITES_TABLE, WRITE_ID_COLUMN_NAME + " = ?", new String[] {String.valueOf(writeId)});
-    if (serializedWrite.length >= ROW_SPLIT_SIZE) {
-      List<byte[]> parts = splitBytes(serializedWrite, ROW_SPLIT_SIZE);
+    insertWriteRows(database, writeId, pathToKey(path), type, serializedWrite);
+  }
+
+  private static void insertWriteRows(
+      SQLiteDatabase db, long writeId, String pathKey, String type, List<byte[]> parts) {
+    if (isSplit(parts)) {
       for (int i = 0; i < parts.size(); i++) {
         ContentValues values = new ContentValues();
         values.put(WRITE_ID_COLUMN_NAME, writeId);
-        values.put(PATH_COLUMN_NAME, pathToKey(path));
+        values.put(PATH_COLUMN_NAME, pathKey);
         values.put(WRITE_TYPE_COLUMN_NAME, type);
         values.put(WRITE_PART_COLUMN_NAME, i);
         values.put(WRITE_NODE_COLUMN_NAME, parts.get(i));
-        database.insertWithOnConflict(WRITES_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        db.insertWithOnConflict(WRITES_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
       }
     } else {
       ContentValues values = new ContentValues();
       values.put(WRITE_ID_COLUMN_NAME, writeId);
-      values.put(PATH_COLUMN_NAME, pathToKey(path));
+      values.put(PATH_COLUMN_NAME, pathKey);
       values.put(WRITE_TYPE_COLUMN_NAME, type);
       values.put(WRITE_PART_COLUMN_NAME, (Integer) null);
-      values.put(WRITE_NODE_COLUMN_NAME, serializedWrite);
-      database.insertWithOnConflict(WRITES_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+      values.put(WRITE_NODE_COLUMN_NAME, parts.get(0));
+      db.insertWithOnConflict(WRITES_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
     }
   }
 
@@ -879,33 +1001,39 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
     }
   }
 
-  private String partKey(Path path, int i) {
-    return pathToKey(path) + String.format(PART_KEY_FORMAT, i);
+  private static String partKey(String pathKey, int i) {
+    return pathKey + String.format(PART_KEY_FORMAT, i);
   }
 
   private void saveNode(Path path, Node node) {
-    byte[] serialized = serializeObject(node.getValue(true));
-    if (serialized.length >= ROW_SPLIT_SIZE) {
-      List<byte[]> parts = splitBytes(serialized, ROW_SPLIT_SIZE);
-      if (logger.logsDebug()) {
-        logger.debug("Saving huge leaf node with " + parts.size() + " parts.");
-      }
+    List<byte[]> serialized = serializeNode(node);
+    if (isSplit(serialized) && logger.logsDebug()) {
+      logger.debug("Saving huge leaf node with " + serialized.size() + " parts.");
+    }
+    insertServerCacheRows(database, pathToKey(path), serialized);
+  }
+
+  private static void insertServerCacheRows(SQLiteDatabase db, String pathKey, List<byte[]> parts) {
+    if (isSplit(parts)) {
       for (int i = 0; i < parts.size(); i++) {
         ContentValues values = new ContentValues();
-        values.put(PATH_COLUMN_NAME, partKey(path, i));
+        values.put(PATH_COLUMN_NAME, partKey(pathKey, i));
         values.put(VALUE_COLUMN_NAME, parts.get(i));
-        database.insertWithOnConflict(
-            SERVER_CACHE_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        db.insertWithOnConflict(SERVER_CACHE_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
       }
     } else {
       ContentValues values = new ContentValues();
-      values.put(PATH_COLUMN_NAME, pathToKey(path));
-      values.put(VALUE_COLUMN_NAME, serialized);
-      database.insertWithOnConflict(
-          SERVER_CACHE_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+      values.put(PATH_COLUMN_NAME, pathKey);
+      values.put(VALUE_COLUMN_NAME, parts.get(0));
+      db.insertWithOnConflict(SERVER_CACHE_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
     }
   }
 
+  /** Returns whether a serialized value is saved as multiple rows. */
+  private static boolean isSplit(List<byte[]> parts) {
+    return parts.size() > 1 || parts.get(0).length >= ROW_SPLIT_SIZE;
+  }
+
   /**
    * Loads a node at a path. This method reads all rows that could contribute to the current state
    * of the node and combines them. It has no knowledge of whether the data is "complete" or not.
@@ -948,11 +1076,11 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
         if (logger.logsDebug()) {
           logger.debug("Loading split node with " + splitNodeRunLength + " parts.");
         }
-        savedNode = deserializeNode(joinBytes(payloads.subList(i, i + splitNodeRunLength)));
+        savedNode = deserializeNode(payloads.subList(i, i + splitNodeRunLength));
         // advance to last element of split node
         i = i + splitNodeRunLength - 1;
       } else {
-        savedNode = deserializeNode(payloads.get(i));
+        savedNode = deserializeNode(Collections.singletonList(payloads.get(i)));
         savedPath = new Path(pathStrings.get(i));
       }
       if (savedPath.getBack() != null && savedPath.getBack().isPriorityChildName()) {
@@ -1064,19 +1192,7 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
     return database.delete(table, pathPrefixQuery, new String[] {pathPrefixStart, pathPrefixEnd});
   }
 
-  private static List<byte[]> splitBytes(byte[] bytes, int size) {
-    int parts = ((bytes.length - 1) / size) + 1;
-    List<byte[]> partList = new ArrayList<byte[]>(parts);
-    for (int i = 0; i < parts; i++) {
-      int length = Math.min(size, bytes.length - (i * size));
-      byte[] part = new byte[length];
-      System.arraycopy(bytes, i * size, part, 0, length);
-      partList.add(part);
-    }
-    return partList;
-  }
-
-  private byte[] joinBytes(List<byte[]> payloads) {
+  private static byte[] joinBytes(List<byte[]> payloads) {
     int totalSize = 0;
     for (byte[] payload : payloads) {
       totalSize += payload.length;
@@ -1090,24 +1206,56 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
     return buffer;
   }
 
-  private byte[] serializeObject(Object object) {
+  /** Serializes the node into parts that are saved as separate rows if there is more than one. */
+  private static List<byte[]> serializeNode(Node node) {
     try {
-      return JsonMapper.serializeJsonValue(object).getBytes(UTF8_CHARSET);
+      return BinaryNodeFormat.encodeNode(node, ROW_SPLIT_SIZE);
     } catch (IOException e) {
-      throw new RuntimeException("Could not serialize leaf node", e);
+      throw new RuntimeException("Could not serialize node", e);
     }
   }
 
-  private Node deserializeNode(byte[] value) {
+  private static List<byte[]> serializeMerge(CompoundWrite merge) {
     try {
-      Object o = JsonMapper.parseJsonValue(new String(value, UTF8_CHARSET));
-      return NodeUtilities.NodeFromJSON(o);
+      return BinaryNodeFormat.encodeMerge(merge, ROW_SPLIT_SIZE);
     } catch (IOException e) {
-      String stringValue = new String(value, UTF8_CHARSET);
-      throw new RuntimeException("Could not deserialize node: " + stringValue, e);
+      throw new RuntimeException("Could not serialize merge", e);
     }
   }
 
+  /**
+   * Deserializes a node from its parts. Nodes that were saved as JSON before the database was
+   * upgraded to version 3 are still parsed as JSON.
+   */
+  private static Node deserializeNode(List<byte[]> parts) {
+    try {
+      if (BinaryNodeFormat.isBinaryFormat(parts.get(0))) {
+        return BinaryNodeFormat.decodeNode(parts);
+      } else {
+        return JsonNodeParser.parse(utf8Reader(joinBytes(parts)));
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Could not deserialize node", e);
+    }
+  }
+
+  private static CompoundWrite deserializeMerge(List<byte[]> parts) {
+    try {
+      if (BinaryNodeFormat.isBinaryFormat(parts.get(0))) {
+        return BinaryNodeFormat.decodeMerge(parts);
+      } else {
+        return CompoundWrite.fromValue(JsonMapper.parseJson(utf8Reader(joinBytes(parts))));
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Could not deserialize merge", e);
+    }
+  }
+
+  /** Returns a reader that decodes the given bytes while they are parsed. */
+  private static Reader utf8Reader(byte[] value) {
+    return new InputStreamReader(new ByteArrayInputStream(value), UTF8_CHARSET);
+  }
+
   private String commaSeparatedList(Collection<Long> items) {
     StringBuilder list = new StringBuilder();
     boolean first = true;
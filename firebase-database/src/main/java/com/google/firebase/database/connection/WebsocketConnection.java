@@ -247,19 +247,20 @@ class WebsocketConnection {
     frameReader.addString(message);
     totalFrames -= 1;
     if (totalFrames == 0) {
-      // Decode JSON
+      // Decode JSON directly from the frames, without concatenating them first.
+      StringListReader frames = frameReader;
       try {
-        frameReader.freeze();
-        Map<String, Object> decoded = JsonMapper.parseJson(frameReader.toString());
+        frames.freeze();
+        Map<String, Object> decoded = JsonMapper.parseJson(frames);
         frameReader = null;
         if (logger.logsDebug()) logger.debug("handleIncomingFrame complete frame: " + decoded);
         delegate.onMessage(decoded);
       } catch (IOException e) {
-        logger.error("Error parsing frame: " + frameReader.toString(), e);
+        logger.error("Error parsing frame: " + frames.toString(), e);
         close();
         shutdown();
       } catch (ClassCastException e) {
-        logger.error("Error parsing frame (cast error): " + frameReader.toString(), e);
+        logger.error("Error parsing frame (cast error): " + frames.toString(), e);
         close();
         shutdown();
       }
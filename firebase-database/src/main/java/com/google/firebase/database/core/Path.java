@@ -25,12 +25,10 @@ import java.util.NoSuchElementException;
 public class Path implements Iterable<ChildKey>, Comparable<Path> {
 
   public static Path getRelative(Path from, Path to) {
-    ChildKey outerFront = from.getFront();
-    ChildKey innerFront = to.getFront();
-    if (outerFront == null) {
+    if (from.isEmpty()) {
       return to;
-    } else if (outerFront.equals(innerFront)) {
-      return getRelative(from.popFront(), to.popFront());
+    } else if (from.contains(to)) {
+      return new Path(to.pieces, to.start + from.size(), to.end);
     } else {
       throw new DatabaseException("INTERNAL ERROR: " + to + " is not contained in " + from);
     }
@@ -40,6 +38,9 @@ public class Path implements Iterable<ChildKey>, Comparable<Path> {
   private final int start;
   private final int end;
 
+  /** The cached hash code, or 0 if it has not been computed yet. */
+  private int hashCode;
+
   private static final Path EMPTY_PATH = new Path("");
 
   public static Path getEmptyPath() {
@@ -213,6 +214,9 @@ public class Path implements Iterable<ChildKey>, Comparable<Path> {
   public boolean contains(Path other) {
     if (this.size() > other.size()) {
       return false;
+    } else if (this.pieces == other.pieces && this.start == other.start) {
+      // A path and its parents and children share their pieces
+      return true;
     }
 
     int i = this.start;
@@ -239,6 +243,12 @@ public class Path implements Iterable<ChildKey>, Comparable<Path> {
     Path otherPath = (Path) other;
     if (size() != otherPath.size()) {
       return false;
+    } else if (this.pieces == otherPath.pieces && this.start == otherPath.start) {
+      return true;
+    } else if (this.hashCode != 0
+        && otherPath.hashCode != 0
+        && this.hashCode != otherPath.hashCode) {
+      return false;
     }
     for (int i = start, j = otherPath.start; i < end && j < otherPath.end; i++, j++) {
       if (!this.pieces[i].equals(otherPath.pieces[j])) {
@@ -250,9 +260,13 @@ public class Path implements Iterable<ChildKey>, Comparable<Path> {
 
   @Override
   public int hashCode() {
-    int hashCode = 0;
-    for (int i = start; i < end; i++) {
-      hashCode = hashCode * 37 + pieces[i].hashCode();
+    // Paths are used as keys of many maps and are immutable, so the hash code is only computed once
+    int hashCode = this.hashCode;
+    if (hashCode == 0) {
+      for (int i = start; i < end; i++) {
+        hashCode = hashCode * 37 + pieces[i].hashCode();
+      }
+      this.hashCode = hashCode;
     }
     return hashCode;
   }
@@ -0,0 +1,387 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.core.persistence;
+
+import com.google.firebase.database.collection.SortedMapBuilder;
+import com.google.firebase.database.core.CompoundWrite;
+import com.google.firebase.database.core.Path;
+import com.google.firebase.database.snapshot.BooleanNode;
+import com.google.firebase.database.snapshot.ChildKey;
+import com.google.firebase.database.snapshot.ChildrenNode;
+import com.google.firebase.database.snapshot.DeferredValueNode;
+import com.google.firebase.database.snapshot.DoubleNode;
+import com.google.firebase.database.snapshot.EmptyNode;
+import com.google.firebase.database.snapshot.LongNode;
+import com.google.firebase.database.snapshot.NamedNode;
+import com.google.firebase.database.snapshot.Node;
+import com.google.firebase.database.snapshot.PriorityUtilities;
+import com.google.firebase.database.snapshot.StringNode;
+import com.google.firebase.database.util.JsonMapper;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary encoding of nodes and merges for the persistence cache.
+ *
+ * <p>An encoded value starts with a format version byte, which distinguishes it from the JSON text
+ * that older versions of the SDK stored. A node is encoded as a tag byte, followed by its priority
+ * if the tag has the priority flag set, followed by its value:
+ *
+ * <ul>
+ *   <li>Strings are stored as their UTF-8 length as a varint, followed by their UTF-8 bytes.
+ *   <li>Longs are stored as zigzag varints and doubles as their 8 byte IEEE 754 representation.
+ *   <li>Children nodes store the number of children as a varint, followed by the key and the node
+ *       of each child in key order. Each key is written out only once per encoded value. Later
+ *       occurrences of the same key refer to it by index.
+ *   <li>Deferred values (unresolved server values) are stored as JSON strings.
+ * </ul>
+ *
+ * <p>The output is split into parts of a fixed size as it is written, and is read back from the
+ * parts without joining them.
+ */
+public class BinaryNodeFormat {
+
+  /** The first byte of every encoded value. JSON text never starts with this byte. */
+  private static final byte FORMAT_VERSION = 1;
+
+  private static final int TAG_EMPTY = 0;
+  private static final int TAG_CHILDREN = 1;
+  private static final int TAG_STRING = 2;
+  private static final int TAG_LONG = 3;
+  private static final int TAG_DOUBLE = 4;
+  private static final int TAG_TRUE = 5;
+  private static final int TAG_FALSE = 6;
+  private static final int TAG_DEFERRED_VALUE = 7;
+
+  /** Set on the tag of nodes that have a priority, which is encoded right after the tag. */
+  private static final int FLAG_PRIORITY = 0x10;
+
+  private static final int TAG_MASK = 0x0f;
+
+  private static final Charset UTF8_CHARSET = Charset.forName("UTF-8");
+
+  private BinaryNodeFormat() {}
+
+  /** Returns whether the given value (or its first part) was encoded in this format. */
+  public static boolean isBinaryFormat(byte[] firstPart) {
+    return firstPart.length > 0 && firstPart[0] == FORMAT_VERSION;
+  }
+
+  /** Encodes the node into parts of at most {@code partSize} bytes. */
+  public static List<byte[]> encodeNode(Node node, int partSize) throws IOException {
+    Encoder encoder = new Encoder(partSize);
+    encoder.writeByte(FORMAT_VERSION);
+    encoder.writeNode(node);
+    return encoder.finish();
+  }
+
+  /** Encodes the merge into parts of at most {@code partSize} bytes. */
+  public static List<byte[]> encodeMerge(CompoundWrite merge, int partSize) throws IOException {
+    Encoder encoder = new Encoder(partSize);
+    encoder.writeByte(FORMAT_VERSION);
+    List<Map.Entry<Path, Node>> writes = new ArrayList<>();
+    for (Map.Entry<Path, Node> entry : merge) {
+      writes.add(entry);
+    }
+    encoder.writeVarint(writes.size());
+    for (Map.Entry<Path, Node> write : writes) {
+      encoder.writeString(write.getKey().wireFormat());
+      encoder.writeNode(write.getValue());
+    }
+    return encoder.finish();
+  }
+
+  /** Decodes a node from the parts that were returned by {@link #encodeNode}. */
+  public static Node decodeNode(List<byte[]> parts) throws IOException {
+    Decoder decoder = new Decoder(parts);
+    decoder.readFormatVersion();
+    Node node = decoder.readNode();
+    decoder.checkFinished();
+    return node;
+  }
+
+  /** Decodes a merge from the parts that were returned by {@link #encodeMerge}. */
+  public static CompoundWrite decodeMerge(List<byte[]> parts) throws IOException {
+    Decoder decoder = new Decoder(parts);
+    decoder.readFormatVersion();
+    int count = decoder.readCount();
+    Map<Path, Node> writes = new HashMap<>();
+    for (int i = 0; i < count; ++i) {
+      Path path = new Path(decoder.readString());
+      writes.put(path, decoder.readNode());
+    }
+    decoder.checkFinished();
+    return CompoundWrite.fromPathMerge(writes);
+  }
+
+  private static class Encoder {
+    private final int partSize;
+    private final List<byte[]> parts = new ArrayList<>();
+    private final Map<ChildKey, Integer> keyIndices = new HashMap<>();
+    private byte[] current;
+    private int position = 0;
+
+    Encoder(int partSize) {
+      this.partSize = partSize;
+      this.current = new byte[Math.min(partSize, 1024)];
+    }
+
+    void writeNode(Node node) throws IOException {
+      Node priority = node.getPriority();
+      int flags = priority.isEmpty() ? 0 : FLAG_PRIORITY;
+      if (node.isEmpty()) {
+        writeByte(TAG_EMPTY);
+      } else if (node instanceof ChildrenNode) {
+        writeByte(TAG_CHILDREN | flags);
+        writePriority(priority);
+        writeVarint(node.getChildCount());
+        for (NamedNode child : node) {
+          writeKey(child.getName());
+          writeNode(child.getNode());
+        }
+      } else if (node instanceof StringNode) {
+        writeByte(TAG_STRING | flags);
+        writePriority(priority);
+        writeString((String) node.getValue());
+      } else if (node instanceof LongNode) {
+        writeByte(TAG_LONG | flags);
+        writePriority(priority);
+        long value = (Long) node.getValue();
+        writeVarint((value << 1) ^ (value >> 63));
+      } else if (node instanceof DoubleNode) {
+        writeByte(TAG_DOUBLE | flags);
+        writePriority(priority);
+        long bits = Double.doubleToLongBits((Double) node.getValue());
+        for (int shift = 56; shift >= 0; shift -= 8) {
+          writeByte((int) (bits >>> shift));
+        }
+      } else if (node instanceof BooleanNode) {
+        writeByte(((Boolean) node.getValue() ? TAG_TRUE : TAG_FALSE) | flags);
+        writePriority(priority);
+      } else if (node instanceof DeferredValueNode) {
+        writeByte(TAG_DEFERRED_VALUE | flags);
+        writePriority(priority);
+        writeString(JsonMapper.serializeJsonValue(node.getValue()));
+      } else {
+        throw new IOException("Unknown node type: " + node.getClass().getName());
+      }
+    }
+
+    private void writePriority(Node priority) throws IOException {
+      if (!priority.isEmpty()) {
+        writeNode(priority);
+      }
+    }
+
+    /** Writes a new key as 0 followed by the key, and a repeated key as its index plus one. */
+    private void writeKey(ChildKey key) {
+      Integer index = keyIndices.get(key);
+      if (index != null) {
+        writeVarint(index + 1);
+      } else {
+        keyIndices.put(key, keyIndices.size());
+        writeVarint(0);
+        writeString(key.asString());
+      }
+    }
+
+    void writeString(String value) {
+      byte[] bytes = value.getBytes(UTF8_CHARSET);
+      writeVarint(bytes.length);
+      for (int offset = 0; offset < bytes.length; ) {
+        ensureCapacity();
+        int length = Math.min(bytes.length - offset, current.length - position);
+        System.arraycopy(bytes, offset, current, position, length);
+        position += length;
+        offset += length;
+      }
+    }
+
+    void writeVarint(long value) {
+      while ((value & ~0x7fL) != 0) {
+        writeByte((int) ((value & 0x7f) | 0x80));
+        value >>>= 7;
+      }
+      writeByte((int) value);
+    }
+
+    void writeByte(int value) {
+      ensureCapacity();
+      current[position++] = (byte) value;
+    }
+
+    /** Makes sure that at least one more byte fits into the current part. */
+    private void ensureCapacity() {
+      if (position < current.length) {
+        return;
+      }
+      if (current.length < partSize) {
+        current = Arrays.copyOf(current, Math.min(partSize, current.length * 2));
+      } else {
+        parts.add(current);
+        current = new byte[Math.min(partSize, 1024)];
+        position = 0;
+      }
+    }
+
+    List<byte[]> finish() {
+      if (position > 0) {
+        parts.add(position == current.length ? current : Arrays.copyOf(current, position));
+      }
+      return parts;
+    }
+  }
+
+  private static class Decoder {
+    private final List<byte[]> parts;
+    private final List<ChildKey> keys = new ArrayList<>();
+    private int partIndex = 0;
+    private byte[] current;
+    private int position = 0;
+
+    Decoder(List<byte[]> parts) {
+      this.parts = parts;
+      this.current = parts.isEmpty() ? new byte[0] : parts.get(0);
+    }
+
+    void readFormatVersion() throws IOException {
+      int version = readByte();
+      if (version != FORMAT_VERSION) {
+        throw new IOException("Unknown format version: " + version);
+      }
+    }
+
+    Node readNode() throws IOException {
+      int tag = readByte();
+      if (tag == TAG_EMPTY) {
+        return EmptyNode.Empty();
+      }
+      Node priority =
+          (tag & FLAG_PRIORITY) != 0 ? readNode() : PriorityUtilities.NullPriority();
+      switch (tag & TAG_MASK) {
+        case TAG_CHILDREN:
+          int count = readCount();
+          SortedMapBuilder<ChildKey, Node> children =
+              new SortedMapBuilder<>(ChildrenNode.NAME_ONLY_COMPARATOR, count);
+          for (int i = 0; i < count; ++i) {
+            ChildKey key = readKey();
+            children.add(key, readNode());
+          }
+          return new ChildrenNode(children.build(), priority);
+        case TAG_STRING:
+          return new StringNode(readString(), priority);
+        case TAG_LONG:
+          long value = readVarint();
+          return new LongNode((value >>> 1) ^ -(value & 1), priority);
+        case TAG_DOUBLE:
+          long bits = 0;
+          for (int i = 0; i < 8; ++i) {
+            bits = (bits << 8) | readByte();
+          }
+          return new DoubleNode(Double.longBitsToDouble(bits), priority);
+        case TAG_TRUE:
+          return new BooleanNode(true, priority);
+        case TAG_FALSE:
+          return new BooleanNode(false, priority);
+        case TAG_DEFERRED_VALUE:
+          @SuppressWarnings("unchecked")
+          Map<Object, Object> serverValue =
+              (Map<Object, Object>) JsonMapper.parseJsonValue(readString());
+          return new DeferredValueNode(serverValue, priority);
+        default:
+          throw new IOException("Unknown node tag: " + tag);
+      }
+    }
+
+    private ChildKey readKey() throws IOException {
+      int index = readCount();
+      if (index == 0) {
+        ChildKey key = ChildKey.fromString(readString());
+        keys.add(key);
+        return key;
+      } else if (index <= keys.size()) {
+        return keys.get(index - 1);
+      } else {
+        throw new IOException("Invalid key index: " + index);
+      }
+    }
+
+    String readString() throws IOException {
+      int length = readCount();
+      if (position + length <= current.length) {
+        // Fast path for strings within a single part.
+        String value = new String(current, position, length, UTF8_CHARSET);
+        position += length;
+        return value;
+      }
+      byte[] bytes = new byte[length];
+      for (int offset = 0; offset < length; ) {
+        ensureAvailable();
+        int chunk = Math.min(length - offset, current.length - position);
+        System.arraycopy(current, position, bytes, offset, chunk);
+        position += chunk;
+        offset += chunk;
+      }
+      return new String(bytes, UTF8_CHARSET);
+    }
+
+    /** Reads a varint that must fit into a non-negative int. */
+    int readCount() throws IOException {
+      long value = readVarint();
+      if (value < 0 || value > Integer.MAX_VALUE) {
+        throw new IOException("Invalid length: " + value);
+      }
+      return (int) value;
+    }
+
+    long readVarint() throws IOException {
+      long result = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = readByte();
+        result |= (long) (b & 0x7f) << shift;
+        if ((b & 0x80) == 0) {
+          return result;
+        }
+      }
+      throw new IOException("Malformed varint");
+    }
+
+    int readByte() throws IOException {
+      ensureAvailable();
+      return current[position++] & 0xff;
+    }
+
+    private void ensureAvailable() throws IOException {
+      while (position == current.length) {
+        if (partIndex + 1 >= parts.size()) {
+          throw new IOException("Unexpected end of encoded node");
+        }
+        current = parts.get(++partIndex);
+        position = 0;
+      }
+    }
+
+    void checkFinished() throws IOException {
+      if (position != current.length || partIndex + 1 < parts.size()) {
+        throw new IOException("Unexpected data after encoded node");
+      }
+    }
+  }
+}
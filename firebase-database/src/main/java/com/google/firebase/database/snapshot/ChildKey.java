@@ -19,6 +19,22 @@ import com.google.firebase.database.core.utilities.Utilities;
 public class ChildKey implements Comparable<ChildKey> {
   private final String key;
 
+  /**
+   * A bounded cache of the keys that were created most recently. Data usually repeats the same
+   * property names across many children, so most calls to {@link #fromString} return an existing
+   * key instead of parsing the string and allocating a new key.
+   *
+   * <p>Each key is stored in the slot of its hash code and replaces the key that was stored there
+   * before, which bounds the size of the cache without any locking. Keys are immutable, so a thread
+   * that reads a slot while it is written sees either key in full.
+   */
+  private static final int KEY_CACHE_SIZE = 4096;
+
+  /** Longer keys are rarely repeated and are not cached, so that they can be garbage collected. */
+  private static final int MAX_CACHED_KEY_LENGTH = 64;
+
+  private static final ChildKey[] keyCache = new ChildKey[KEY_CACHE_SIZE];
+
   private static final ChildKey MIN_KEY = new ChildKey("[MIN_KEY]");
   private static final ChildKey MAX_KEY = new ChildKey("[MAX_KEY]");
 
@@ -96,17 +112,32 @@ public class ChildKey implements Comparable<ChildKey> {
 
   @Override
   public boolean equals(Object obj) {
-    if (!(obj instanceof ChildKey)) {
-      return false;
-    }
     if (this == obj) {
       return true;
     }
+    if (!(obj instanceof ChildKey)) {
+      return false;
+    }
     ChildKey other = (ChildKey) obj;
     return this.key.equals(other.key);
   }
 
   public static ChildKey fromString(String key) {
+    if (key.length() > MAX_CACHED_KEY_LENGTH) {
+      return createKey(key);
+    }
+    int hash = key.hashCode();
+    int slot = (hash ^ (hash >>> 16)) & (KEY_CACHE_SIZE - 1);
+    ChildKey cached = keyCache[slot];
+    if (cached != null && cached.key.equals(key)) {
+      return cached;
+    }
+    ChildKey childKey = createKey(key);
+    keyCache[slot] = childKey;
+    return childKey;
+  }
+
+  private static ChildKey createKey(String key) {
     Integer intValue = Utilities.tryParseInt(key);
     if (intValue != null) {
       return new IntegerChildKey(key, intValue);
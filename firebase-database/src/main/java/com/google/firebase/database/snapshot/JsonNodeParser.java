@@ -0,0 +1,157 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.snapshot;
+
+import com.google.firebase.database.collection.ImmutableSortedMap;
+import com.google.firebase.database.core.ServerValues;
+import com.google.firebase.database.util.JsonTokenizer;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds {@link Node}s directly from JSON input.
+ *
+ * <p>The result is the same as parsing the input with {@link
+ * com.google.firebase.database.util.JsonMapper} and converting it with {@link
+ * NodeUtilities#NodeFromJSON}, but no intermediate maps and lists are created.
+ */
+public class JsonNodeParser {
+
+  private JsonNodeParser() {}
+
+  public static Node parse(String json) throws IOException {
+    return parse(new StringReader(json));
+  }
+
+  public static Node parse(Reader json) throws IOException {
+    JsonTokenizer tokenizer = new JsonTokenizer(json);
+    Node node = parse(tokenizer);
+    tokenizer.endDocument();
+    return node;
+  }
+
+  /** Reads the next value of the tokenizer as a node. */
+  public static Node parse(JsonTokenizer tokenizer) throws IOException {
+    return readNode(tokenizer, /* readMetadata= */ true);
+  }
+
+  /**
+   * Reads the next value. If {@code readMetadata} is false, the {@code .priority} and {@code
+   * .value} keys of an object are ignored, as NodeFromJSON does for the contents of {@code
+   * .value}.
+   */
+  private static Node readNode(JsonTokenizer tokenizer, boolean readMetadata) throws IOException {
+    Node priority = PriorityUtilities.NullPriority();
+    switch (tokenizer.peek()) {
+      case OBJECT:
+        return readObject(tokenizer, readMetadata);
+      case ARRAY:
+        return readArray(tokenizer);
+      case STRING:
+        return new StringNode(tokenizer.nextString(), priority);
+      case NUMBER:
+        Number number = tokenizer.nextNumber();
+        if (number instanceof Double) {
+          return new DoubleNode((Double) number, priority);
+        }
+        return new LongNode(number.longValue(), priority);
+      case BOOLEAN:
+        return new BooleanNode(tokenizer.nextBoolean(), priority);
+      default:
+        tokenizer.nextNull();
+        return EmptyNode.Empty();
+    }
+  }
+
+  private static Node readObject(JsonTokenizer tokenizer, boolean readMetadata)
+      throws IOException {
+    Map<ChildKey, Node> childData = new HashMap<>();
+    Node priority = PriorityUtilities.NullPriority();
+    Node value = null;
+    Object serverValue = null;
+    boolean isServerValue = false;
+
+    tokenizer.beginObject();
+    while (tokenizer.hasNext()) {
+      String key = tokenizer.nextName();
+      if (readMetadata && key.equals(".priority")) {
+        priority = PriorityUtilities.parsePriority(tokenizer.nextValue());
+      } else if (readMetadata && key.equals(".value")) {
+        value = readNode(tokenizer, /* readMetadata= */ false);
+      } else if (key.equals(ServerValues.NAME_SUBKEY_SERVERVALUE)) {
+        isServerValue = true;
+        serverValue = tokenizer.nextValue();
+      } else if (key.startsWith(".")) {
+        tokenizer.skipValue();
+      } else {
+        Node childNode = readNode(tokenizer, /* readMetadata= */ true);
+        if (childNode.isEmpty()) {
+          childData.remove(ChildKey.fromString(key));
+        } else {
+          childData.put(ChildKey.fromString(key), childNode);
+        }
+      }
+    }
+    tokenizer.endObject();
+
+    if (value != null) {
+      return value.isEmpty() ? value : value.updatePriority(priority);
+    } else if (isServerValue) {
+      return new DeferredValueNode(serverValueMap(serverValue, childData), priority);
+    } else if (childData.isEmpty()) {
+      return EmptyNode.Empty();
+    } else {
+      return new ChildrenNode(
+          ImmutableSortedMap.Builder.fromMap(childData, ChildrenNode.NAME_ONLY_COMPARATOR),
+          priority);
+    }
+  }
+
+  private static Node readArray(JsonTokenizer tokenizer) throws IOException {
+    Map<ChildKey, Node> childData = new HashMap<>();
+    tokenizer.beginArray();
+    for (int i = 0; tokenizer.hasNext(); ++i) {
+      Node childNode = readNode(tokenizer, /* readMetadata= */ true);
+      if (!childNode.isEmpty()) {
+        childData.put(ChildKey.fromString("" + i), childNode);
+      }
+    }
+    tokenizer.endArray();
+
+    if (childData.isEmpty()) {
+      return EmptyNode.Empty();
+    }
+    return new ChildrenNode(
+        ImmutableSortedMap.Builder.fromMap(childData, ChildrenNode.NAME_ONLY_COMPARATOR),
+        PriorityUtilities.NullPriority());
+  }
+
+  /**
+   * Returns the map of a server value. Server values written by the SDK only contain the {@code
+   * .sv} key, so any other children are converted back from their nodes.
+   */
+  private static Map<Object, Object> serverValueMap(
+      Object serverValue, Map<ChildKey, Node> childData) {
+    Map<Object, Object> map = new HashMap<>();
+    map.put(ServerValues.NAME_SUBKEY_SERVERVALUE, serverValue);
+    for (Map.Entry<ChildKey, Node> entry : childData.entrySet()) {
+      map.put(entry.getKey().asString(), entry.getValue().getValue(true));
+    }
+    return map;
+  }
+}
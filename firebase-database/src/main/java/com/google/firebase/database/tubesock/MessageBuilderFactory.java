@@ -16,181 +16,162 @@ package com.google.firebase.database.tubesock;
 
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
-import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
-import java.nio.charset.CharsetEncoder;
 import java.nio.charset.CoderResult;
 import java.nio.charset.CodingErrorAction;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * Instances provide a builder for a full WebSocketMessage that could be split across multiple
  * websocket frames. Depending on the opcode, the returned builders will buffer and assemble either
  * bytes or a String.
+ *
+ * <p>Builders copy the appended bytes, so the caller can reuse its buffer for the next frame. A
+ * builder can be reused for the next message once {@link Builder#toMessage()} was called.
  */
 class MessageBuilderFactory {
 
+  /** Buffers that grew beyond this size for a single large message are released again. */
+  private static final int MAX_RETAINED_BUFFER_SIZE = 256 * 1024;
+
   interface Builder {
-    boolean appendBytes(byte[] bytes);
+    boolean appendBytes(byte[] bytes, int offset, int length);
 
+    /** Returns the assembled message, or null if it failed to decode, and resets the builder. */
     WebSocketMessage toMessage();
   }
 
   static class BinaryBuilder implements Builder {
-    private List<byte[]> pendingBytes;
+    private byte[] pendingBytes;
     private int pendingByteCount = 0;
 
-    BinaryBuilder() {
-      pendingBytes = new ArrayList<byte[]>();
-    }
-
     @Override
-    public boolean appendBytes(byte[] bytes) {
-      pendingBytes.add(bytes);
-      pendingByteCount += bytes.length;
+    public boolean appendBytes(byte[] bytes, int offset, int length) {
+      if (pendingBytes == null) {
+        // Most messages consist of a single frame, whose bytes can be returned without another copy
+        pendingBytes = new byte[length];
+      } else if (pendingByteCount + length > pendingBytes.length) {
+        int capacity = Math.max(pendingByteCount + length, 2 * pendingBytes.length);
+        pendingBytes = Arrays.copyOf(pendingBytes, capacity);
+      }
+      System.arraycopy(bytes, offset, pendingBytes, pendingByteCount, length);
+      pendingByteCount += length;
       return true;
     }
 
     @Override
     public WebSocketMessage toMessage() {
-      byte[] payload = new byte[pendingByteCount];
-      int offset = 0;
-      for (int i = 0; i < pendingBytes.size(); ++i) {
-        byte[] segment = pendingBytes.get(i);
-        System.arraycopy(segment, 0, payload, offset, segment.length);
-        offset += segment.length;
+      byte[] payload = pendingBytes == null ? new byte[0] : pendingBytes;
+      if (payload.length != pendingByteCount) {
+        payload = Arrays.copyOf(payload, pendingByteCount);
       }
+      pendingBytes = null;
+      pendingByteCount = 0;
       return new WebSocketMessage(payload);
     }
   }
 
+  /**
+   * Decodes the UTF-8 bytes of each frame as they arrive into a character buffer that is reused
+   * across messages. A character that is split across frames is completed with the bytes of the
+   * next frame.
+   */
   static class TextBuilder implements Builder {
-    private static ThreadLocal<CharsetDecoder> localDecoder =
-        new ThreadLocal<CharsetDecoder>() {
-          @Override
-          protected CharsetDecoder initialValue() {
-            Charset utf8 = Charset.forName("UTF8");
-            CharsetDecoder decoder = utf8.newDecoder();
-            decoder.onMalformedInput(CodingErrorAction.REPORT);
-            decoder.onUnmappableCharacter(CodingErrorAction.REPORT);
-            return decoder;
-          }
-        };
-    private static ThreadLocal<CharsetEncoder> localEncoder =
-        new ThreadLocal<CharsetEncoder>() {
-          @Override
-          protected CharsetEncoder initialValue() {
-            Charset utf8 = Charset.forName("UTF8");
-            CharsetEncoder encoder = utf8.newEncoder();
-            encoder.onMalformedInput(CodingErrorAction.REPORT);
-            encoder.onUnmappableCharacter(CodingErrorAction.REPORT);
-            return encoder;
-          }
-        };
-
-    private StringBuilder builder;
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    private final CharsetDecoder decoder;
+    private CharBuffer output = CharBuffer.allocate(INITIAL_BUFFER_SIZE);
     private ByteBuffer carryOver;
+    private boolean failed = false;
 
     TextBuilder() {
-      builder = new StringBuilder();
+      decoder = Charset.forName("UTF8").newDecoder();
+      decoder.onMalformedInput(CodingErrorAction.REPORT);
+      decoder.onUnmappableCharacter(CodingErrorAction.REPORT);
     }
 
     @Override
-    public boolean appendBytes(byte[] bytes) {
-      // Uncomment if you want slower but more precise decoding. Useful if you're splitting
-      // multi-byte utf8 chars
-      // across websocket frames
-      // String nextFrame = decodeStringStreaming(bytes);
-      String nextFrame = decodeString(bytes);
-      if (nextFrame != null) {
-        builder.append(nextFrame);
-        return true;
+    public boolean appendBytes(byte[] bytes, int offset, int length) {
+      ByteBuffer input = getBuffer(bytes, offset, length);
+      if (!decode(input, /* endOfInput= */ false)) {
+        failed = true;
+        return false;
+      }
+      if (input.hasRemaining()) {
+        // The last character continues in the next frame
+        carryOver = ByteBuffer.allocate(input.remaining());
+        carryOver.put(input);
+        carryOver.flip();
       }
-      return false;
+      return true;
     }
 
     @Override
     public WebSocketMessage toMessage() {
-      if (carryOver != null) {
-        return null;
+      boolean valid =
+          !failed
+              && carryOver == null
+              && decode(ByteBuffer.allocate(0), /* endOfInput= */ true)
+              && flush();
+      String text = valid ? new String(output.array(), 0, output.position()) : null;
+
+      decoder.reset();
+      carryOver = null;
+      failed = false;
+      if (output.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+        output = CharBuffer.allocate(INITIAL_BUFFER_SIZE);
+      } else {
+        output.clear();
       }
-      return new WebSocketMessage(builder.toString());
+      return text == null ? null : new WebSocketMessage(text);
     }
 
-    /**
-     * Quicker but less precise utf8 decoding. Does not handle characters split across websocket
-     * frames.
-     *
-     * @param bytes Bytes representing a utf8 string
-     * @return The decoded string
-     */
-    private String decodeString(byte[] bytes) {
-      try {
-        ByteBuffer input = ByteBuffer.wrap(bytes);
-        CharBuffer buf = localDecoder.get().decode(input);
-        String text = buf.toString();
-        return text;
-      } catch (CharacterCodingException e) {
-        return null;
+    private boolean decode(ByteBuffer input, boolean endOfInput) {
+      while (true) {
+        CoderResult result = decoder.decode(input, output, endOfInput);
+        if (result.isError()) {
+          return false;
+        } else if (result.isOverflow()) {
+          grow(input.remaining());
+        } else {
+          return true;
+        }
       }
     }
 
-    /**
-     * Left in for reference. Less efficient, but potentially catches more errors. Behavior is
-     * largely dependent on how strict the JVM's utf8 decoder is. It is possible on some JVMs to
-     * decode a string that then throws an error when attempting to return it to bytes.
-     *
-     * @param bytes Bytes representing a utf8 string
-     * @return The decoded string
-     */
-    private String decodeStringStreaming(byte[] bytes) {
-      try {
-        ByteBuffer input = getBuffer(bytes);
-        int bufSize = (int) (input.remaining() * localDecoder.get().averageCharsPerByte());
-        CharBuffer output = CharBuffer.allocate(bufSize);
-        for (; ; ) {
-          CoderResult result = localDecoder.get().decode(input, output, false);
-          if (result.isError()) {
-            return null;
-          }
-          if (result.isUnderflow()) {
-            break;
-          }
-          if (result.isOverflow()) {
-            // We need more room in our output buffer
-            bufSize = 2 * bufSize + 1;
-            CharBuffer o = CharBuffer.allocate(bufSize);
-            output.flip();
-            o.put(output);
-            output = o;
-          }
+    private boolean flush() {
+      while (true) {
+        CoderResult result = decoder.flush(output);
+        if (result.isError()) {
+          return false;
+        } else if (result.isOverflow()) {
+          grow(1);
+        } else {
+          return true;
         }
-        if (input.remaining() > 0) {
-          carryOver = input;
-        }
-        // Re-encode to work around bugs in UTF-8 decoder
-        CharBuffer test = CharBuffer.wrap(output);
-        localEncoder.get().encode(test);
-        output.flip();
-        String text = output.toString();
-        return text;
-      } catch (CharacterCodingException e) {
-        return null;
       }
     }
 
-    private ByteBuffer getBuffer(byte[] bytes) {
+    /** Makes room for at least as many characters as there are bytes left to decode. */
+    private void grow(int remainingBytes) {
+      int capacity = Math.max(2 * output.capacity(), output.position() + remainingBytes);
+      CharBuffer grown = CharBuffer.allocate(capacity);
+      output.flip();
+      grown.put(output);
+      output = grown;
+    }
+
+    private ByteBuffer getBuffer(byte[] bytes, int offset, int length) {
       if (carryOver != null) {
-        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + carryOver.remaining());
+        ByteBuffer buffer = ByteBuffer.allocate(length + carryOver.remaining());
         buffer.put(carryOver);
         carryOver = null;
-        buffer.put(bytes);
+        buffer.put(bytes, offset, length);
         buffer.flip();
         return buffer;
       } else {
-        return ByteBuffer.wrap(bytes);
+        return ByteBuffer.wrap(bytes, offset, length);
       }
     }
   }
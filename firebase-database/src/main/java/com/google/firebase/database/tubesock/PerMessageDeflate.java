@@ -0,0 +1,257 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.tubesock;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import androidx.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Implements the permessage-deflate extension (RFC 7692), which compresses the payload of text and
+ * binary messages.
+ *
+ * <p>Unless the server disables it, the compression context is kept across messages ("context
+ * takeover"), so that repeated keys and values in consecutive messages are only sent once. Incoming
+ * messages are always decompressed. Outgoing messages are only compressed on API levels that
+ * support flushing a {@link Deflater} and if the server accepts the default window size.
+ */
+class PerMessageDeflate {
+  static final String EXTENSION_NAME = "permessage-deflate";
+
+  /** The extension offer that is sent in the client handshake. */
+  static final String EXTENSION_OFFER = EXTENSION_NAME + "; client_max_window_bits";
+
+  private static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+  private static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+  private static final String SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
+  private static final String CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+
+  /** The window size of {@link Deflater}, which cannot be configured. */
+  private static final int DEFAULT_WINDOW_BITS = 15;
+
+  /** The empty stored block that ends every flushed message and that is omitted on the wire. */
+  private static final byte[] TAIL = {0x00, 0x00, (byte) 0xff, (byte) 0xff};
+
+  private static final int MIN_BUFFER_SIZE = 1024;
+  private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+  private final boolean serverNoContextTakeover;
+  private final boolean clientNoContextTakeover;
+  private final boolean compressOutgoing;
+
+  private final Inflater inflater = new Inflater(/* nowrap= */ true);
+  @Nullable private final Deflater deflater;
+
+  /**
+   * Scratch buffers that are reused for the output of the inflater and deflater. Messages are
+   * decompressed on the reader thread and compressed on the threads that send messages.
+   */
+  private byte[] inflateBuffer = new byte[MIN_BUFFER_SIZE];
+
+  private byte[] deflateBuffer = new byte[MIN_BUFFER_SIZE];
+  private int lastInflatedLength = 0;
+
+  PerMessageDeflate(
+      boolean serverNoContextTakeover, boolean clientNoContextTakeover, int clientMaxWindowBits) {
+    this.serverNoContextTakeover = serverNoContextTakeover;
+    this.clientNoContextTakeover = clientNoContextTakeover;
+    this.compressOutgoing =
+        Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+            && clientMaxWindowBits == DEFAULT_WINDOW_BITS;
+    this.deflater =
+        compressOutgoing ? new Deflater(Deflater.DEFAULT_COMPRESSION, /* nowrap= */ true) : null;
+  }
+
+  /**
+   * Parses the value of the Sec-WebSocket-Extensions header in the server handshake.
+   *
+   * @return The negotiated extension, or null if the server did not accept the offer
+   * @throws WebSocketException if the server responded with an extension or parameter that the
+   *     client did not offer
+   */
+  @Nullable
+  static PerMessageDeflate fromServerResponse(@Nullable String extensions) {
+    if (extensions == null || extensions.trim().isEmpty()) {
+      return null;
+    }
+    if (extensions.indexOf(',') != -1) {
+      throw new WebSocketException("connection failed: more than one extension negotiated");
+    }
+
+    String[] parts = extensions.split(";");
+    if (!EXTENSION_NAME.equals(parts[0].trim())) {
+      throw new WebSocketException("connection failed: unsupported extension: " + parts[0]);
+    }
+
+    boolean serverNoContextTakeover = false;
+    boolean clientNoContextTakeover = false;
+    int clientMaxWindowBits = DEFAULT_WINDOW_BITS;
+    Set<String> seenParameters = new HashSet<String>();
+    for (int i = 1; i < parts.length; ++i) {
+      String[] keyValue = parts[i].split("=", 2);
+      String key = keyValue[0].trim();
+      String value = keyValue.length > 1 ? keyValue[1].trim() : null;
+      if (!seenParameters.add(key)) {
+        throw new WebSocketException("connection failed: duplicate extension parameter: " + key);
+      }
+      if (SERVER_NO_CONTEXT_TAKEOVER.equals(key) && value == null) {
+        serverNoContextTakeover = true;
+      } else if (CLIENT_NO_CONTEXT_TAKEOVER.equals(key) && value == null) {
+        clientNoContextTakeover = true;
+      } else if (SERVER_MAX_WINDOW_BITS.equals(key)) {
+        // The inflater always uses the largest window, which can read any smaller window.
+        parseWindowBits(key, value);
+      } else if (CLIENT_MAX_WINDOW_BITS.equals(key)) {
+        clientMaxWindowBits = parseWindowBits(key, value);
+      } else {
+        throw new WebSocketException("connection failed: unsupported extension parameter: " + key);
+      }
+    }
+    return new PerMessageDeflate(
+        serverNoContextTakeover, clientNoContextTakeover, clientMaxWindowBits);
+  }
+
+  private static int parseWindowBits(String key, @Nullable String value) {
+    if (value != null) {
+      if (value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")) {
+        value = value.substring(1, value.length() - 1);
+      }
+      try {
+        int windowBits = Integer.parseInt(value);
+        if (windowBits >= 8 && windowBits <= DEFAULT_WINDOW_BITS) {
+          return windowBits;
+        }
+      } catch (NumberFormatException e) {
+        // Handled below
+      }
+    }
+    throw new WebSocketException("connection failed: invalid value for " + key + ": " + value);
+  }
+
+  /** Returns whether outgoing messages are compressed. */
+  boolean compressesOutgoing() {
+    return compressOutgoing;
+  }
+
+  /**
+   * Decompresses one frame of a compressed message. The frames of a message must be passed in
+   * order.
+   *
+   * @param fin Whether this is the last frame of the message
+   * @return A buffer with the decompressed bytes, which is only valid until the next call
+   */
+  ByteBuffer decompress(byte[] data, int offset, int length, boolean fin) {
+    inflateBuffer = shrink(inflateBuffer, lastInflatedLength);
+    try {
+      int inflatedLength = inflate(data, offset, length, 0);
+      if (fin) {
+        inflatedLength = inflate(TAIL, 0, TAIL.length, inflatedLength);
+        if (serverNoContextTakeover || inflater.finished()) {
+          inflater.reset();
+        }
+      }
+      lastInflatedLength = inflatedLength;
+      return ByteBuffer.wrap(inflateBuffer, 0, inflatedLength);
+    } catch (DataFormatException e) {
+      throw new WebSocketException("Failed to decompress message", e);
+    }
+  }
+
+  private int inflate(byte[] input, int offset, int inputLength, int length)
+      throws DataFormatException {
+    if (inflater.finished()) {
+      // The message ended with a final block. Any remaining bytes must be padding.
+      return length;
+    }
+    inflater.setInput(input, offset, inputLength);
+    while (true) {
+      if (length == inflateBuffer.length) {
+        inflateBuffer = Arrays.copyOf(inflateBuffer, inflateBuffer.length * 2);
+      }
+      int count = inflater.inflate(inflateBuffer, length, inflateBuffer.length - length);
+      length += count;
+      if (count == 0) {
+        if (inflater.needsDictionary()) {
+          throw new DataFormatException("Compressed message requires a preset dictionary");
+        } else if (inflater.needsInput() || inflater.finished()) {
+          return length;
+        }
+      }
+    }
+  }
+
+  /** Compresses a complete message. Must only be called if {@link #compressesOutgoing()}. */
+  @TargetApi(Build.VERSION_CODES.KITKAT)
+  byte[] compress(byte[] data) {
+    deflater.setInput(data);
+    int length = 0;
+    while (true) {
+      int count =
+          deflater.deflate(
+              deflateBuffer, length, deflateBuffer.length - length, Deflater.SYNC_FLUSH);
+      length += count;
+      if (length < deflateBuffer.length) {
+        break;
+      }
+      deflateBuffer = Arrays.copyOf(deflateBuffer, deflateBuffer.length * 2);
+    }
+    if (clientNoContextTakeover) {
+      deflater.reset();
+    }
+    if (length == 0) {
+      // The deflater doesn't write anything for an empty message that follows a flush. Send the
+      // header of an empty block, which the receiver completes with the tail (RFC 7692, section
+      // 7.2.3.6).
+      return new byte[] {0x00};
+    }
+    // A flushed message always ends with an empty stored block, which the receiver adds back.
+    if (length >= TAIL.length
+        && deflateBuffer[length - 4] == TAIL[0]
+        && deflateBuffer[length - 3] == TAIL[1]
+        && deflateBuffer[length - 2] == TAIL[2]
+        && deflateBuffer[length - 1] == TAIL[3]) {
+      length -= TAIL.length;
+    }
+    byte[] result = Arrays.copyOf(deflateBuffer, length);
+    deflateBuffer = shrink(deflateBuffer, length);
+    return result;
+  }
+
+  /** Drops a buffer that grew for a single large message and is no longer needed. */
+  private static byte[] shrink(byte[] buffer, int usedLength) {
+    return buffer.length > MAX_RETAINED_BUFFER_SIZE && usedLength < buffer.length / 4
+        ? new byte[MIN_BUFFER_SIZE]
+        : buffer;
+  }
+
+  /** Releases the native resources of the decompression context. Called by the reader thread. */
+  void endDecompression() {
+    inflater.end();
+  }
+
+  /** Releases the native resources of the compression context. Called by the writer thread. */
+  void endCompression() {
+    if (deflater != null) {
+      deflater.end();
+    }
+  }
+}
@@ -18,6 +18,7 @@ import android.net.SSLSessionCache;
 import androidx.annotation.Nullable;
 import com.google.firebase.database.connection.ConnectionContext;
 import com.google.firebase.database.logging.LogWrapper;
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
@@ -47,6 +48,7 @@ import javax.net.ssl.SSLSocket;
 public class WebSocket {
   private static final int SSL_HANDSHAKE_TIMEOUT_MS = 60 * 1000;
   private static final String THREAD_BASE_NAME = "TubeSock";
+  private static final int INPUT_BUFFER_SIZE = 16 * 1024;
   private static final AtomicInteger clientCount = new AtomicInteger(0);
 
   private enum State {
@@ -373,7 +375,10 @@ public class WebSocket {
         }
       }
 
-      DataInputStream input = new DataInputStream(socket.getInputStream());
+      // Frame headers are read a few bytes at a time, which should not each reach the socket
+      DataInputStream input =
+          new DataInputStream(
+              new BufferedInputStream(socket.getInputStream(), INPUT_BUFFER_SIZE));
       OutputStream output = socket.getOutputStream();
 
       output.write(handshake.getHandshake());
@@ -419,9 +424,12 @@ public class WebSocket {
             keyValue[0].toLowerCase(Locale.US), keyValue[1].toLowerCase(Locale.US));
       }
       handshake.verifyServerHandshakeHeaders(lowercaseHeaders);
+      PerMessageDeflate perMessageDeflate = handshake.negotiateExtensions(lowercaseHeaders);
 
       writer.setOutput(output);
+      writer.setPerMessageDeflate(perMessageDeflate);
       receiver.setInput(input);
+      receiver.setPerMessageDeflate(perMessageDeflate);
       state = WebSocket.State.CONNECTED;
       writer.getInnerThread().start();
       eventHandler.onOpen();
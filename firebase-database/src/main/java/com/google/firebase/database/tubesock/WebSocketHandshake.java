@@ -57,6 +57,8 @@ class WebSocketHandshake {
       header.put("Sec-WebSocket-Protocol", this.protocol);
     }
 
+    header.put("Sec-WebSocket-Extensions", PerMessageDeflate.EXTENSION_OFFER);
+
     if (this.extraHeaders != null) {
       for (String fieldName : this.extraHeaders.keySet()) {
         // Only checks for Field names with the exact same text,
@@ -116,6 +118,14 @@ class WebSocketHandshake {
     }
   }
 
+  /**
+   * Returns the permessage-deflate extension if the server accepted it, or null if messages are
+   * sent uncompressed.
+   */
+  public PerMessageDeflate negotiateExtensions(HashMap<String, String> lowercaseHeaders) {
+    return PerMessageDeflate.fromServerResponse(lowercaseHeaders.get("sec-websocket-extensions"));
+  }
+
   private int rand(int min, int max) {
     int rand = (int) (Math.random() * max + min);
     return rand;
@@ -17,18 +17,35 @@ package com.google.firebase.database.tubesock;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * This class encapsulates the receiving and decoding of websocket frames. It is run from the thread
  * started by the websocket class. It does some best-effort error detection for violations of the
  * websocket spec.
+ *
+ * <p>Frame payloads are read into a buffer that is reused for every frame, and the message builders
+ * are reused for every message. Only the assembled messages are allocated.
  */
 class WebSocketReceiver {
+  private static final int INITIAL_PAYLOAD_BUFFER_SIZE = 16 * 1024;
+
+  /** Payload buffers that grew beyond this size for a single large frame are released again. */
+  private static final int MAX_RETAINED_PAYLOAD_BUFFER_SIZE = 256 * 1024;
+
   private DataInputStream input = null;
   private WebSocket websocket = null;
   private WebSocketEventHandler eventHandler = null;
   private byte[] inputHeader = new byte[112];
+  private byte[] payload = new byte[INITIAL_PAYLOAD_BUFFER_SIZE];
+  private final MessageBuilderFactory.Builder textBuilder =
+      MessageBuilderFactory.builder(WebSocket.OPCODE_TEXT);
+  private final MessageBuilderFactory.Builder binaryBuilder =
+      MessageBuilderFactory.builder(WebSocket.OPCODE_BINARY);
   private MessageBuilderFactory.Builder pendingBuilder;
+  private PerMessageDeflate perMessageDeflate = null;
+  private boolean pendingCompressed = false;
 
   private volatile boolean stop = false;
 
@@ -40,6 +57,10 @@ class WebSocketReceiver {
     this.input = input;
   }
 
+  void setPerMessageDeflate(PerMessageDeflate perMessageDeflate) {
+    this.perMessageDeflate = perMessageDeflate;
+  }
+
   void run() {
     this.eventHandler = websocket.getEventHandler();
     while (!stop) {
@@ -47,7 +68,9 @@ class WebSocketReceiver {
         int offset = 0;
         offset += read(inputHeader, offset, 1);
         boolean fin = (inputHeader[0] & 0x80) != 0;
-        boolean rsv = (inputHeader[0] & 0x70) != 0;
+        // RSV1 marks the first frame of a compressed message if permessage-deflate was negotiated
+        boolean compressed = (inputHeader[0] & 0x40) != 0;
+        boolean rsv = (inputHeader[0] & 0x30) != 0 || (compressed && perMessageDeflate == null);
         if (rsv) {
           throw new WebSocketException("Invalid frame received");
         } else {
@@ -69,8 +92,11 @@ class WebSocketReceiver {
             payload_length = parseLong(inputHeader, offset - 8);
           }
 
-          byte[] payload = new byte[(int) payload_length];
-          read(payload, 0, (int) payload_length);
+          int payloadLength = (int) payload_length;
+          if (payloadLength > payload.length) {
+            payload = new byte[payloadLength];
+          }
+          read(payload, 0, payloadLength);
           if (opcode == WebSocket.OPCODE_CLOSE) {
             websocket.onCloseOpReceived();
           } else if (opcode == WebSocket.OPCODE_PONG) {
@@ -80,11 +106,14 @@ class WebSocketReceiver {
               || opcode == WebSocket.OPCODE_PING
               || opcode == WebSocket.OPCODE_NONE) {
             // It's some form of application data. Decode the payload
-            appendBytes(fin, opcode, payload);
+            appendBytes(fin, opcode, compressed, payload, payloadLength);
           } else {
             // Unsupported opcode
             throw new WebSocketException("Unsupported opcode: " + opcode);
           }
+          if (payload.length > MAX_RETAINED_PAYLOAD_BUFFER_SIZE) {
+            payload = new byte[INITIAL_PAYLOAD_BUFFER_SIZE];
+          }
         }
       } catch (SocketTimeoutException sto) {
         continue;
@@ -94,13 +123,20 @@ class WebSocketReceiver {
         handleError(e);
       }
     }
+    if (perMessageDeflate != null) {
+      perMessageDeflate.endDecompression();
+    }
   }
 
-  private void appendBytes(boolean fin, byte opcode, byte[] data) {
+  private void appendBytes(
+      boolean fin, byte opcode, boolean compressed, byte[] data, int length) {
     // A ping can show up in the middle of another fragmented message
     if (opcode == WebSocket.OPCODE_PING) {
-      if (fin) {
-        handlePing(data);
+      if (compressed) {
+        throw new WebSocketException("Control frames must not be compressed");
+      } else if (fin) {
+        // The payload buffer is reused, but the pong is only written by the writer thread
+        handlePing(Arrays.copyOf(data, length));
       } else {
         throw new WebSocketException("PING must not fragment across frames");
       }
@@ -113,9 +149,21 @@ class WebSocketReceiver {
       } else {
         if (pendingBuilder == null) {
           // We aren't continuing another message
-          pendingBuilder = MessageBuilderFactory.builder(opcode);
+          pendingBuilder = opcode == WebSocket.OPCODE_BINARY ? binaryBuilder : textBuilder;
+          pendingCompressed = compressed;
+        } else if (compressed) {
+          throw new WebSocketException("Only the first frame of a message may be compressed");
+        }
+        boolean appended;
+        if (pendingCompressed) {
+          ByteBuffer decompressed = perMessageDeflate.decompress(data, 0, length, fin);
+          appended =
+              pendingBuilder.appendBytes(
+                  decompressed.array(), decompressed.position(), decompressed.remaining());
+        } else {
+          appended = pendingBuilder.appendBytes(data, 0, length);
         }
-        if (!pendingBuilder.appendBytes(data)) {
+        if (!appended) {
           throw new WebSocketException("Failed to decode frame");
         } else if (fin) {
           WebSocketMessage message = pendingBuilder.toMessage();
@@ -17,8 +17,6 @@ package com.google.firebase.database.tubesock;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
-import java.nio.channels.Channels;
-import java.nio.channels.WritableByteChannel;
 import java.util.Random;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -26,15 +24,42 @@ import java.util.concurrent.LinkedBlockingQueue;
 /**
  * This class handles blocking write operations to the websocket. Given an opcode and some bytes, it
  * frames a message and sends it over the wire. The actual sending happens in a separate thread.
+ *
+ * <p>The writer thread frames and masks the queued messages into a single output buffer that is
+ * reused for the lifetime of the connection. All messages that are queued when the writer thread
+ * wakes up are written together, so that a burst of small messages results in a single write to
+ * the socket.
  */
 class WebSocketWriter {
+  /** The size of the output buffer. Larger payloads are written in several chunks. */
+  static final int OUTPUT_BUFFER_SIZE = 16 * 1024;
+
+  /** The maximum length of a frame header: two bytes, an eight byte length and the mask. */
+  private static final int MAX_HEADER_LENGTH = 14;
+
+  /** A message that was queued by {@link #send} and that has not been written yet. */
+  private static class Frame {
+    final byte opcode;
+    final boolean compressed;
+    final boolean masking;
+    final byte[] data;
+
+    Frame(byte opcode, boolean compressed, boolean masking, byte[] data) {
+      this.opcode = opcode;
+      this.compressed = compressed;
+      this.masking = masking;
+      this.data = data;
+    }
+  }
 
-  private BlockingQueue<ByteBuffer> pendingBuffers;
+  private BlockingQueue<Frame> pendingFrames;
   private final Random random = new Random();
   private volatile boolean stop = false;
   private boolean closeSent = false;
   private WebSocket websocket;
-  private WritableByteChannel channel;
+  private OutputStream output;
+  private final ByteBuffer outputBuffer = ByteBuffer.allocate(OUTPUT_BUFFER_SIZE);
+  private PerMessageDeflate perMessageDeflate = null;
   private final Thread innerThread;
 
   WebSocketWriter(WebSocket websocket, String threadBaseName, int clientId) {
@@ -50,92 +75,129 @@ class WebSocketWriter {
 
     WebSocket.getIntializer().setName(getInnerThread(), threadBaseName + "Writer-" + clientId);
     this.websocket = websocket;
-    pendingBuffers = new LinkedBlockingQueue<ByteBuffer>();
+    pendingFrames = new LinkedBlockingQueue<Frame>();
   }
 
   void setOutput(OutputStream output) {
-    channel = Channels.newChannel(output);
+    this.output = output;
   }
 
-  private ByteBuffer frameInBuffer(byte opcode, boolean masking, byte[] data) throws IOException {
-    int headerLength = 2; // This is just an assumed headerLength, as we use a ByteArrayOutputStream
-    if (masking) {
-      headerLength += 4;
-    }
-    int length = data.length;
-    if (length < 126) {
-      // nothing add to header length
-    } else if (length <= 65535) {
-      headerLength += 2;
-    } else {
-      headerLength += 8;
+  void setPerMessageDeflate(PerMessageDeflate perMessageDeflate) {
+    this.perMessageDeflate = perMessageDeflate;
+  }
+
+  /**
+   * Writes the frame header and the (masked) payload to the output buffer. The output buffer is
+   * flushed to the socket whenever it fills up.
+   */
+  private void writeFrame(Frame frame) throws IOException {
+    if (outputBuffer.remaining() < MAX_HEADER_LENGTH) {
+      flush();
     }
-    ByteBuffer frame = ByteBuffer.allocate(data.length + headerLength);
 
     byte fin = (byte) 0x80;
-    byte startByte = (byte) (fin | opcode);
-    frame.put(startByte);
-
-    int length_field;
+    byte rsv1 = frame.compressed ? (byte) 0x40 : 0;
+    outputBuffer.put((byte) (fin | rsv1 | frame.opcode));
 
+    byte maskBit = frame.masking ? (byte) 0x80 : 0;
+    int length = frame.data.length;
     if (length < 126) {
-      if (masking) {
-        length = 0x80 | length;
-      }
-      frame.put((byte) length);
+      outputBuffer.put((byte) (maskBit | length));
     } else if (length <= 65535) {
-      length_field = 126;
-      if (masking) {
-        length_field = 0x80 | length_field;
-      }
-      frame.put((byte) length_field);
+      outputBuffer.put((byte) (maskBit | 126));
       // We check the size above, so we know we aren't losing anything with the cast
-      frame.putShort((short) length);
+      outputBuffer.putShort((short) length);
     } else {
-      length_field = 127;
-      if (masking) {
-        length_field = 0x80 | length_field;
-      }
-      frame.put((byte) length_field);
+      outputBuffer.put((byte) (maskBit | 127));
       // Since an integer occupies just 4 bytes we fill the 4 leading length bytes with zero
-      frame.putInt(0);
-      frame.putInt(length);
+      outputBuffer.putInt(0);
+      outputBuffer.putInt(length);
     }
 
-    byte[] mask;
-    if (masking) {
-      mask = generateMask();
-      frame.put(mask);
+    int mask = 0;
+    if (frame.masking) {
+      mask = random.nextInt();
+      outputBuffer.putInt(mask);
+    }
 
-      for (int i = 0; i < data.length; i++) {
-        frame.put((byte) (data[i] ^ mask[i % 4]));
+    int offset = 0;
+    while (offset < length) {
+      if (!outputBuffer.hasRemaining()) {
+        flush();
+      }
+      int chunkLength = Math.min(outputBuffer.remaining(), length - offset);
+      if (chunkLength < length - offset) {
+        // Split the payload at a multiple of four bytes, so that every chunk starts at the first
+        // byte of the mask.
+        chunkLength -= chunkLength % 4;
+        if (chunkLength == 0) {
+          flush();
+          continue;
+        }
       }
+      int chunkStart = outputBuffer.position();
+      outputBuffer.put(frame.data, offset, chunkLength);
+      if (frame.masking) {
+        mask(outputBuffer, chunkStart, mask);
+      }
+      offset += chunkLength;
     }
+  }
 
-    frame.flip();
-    return frame;
+  /**
+   * Masks the payload that starts at the given position and ends at the current position of the
+   * buffer in place. The payload is masked four bytes at a time, as the mask is applied to the
+   * payload in the same big endian byte order in which it was written to the buffer.
+   */
+  private static void mask(ByteBuffer buffer, int payloadStart, int mask) {
+    int end = buffer.position();
+    int i = payloadStart;
+    for (; i + 4 <= end; i += 4) {
+      buffer.putInt(i, buffer.getInt(i) ^ mask);
+    }
+    for (int shift = 24; i < end; ++i, shift -= 8) {
+      buffer.put(i, (byte) (buffer.get(i) ^ (mask >>> shift)));
+    }
   }
 
-  private byte[] generateMask() {
-    final byte[] mask = new byte[4];
-    random.nextBytes(mask);
-    return mask;
+  private void flush() throws IOException {
+    output.write(outputBuffer.array(), 0, outputBuffer.position());
+    outputBuffer.clear();
   }
 
+  /**
+   * Queues a message. The data must not be modified afterwards, as it is only copied to the socket
+   * once the writer thread gets to it.
+   */
   synchronized void send(byte opcode, boolean masking, byte[] data) throws IOException {
-    ByteBuffer frame = frameInBuffer(opcode, masking, data);
     if (stop && (closeSent || opcode != WebSocket.OPCODE_CLOSE)) {
       throw new WebSocketException("Shouldn't be sending");
     }
+    boolean compressed =
+        perMessageDeflate != null
+            && perMessageDeflate.compressesOutgoing()
+            && (opcode == WebSocket.OPCODE_TEXT || opcode == WebSocket.OPCODE_BINARY);
+    if (compressed) {
+      data = perMessageDeflate.compress(data);
+    }
     if (opcode == WebSocket.OPCODE_CLOSE) {
       closeSent = true;
     }
-    pendingBuffers.add(frame);
+    pendingFrames.add(new Frame(opcode, compressed, masking, data));
   }
 
   private void writeMessage() throws InterruptedException, IOException {
-    ByteBuffer msg = pendingBuffers.take();
-    channel.write(msg);
+    writeFrame(pendingFrames.take());
+    writePendingMessages();
+  }
+
+  /** Writes all queued messages without blocking for new ones. */
+  private void writePendingMessages() throws IOException {
+    Frame frame;
+    while ((frame = pendingFrames.poll()) != null) {
+      writeFrame(frame);
+    }
+    flush();
   }
 
   void stopIt() {
@@ -152,14 +214,21 @@ class WebSocketWriter {
         writeMessage();
       }
       // We're stopping, clear any remaining messages
-      for (int i = 0; i < pendingBuffers.size(); ++i) {
-        writeMessage();
-      }
+      writePendingMessages();
     } catch (IOException e) {
       handleError(new WebSocketException("IO Exception", e));
     } catch (InterruptedException e) {
       // this thread is regularly terminated via an interrupt
       // e.printStackTrace();
+    } finally {
+      releaseCompression();
+    }
+  }
+
+  private synchronized void releaseCompression() {
+    if (perMessageDeflate != null) {
+      perMessageDeflate.endCompression();
+      perMessageDeflate = null;
     }
   }
 
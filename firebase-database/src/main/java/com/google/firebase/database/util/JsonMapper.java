@@ -15,17 +15,13 @@
 package com.google.firebase.database.util;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
-import org.json.JSONTokener;
 
 /**
  * Helper class to convert from/to JSON strings. TODO: This class should ideally not live in
@@ -87,48 +83,28 @@ public class JsonMapper {
   }
 
   public static Map<String, Object> parseJson(String json) throws IOException {
-    try {
-      return unwrapJsonObject(new JSONObject(json));
-    } catch (JSONException e) {
-      throw new IOException(e);
-    }
-  }
-
-  public static Object parseJsonValue(String json) throws IOException {
-    try {
-      return unwrapJson(new JSONTokener(json).nextValue());
-    } catch (JSONException e) {
-      throw new IOException(e);
-    }
-  }
-
-  private static Map<String, Object> unwrapJsonObject(JSONObject jsonObject) throws JSONException {
-    Map<String, Object> map = new HashMap<String, Object>(jsonObject.length());
-    Iterator<String> keys = jsonObject.keys();
-    while (keys.hasNext()) {
-      String key = keys.next();
-      map.put(key, unwrapJson(jsonObject.get(key)));
-    }
-    return map;
+    return parseJson(new StringReader(json));
   }
 
-  private static List<Object> unwrapJsonArray(JSONArray jsonArray) throws JSONException {
-    List<Object> list = new ArrayList<Object>(jsonArray.length());
-    for (int i = 0; i < jsonArray.length(); i++) {
-      list.add(unwrapJson(jsonArray.get(i)));
+  /**
+   * Parses a JSON object from the given reader. The input is tokenized as it is read, so it does
+   * not need to be concatenated into a single string first.
+   */
+  @SuppressWarnings("unchecked")
+  public static Map<String, Object> parseJson(Reader json) throws IOException {
+    JsonTokenizer tokenizer = new JsonTokenizer(json);
+    if (tokenizer.peek() != JsonTokenizer.ValueType.OBJECT) {
+      throw new IOException("Expected a JSON object");
     }
-    return list;
+    Map<String, Object> result = (Map<String, Object>) tokenizer.nextValue();
+    tokenizer.endDocument();
+    return result;
   }
 
-  private static Object unwrapJson(Object o) throws JSONException {
-    if (o instanceof JSONObject) {
-      return unwrapJsonObject((JSONObject) o);
-    } else if (o instanceof JSONArray) {
-      return unwrapJsonArray((JSONArray) o);
-    } else if (o.equals(JSONObject.NULL)) {
-      return null;
-    } else {
-      return o;
-    }
+  public static Object parseJsonValue(String json) throws IOException {
+    JsonTokenizer tokenizer = new JsonTokenizer(json);
+    Object result = tokenizer.nextValue();
+    tokenizer.endDocument();
+    return result;
   }
 }
@@ -0,0 +1,475 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A pull parser that reads JSON values from a character stream without materializing the input as
+ * a single string or as an intermediate tree.
+ *
+ * <p>Callers walk the input with {@link #beginObject}, {@link #hasNext}, {@link #nextName} and the
+ * {@code next*} methods for the individual values. {@link #nextValue} reads a complete value into
+ * {@link HashMap}s, {@link ArrayList}s and boxed primitives. Integer numbers are returned as
+ * {@link Integer} if they fit, and as {@link Long} otherwise. All other numbers are returned as
+ * {@link Double}, matching the behavior of {@code org.json}.
+ */
+public final class JsonTokenizer {
+
+  /** The type of the next value in the input. */
+  public enum ValueType {
+    OBJECT,
+    ARRAY,
+    STRING,
+    NUMBER,
+    BOOLEAN,
+    NULL
+  }
+
+  private static final int BUFFER_SIZE = 1024;
+
+  /** The container at this depth has no elements yet. */
+  private static final int EMPTY = 0;
+
+  /** The container at this depth has elements, so the next element must follow a comma. */
+  private static final int NONEMPTY = 1;
+
+  /** A comma has been read, so the container must contain another element. */
+  private static final int AFTER_COMMA = 2;
+
+  private final Reader reader;
+  private final char[] buffer = new char[BUFFER_SIZE];
+  private int pos = 0;
+  private int limit = 0;
+
+  /** The number of characters that were read before the current buffer contents. */
+  private long bufferOffset = 0;
+
+  private int[] stack = new int[32];
+  private int depth = 0;
+
+  private final StringBuilder scratch = new StringBuilder();
+
+  public JsonTokenizer(Reader reader) {
+    this.reader = reader;
+  }
+
+  public JsonTokenizer(String json) {
+    this(new StringReader(json));
+  }
+
+  /** Returns the type of the next value without consuming it. */
+  public ValueType peek() throws IOException {
+    char c = peekNonWhitespace();
+    switch (c) {
+      case '{':
+        return ValueType.OBJECT;
+      case '[':
+        return ValueType.ARRAY;
+      case '"':
+        return ValueType.STRING;
+      case 't':
+      case 'f':
+        return ValueType.BOOLEAN;
+      case 'n':
+        return ValueType.NULL;
+      default:
+        if (c == '-' || (c >= '0' && c <= '9')) {
+          return ValueType.NUMBER;
+        }
+        throw syntaxError("Unexpected character '" + c + "'");
+    }
+  }
+
+  public void beginObject() throws IOException {
+    expect('{');
+    push();
+  }
+
+  public void endObject() throws IOException {
+    end('}');
+  }
+
+  public void beginArray() throws IOException {
+    expect('[');
+    push();
+  }
+
+  public void endArray() throws IOException {
+    end(']');
+  }
+
+  /**
+   * Returns whether the current object or array has another element, consuming the comma that
+   * separates it from the previous element. Can be called repeatedly before reading the element.
+   */
+  public boolean hasNext() throws IOException {
+    if (depth == 0) {
+      throw new IllegalStateException("Not inside an object or array");
+    }
+    char c = peekNonWhitespace();
+    int state = stack[depth - 1];
+    if (c == '}' || c == ']') {
+      if (state == AFTER_COMMA) {
+        throw syntaxError("Expected another element after ','");
+      }
+      return false;
+    }
+    if (state == NONEMPTY) {
+      expect(',');
+      stack[depth - 1] = AFTER_COMMA;
+    }
+    return true;
+  }
+
+  /** Reads the name of the next member of the current object, including the following colon. */
+  public String nextName() throws IOException {
+    if (!hasNext()) {
+      throw syntaxError("Expected a name");
+    }
+    String name = readString();
+    expect(':');
+    return name;
+  }
+
+  public String nextString() throws IOException {
+    String value = readString();
+    endValue();
+    return value;
+  }
+
+  /** Reads a number as an {@link Integer}, a {@link Long} or a {@link Double}. */
+  public Number nextNumber() throws IOException {
+    char c = peekNonWhitespace();
+    if (c != '-' && (c < '0' || c > '9')) {
+      throw syntaxError("Expected a number");
+    }
+    scratch.setLength(0);
+    boolean integral = true;
+    while (pos < limit || fill()) {
+      c = buffer[pos];
+      if ((c >= '0' && c <= '9') || c == '-' || c == '+') {
+        scratch.append(c);
+      } else if (c == '.' || c == 'e' || c == 'E') {
+        integral = false;
+        scratch.append(c);
+      } else {
+        break;
+      }
+      pos++;
+    }
+
+    String literal = scratch.toString();
+    Number result;
+    try {
+      result = integral ? parseIntegral(literal) : Double.valueOf(literal);
+    } catch (NumberFormatException e) {
+      throw syntaxError("Invalid number '" + literal + "'");
+    }
+    endValue();
+    return result;
+  }
+
+  public boolean nextBoolean() throws IOException {
+    char c = peekNonWhitespace();
+    boolean result;
+    if (c == 't') {
+      expectLiteral("true");
+      result = true;
+    } else if (c == 'f') {
+      expectLiteral("false");
+      result = false;
+    } else {
+      throw syntaxError("Expected a boolean");
+    }
+    endValue();
+    return result;
+  }
+
+  public void nextNull() throws IOException {
+    peekNonWhitespace();
+    expectLiteral("null");
+    endValue();
+  }
+
+  /**
+   * Reads the next value into a {@link Map}, a {@link List}, a {@link String}, a {@link Number}, a
+   * {@link Boolean} or null.
+   */
+  public Object nextValue() throws IOException {
+    switch (peek()) {
+      case OBJECT:
+        Map<String, Object> map = new HashMap<>();
+        beginObject();
+        while (hasNext()) {
+          String name = nextName();
+          map.put(name, nextValue());
+        }
+        endObject();
+        return map;
+      case ARRAY:
+        List<Object> list = new ArrayList<>();
+        beginArray();
+        while (hasNext()) {
+          list.add(nextValue());
+        }
+        endArray();
+        return list;
+      case STRING:
+        return nextString();
+      case NUMBER:
+        return nextNumber();
+      case BOOLEAN:
+        return nextBoolean();
+      default:
+        nextNull();
+        return null;
+    }
+  }
+
+  /** Skips over the next value, including all of its nested values. */
+  public void skipValue() throws IOException {
+    switch (peek()) {
+      case OBJECT:
+        beginObject();
+        while (hasNext()) {
+          skipString();
+          expect(':');
+          skipValue();
+        }
+        endObject();
+        break;
+      case ARRAY:
+        beginArray();
+        while (hasNext()) {
+          skipValue();
+        }
+        endArray();
+        break;
+      case STRING:
+        skipString();
+        endValue();
+        break;
+      case NUMBER:
+        nextNumber();
+        break;
+      case BOOLEAN:
+        nextBoolean();
+        break;
+      default:
+        nextNull();
+        break;
+    }
+  }
+
+  /** Verifies that the input contains nothing but whitespace after the last value. */
+  public void endDocument() throws IOException {
+    if (depth != 0) {
+      throw syntaxError("Unterminated object or array");
+    }
+    skipWhitespace();
+    if (pos < limit || fill()) {
+      throw syntaxError("Unexpected character '" + buffer[pos] + "' after the end of the input");
+    }
+  }
+
+  private static Number parseIntegral(String literal) {
+    long value;
+    try {
+      value = Long.parseLong(literal);
+    } catch (NumberFormatException e) {
+      // Like org.json, integers that do not fit into a long are read as doubles.
+      return Double.valueOf(literal);
+    }
+    if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+      return (int) value;
+    }
+    return value;
+  }
+
+  private String readString() throws IOException {
+    expect('"');
+    // Fast path for strings that end within the buffer and do not contain escape sequences.
+    for (int i = pos; i < limit; i++) {
+      char c = buffer[i];
+      if (c == '"') {
+        String result = new String(buffer, pos, i - pos);
+        pos = i + 1;
+        return result;
+      } else if (c == '\\') {
+        break;
+      }
+    }
+
+    scratch.setLength(0);
+    while (true) {
+      int start = pos;
+      while (pos < limit && buffer[pos] != '"' && buffer[pos] != '\\') {
+        pos++;
+      }
+      scratch.append(buffer, start, pos - start);
+      if (pos == limit) {
+        if (!fill()) {
+          throw syntaxError("Unterminated string");
+        }
+      } else if (buffer[pos++] == '"') {
+        return scratch.toString();
+      } else {
+        scratch.append(readEscapedChar());
+      }
+    }
+  }
+
+  private void skipString() throws IOException {
+    expect('"');
+    while (pos < limit || fill()) {
+      char c = buffer[pos++];
+      if (c == '"') {
+        return;
+      } else if (c == '\\') {
+        readEscapedChar();
+      }
+    }
+    throw syntaxError("Unterminated string");
+  }
+
+  /** Reads the escape sequence that follows a backslash. */
+  private char readEscapedChar() throws IOException {
+    char c = nextChar();
+    switch (c) {
+      case '"':
+      case '\\':
+      case '/':
+        return c;
+      case 'b':
+        return '\b';
+      case 'f':
+        return '\f';
+      case 'n':
+        return '\n';
+      case 'r':
+        return '\r';
+      case 't':
+        return '\t';
+      case 'u':
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+          int digit = Character.digit(nextChar(), 16);
+          if (digit < 0) {
+            throw syntaxError("Invalid unicode escape sequence");
+          }
+          value = (value << 4) | digit;
+        }
+        return (char) value;
+      default:
+        throw syntaxError("Invalid escape sequence '\\" + c + "'");
+    }
+  }
+
+  private void expectLiteral(String literal) throws IOException {
+    for (int i = 0; i < literal.length(); i++) {
+      if (!(pos < limit || fill()) || buffer[pos] != literal.charAt(i)) {
+        throw syntaxError("Expected '" + literal + "'");
+      }
+      pos++;
+    }
+  }
+
+  private void expect(char expected) throws IOException {
+    char c = peekNonWhitespace();
+    if (c != expected) {
+      throw syntaxError("Expected '" + expected + "' but found '" + c + "'");
+    }
+    pos++;
+  }
+
+  private void push() {
+    if (depth == stack.length) {
+      stack = Arrays.copyOf(stack, depth * 2);
+    }
+    stack[depth++] = EMPTY;
+  }
+
+  private void end(char closing) throws IOException {
+    if (depth == 0) {
+      throw syntaxError("Unexpected '" + closing + "'");
+    }
+    if (hasNext()) {
+      throw syntaxError("Expected '" + closing + "'");
+    }
+    expect(closing);
+    depth--;
+    endValue();
+  }
+
+  /** Marks the current container as non-empty after one of its values has been read. */
+  private void endValue() {
+    if (depth > 0) {
+      stack[depth - 1] = NONEMPTY;
+    }
+  }
+
+  private char nextChar() throws IOException {
+    if (pos == limit && !fill()) {
+      throw syntaxError("Unexpected end of input");
+    }
+    return buffer[pos++];
+  }
+
+  private char peekNonWhitespace() throws IOException {
+    skipWhitespace();
+    if (pos == limit && !fill()) {
+      throw syntaxError("Unexpected end of input");
+    }
+    return buffer[pos];
+  }
+
+  private void skipWhitespace() throws IOException {
+    while (pos < limit || fill()) {
+      char c = buffer[pos];
+      if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+        return;
+      }
+      pos++;
+    }
+  }
+
+  /** Refills the buffer once it has been consumed. Returns false at the end of the input. */
+  private boolean fill() throws IOException {
+    bufferOffset += limit;
+    pos = 0;
+    limit = 0;
+    int read;
+    do {
+      read = reader.read(buffer, 0, buffer.length);
+    } while (read == 0);
+    if (read < 0) {
+      return false;
+    }
+    limit = read;
+    return true;
+  }
+
+  private IOException syntaxError(String message) {
+    return new IOException(message + " at character " + (bufferOffset + pos));
+  }
+}
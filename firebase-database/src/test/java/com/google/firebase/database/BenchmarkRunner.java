@@ -0,0 +1,137 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * Measures the benchmarks in src/test.
+ *
+ * <p>Each benchmark runs a number of warmup iterations followed by measured iterations and prints
+ * the average time and, if the JVM supports it, the bytes allocated by the calling thread.
+ * Benchmarks call {@link #assumeEnabled} before they run, so that they are skipped unless the tests
+ * are run with {@code -PrunBenchmarks=true}.
+ */
+public final class BenchmarkRunner {
+
+  private static final int WARMUP_ITERATIONS = 3;
+  private static final int MEASURED_ITERATIONS = 10;
+
+  /** A benchmarked operation. */
+  public interface Operation {
+    void run() throws Exception;
+  }
+
+  private BenchmarkRunner() {}
+
+  /** Skips the calling test unless benchmarks are enabled for this JVM. */
+  public static void assumeEnabled() {
+    assumeTrue(
+        "Benchmarks are only run if 'runBenchmarks' is set", Boolean.getBoolean("runBenchmarks"));
+  }
+
+  /** Returns the number of times {@code measure()} runs an operation, including the warmup. */
+  public static int getIterationCount() {
+    return WARMUP_ITERATIONS + MEASURED_ITERATIONS;
+  }
+
+  /**
+   * Measures an operation on an input with {@code size} elements, such as the children of a node,
+   * and prints the time and allocated bytes per operation.
+   */
+  public static void measure(String name, int size, String elements, Operation operation)
+      throws Exception {
+    Measurement measurement = run(operation);
+    String allocations =
+        measurement.allocatedBytes >= 0
+            ? String.format(
+                Locale.US, ", %.1f MB/op", measurement.allocatedBytes / 1e6 / MEASURED_ITERATIONS)
+            : "";
+    System.out.println(
+        String.format(
+            Locale.US,
+            "%s (%d %s): %.3f ms/op%s",
+            name,
+            size,
+            elements,
+            measurement.nanos / 1e6 / MEASURED_ITERATIONS,
+            allocations));
+  }
+
+  /**
+   * Measures an operation that processes {@code count} elements, such as messages, and prints the
+   * time and allocated bytes per element.
+   */
+  public static void measurePerElement(String name, int count, String element, Operation operation)
+      throws Exception {
+    Measurement measurement = run(operation);
+    String allocations =
+        measurement.allocatedBytes >= 0
+            ? String.format(
+                Locale.US,
+                ", %.1f bytes/%s",
+                (double) measurement.allocatedBytes / MEASURED_ITERATIONS / count,
+                element)
+            : "";
+    System.out.println(
+        String.format(
+            Locale.US,
+            "%s (%d %ss): %.3f us/%s%s",
+            name,
+            count,
+            element,
+            measurement.nanos / 1e3 / MEASURED_ITERATIONS / count,
+            element,
+            allocations));
+  }
+
+  /** Returns the bytes allocated by the given thread, or -1 if the JVM does not track them. */
+  public static long allocatedBytes(Thread thread) {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(thread.getId());
+    }
+    return -1;
+  }
+
+  private static Measurement run(Operation operation) throws Exception {
+    for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+      operation.run();
+    }
+
+    long startBytes = allocatedBytes(Thread.currentThread());
+    long start = System.nanoTime();
+    for (int i = 0; i < MEASURED_ITERATIONS; ++i) {
+      operation.run();
+    }
+    long nanos = System.nanoTime() - start;
+    long endBytes = allocatedBytes(Thread.currentThread());
+    return new Measurement(nanos, startBytes >= 0 && endBytes >= 0 ? endBytes - startBytes : -1);
+  }
+
+  private static class Measurement {
+    final long nanos;
+    final long allocatedBytes;
+
+    Measurement(long nanos, long allocatedBytes) {
+      this.nanos = nanos;
+      this.allocatedBytes = allocatedBytes;
+    }
+  }
+}
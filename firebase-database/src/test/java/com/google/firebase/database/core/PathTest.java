@@ -14,6 +14,7 @@
 
 package com.google.firebase.database.core;
 
+import com.google.firebase.database.DatabaseException;
 import com.google.firebase.database.util.ComparatorTester;
 import org.junit.Assert;
 import org.junit.Test;
@@ -47,6 +48,52 @@ public class PathTest {
     Assert.assertTrue(new Path("/a/b/c").popFront().contains(new Path("/b/c/d")));
   }
 
+  @Test
+  public void containsSharedPieces() {
+    Path path = new Path("/a/b/c");
+    Assert.assertTrue(path.getParent().contains(path));
+    Assert.assertTrue(path.getParent().getParent().contains(path.getParent()));
+    Assert.assertTrue(path.contains(path.child(new Path("d"))));
+    Assert.assertFalse(path.popFront().contains(path));
+    Assert.assertFalse(path.contains(path.getParent()));
+  }
+
+  @Test
+  public void getRelative() {
+    Path path = new Path("/a/b/c");
+    Assert.assertEquals(new Path("/b/c"), Path.getRelative(new Path("/a"), path));
+    Assert.assertEquals(new Path("/c"), Path.getRelative(path.getParent(), path));
+    Assert.assertEquals(Path.getEmptyPath(), Path.getRelative(path, path));
+    Assert.assertSame(path, Path.getRelative(Path.getEmptyPath(), path));
+    try {
+      Path.getRelative(new Path("/a/c"), path);
+      Assert.fail("Expected failure");
+    } catch (DatabaseException e) {
+      // Expected.
+    }
+    try {
+      Path.getRelative(path, path.getParent());
+      Assert.fail("Expected failure");
+    } catch (DatabaseException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void equalsAndHashCode() {
+    Path path = new Path("/a/b/c");
+    Path other = new Path("a/b/c/");
+    int hashCode = path.hashCode();
+    Assert.assertEquals(path, other);
+    Assert.assertEquals(hashCode, other.hashCode());
+    Assert.assertEquals(hashCode, path.hashCode());
+    Assert.assertEquals(path, path.getParent().child(path.getBack()));
+    Assert.assertEquals(path.popFront(), other.popFront());
+    Assert.assertEquals(path.popFront().hashCode(), other.popFront().hashCode());
+    Assert.assertNotEquals(path, new Path("/a/b/d"));
+    Assert.assertNotEquals(path.getParent(), path.popFront());
+  }
+
   @Test
   public void popFront() {
     Assert.assertEquals(new Path("/a/b/c").popFront(), new Path("/b/c"));
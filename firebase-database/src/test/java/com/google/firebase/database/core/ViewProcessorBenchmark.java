@@ -0,0 +1,124 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.core;
+
+import com.google.firebase.database.BenchmarkRunner;
+import com.google.firebase.database.core.operation.Operation;
+import com.google.firebase.database.core.operation.OperationSource;
+import com.google.firebase.database.core.operation.Overwrite;
+import com.google.firebase.database.core.view.CacheNode;
+import com.google.firebase.database.core.view.QueryParams;
+import com.google.firebase.database.core.view.ViewCache;
+import com.google.firebase.database.core.view.ViewProcessor;
+import com.google.firebase.database.snapshot.EmptyNode;
+import com.google.firebase.database.snapshot.IndexedNode;
+import com.google.firebase.database.snapshot.JsonNodeParser;
+import com.google.firebase.database.snapshot.LongNode;
+import com.google.firebase.database.snapshot.Node;
+import com.google.firebase.database.snapshot.NodeUtilities;
+import com.google.firebase.database.snapshot.PriorityUtilities;
+import com.google.firebase.database.util.JsonMapper;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Measures how fast snapshots with a repeated schema are built and how fast the ViewProcessor
+ * applies server updates to them. Both create a child key for every property of every child and
+ * a path for every update.
+ */
+@org.junit.runner.RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ViewProcessorBenchmark {
+
+  private static final int[] SIZES = {1000, 10000, 100000};
+
+  /** Prevents the JIT from eliminating the benchmarked code. */
+  private static int sink;
+
+  @Before
+  public void setUp() {
+    BenchmarkRunner.assumeEnabled();
+  }
+
+  @Test
+  public void buildSnapshot() throws Exception {
+    for (int size : SIZES) {
+      Map<String, Object> value = generateValue(size);
+      String json = JsonMapper.serializeJsonValue(value);
+      BenchmarkRunner.measure(
+          "NodeFromJSON",
+          size,
+          "children",
+          () -> sink += NodeUtilities.NodeFromJSON(value).getChildCount());
+      BenchmarkRunner.measure(
+          "JsonNodeParser",
+          size,
+          "children",
+          () -> sink += JsonNodeParser.parse(json).getChildCount());
+    }
+  }
+
+  @Test
+  public void applyServerUpdates() throws Exception {
+    for (int size : SIZES) {
+      Node node = NodeUtilities.NodeFromJSON(generateValue(size));
+      QueryParams params = QueryParams.DEFAULT_PARAMS;
+      ViewProcessor processor = new ViewProcessor(params.getNodeFilter());
+      WriteTreeRef writes = new WriteTreeRef(Path.getEmptyPath(), new WriteTree());
+      CacheNode emptyCache =
+          new CacheNode(IndexedNode.from(EmptyNode.Empty(), params.getIndex()), false, false);
+      ViewCache initialCache =
+          processor.applyOperation(
+                  new ViewCache(emptyCache, emptyCache),
+                  new Overwrite(OperationSource.SERVER, Path.getEmptyPath(), node),
+                  writes,
+                  null)
+              .viewCache;
+
+      BenchmarkRunner.measure(
+          "ViewProcessor",
+          size,
+          "children",
+          () -> {
+            ViewCache viewCache = initialCache;
+            for (int i = 0; i < size; ++i) {
+              // Updates arrive with their path as a string, as in a server data message.
+              Path path = new Path("child" + i + "/score");
+              Node score = new LongNode((long) i + 1, PriorityUtilities.NullPriority());
+              Operation operation = new Overwrite(OperationSource.SERVER, path, score);
+              viewCache = processor.applyOperation(viewCache, operation, writes, null).viewCache;
+            }
+            sink += viewCache.getEventCache().getNode().getChildCount();
+          });
+    }
+  }
+
+  private static Map<String, Object> generateValue(int size) {
+    Map<String, Object> root = new HashMap<>();
+    for (int i = 0; i < size; ++i) {
+      Map<String, Object> child = new HashMap<>();
+      child.put("name", "user " + i);
+      child.put("score", i);
+      child.put("level", i % 10);
+      child.put("active", i % 2 == 0);
+      root.put("child" + i, child);
+    }
+    return root;
+  }
+}
@@ -0,0 +1,131 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.core.persistence;
+
+import com.google.firebase.database.BenchmarkRunner;
+import com.google.firebase.database.snapshot.JsonNodeParser;
+import com.google.firebase.database.snapshot.Node;
+import com.google.firebase.database.snapshot.NodeUtilities;
+import com.google.firebase.database.util.JsonMapper;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Compares the binary persistence format with the JSON text that was stored before. The load
+ * benchmark also prints the encoded size of both formats.
+ */
+@org.junit.runner.RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class BinaryNodeFormatBenchmark {
+
+  private static final int[] SIZES = {1000, 10000, 100000};
+
+  /** The row size of SqlPersistenceStorageEngine. */
+  private static final int PART_SIZE = 256 * 1024;
+
+  private static final Charset UTF8_CHARSET = Charset.forName("UTF-8");
+
+  /** Prevents the JIT from eliminating the benchmarked code. */
+  private static int sink;
+
+  @Before
+  public void setUp() {
+    BenchmarkRunner.assumeEnabled();
+  }
+
+  @Test
+  public void saveNode() throws Exception {
+    for (int size : SIZES) {
+      Node node = generateNode(size);
+      BenchmarkRunner.measure(
+          "JSON",
+          size,
+          "children",
+          () -> {
+            String json = JsonMapper.serializeJsonValue(node.getValue(true));
+            sink += json.getBytes(UTF8_CHARSET).length;
+          });
+      BenchmarkRunner.measure(
+          "BinaryNodeFormat",
+          size,
+          "children",
+          () -> sink += BinaryNodeFormat.encodeNode(node, PART_SIZE).size());
+    }
+  }
+
+  @Test
+  public void loadNode() throws Exception {
+    for (int size : SIZES) {
+      Node node = generateNode(size);
+      byte[] json = JsonMapper.serializeJsonValue(node.getValue(true)).getBytes(UTF8_CHARSET);
+      List<byte[]> binary = BinaryNodeFormat.encodeNode(node, PART_SIZE);
+      int binarySize = 0;
+      for (byte[] part : binary) {
+        binarySize += part.length;
+      }
+      System.out.println(
+          String.format(
+              "Encoded size (%d children): JSON %d bytes, binary %d bytes",
+              size, json.length, binarySize));
+
+      BenchmarkRunner.measure(
+          "JsonMapper + NodeFromJSON",
+          size,
+          "children",
+          () -> {
+            Object value = JsonMapper.parseJsonValue(new String(json, UTF8_CHARSET));
+            sink += NodeUtilities.NodeFromJSON(value).getChildCount();
+          });
+      BenchmarkRunner.measure(
+          "JsonNodeParser",
+          size,
+          "children",
+          () -> {
+            InputStreamReader reader =
+                new InputStreamReader(new ByteArrayInputStream(json), UTF8_CHARSET);
+            sink += JsonNodeParser.parse(reader).getChildCount();
+          });
+      BenchmarkRunner.measure(
+          "BinaryNodeFormat",
+          size,
+          "children",
+          () -> sink += BinaryNodeFormat.decodeNode(binary).getChildCount());
+    }
+  }
+
+  private static Node generateNode(int size) {
+    Map<String, Object> root = new HashMap<>();
+    for (int i = 0; i < size; ++i) {
+      Map<String, Object> child = new HashMap<>();
+      child.put("name", "user " + i);
+      child.put("score", i * 7);
+      child.put("rating", i / 3.0);
+      child.put("active", i % 2 == 0);
+      child.put("tags", new ArrayList<>(Arrays.asList("a", "b")));
+      root.put("child" + i, child);
+    }
+    return NodeUtilities.NodeFromJSON(root);
+  }
+}
@@ -0,0 +1,167 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.core.persistence;
+
+import static com.google.firebase.database.snapshot.NodeUtilities.NodeFromJSON;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.firebase.database.ServerValue;
+import com.google.firebase.database.core.CompoundWrite;
+import com.google.firebase.database.core.Path;
+import com.google.firebase.database.snapshot.ChildKey;
+import com.google.firebase.database.snapshot.DoubleNode;
+import com.google.firebase.database.snapshot.EmptyNode;
+import com.google.firebase.database.snapshot.LongNode;
+import com.google.firebase.database.snapshot.Node;
+import com.google.firebase.database.snapshot.PriorityUtilities;
+import com.google.firebase.database.snapshot.StringNode;
+import com.google.firebase.database.util.JsonMapper;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@org.junit.runner.RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class BinaryNodeFormatTest {
+
+  private static final int PART_SIZE = 256 * 1024;
+
+  private static Node node(String singleQuotedJson) throws IOException {
+    return NodeFromJSON(JsonMapper.parseJsonValue(singleQuotedJson.replace("'", "\"")));
+  }
+
+  private static void assertRoundTrips(Node node) throws IOException {
+    assertEquals(node, BinaryNodeFormat.decodeNode(BinaryNodeFormat.encodeNode(node, PART_SIZE)));
+    // Values that span several parts are read without joining the parts.
+    assertEquals(node, BinaryNodeFormat.decodeNode(BinaryNodeFormat.encodeNode(node, 3)));
+  }
+
+  @Test
+  public void roundTripsLeafNodes() throws IOException {
+    assertRoundTrips(EmptyNode.Empty());
+    assertRoundTrips(new StringNode("", PriorityUtilities.NullPriority()));
+    assertRoundTrips(new StringNode("h\u00e9llo \u2603", PriorityUtilities.NullPriority()));
+    for (long value : new long[] {0, 1, -1, 63, -64, Long.MAX_VALUE, Long.MIN_VALUE}) {
+      assertRoundTrips(new LongNode(value, PriorityUtilities.NullPriority()));
+    }
+    for (double value : new double[] {0.5, -0.0, 2.0, Double.MAX_VALUE, Double.MIN_VALUE}) {
+      assertRoundTrips(new DoubleNode(value, PriorityUtilities.NullPriority()));
+    }
+    assertRoundTrips(node("true"));
+    assertRoundTrips(node("false"));
+  }
+
+  @Test
+  public void roundTripsChildrenAndPriorities() throws IOException {
+    assertRoundTrips(node("{'a': 1, 'b': {'c': 'd', 'e': [1, 2, 3]}, '10': true, '-1': 2.5}"));
+    assertRoundTrips(node("{'a': {'.value': 'x', '.priority': 'p'}, '.priority': 1}"));
+    assertRoundTrips(node("{'a': {'b': 1, '.priority': 'p'}}"));
+  }
+
+  @Test
+  public void roundTripsDeferredValues() throws IOException {
+    Map<String, Object> value = new HashMap<>();
+    value.put("timestamp", ServerValue.TIMESTAMP);
+    value.put("increment", ServerValue.increment(2.5));
+    assertRoundTrips(NodeFromJSON(value));
+  }
+
+  @Test
+  public void writesRepeatedKeysOnce() throws IOException {
+    StringBuilder json = new StringBuilder("{");
+    for (int i = 0; i < 100; ++i) {
+      json.append(i == 0 ? "" : ",").append("'child").append(i).append("': {'someLongKey': 1}");
+    }
+    json.append("}");
+    Node node = node(json.toString());
+    byte[] encoded = BinaryNodeFormat.encodeNode(node, PART_SIZE).get(0);
+    String text = new String(encoded, Charset.forName("UTF-8"));
+    assertEquals(text.indexOf("someLongKey"), text.lastIndexOf("someLongKey"));
+    assertTrue(encoded.length < JsonMapper.serializeJsonValue(node.getValue(true)).length());
+  }
+
+  @Test
+  public void splitsIntoParts() throws IOException {
+    Node node = node("{'a': 'some string that is longer than a part'}");
+    List<byte[]> parts = BinaryNodeFormat.encodeNode(node, 16);
+    assertTrue(parts.size() > 1);
+    for (int i = 0; i < parts.size() - 1; ++i) {
+      assertEquals(16, parts.get(i).length);
+    }
+  }
+
+  @Test
+  public void roundTripsMerges() throws IOException {
+    Map<Path, Node> writes = new HashMap<>();
+    writes.put(new Path("a/b"), node("{'c': 1}"));
+    writes.put(new Path("d"), node("'e'"));
+    writes.put(new Path("f"), EmptyNode.Empty());
+    CompoundWrite merge = CompoundWrite.fromPathMerge(writes);
+    assertEquals(
+        merge, BinaryNodeFormat.decodeMerge(BinaryNodeFormat.encodeMerge(merge, PART_SIZE)));
+    assertEquals(merge, BinaryNodeFormat.decodeMerge(BinaryNodeFormat.encodeMerge(merge, 2)));
+  }
+
+  @Test
+  public void distinguishesJson() throws IOException {
+    assertTrue(
+        BinaryNodeFormat.isBinaryFormat(
+            BinaryNodeFormat.encodeNode(node("{'a': 1}"), PART_SIZE).get(0)));
+    for (String json : Arrays.asList("{\"a\":1}", "[1]", "\"a\"", "1", "-1", "true", "null")) {
+      assertFalse(BinaryNodeFormat.isBinaryFormat(json.getBytes(Charset.forName("UTF-8"))));
+    }
+  }
+
+  @Test
+  public void rejectsCorruptData() throws IOException {
+    byte[] encoded = BinaryNodeFormat.encodeNode(node("{'a': 'b'}"), PART_SIZE).get(0);
+    List<byte[]> inputs =
+        Arrays.asList(
+            new byte[0],
+            new byte[] {2, 0},
+            Arrays.copyOf(encoded, encoded.length - 1),
+            Arrays.copyOf(encoded, encoded.length + 1),
+            new byte[] {1, 15});
+    for (byte[] input : inputs) {
+      try {
+        BinaryNodeFormat.decodeNode(Collections.singletonList(input));
+        fail("Expected failure for " + Arrays.toString(input));
+      } catch (IOException e) {
+        // Expected.
+      }
+    }
+  }
+
+  @Test
+  public void internsDecodedKeys() throws IOException {
+    Node node = node("{'a': {'key': 1}, 'b': {'key': 2}}");
+    Node decoded = BinaryNodeFormat.decodeNode(BinaryNodeFormat.encodeNode(node, PART_SIZE));
+    ChildKey first =
+        decoded.getImmediateChild(ChildKey.fromString("a")).iterator().next().getName();
+    ChildKey second =
+        decoded.getImmediateChild(ChildKey.fromString("b")).iterator().next().getName();
+    assertTrue(first == second);
+  }
+}
@@ -0,0 +1,70 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.firebase.database.util.ComparatorTester;
+import org.junit.Test;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@org.junit.runner.RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ChildKeyTest {
+
+  @Test
+  public void reusesRecentKeys() {
+    ChildKey key = ChildKey.fromString("name");
+    assertSame(key, ChildKey.fromString(new String("name")));
+    ChildKey intKey = ChildKey.fromString("42");
+    assertSame(intKey, ChildKey.fromString("42"));
+    assertSame(ChildKey.getPriorityKey(), ChildKey.fromString(".priority"));
+  }
+
+  @Test
+  public void createsEqualKeysWhenEvicted() {
+    ChildKey key = ChildKey.fromString("evicted");
+    for (int i = 0; i < 100000; ++i) {
+      ChildKey.fromString("key" + i);
+    }
+    assertEquals(key, ChildKey.fromString("evicted"));
+    assertEquals(key.hashCode(), ChildKey.fromString("evicted").hashCode());
+
+    StringBuilder longKey = new StringBuilder();
+    for (int i = 0; i < 100; ++i) {
+      longKey.append('a');
+    }
+    assertEquals(
+        ChildKey.fromString(longKey.toString()), ChildKey.fromString(longKey.toString()));
+  }
+
+  @Test
+  public void keepsIntegerOrdering() {
+    String[] keysInOrder = {"-1", "0", "1", "01", "2", "10", "a", "aa", "b"};
+    ComparatorTester comparatorTester = new ComparatorTester();
+    comparatorTester.addEqualityGroup(ChildKey.getMinName(), ChildKey.getMinName());
+    for (String key : keysInOrder) {
+      comparatorTester.addEqualityGroup(ChildKey.fromString(key), ChildKey.fromString(key));
+    }
+    comparatorTester.addEqualityGroup(ChildKey.getMaxName(), ChildKey.getMaxName());
+    comparatorTester.testCompare();
+    assertTrue(ChildKey.fromString("1").compareTo(ChildKey.fromString("01")) < 0);
+    assertNotEquals(ChildKey.fromString("1"), ChildKey.fromString("01"));
+  }
+}
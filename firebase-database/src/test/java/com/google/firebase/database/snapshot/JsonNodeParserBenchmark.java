@@ -0,0 +1,139 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.snapshot;
+
+import com.google.firebase.database.BenchmarkRunner;
+import com.google.firebase.database.connection.util.StringListReader;
+import com.google.firebase.database.util.JsonMapper;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Compares the previous JSON pipeline (concatenating the frames, parsing them with org.json,
+ * unwrapping the result into maps and converting the maps with NodeFromJSON) with the streaming
+ * tokenizer.
+ */
+@org.junit.runner.RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class JsonNodeParserBenchmark {
+
+  private static final int[] SIZES = {1000, 10000, 100000};
+
+  /** The frame size of WebsocketConnection. */
+  private static final int FRAME_SIZE = 16384;
+
+  /** Prevents the JIT from eliminating the benchmarked code. */
+  private static int sink;
+
+  @Before
+  public void setUp() {
+    BenchmarkRunner.assumeEnabled();
+  }
+
+  @Test
+  public void parseChildren() throws Exception {
+    for (int size : SIZES) {
+      List<String> frames = toFrames(generateJson(size));
+      BenchmarkRunner.measure(
+          "org.json + NodeFromJSON",
+          size,
+          "children",
+          () -> {
+            String json = newReader(frames).toString();
+            Node node = NodeUtilities.NodeFromJSON(unwrapJson(new JSONObject(json)));
+            sink += node.getChildCount();
+          });
+      BenchmarkRunner.measure(
+          "JsonMapper + NodeFromJSON",
+          size,
+          "children",
+          () -> {
+            Map<String, Object> value = JsonMapper.parseJson(newReader(frames));
+            sink += NodeUtilities.NodeFromJSON(value).getChildCount();
+          });
+      BenchmarkRunner.measure(
+          "JsonNodeParser",
+          size,
+          "children",
+          () -> sink += JsonNodeParser.parse(newReader(frames)).getChildCount());
+    }
+  }
+
+  private static String generateJson(int size) throws JSONException {
+    JSONObject root = new JSONObject();
+    for (int i = 0; i < size; ++i) {
+      JSONObject child = new JSONObject();
+      child.put("name", "user " + i);
+      child.put("score", i * 7);
+      child.put("rating", i / 3.0);
+      child.put("active", i % 2 == 0);
+      child.put("tags", new JSONArray().put("a").put("b\"c"));
+      root.put("child" + i, child);
+    }
+    return root.toString();
+  }
+
+  private static List<String> toFrames(String json) {
+    List<String> frames = new ArrayList<>();
+    for (int i = 0; i < json.length(); i += FRAME_SIZE) {
+      frames.add(json.substring(i, Math.min(json.length(), i + FRAME_SIZE)));
+    }
+    return frames;
+  }
+
+  private static StringListReader newReader(List<String> frames) {
+    StringListReader reader = new StringListReader();
+    for (String frame : frames) {
+      reader.addString(frame);
+    }
+    reader.freeze();
+    return reader;
+  }
+
+  /** The conversion from org.json values that JsonMapper used before the streaming tokenizer. */
+  private static Object unwrapJson(Object o) throws JSONException {
+    if (o instanceof JSONObject) {
+      JSONObject jsonObject = (JSONObject) o;
+      Map<String, Object> map = new HashMap<>(jsonObject.length());
+      Iterator<String> keys = jsonObject.keys();
+      while (keys.hasNext()) {
+        String key = keys.next();
+        map.put(key, unwrapJson(jsonObject.get(key)));
+      }
+      return map;
+    } else if (o instanceof JSONArray) {
+      JSONArray jsonArray = (JSONArray) o;
+      List<Object> list = new ArrayList<>(jsonArray.length());
+      for (int i = 0; i < jsonArray.length(); i++) {
+        list.add(unwrapJson(jsonArray.get(i)));
+      }
+      return list;
+    } else if (o.equals(JSONObject.NULL)) {
+      return null;
+    } else {
+      return o;
+    }
+  }
+}
@@ -0,0 +1,102 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.snapshot;
+
+import static com.google.firebase.database.snapshot.NodeUtilities.NodeFromJSON;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.firebase.database.util.JsonMapper;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@org.junit.runner.RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class JsonNodeParserTest {
+
+  private static void assertParsesLikeNodeFromJSON(String json) throws IOException {
+    Node expected = NodeFromJSON(JsonMapper.parseJsonValue(json));
+    Node actual = JsonNodeParser.parse(json);
+    assertEquals(json, expected, actual);
+    assertEquals(json, expected.getHash(), actual.getHash());
+  }
+
+  @Test
+  public void parsesLeafNodes() throws IOException {
+    List<String> inputs =
+        Arrays.asList("null", "\"string\"", "1", "9223372036854775807", "4.5623", "1e3", "true");
+    for (String json : inputs) {
+      assertParsesLikeNodeFromJSON(json);
+    }
+  }
+
+  @Test
+  public void parsesChildrenAndPriorities() throws IOException {
+    List<String> inputs =
+        Arrays.asList(
+            "{\"a\":1,\"b\":{\"c\":\"d\",\".priority\":5},\".priority\":\"p\"}",
+            "{\".priority\":1.5,\"a\":{\".value\":true,\".priority\":2}}",
+            "{\".value\":{\"a\":1,\".priority\":3},\".priority\":4}",
+            "{\"a\":{\".value\":null,\".priority\":1}}",
+            "{\"a\":null,\"b\":{},\"c\":[],\"d\":{\"e\":null}}",
+            "{\".priority\":1}",
+            "{\".unknown\":{\"a\":1},\"b\":2}",
+            "{\"1\":\"a\",\"10\":\"b\",\"-1\":\"c\",\"a\":\"d\"}");
+    for (String json : inputs) {
+      assertParsesLikeNodeFromJSON(json);
+    }
+  }
+
+  @Test
+  public void parsesArraysByIndex() throws IOException {
+    List<String> inputs =
+        Arrays.asList("[\"a\",null,\"c\"]", "[[1,2],{\"a\":[]}]", "[null]", "{\"a\":[1,{}]}");
+    for (String json : inputs) {
+      assertParsesLikeNodeFromJSON(json);
+    }
+  }
+
+  @Test
+  public void parsesServerValues() throws IOException {
+    List<String> inputs =
+        Arrays.asList(
+            "{\".sv\":\"timestamp\"}",
+            "{\".sv\":{\"increment\":1}}",
+            "{\"a\":{\".sv\":\"timestamp\"},\"b\":2}",
+            "{\".value\":{\".sv\":\"timestamp\"},\".priority\":\"p\"}");
+    for (String json : inputs) {
+      assertParsesLikeNodeFromJSON(json);
+    }
+    assertTrue(JsonNodeParser.parse("{\".sv\":\"timestamp\"}") instanceof DeferredValueNode);
+  }
+
+  @Test
+  public void rejectsInvalidJson() {
+    List<String> inputs = Arrays.asList("", "{\"a\":}", "[1,2", "{\"a\":1} 2");
+    for (String json : inputs) {
+      try {
+        JsonNodeParser.parse(json);
+        fail("Expected failure for " + json);
+      } catch (IOException e) {
+        // Expected.
+      }
+    }
+  }
+}
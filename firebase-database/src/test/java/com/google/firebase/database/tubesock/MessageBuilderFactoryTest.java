@@ -0,0 +1,104 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.tubesock;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import org.junit.Test;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@org.junit.runner.RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class MessageBuilderFactoryTest {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  @Test
+  public void decodesCharactersSplitAcrossFrames() {
+    String text = "a\u00e9\u2603\ud83d\ude00b";
+    byte[] bytes = text.getBytes(UTF8);
+    // Split the message after every possible byte, including inside multi-byte characters.
+    MessageBuilderFactory.Builder builder = MessageBuilderFactory.builder(WebSocket.OPCODE_TEXT);
+    for (int split = 0; split <= bytes.length; ++split) {
+      assertTrue(builder.appendBytes(bytes, 0, split));
+      assertTrue(builder.appendBytes(bytes, split, bytes.length - split));
+      assertEquals(text, builder.toMessage().getText());
+    }
+    for (int i = 0; i < bytes.length; ++i) {
+      assertTrue(builder.appendBytes(bytes, i, 1));
+    }
+    assertEquals(text, builder.toMessage().getText());
+  }
+
+  @Test
+  public void rejectsInvalidUtf8() {
+    MessageBuilderFactory.Builder builder = MessageBuilderFactory.builder(WebSocket.OPCODE_TEXT);
+    assertFalse(builder.appendBytes(new byte[] {'a', (byte) 0xff}, 0, 2));
+    assertNull(builder.toMessage());
+
+    // A message must not end in the middle of a character.
+    byte[] bytes = "\u2603".getBytes(UTF8);
+    assertTrue(builder.appendBytes(bytes, 0, 2));
+    assertNull(builder.toMessage());
+
+    // The builder can be reused after a failure.
+    assertTrue(builder.appendBytes(bytes, 0, bytes.length));
+    assertEquals("\u2603", builder.toMessage().getText());
+  }
+
+  @Test
+  public void assemblesLargeTextMessages() {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 100000; ++i) {
+      text.append(i % 10 == 0 ? '\u00e9' : 'a');
+    }
+    byte[] bytes = text.toString().getBytes(UTF8);
+    MessageBuilderFactory.Builder builder = MessageBuilderFactory.builder(WebSocket.OPCODE_TEXT);
+    for (int i = 0; i < bytes.length; i += 1001) {
+      assertTrue(builder.appendBytes(bytes, i, Math.min(1001, bytes.length - i)));
+    }
+    assertEquals(text.toString(), builder.toMessage().getText());
+    assertTrue(builder.appendBytes(new byte[] {'x'}, 0, 1));
+    assertEquals("x", builder.toMessage().getText());
+  }
+
+  @Test
+  public void assemblesBinaryMessages() {
+    byte[] bytes = new byte[1000];
+    for (int i = 0; i < bytes.length; ++i) {
+      bytes[i] = (byte) i;
+    }
+    MessageBuilderFactory.Builder builder = MessageBuilderFactory.builder(WebSocket.OPCODE_BINARY);
+    for (int i = 0; i < bytes.length; i += 300) {
+      assertTrue(builder.appendBytes(bytes, i, Math.min(300, bytes.length - i)));
+    }
+    assertArrayEquals(bytes, builder.toMessage().getBytes());
+
+    // The builder copies the bytes, so the caller can reuse its buffer.
+    assertTrue(builder.appendBytes(bytes, 10, 5));
+    byte[] copy = builder.toMessage().getBytes();
+    bytes[10] = 42;
+    assertArrayEquals(new byte[] {10, 11, 12, 13, 14}, copy);
+
+    assertTrue(builder.appendBytes(bytes, 0, 0));
+    assertArrayEquals(new byte[0], builder.toMessage().getBytes());
+  }
+}
@@ -0,0 +1,291 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.tubesock;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.firebase.database.connection.ConnectionContext;
+import com.google.firebase.database.logging.DefaultLogger;
+import com.google.firebase.database.logging.Logger;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@org.junit.runner.RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class PerMessageDeflateTest {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final String MESSAGE =
+      "{\"t\":\"d\",\"d\":{\"b\":{\"p\":\"users/alice\",\"d\":{\"name\":\"Alice\",\"score\":1}}}}";
+
+  private static byte[] decompress(PerMessageDeflate deflate, byte[] data, boolean fin) {
+    ByteBuffer buffer = deflate.decompress(data, 0, data.length, fin);
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  @Test
+  public void parsesServerResponse() {
+    assertNull(PerMessageDeflate.fromServerResponse(null));
+    assertNull(PerMessageDeflate.fromServerResponse(""));
+    assertTrue(PerMessageDeflate.fromServerResponse("permessage-deflate").compressesOutgoing());
+    assertTrue(
+        PerMessageDeflate.fromServerResponse(
+                "permessage-deflate; server_no_context_takeover; client_no_context_takeover; "
+                    + "server_max_window_bits=10; client_max_window_bits=15")
+            .compressesOutgoing());
+    // Deflater always uses the largest window, so a smaller window can only be read.
+    assertFalse(
+        PerMessageDeflate.fromServerResponse("permessage-deflate; client_max_window_bits=\"9\"")
+            .compressesOutgoing());
+  }
+
+  @Test
+  public void rejectsInvalidServerResponse() {
+    List<String> responses =
+        Arrays.asList(
+            "x-webkit-deflate-frame",
+            "permessage-deflate, permessage-deflate",
+            "permessage-deflate; unknown_parameter",
+            "permessage-deflate; server_no_context_takeover; server_no_context_takeover",
+            "permessage-deflate; server_max_window_bits=16",
+            "permessage-deflate; client_max_window_bits");
+    for (String response : responses) {
+      try {
+        PerMessageDeflate.fromServerResponse(response);
+        fail("Expected failure for " + response);
+      } catch (WebSocketException e) {
+        // Expected.
+      }
+    }
+  }
+
+  @Test
+  public void roundTripsWithContextTakeover() {
+    PerMessageDeflate client = PerMessageDeflate.fromServerResponse("permessage-deflate");
+    PerMessageDeflate server = PerMessageDeflate.fromServerResponse("permessage-deflate");
+    byte[] message = MESSAGE.getBytes(UTF8);
+
+    byte[] first = client.compress(message);
+    byte[] second = client.compress(message);
+    // The second message refers back to the first one.
+    assertTrue(second.length < first.length);
+    assertArrayEquals(message, decompress(server, first, true));
+    assertArrayEquals(message, decompress(server, second, true));
+    assertArrayEquals(new byte[0], decompress(server, client.compress(new byte[0]), true));
+  }
+
+  @Test
+  public void roundTripsWithoutContextTakeover() {
+    PerMessageDeflate client =
+        PerMessageDeflate.fromServerResponse("permessage-deflate; client_no_context_takeover");
+    PerMessageDeflate server =
+        PerMessageDeflate.fromServerResponse("permessage-deflate; server_no_context_takeover");
+    byte[] message = MESSAGE.getBytes(UTF8);
+
+    byte[] first = client.compress(message);
+    byte[] second = client.compress(message);
+    assertArrayEquals(first, second);
+    assertArrayEquals(message, decompress(server, first, true));
+    assertArrayEquals(message, decompress(server, second, true));
+  }
+
+  @Test
+  public void decompressesFragmentedMessages() throws IOException {
+    PerMessageDeflate client = PerMessageDeflate.fromServerResponse("permessage-deflate");
+    PerMessageDeflate server = PerMessageDeflate.fromServerResponse("permessage-deflate");
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 10000; ++i) {
+      text.append(i).append(',');
+    }
+    byte[] message = text.toString().getBytes(UTF8);
+    byte[] compressed = client.compress(message);
+
+    ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+    for (int i = 0; i < compressed.length; i += 100) {
+      int end = Math.min(compressed.length, i + 100);
+      decompressed.write(decompress(server, Arrays.copyOfRange(compressed, i, end), false));
+    }
+    decompressed.write(decompress(server, new byte[0], true));
+    assertArrayEquals(message, decompressed.toByteArray());
+  }
+
+  @Test
+  public void rejectsCorruptData() {
+    PerMessageDeflate server = PerMessageDeflate.fromServerResponse("permessage-deflate");
+    try {
+      decompress(server, new byte[] {(byte) 0xff, (byte) 0xff, (byte) 0xff}, true);
+      fail("Expected failure");
+    } catch (WebSocketException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void exchangesCompressedMessagesWithEchoServer() throws Exception {
+    EchoServer server = new EchoServer();
+    server.start();
+
+    final BlockingQueue<Object> events = new LinkedBlockingQueue<Object>();
+    Logger logger = new DefaultLogger(Logger.Level.NONE, null);
+    ConnectionContext context =
+        new ConnectionContext(logger, null, null, false, "test", "test", null);
+    WebSocket socket =
+        new WebSocket(context, URI.create("ws://localhost:" + server.getPort() + "/"));
+    socket.setEventHandler(
+        new WebSocketEventHandler() {
+          @Override
+          public void onOpen() {
+            events.add("open");
+          }
+
+          @Override
+          public void onMessage(WebSocketMessage message) {
+            events.add(message);
+          }
+
+          @Override
+          public void onClose() {
+            events.add("close");
+          }
+
+          @Override
+          public void onError(WebSocketException e) {
+            events.add(e);
+          }
+
+          @Override
+          public void onLogMessage(String msg) {}
+        });
+    socket.connect();
+    assertEquals("open", events.poll(10, TimeUnit.SECONDS));
+
+    for (int i = 0; i < 3; ++i) {
+      socket.send(MESSAGE);
+      WebSocketMessage message = (WebSocketMessage) events.poll(10, TimeUnit.SECONDS);
+      assertEquals(MESSAGE, message.getText());
+    }
+    byte[] binary = new byte[1000];
+    socket.send(binary);
+    assertArrayEquals(binary, ((WebSocketMessage) events.poll(10, TimeUnit.SECONDS)).getBytes());
+
+    socket.close();
+    assertEquals("close", events.poll(10, TimeUnit.SECONDS));
+    socket.blockClose();
+    server.join();
+
+    assertTrue(server.request.contains("Sec-WebSocket-Extensions: permessage-deflate"));
+    List<Integer> sizes = server.compressedSizes;
+    assertEquals(4, sizes.size());
+    // Later messages are smaller as they refer back to the first one.
+    assertTrue(sizes.get(1) < sizes.get(0));
+    assertTrue(sizes.get(3) < binary.length);
+  }
+
+  /**
+   * Accepts a single connection, agrees to use permessage-deflate and sends every data frame back
+   * unmodified. The echoed frames can be decompressed by the client since they continue the
+   * compression context of the client.
+   */
+  private static class EchoServer extends Thread {
+    private final ServerSocket serverSocket = new ServerSocket(0);
+    private volatile String request;
+    private final List<Integer> compressedSizes = new ArrayList<Integer>();
+
+    EchoServer() throws IOException {}
+
+    int getPort() {
+      return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void run() {
+      try (Socket socket = serverSocket.accept()) {
+        DataInputStream input = new DataInputStream(socket.getInputStream());
+        OutputStream output = socket.getOutputStream();
+        StringBuilder requestBuilder = new StringBuilder();
+        while (!requestBuilder.toString().endsWith("\r\n\r\n")) {
+          requestBuilder.append((char) input.read());
+        }
+        request = requestBuilder.toString();
+        output.write(
+            ("HTTP/1.1 101 Switching Protocols\r\n"
+                    + "Upgrade: websocket\r\n"
+                    + "Connection: Upgrade\r\n"
+                    + "Sec-WebSocket-Extensions: permessage-deflate\r\n\r\n")
+                .getBytes(UTF8));
+
+        while (true) {
+          int firstByte = input.readUnsignedByte();
+          int length = input.readUnsignedByte() & 0x7f;
+          if (length == 126) {
+            length = input.readUnsignedShort();
+          } else if (length == 127) {
+            length = (int) input.readLong();
+          }
+          byte[] mask = new byte[4];
+          input.readFully(mask);
+          byte[] payload = new byte[length];
+          input.readFully(payload);
+          for (int i = 0; i < length; ++i) {
+            payload[i] ^= mask[i % 4];
+          }
+
+          if ((firstByte & 0x0f) == WebSocket.OPCODE_CLOSE) {
+            output.write(new byte[] {(byte) 0x88, 0});
+            return;
+          }
+          if ((firstByte & 0x40) != 0) {
+            compressedSizes.add(length);
+          }
+          output.write(firstByte);
+          if (length < 126) {
+            output.write(length);
+          } else {
+            output.write(126);
+            output.write(length >>> 8);
+            output.write(length);
+          }
+          output.write(payload);
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+}
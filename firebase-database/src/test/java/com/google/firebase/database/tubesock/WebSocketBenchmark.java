@@ -0,0 +1,213 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.tubesock;
+
+import com.google.firebase.database.BenchmarkRunner;
+import com.google.firebase.database.connection.ConnectionContext;
+import com.google.firebase.database.logging.DefaultLogger;
+import com.google.firebase.database.logging.Logger;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.Charset;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Measures the time and the allocated bytes per message of the WebSocket transport for a stream of
+ * small messages, which is what the backend sends for frequently updated data.
+ *
+ * <p>The allocations include the assembled messages, which are handed to the event handler.
+ */
+@org.junit.runner.RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class WebSocketBenchmark {
+
+  private static final int[] SIZES = {1000, 10000, 100000};
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final String EXTENSION = "permessage-deflate";
+
+  /** Prevents the JIT from eliminating the benchmarked code. */
+  private static int sink;
+
+  @Before
+  public void setUp() {
+    BenchmarkRunner.assumeEnabled();
+  }
+
+  @Test
+  public void receiveMessages() throws Exception {
+    for (int count : SIZES) {
+      final byte[] frames = serverFrames(count, /* compressed= */ false);
+      BenchmarkRunner.measurePerElement(
+          "WebSocketReceiver", count, "message", () -> receive(frames, null));
+
+      final byte[] compressedFrames = serverFrames(count, /* compressed= */ true);
+      BenchmarkRunner.measurePerElement(
+          "WebSocketReceiver (permessage-deflate)",
+          count,
+          "message",
+          () -> receive(compressedFrames, PerMessageDeflate.fromServerResponse(EXTENSION)));
+    }
+  }
+
+  @Test
+  public void sendMessages() throws Exception {
+    for (int count : SIZES) {
+      measureSend("WebSocketWriter", count, null);
+      measureSend("WebSocketWriter (permessage-deflate)", count, EXTENSION);
+    }
+  }
+
+  private static String message(int i) {
+    return "{\"t\":\"d\",\"d\":{\"r\":0,\"a\":\"d\",\"b\":{\"p\":\"scores/player"
+        + (i % 100)
+        + "\",\"d\":{\"score\":"
+        + i
+        + ",\"updated\":1580000000000}}}}";
+  }
+
+  private static WebSocket newWebSocket(WebSocketEventHandler handler) {
+    Logger logger = new DefaultLogger(Logger.Level.NONE, null);
+    ConnectionContext context =
+        new ConnectionContext(logger, null, null, false, "test", "test", null);
+    WebSocket webSocket = new WebSocket(context, URI.create("ws://localhost/"));
+    webSocket.setEventHandler(handler);
+    return webSocket;
+  }
+
+  /** Returns the unmasked frames that the server sends for the given number of messages. */
+  private static byte[] serverFrames(int count, boolean compressed) {
+    PerMessageDeflate deflate = compressed ? PerMessageDeflate.fromServerResponse(EXTENSION) : null;
+    ByteArrayOutputStream frames = new ByteArrayOutputStream();
+    for (int i = 0; i < count; ++i) {
+      byte[] payload = message(i).getBytes(UTF8);
+      if (compressed) {
+        payload = deflate.compress(payload);
+      }
+      frames.write(compressed ? 0xc1 : 0x81);
+      if (payload.length < 126) {
+        frames.write(payload.length);
+      } else {
+        frames.write(126);
+        frames.write(payload.length >>> 8);
+        frames.write(payload.length);
+      }
+      frames.write(payload, 0, payload.length);
+    }
+    // Ends the receiver loop.
+    frames.write(0x88);
+    frames.write(0);
+    return frames.toByteArray();
+  }
+
+  private static void receive(byte[] frames, PerMessageDeflate deflate) {
+    WebSocket webSocket =
+        newWebSocket(
+            new Handler() {
+              @Override
+              public void onMessage(WebSocketMessage message) {
+                sink += message.getText().length();
+              }
+            });
+    WebSocketReceiver receiver = new WebSocketReceiver(webSocket);
+    receiver.setInput(new DataInputStream(new ByteArrayInputStream(frames)));
+    receiver.setPerMessageDeflate(deflate);
+    receiver.run();
+  }
+
+  private static void measureSend(String name, int count, String extension) throws Exception {
+    // The writer thread frames the messages, so its allocations are measured separately.
+    final long[] writerThreadBytes = new long[1];
+    BenchmarkRunner.measurePerElement(
+        name, count, "message", () -> writerThreadBytes[0] += send(count, extension));
+    if (writerThreadBytes[0] >= 0) {
+      System.out.println(
+          String.format(
+              "%s (%d messages): writer thread %.1f bytes/message",
+              name,
+              count,
+              (double) writerThreadBytes[0] / BenchmarkRunner.getIterationCount() / count));
+    }
+  }
+
+  /** Sends the messages and returns the bytes allocated by the writer thread. */
+  private static long send(int count, String extension) throws Exception {
+    WebSocket webSocket = newWebSocket(new Handler());
+    WebSocketWriter writer = new WebSocketWriter(webSocket, "Benchmark", 0);
+    final long[] written = new long[1];
+    writer.setOutput(
+        new OutputStream() {
+          @Override
+          public void write(int b) {
+            written[0]++;
+          }
+
+          @Override
+          public void write(byte[] b, int off, int len) {
+            synchronized (written) {
+              written[0] += len;
+              written.notifyAll();
+            }
+          }
+        });
+    writer.setPerMessageDeflate(
+        extension == null ? null : PerMessageDeflate.fromServerResponse(extension));
+    Thread writerThread = writer.getInnerThread();
+    writerThread.start();
+
+    long startBytes = BenchmarkRunner.allocatedBytes(writerThread);
+    for (int i = 0; i < count; ++i) {
+      writer.send(WebSocket.OPCODE_TEXT, true, message(i).getBytes(UTF8));
+    }
+    // Wait until the writer thread is idle again, before it is stopped.
+    long previous = -1;
+    synchronized (written) {
+      while (written[0] != previous) {
+        previous = written[0];
+        written.wait(50);
+      }
+    }
+    long endBytes = BenchmarkRunner.allocatedBytes(writerThread);
+
+    writer.stopIt();
+    writer.send(WebSocket.OPCODE_CLOSE, true, new byte[0]);
+    writerThread.join();
+    sink += (int) written[0];
+    return startBytes >= 0 && endBytes >= 0 ? endBytes - startBytes : -1;
+  }
+
+  private static class Handler implements WebSocketEventHandler {
+    @Override
+    public void onOpen() {}
+
+    @Override
+    public void onMessage(WebSocketMessage message) {}
+
+    @Override
+    public void onClose() {}
+
+    @Override
+    public void onError(WebSocketException e) {}
+
+    @Override
+    public void onLogMessage(String msg) {}
+  }
+}
@@ -15,8 +15,10 @@
 package com.google.firebase.database.util;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.io.StringReader;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -62,4 +64,98 @@ public class JsonMapperTest {
     Object value = JsonMapper.parseJsonValue(jsonString);
     assertEquals(root, value);
   }
+
+  @Test
+  public void parsesNumbersLikeOrgJson() throws IOException {
+    assertEquals(1, JsonMapper.parseJsonValue("1"));
+    assertEquals(-2147483648, JsonMapper.parseJsonValue("-2147483648"));
+    assertEquals(2147483648L, JsonMapper.parseJsonValue("2147483648"));
+    assertEquals(1.0, JsonMapper.parseJsonValue("1.0"));
+    assertEquals(1000.0, JsonMapper.parseJsonValue("1e3"));
+    assertEquals(-0.25, JsonMapper.parseJsonValue("-2.5E-1"));
+  }
+
+  @Test
+  public void parsesIntegersOutsideTheLongRangeAsDoubles() throws IOException {
+    assertEquals(Long.MIN_VALUE, JsonMapper.parseJsonValue("-9223372036854775808"));
+    assertEquals(9.223372036854775808E18, JsonMapper.parseJsonValue("9223372036854775808"));
+    Map<String, Object> expected = new HashMap<>();
+    expected.put("a", 1.2345678901234567E19);
+    assertEquals(expected, JsonMapper.parseJson("{\"a\":12345678901234567890}"));
+    try {
+      JsonMapper.parseJsonValue("1-2");
+      fail("Expected failure for an invalid integer");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void parsesStringEscapes() throws IOException {
+    assertEquals(
+        "a\"b\\c/d\b\f\n\r\t\u00e9\u2603",
+        JsonMapper.parseJsonValue("\"a\\\"b\\\\c\\/d\\b\\f\\n\\r\\t\\u00e9\\u2603\""));
+  }
+
+  @Test
+  public void roundTripsStrings() throws IOException {
+    List<String> strings =
+        Arrays.asList("", "plain", "quote\"", "</script>", "\u0000\u001f", "\u2603");
+    for (String original : strings) {
+      assertEquals(original, JsonMapper.parseJsonValue(JsonMapper.serializeJsonValue(original)));
+    }
+  }
+
+  @Test
+  public void parsesObjectsAndArrays() throws IOException {
+    Map<String, Object> expected = new HashMap<>();
+    expected.put("list", Arrays.asList(1, "two", true, null, Arrays.asList()));
+    expected.put("empty", new HashMap<>());
+    expected.put("bool", false);
+    expected.put("null", null);
+    assertEquals(
+        expected,
+        JsonMapper.parseJson(
+            " { \"list\" : [1, \"two\", true, null, []],\n\"empty\":{},"
+                + "\"bool\":false, \"null\":null } "));
+  }
+
+  @Test
+  public void parsesFromReader() throws IOException {
+    StringBuilder json = new StringBuilder("{");
+    Map<String, Object> expected = new HashMap<>();
+    for (int i = 0; i < 1000; i++) {
+      json.append(i == 0 ? "" : ",").append("\"key").append(i).append("\":\"value").append(i);
+      json.append("\"");
+      expected.put("key" + i, "value" + i);
+    }
+    json.append("}");
+    assertEquals(expected, JsonMapper.parseJson(new StringReader(json.toString())));
+  }
+
+  @Test
+  public void rejectsInvalidJson() {
+    List<String> inputs =
+        Arrays.asList(
+            "", "{", "{\"a\":1,}", "{\"a\" 1}", "[1 2]", "[1,]", "{\"a\":tru}", "\"abc",
+            "\"\\x\"", "{} {}", "[}", "1.2.3", "{\"a\":1]");
+    for (String input : inputs) {
+      try {
+        JsonMapper.parseJsonValue(input);
+        fail("Expected failure for " + input);
+      } catch (IOException e) {
+        // Expected.
+      }
+    }
+  }
+
+  @Test
+  public void parseJsonRequiresAnObject() {
+    try {
+      JsonMapper.parseJson("[1]");
+      fail();
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
 }
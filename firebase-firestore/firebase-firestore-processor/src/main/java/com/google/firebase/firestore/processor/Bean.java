@@ -0,0 +1,483 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.processor;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+
+/**
+ * The properties of a class annotated with {@code Mappable}.
+ *
+ * <p>Properties are discovered with the same rules that {@code CustomClassMapper.BeanMapper}
+ * applies at runtime: public getters and public fields define the properties of a class, and
+ * setters and fields of any visibility in the class hierarchy are used to write them.
+ */
+final class Bean {
+  static final String DOCUMENT_ID = "com.google.firebase.firestore.DocumentId";
+  static final String EXCLUDE = "com.google.firebase.firestore.Exclude";
+  static final String IGNORE_EXTRA_PROPERTIES =
+      "com.google.firebase.firestore.IgnoreExtraProperties";
+  static final String PROPERTY_NAME = "com.google.firebase.firestore.PropertyName";
+  static final String SERVER_TIMESTAMP = "com.google.firebase.firestore.ServerTimestamp";
+  static final String THROW_ON_EXTRA_PROPERTIES =
+      "com.google.firebase.firestore.ThrowOnExtraProperties";
+
+  static final String DATE = "java.util.Date";
+  static final String DOCUMENT_REFERENCE = "com.google.firebase.firestore.DocumentReference";
+  static final String STRING = "java.lang.String";
+  static final String TIMESTAMP = "com.google.firebase.Timestamp";
+
+  private static final String OBJECT = "java.lang.Object";
+
+  private final Elements elements;
+  private final Types types;
+  private final TypeElement type;
+
+  // Case insensitive mapping of properties to their case sensitive versions. The order in which
+  // members are returned is unspecified, so properties are sorted to generate stable code.
+  private final Map<String, String> properties = new TreeMap<>();
+
+  // Below are maps to find getter/setter/field from a given property name, as in BeanMapper.
+  private final Map<String, ExecutableElement> getters = new HashMap<>();
+  private final Map<String, ExecutableElement> setters = new LinkedHashMap<>();
+  private final Map<String, VariableElement> fields = new LinkedHashMap<>();
+
+  private final Set<String> serverTimestamps = new HashSet<>();
+  private final Set<String> documentIdPropertyNames = new LinkedHashSet<>();
+
+  Bean(Elements elements, Types types, TypeElement type) {
+    this.elements = elements;
+    this.types = types;
+    this.type = type;
+    collectProperties();
+  }
+
+  /** Returns the names of the properties. */
+  Collection<String> getProperties() {
+    return properties.values();
+  }
+
+  /**
+   * Returns the getter or the public field that the given property is read from.
+   *
+   * @throws ProcessingException if the property cannot be read.
+   */
+  Element getReader(String property) {
+    Element reader = getters.get(property);
+    if (reader == null) {
+      reader = fields.get(property);
+    }
+    if (reader == null) {
+      throw new ProcessingException(type, "Bean property without field or getter: %s", property);
+    }
+    return reader;
+  }
+
+  /**
+   * Returns the names under which properties can be written during deserialization. Unlike
+   * property names, these are case sensitive.
+   */
+  Collection<String> getWritableProperties() {
+    Set<String> result = new LinkedHashSet<>(setters.keySet());
+    result.addAll(fields.keySet());
+    return result;
+  }
+
+  /** Returns the setter or the field that the given property is written to, or null if none. */
+  Element getWriter(String property) {
+    Element writer = setters.get(property);
+    return writer != null ? writer : fields.get(property);
+  }
+
+  boolean isServerTimestamp(String property) {
+    return serverTimestamps.contains(property);
+  }
+
+  boolean isDocumentId(String property) {
+    return documentIdPropertyNames.contains(property);
+  }
+
+  /** Returns the properties that are annotated with {@code DocumentId}. */
+  Collection<String> getDocumentIdProperties() {
+    return documentIdPropertyNames;
+  }
+
+  private void collectProperties() {
+    List<? extends Element> members = elements.getAllMembers(type);
+
+    // Add any public getters to properties (including isXyz())
+    for (ExecutableElement method : ElementFilter.methodsIn(members)) {
+      if (shouldIncludeGetter(method)) {
+        String propertyName = propertyName(method);
+        addProperty(method, propertyName);
+        if (getters.containsKey(propertyName)) {
+          throw new ProcessingException(
+              method,
+              "Found conflicting getters for name %s on class %s",
+              method.getSimpleName(),
+              type.getQualifiedName());
+        }
+        getters.put(propertyName, method);
+        applyGetterAnnotations(method);
+      }
+    }
+
+    // Add any public fields to properties
+    for (VariableElement field : ElementFilter.fieldsIn(members)) {
+      if (shouldIncludeField(field)) {
+        addProperty(field, propertyName(field));
+        applyFieldAnnotations(field);
+      }
+    }
+
+    // Setters and fields of any visibility can be used for known properties, so traverse the
+    // class hierarchy to find them.
+    TypeElement currentClass = type;
+    do {
+      for (ExecutableElement method : ElementFilter.methodsIn(currentClass.getEnclosedElements())) {
+        if (shouldIncludeSetter(method)) {
+          addSetter(currentClass, method);
+        }
+      }
+
+      for (VariableElement field : ElementFilter.fieldsIn(currentClass.getEnclosedElements())) {
+        String propertyName = propertyName(field);
+
+        // Case sensitivity is checked at deserialization time
+        // Fields are only added if they don't exist on a subclass
+        if (properties.containsKey(propertyName.toLowerCase(Locale.US))
+            && !field.getModifiers().contains(Modifier.STATIC)
+            && !fields.containsKey(propertyName)) {
+          fields.put(propertyName, field);
+          applyFieldAnnotations(field);
+        }
+      }
+
+      TypeMirror superclass = currentClass.getSuperclass();
+      currentClass =
+          superclass.getKind() == TypeKind.DECLARED
+              ? (TypeElement) types.asElement(superclass)
+              : null;
+    } while (currentClass != null && !currentClass.getQualifiedName().contentEquals(OBJECT));
+
+    if (properties.isEmpty()) {
+      throw new ProcessingException(
+          type, "No properties to serialize found on class %s", type.getQualifiedName());
+    }
+
+    // Make sure we can write to @DocumentId annotated properties before proceeding.
+    for (String docIdProperty : documentIdPropertyNames) {
+      if (!setters.containsKey(docIdProperty) && !fields.containsKey(docIdProperty)) {
+        throw new ProcessingException(
+            type,
+            "@DocumentId is annotated on property %s of class %s but no field or public setter was"
+                + " found",
+            docIdProperty,
+            type.getQualifiedName());
+      }
+    }
+  }
+
+  private void addProperty(Element member, String property) {
+    String oldValue = properties.put(property.toLowerCase(Locale.US), property);
+    if (oldValue != null && !property.equals(oldValue)) {
+      throw new ProcessingException(
+          member,
+          "Found two getters or fields with conflicting case sensitivity for property: %s",
+          property.toLowerCase(Locale.US));
+    }
+  }
+
+  private void addSetter(TypeElement currentClass, ExecutableElement method) {
+    String propertyName = propertyName(method);
+    String existingPropertyName = properties.get(propertyName.toLowerCase(Locale.US));
+    if (existingPropertyName == null) {
+      return;
+    }
+
+    if (!existingPropertyName.equals(propertyName)) {
+      throw new ProcessingException(
+          method,
+          "Found setter on %s with invalid case-sensitive name: %s",
+          currentClass.getQualifiedName(),
+          method.getSimpleName());
+    }
+
+    ExecutableElement existingSetter = setters.get(propertyName);
+    if (existingSetter == null) {
+      setters.put(propertyName, method);
+      applySetterAnnotations(method);
+    } else if (!isSetterOverride(method, existingSetter)) {
+      // We require that setters with conflicting property names are overrides from a base class
+      if (currentClass.equals(type)) {
+        throw new ProcessingException(
+            method,
+            "Class %s has multiple setter overloads with name %s",
+            type.getQualifiedName(),
+            method.getSimpleName());
+      } else {
+        throw new ProcessingException(
+            method,
+            "Found conflicting setters with name: %s (conflicts with %s defined on %s)",
+            method.getSimpleName(),
+            existingSetter.getSimpleName(),
+            existingSetter.getEnclosingElement());
+      }
+    }
+  }
+
+  private void applyFieldAnnotations(VariableElement field) {
+    if (hasAnnotation(field, SERVER_TIMESTAMP)) {
+      TypeMirror fieldType = field.asType();
+      if (!isType(fieldType, DATE) && !isType(fieldType, TIMESTAMP)) {
+        throw new ProcessingException(
+            field,
+            "Field %s is annotated with @ServerTimestamp but is %s instead of Date or Timestamp.",
+            field.getSimpleName(),
+            fieldType);
+      }
+      serverTimestamps.add(propertyName(field));
+    }
+
+    if (hasAnnotation(field, DOCUMENT_ID)) {
+      ensureValidDocumentIdType(field, "Field", "is", field.asType());
+      documentIdPropertyNames.add(propertyName(field));
+    }
+  }
+
+  private void applyGetterAnnotations(ExecutableElement method) {
+    if (hasAnnotation(method, SERVER_TIMESTAMP)) {
+      TypeMirror returnType = method.getReturnType();
+      if (!isType(returnType, DATE) && !isType(returnType, TIMESTAMP)) {
+        throw new ProcessingException(
+            method,
+            "Method %s is annotated with @ServerTimestamp but returns %s instead of Date or"
+                + " Timestamp.",
+            method.getSimpleName(),
+            returnType);
+      }
+      serverTimestamps.add(propertyName(method));
+    }
+
+    // Even though the value will be skipped, we still check for type matching for consistency.
+    if (hasAnnotation(method, DOCUMENT_ID)) {
+      ensureValidDocumentIdType(method, "Method", "returns", method.getReturnType());
+      documentIdPropertyNames.add(propertyName(method));
+    }
+  }
+
+  private void applySetterAnnotations(ExecutableElement method) {
+    if (hasAnnotation(method, SERVER_TIMESTAMP)) {
+      throw new ProcessingException(
+          method,
+          "Method %s is annotated with @ServerTimestamp but should not be. @ServerTimestamp can"
+              + " only be applied to fields and getters, not setters.",
+          method.getSimpleName());
+    }
+
+    if (hasAnnotation(method, DOCUMENT_ID)) {
+      TypeMirror paramType = method.getParameters().get(0).asType();
+      ensureValidDocumentIdType(method, "Method", "accepts", paramType);
+      documentIdPropertyNames.add(propertyName(method));
+    }
+  }
+
+  private void ensureValidDocumentIdType(
+      Element element, String fieldDescription, String operation, TypeMirror type) {
+    if (!isType(type, STRING) && !isType(type, DOCUMENT_REFERENCE)) {
+      throw new ProcessingException(
+          element,
+          "%s is annotated with @DocumentId but %s %s instead of String or DocumentReference.",
+          fieldDescription,
+          operation,
+          type);
+    }
+  }
+
+  private static boolean shouldIncludeGetter(ExecutableElement method) {
+    String name = method.getSimpleName().toString();
+    if (!name.startsWith("get") && !name.startsWith("is")) {
+      return false;
+    }
+    // Exclude methods from Object.class
+    if (isDeclaredInObject(method)) {
+      return false;
+    }
+    // Non-public methods
+    if (!method.getModifiers().contains(Modifier.PUBLIC)) {
+      return false;
+    }
+    // Static methods
+    if (method.getModifiers().contains(Modifier.STATIC)) {
+      return false;
+    }
+    // No return type
+    if (method.getReturnType().getKind() == TypeKind.VOID) {
+      return false;
+    }
+    // Non-zero parameters
+    if (!method.getParameters().isEmpty()) {
+      return false;
+    }
+    // Excluded methods
+    if (hasAnnotation(method, EXCLUDE)) {
+      return false;
+    }
+    return true;
+  }
+
+  private static boolean shouldIncludeSetter(ExecutableElement method) {
+    if (!method.getSimpleName().toString().startsWith("set")) {
+      return false;
+    }
+    // Static methods
+    if (method.getModifiers().contains(Modifier.STATIC)) {
+      return false;
+    }
+    // Has a return type
+    if (method.getReturnType().getKind() != TypeKind.VOID) {
+      return false;
+    }
+    // Methods without exactly one parameters
+    if (method.getParameters().size() != 1) {
+      return false;
+    }
+    // Excluded methods
+    if (hasAnnotation(method, EXCLUDE)) {
+      return false;
+    }
+    return true;
+  }
+
+  private static boolean shouldIncludeField(VariableElement field) {
+    // Exclude fields from Object.class
+    if (isDeclaredInObject(field)) {
+      return false;
+    }
+    Set<Modifier> modifiers = field.getModifiers();
+    // Non-public, static or transient fields
+    if (!modifiers.contains(Modifier.PUBLIC)
+        || modifiers.contains(Modifier.STATIC)
+        || modifiers.contains(Modifier.TRANSIENT)) {
+      return false;
+    }
+    // Excluded fields
+    if (hasAnnotation(field, EXCLUDE)) {
+      return false;
+    }
+    return true;
+  }
+
+  private boolean isSetterOverride(ExecutableElement base, ExecutableElement override) {
+    return base.getSimpleName().equals(override.getSimpleName())
+        && types.isSameType(
+            types.erasure(base.getParameters().get(0).asType()),
+            types.erasure(override.getParameters().get(0).asType()));
+  }
+
+  private boolean isType(TypeMirror type, String qualifiedName) {
+    TypeElement element = elements.getTypeElement(qualifiedName);
+    return element != null && types.isSameType(type, element.asType());
+  }
+
+  private static boolean isDeclaredInObject(Element member) {
+    Element enclosing = member.getEnclosingElement();
+    return enclosing instanceof TypeElement
+        && ((TypeElement) enclosing).getQualifiedName().contentEquals(OBJECT);
+  }
+
+  private static String propertyName(VariableElement field) {
+    String annotatedName = annotatedName(field);
+    return annotatedName != null ? annotatedName : field.getSimpleName().toString();
+  }
+
+  private static String propertyName(ExecutableElement method) {
+    String annotatedName = annotatedName(method);
+    return annotatedName != null
+        ? annotatedName
+        : serializedName(method.getSimpleName().toString());
+  }
+
+  private static String annotatedName(Element element) {
+    AnnotationMirror annotation = getAnnotation(element, PROPERTY_NAME);
+    if (annotation == null) {
+      return null;
+    }
+    for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
+        annotation.getElementValues().entrySet()) {
+      if (entry.getKey().getSimpleName().contentEquals("value")) {
+        return (String) entry.getValue().getValue();
+      }
+    }
+    return null;
+  }
+
+  private static String serializedName(String methodName) {
+    String[] prefixes = new String[] {"get", "set", "is"};
+    String methodPrefix = null;
+    for (String prefix : prefixes) {
+      if (methodName.startsWith(prefix)) {
+        methodPrefix = prefix;
+      }
+    }
+    if (methodPrefix == null) {
+      throw new IllegalArgumentException("Unknown Bean prefix for method: " + methodName);
+    }
+    String strippedName = methodName.substring(methodPrefix.length());
+
+    // Make sure the first word or upper-case prefix is converted to lower-case
+    char[] chars = strippedName.toCharArray();
+    int pos = 0;
+    while (pos < chars.length && Character.isUpperCase(chars[pos])) {
+      chars[pos] = Character.toLowerCase(chars[pos]);
+      pos++;
+    }
+    return new String(chars);
+  }
+
+  static boolean hasAnnotation(Element element, String annotationName) {
+    return getAnnotation(element, annotationName) != null;
+  }
+
+  private static AnnotationMirror getAnnotation(Element element, String annotationName) {
+    for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+      TypeElement annotationType = (TypeElement) annotation.getAnnotationType().asElement();
+      if (annotationType.getQualifiedName().contentEquals(annotationName)) {
+        return annotation;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,427 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.processor;
+
+import com.google.auto.service.AutoService;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a {@code GeneratedMapper} for each class annotated with {@code Mappable}.
+ *
+ * <p>For a class {@code com.example.Foo}, the generated mapper is {@code
+ * com.example.AutoFooMapper}, which {@code CustomClassMapper} looks up by name at runtime.
+ */
+@AutoService(Processor.class)
+@SupportedAnnotationTypes(MappableProcessor.MAPPABLE_ANNOTATION)
+public class MappableProcessor extends AbstractProcessor {
+
+  static final String MAPPABLE_ANNOTATION = "com.google.firebase.firestore.Mappable";
+
+  private static final ClassName GENERATED_MAPPER =
+      ClassName.get("com.google.firebase.firestore.mapping", "GeneratedMapper");
+  private static final ClassName SERIALIZER = GENERATED_MAPPER.nestedClass("Serializer");
+  private static final ClassName DESERIALIZER = GENERATED_MAPPER.nestedClass("Deserializer");
+  private static final ClassName FIELD_VALUE =
+      ClassName.get("com.google.firebase.firestore", "FieldValue");
+  private static final TypeName VALUES =
+      ParameterizedTypeName.get(Map.class, String.class, Object.class);
+
+  private Elements elements;
+  private Types types;
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public synchronized void init(ProcessingEnvironment processingEnvironment) {
+    super.init(processingEnvironment);
+    elements = processingEnvironment.getElementUtils();
+    types = processingEnvironment.getTypeUtils();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> set, RoundEnvironment roundEnvironment) {
+    for (TypeElement annotation : set) {
+      for (Element element : roundEnvironment.getElementsAnnotatedWith(annotation)) {
+        try {
+          processClass(element);
+        } catch (ProcessingException e) {
+          processingEnv
+              .getMessager()
+              .printMessage(Diagnostic.Kind.ERROR, e.getMessage(), e.getElement());
+        }
+      }
+    }
+    return false;
+  }
+
+  private void processClass(Element element) {
+    // generates a class of the following shape:
+    //
+    // public final class AutoFooMapper extends GeneratedMapper<Foo> {
+    //   public Map<String, Object> serialize(Foo object, Serializer serializer) { ... }
+    //   public Foo deserialize(Map<String, Object> values, Deserializer deserializer) { ... }
+    // }
+    TypeElement type = validateClass(element);
+    Bean bean = new Bean(elements, types, type);
+
+    String packageName = packageName(type);
+    ClassName className = ClassName.get(packageName, "Auto" + generatedClassName(type) + "Mapper");
+    TypeName mappedType = TypeName.get(type.asType());
+
+    TypeSpec.Builder mapperBuilder =
+        TypeSpec.classBuilder(className)
+            .addJavadoc("@hide\n")
+            .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+            .superclass(ParameterizedTypeName.get(GENERATED_MAPPER, mappedType))
+            .addOriginatingElement(type);
+
+    List<FieldSpec> typeFields = new ArrayList<>();
+    MethodSpec deserializeMethod = deserializeMethod(type, bean, mappedType, typeFields);
+    mapperBuilder
+        .addFields(typeFields)
+        .addMethod(serializeMethod(type, bean, mappedType))
+        .addMethod(deserializeMethod);
+
+    try {
+      JavaFile.builder(packageName, mapperBuilder.build())
+          .build()
+          .writeTo(processingEnv.getFiler());
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  /**
+   * Checks that the generated mapper, which lives in the same package, can instantiate the class.
+   */
+  private TypeElement validateClass(Element element) {
+    if (element.getKind() != ElementKind.CLASS) {
+      throw new ProcessingException(element, "@Mappable can only be applied to classes");
+    }
+    TypeElement type = (TypeElement) element;
+    if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+      throw new ProcessingException(
+          type, "@Mappable cannot be applied to abstract class %s", type.getQualifiedName());
+    }
+    if (!type.getTypeParameters().isEmpty()) {
+      throw new ProcessingException(
+          type,
+          "Class %s has generic type parameters, which generated mappers do not support",
+          type.getQualifiedName());
+    }
+
+    for (Element current = type;
+        !(current instanceof PackageElement);
+        current = current.getEnclosingElement()) {
+      if (!(current instanceof TypeElement)) {
+        throw new ProcessingException(type, "@Mappable cannot be applied to local classes");
+      }
+      if (current.getModifiers().contains(Modifier.PRIVATE)) {
+        throw new ProcessingException(
+            type,
+            "Class %s is private. Make it package-private to use a generated mapper",
+            ((TypeElement) current).getQualifiedName());
+      }
+      if (current.getEnclosingElement() instanceof TypeElement
+          && !current.getModifiers().contains(Modifier.STATIC)) {
+        throw new ProcessingException(
+            type,
+            "Class %s is an inner class. Make it static to use a generated mapper",
+            ((TypeElement) current).getQualifiedName());
+      }
+    }
+
+    for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+      if (constructor.getParameters().isEmpty()
+          && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+        return type;
+      }
+    }
+    throw new ProcessingException(
+        type,
+        "Class %s does not define a non-private no-argument constructor",
+        type.getQualifiedName());
+  }
+
+  private MethodSpec serializeMethod(TypeElement type, Bean bean, TypeName mappedType) {
+    MethodSpec.Builder method =
+        MethodSpec.methodBuilder("serialize")
+            .addAnnotation(Override.class)
+            .addModifiers(Modifier.PUBLIC)
+            .returns(VALUES)
+            .addParameter(mappedType, "object")
+            .addParameter(SERIALIZER, "serializer")
+            .addStatement("$T result = new $T<>()", VALUES, HashMap.class);
+
+    for (String property : bean.getProperties()) {
+      // Skip @DocumentId annotated properties;
+      if (bean.isDocumentId(property)) {
+        continue;
+      }
+
+      Element reader = bean.getReader(property);
+      ensureAccessible(type, reader, "read");
+      CodeBlock value =
+          reader instanceof ExecutableElement
+              ? CodeBlock.of("object.$N()", reader.getSimpleName().toString())
+              : CodeBlock.of("object.$N", reader.getSimpleName().toString());
+
+      if (bean.isServerTimestamp(property)) {
+        // Replace null ServerTimestamp-annotated fields with the sentinel.
+        method
+            .beginControlFlow("if ($L != null)", value)
+            .addStatement("result.put($S, serializer.serialize($L, $S))", property, value, property)
+            .nextControlFlow("else")
+            .addStatement("result.put($S, $T.serverTimestamp())", property, FIELD_VALUE)
+            .endControlFlow();
+      } else {
+        method.addStatement(
+            "result.put($S, serializer.serialize($L, $S))", property, value, property);
+      }
+    }
+
+    return method.addStatement("return result").build();
+  }
+
+  private MethodSpec deserializeMethod(
+      TypeElement type, Bean bean, TypeName mappedType, List<FieldSpec> typeFields) {
+    MethodSpec.Builder method =
+        MethodSpec.methodBuilder("deserialize")
+            .addAnnotation(Override.class)
+            .addModifiers(Modifier.PUBLIC)
+            .returns(mappedType)
+            .addParameter(VALUES, "values")
+            .addParameter(DESERIALIZER, "deserializer")
+            .addStatement("$T instance = new $T()", mappedType, mappedType)
+            .beginControlFlow(
+                "for ($T<$T, $T> entry : values.entrySet())",
+                Map.Entry.class,
+                String.class,
+                Object.class)
+            .beginControlFlow("switch (entry.getKey())");
+
+    for (String property : bean.getWritableProperties()) {
+      Element writer = bean.getWriter(property);
+      ensureAccessible(type, writer, "write");
+      TypeMirror valueType = writerType(writer);
+      CodeBlock typeLiteral = typeLiteral(writer, valueType);
+      if (valueType instanceof DeclaredType
+          && !((DeclaredType) valueType).getTypeArguments().isEmpty()) {
+        // Parameterized types are created once per mapper.
+        FieldSpec typeField =
+            FieldSpec.builder(
+                    Type.class,
+                    "TYPE_" + typeFields.size(),
+                    Modifier.PRIVATE,
+                    Modifier.STATIC,
+                    Modifier.FINAL)
+                .initializer(typeLiteral)
+                .build();
+        typeFields.add(typeField);
+        typeLiteral = CodeBlock.of("$N", typeField);
+      }
+
+      CodeBlock value =
+          CodeBlock.of(
+              "deserializer.<$T>deserialize(entry.getValue(), $L, $S)",
+              TypeName.get(valueType).box(),
+              typeLiteral,
+              property);
+      method.addCode("case $S:\n$>", property);
+      addWrite(method, writer, value);
+      method.addStatement("break").addCode("$<");
+    }
+
+    method.addCode("default:\n$>");
+    if (Bean.hasAnnotation(type, Bean.THROW_ON_EXTRA_PROPERTIES)) {
+      method.addStatement("deserializer.handleUnknownProperty(entry.getKey(), true)");
+    } else if (!Bean.hasAnnotation(type, Bean.IGNORE_EXTRA_PROPERTIES)) {
+      method.addStatement("deserializer.handleUnknownProperty(entry.getKey(), false)");
+    }
+    method.addStatement("break").addCode("$<").endControlFlow().endControlFlow();
+
+    // Populate @DocumentId annotated properties, which must not be read from the document.
+    for (String property : bean.getDocumentIdProperties()) {
+      Element writer = bean.getWriter(property);
+      ensureAccessible(type, writer, "write");
+      method
+          .beginControlFlow("if (values.containsKey($S))", property)
+          .addStatement("throw deserializer.documentIdConflict($S)", property)
+          .endControlFlow();
+      TypeElement string = elements.getTypeElement(Bean.STRING);
+      addWrite(
+          method,
+          writer,
+          types.isSameType(writerType(writer), string.asType())
+              ? CodeBlock.of("deserializer.getDocumentReference().getId()")
+              : CodeBlock.of("deserializer.getDocumentReference()"));
+    }
+
+    return method.addStatement("return instance").build();
+  }
+
+  private static void addWrite(MethodSpec.Builder method, Element writer, CodeBlock value) {
+    String name = writer.getSimpleName().toString();
+    if (writer instanceof ExecutableElement) {
+      method.addStatement("instance.$N($L)", name, value);
+    } else {
+      method.addStatement("instance.$N = $L", name, value);
+    }
+  }
+
+  private static TypeMirror writerType(Element writer) {
+    return writer instanceof ExecutableElement
+        ? ((ExecutableElement) writer).getParameters().get(0).asType()
+        : writer.asType();
+  }
+
+  /**
+   * Returns an expression that evaluates to the {@link Type} of the given type mirror, as returned
+   * by {@code Method.getGenericParameterTypes()} or {@code Field.getGenericType()}.
+   *
+   * <p>Wildcards are replaced with their upper bound, which is how {@code CustomClassMapper}
+   * deserializes them.
+   */
+  private CodeBlock typeLiteral(Element writer, TypeMirror type) {
+    switch (type.getKind()) {
+      case BOOLEAN:
+      case BYTE:
+      case SHORT:
+      case INT:
+      case LONG:
+      case CHAR:
+      case FLOAT:
+      case DOUBLE:
+      case ARRAY:
+        return CodeBlock.of("$T.class", TypeName.get(types.erasure(type)));
+      case DECLARED:
+        List<? extends TypeMirror> typeArguments = ((DeclaredType) type).getTypeArguments();
+        if (typeArguments.isEmpty()) {
+          return CodeBlock.of("$T.class", TypeName.get(types.erasure(type)));
+        }
+        CodeBlock.Builder literal =
+            CodeBlock.builder()
+                .add("parameterizedType($T.class", TypeName.get(types.erasure(type)));
+        for (TypeMirror typeArgument : typeArguments) {
+          literal.add(", $L", typeLiteral(writer, typeArgument));
+        }
+        return literal.add(")").build();
+      case WILDCARD:
+        WildcardType wildcard = (WildcardType) type;
+        if (wildcard.getSuperBound() != null) {
+          throw new ProcessingException(
+              writer, "Generic lower-bounded wildcard types are not supported");
+        }
+        return wildcard.getExtendsBound() != null
+            ? typeLiteral(writer, wildcard.getExtendsBound())
+            : CodeBlock.of("$T.class", Object.class);
+      default:
+        throw new ProcessingException(
+            writer, "Generated mappers cannot deserialize values of type %s", type);
+    }
+  }
+
+  /** Checks that the generated mapper can access the given member of the mapped class. */
+  private void ensureAccessible(TypeElement type, Element member, String operation) {
+    Set<Modifier> modifiers = member.getModifiers();
+    boolean accessible =
+        modifiers.contains(Modifier.PUBLIC)
+            || (!modifiers.contains(Modifier.PRIVATE)
+                && packageName(member).equals(packageName(type)));
+    if (!accessible) {
+      throw new ProcessingException(
+          member,
+          "Generated mapper for class %s cannot %s property %s because %s is not accessible from"
+              + " package %s. Make it package-private or public, or remove @Mappable to map the"
+              + " class with reflection",
+          type.getQualifiedName(),
+          operation,
+          member.getSimpleName(),
+          member.getSimpleName(),
+          packageName(type));
+    }
+    if (member instanceof VariableElement
+        && operation.equals("write")
+        && modifiers.contains(Modifier.FINAL)) {
+      throw new ProcessingException(
+          member,
+          "Generated mapper for class %s cannot write to final field %s",
+          type.getQualifiedName(),
+          member.getSimpleName());
+    }
+  }
+
+  /**
+   * Returns the class name that corresponds to a given element.
+   *
+   * <p>For top level classes returns the class name unchanged. For nested classes returns {@code
+   * ParentNested} for {@code Parent$Nested} classes.
+   */
+  private static String generatedClassName(Element element) {
+    StringBuilder sb = new StringBuilder(element.getSimpleName().toString());
+    Element enclosingElement = element.getEnclosingElement();
+    while (!(enclosingElement instanceof PackageElement)) {
+      sb.insert(0, enclosingElement.getSimpleName().toString());
+      enclosingElement = enclosingElement.getEnclosingElement();
+    }
+    return sb.toString();
+  }
+
+  /** Returns the package name of an element. */
+  private static String packageName(Element element) {
+    Element enclosingElement = element.getEnclosingElement();
+    while (!(enclosingElement instanceof PackageElement)) {
+      enclosingElement = enclosingElement.getEnclosingElement();
+    }
+    return ((PackageElement) enclosingElement).getQualifiedName().toString();
+  }
+}
@@ -0,0 +1,32 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.processor;
+
+import javax.lang.model.element.Element;
+
+/** Thrown if a class cannot be mapped by a generated mapper. */
+final class ProcessingException extends RuntimeException {
+  private final Element element;
+
+  ProcessingException(Element element, String format, Object... args) {
+    super(String.format(format, args));
+    this.element = element;
+  }
+
+  /** Returns the element that caused the error. */
+  Element getElement() {
+    return element;
+  }
+}
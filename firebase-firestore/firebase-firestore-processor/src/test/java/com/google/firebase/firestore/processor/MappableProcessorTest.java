@@ -0,0 +1,285 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.processor;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+
+import com.google.common.truth.StringSubject;
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.tools.JavaFileObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class MappableProcessorTest {
+
+  /** Minimal versions of the Firestore classes that generated mappers depend on. */
+  private static final List<JavaFileObject> FIRESTORE_STUBS =
+      Arrays.asList(
+          annotation("Mappable"),
+          annotation("DocumentId"),
+          annotation("Exclude"),
+          annotation("IgnoreExtraProperties"),
+          annotation("ServerTimestamp"),
+          annotation("ThrowOnExtraProperties"),
+          JavaFileObjects.forSourceLines(
+              "com.google.firebase.firestore.PropertyName",
+              "package com.google.firebase.firestore;",
+              "public @interface PropertyName { String value(); }"),
+          JavaFileObjects.forSourceLines(
+              "com.google.firebase.firestore.DocumentReference",
+              "package com.google.firebase.firestore;",
+              "public class DocumentReference { public String getId() { return null; } }"),
+          JavaFileObjects.forSourceLines(
+              "com.google.firebase.firestore.FieldValue",
+              "package com.google.firebase.firestore;",
+              "public class FieldValue {",
+              "  public static FieldValue serverTimestamp() { return null; }",
+              "}"),
+          JavaFileObjects.forSourceLines(
+              "com.google.firebase.Timestamp",
+              "package com.google.firebase;",
+              "public class Timestamp {}"),
+          JavaFileObjects.forSourceLines(
+              "com.google.firebase.firestore.mapping.GeneratedMapper",
+              "package com.google.firebase.firestore.mapping;",
+              "import com.google.firebase.firestore.DocumentReference;",
+              "import java.lang.reflect.Type;",
+              "import java.util.Map;",
+              "public abstract class GeneratedMapper<T> {",
+              "  public interface Serializer { Object serialize(Object value, String property); }",
+              "  public interface Deserializer {",
+              "    <V> V deserialize(Object value, Type type, String property);",
+              "    DocumentReference getDocumentReference();",
+              "    void handleUnknownProperty(String property, boolean throwError);",
+              "    RuntimeException documentIdConflict(String property);",
+              "  }",
+              "  public abstract Map<String, Object> serialize(T object, Serializer serializer);",
+              "  public abstract T deserialize(",
+              "      Map<String, Object> values, Deserializer deserializer);",
+              "  protected static Type parameterizedType(Class<?> rawType, Type... arguments) {",
+              "    return null;",
+              "  }",
+              "}"));
+
+  private static JavaFileObject annotation(String name) {
+    return JavaFileObjects.forSourceLines(
+        "com.google.firebase.firestore." + name,
+        "package com.google.firebase.firestore;",
+        "public @interface " + name + " {}");
+  }
+
+  /** Returns the source of the given generated class, with all whitespace collapsed. */
+  private static String generatedCode(Compilation result, String className) throws IOException {
+    JavaFileObject file = result.generatedSourceFile(className).get();
+    String code = file.getCharContent(/* ignoreEncodingErrors= */ false).toString();
+    return code.replaceAll("\\s+", " ");
+  }
+
+  private static Compilation compile(JavaFileObject... sources) {
+    List<JavaFileObject> files = new ArrayList<>(FIRESTORE_STUBS);
+    files.addAll(Arrays.asList(sources));
+    return javac().withProcessors(new MappableProcessor()).compile(files);
+  }
+
+  @Test
+  public void compile_validClass_shouldProduceValidMapper() throws IOException {
+    Compilation result =
+        compile(
+            JavaFileObjects.forSourceLines(
+                "com.example.SimpleClass",
+                "package com.example;",
+                "import com.google.firebase.firestore.Exclude;",
+                "import com.google.firebase.firestore.Mappable;",
+                "import com.google.firebase.firestore.PropertyName;",
+                "@Mappable public class SimpleClass {",
+                "  private String name;",
+                "  int count;",
+                "  public boolean active;",
+                "  public String getName() { return name; }",
+                "  public void setName(String name) { this.name = name; }",
+                "  public int getCount() { return count; }",
+                "  @PropertyName(\"foo\") public long getField() { return 0; }",
+                "  @Exclude public long getIgnored() { return 1; }",
+                "}"));
+
+    assertThat(result).succeededWithoutWarnings();
+    StringSubject mapper = assertThat(generatedCode(result, "com.example.AutoSimpleClassMapper"));
+    mapper.contains("class AutoSimpleClassMapper extends GeneratedMapper<SimpleClass>");
+    mapper.contains("result.put(\"active\", serializer.serialize(object.active, \"active\"));");
+    mapper.contains("result.put(\"count\", serializer.serialize(object.getCount(), \"count\"));");
+    mapper.contains("result.put(\"foo\", serializer.serialize(object.getField(), \"foo\"));");
+    mapper.doesNotContain("ignored");
+    mapper.contains(
+        "instance.setName(deserializer.<String>deserialize(entry.getValue(), String.class, "
+            + "\"name\"));");
+    mapper.contains(
+        "instance.count = deserializer.<Integer>deserialize(entry.getValue(), int.class, "
+            + "\"count\");");
+    mapper.contains("deserializer.handleUnknownProperty(entry.getKey(), false);");
+  }
+
+  @Test
+  public void compile_withGenericProperties_shouldCreateParameterizedTypes() throws IOException {
+    Compilation result =
+        compile(
+            JavaFileObjects.forSourceLines(
+                "com.example.GenericProperties",
+                "package com.example;",
+                "import com.google.firebase.firestore.Mappable;",
+                "import java.util.List;",
+                "import java.util.Map;",
+                "@Mappable public class GenericProperties {",
+                "  public List<String> names;",
+                "  public Map<String, List<? extends Number>> numbers;",
+                "}"));
+
+    assertThat(result).succeededWithoutWarnings();
+    assertThat(generatedCode(result, "com.example.AutoGenericPropertiesMapper"))
+        .contains(
+            "TYPE_1 = parameterizedType(Map.class, String.class, "
+                + "parameterizedType(List.class, Number.class))");
+  }
+
+  @Test
+  public void compile_withServerTimestampAndDocumentId_shouldSucceed() throws IOException {
+    Compilation result =
+        compile(
+            JavaFileObjects.forSourceLines(
+                "com.example.Annotated",
+                "package com.example;",
+                "import com.google.firebase.firestore.DocumentId;",
+                "import com.google.firebase.firestore.Mappable;",
+                "import com.google.firebase.firestore.ServerTimestamp;",
+                "import com.google.firebase.firestore.ThrowOnExtraProperties;",
+                "import java.util.Date;",
+                "@Mappable @ThrowOnExtraProperties public class Annotated {",
+                "  @DocumentId public String id;",
+                "  @ServerTimestamp public Date updated;",
+                "}"));
+
+    assertThat(result).succeededWithoutWarnings();
+    StringSubject mapper = assertThat(generatedCode(result, "com.example.AutoAnnotatedMapper"));
+    mapper.contains("instance.id = deserializer.getDocumentReference().getId();");
+    mapper.contains("result.put(\"updated\", FieldValue.serverTimestamp());");
+    mapper.contains("deserializer.handleUnknownProperty(entry.getKey(), true);");
+  }
+
+  @Test
+  public void compileNested_shouldSucceed() {
+    Compilation result =
+        compile(
+            JavaFileObjects.forSourceLines(
+                "com.example.Outer",
+                "package com.example;",
+                "import com.google.firebase.firestore.Mappable;",
+                "public class Outer {",
+                "  @Mappable public static class Nested {",
+                "    public int value;",
+                "  }",
+                "}"));
+
+    assertThat(result).succeededWithoutWarnings();
+    assertThat(result).generatedSourceFile("com.example.AutoOuterNestedMapper");
+  }
+
+  @Test
+  public void compile_withPrivateFieldWithoutSetter_shouldFail() {
+    Compilation result =
+        compile(
+            JavaFileObjects.forSourceLines(
+                "com.example.PrivateField",
+                "package com.example;",
+                "import com.google.firebase.firestore.Mappable;",
+                "@Mappable public class PrivateField {",
+                "  private String name;",
+                "  public String getName() { return name; }",
+                "}"));
+
+    assertThat(result)
+        .hadErrorContaining("cannot write property name because name is not accessible");
+  }
+
+  @Test
+  public void compile_withGenericClass_shouldFail() {
+    Compilation result =
+        compile(
+            JavaFileObjects.forSourceLines(
+                "com.example.GenericClass",
+                "package com.example;",
+                "import com.google.firebase.firestore.Mappable;",
+                "@Mappable public class GenericClass<T> {",
+                "  public T value;",
+                "}"));
+
+    assertThat(result).hadErrorContaining("has generic type parameters");
+  }
+
+  @Test
+  public void compile_withoutNoArgumentConstructor_shouldFail() {
+    Compilation result =
+        compile(
+            JavaFileObjects.forSourceLines(
+                "com.example.NoConstructor",
+                "package com.example;",
+                "import com.google.firebase.firestore.Mappable;",
+                "@Mappable public class NoConstructor {",
+                "  public String value;",
+                "  public NoConstructor(String value) { this.value = value; }",
+                "}"));
+
+    assertThat(result).hadErrorContaining("does not define a non-private no-argument constructor");
+  }
+
+  @Test
+  public void compile_withConflictingGetters_shouldFail() {
+    Compilation result =
+        compile(
+            JavaFileObjects.forSourceLines(
+                "com.example.ConflictingGetters",
+                "package com.example;",
+                "import com.google.firebase.firestore.Mappable;",
+                "@Mappable public class ConflictingGetters {",
+                "  public boolean getValue() { return false; }",
+                "  public boolean isValue() { return false; }",
+                "}"));
+
+    assertThat(result).hadErrorContaining("Found conflicting getters");
+  }
+
+  @Test
+  public void compile_withServerTimestampOnString_shouldFail() {
+    Compilation result =
+        compile(
+            JavaFileObjects.forSourceLines(
+                "com.example.InvalidTimestamp",
+                "package com.example;",
+                "import com.google.firebase.firestore.Mappable;",
+                "import com.google.firebase.firestore.ServerTimestamp;",
+                "@Mappable public class InvalidTimestamp {",
+                "  @ServerTimestamp public String value;",
+                "}"));
+
+    assertThat(result).hadErrorContaining("is annotated with @ServerTimestamp but is");
+  }
+}
@@ -41,6 +41,7 @@ import static org.junit.Assert.fail;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import com.google.android.gms.tasks.Task;
 import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.Timestamp;
 import com.google.firebase.firestore.FirebaseFirestoreException.Code;
@@ -1241,4 +1242,21 @@ public class FirestoreTest {
 
     assertTrue(awaitsPendingWrites.isComplete() && awaitsPendingWrites.isSuccessful());
   }
+
+  @Test
+  public void testWritePipelineStatsCountAcknowledgedWrites() {
+    CollectionReference collection = testCollection();
+    FirebaseFirestore firestore = collection.getFirestore();
+
+    List<Task<Void>> writes = new ArrayList<>();
+    for (int i = 0; i < 5; ++i) {
+      writes.add(collection.document("doc" + i).set(map("value", i)));
+    }
+    waitFor(Tasks.whenAll(writes));
+
+    WritePipelineStats stats = waitFor(firestore.getWritePipelineStats());
+    assertEquals(0, stats.getInFlightCount());
+    assertTrue(stats.getMaxInFlightCount() >= 1);
+    assertTrue(stats.getMaxInFlightCount() <= stats.getPipelineSize());
+  }
 }
@@ -31,10 +31,12 @@ import static org.junit.Assert.assertTrue;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.firestore.Query.Direction;
 import com.google.firebase.firestore.testutil.EventAccumulator;
 import com.google.firebase.firestore.testutil.IntegrationTestUtil;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Semaphore;
@@ -679,4 +681,34 @@ public class QueryTest {
                 .get());
     assertEquals(asList("cg-doc2"), querySnapshotToIds(querySnapshot));
   }
+
+  @Test
+  public void testExistenceFilterStatsAfterDocumentsWereDeletedElsewhere() {
+    Map<String, Map<String, Object>> docs = new HashMap<>();
+    for (int i = 0; i < 10; ++i) {
+      docs.put("doc" + i, map("value", i));
+    }
+    CollectionReference collection = testCollectionWithDocs(docs);
+    FirebaseFirestore firestore = collection.getFirestore();
+
+    // Populate the cache and the resume token of the query.
+    assertEquals(10, waitFor(collection.get()).size());
+
+    // Delete documents from another instance, so that they remain in the cache of the first one.
+    CollectionReference otherCollection = testFirestore().collection(collection.getPath());
+    List<Task<Void>> deletes = new ArrayList<>();
+    for (int i = 0; i < 5; ++i) {
+      deletes.add(otherCollection.document("doc" + i).delete());
+    }
+    waitFor(Tasks.whenAll(deletes));
+
+    // The backend may report an existence filter mismatch when the query is resumed. Without
+    // incremental resync, each mismatch resets the target.
+    assertEquals(5, waitFor(collection.get(Source.SERVER)).size());
+
+    ExistenceFilterStats stats = waitFor(firestore.getExistenceFilterStats());
+    assertEquals(0, stats.getRecoveredQueryCount());
+    assertEquals(stats.getMismatchCount(), stats.getResetQueryCount());
+    assertEquals(0, stats.getReusedDocumentCount());
+  }
 }
@@ -0,0 +1,117 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore;
+
+import static com.google.firebase.firestore.testutil.IntegrationTestUtil.testCollection;
+import static com.google.firebase.firestore.testutil.IntegrationTestUtil.waitFor;
+import static com.google.firebase.firestore.testutil.IntegrationTestUtil.waitForException;
+import static org.junit.Assert.assertEquals;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.firebase.firestore.model.ResourcePath;
+import com.google.firebase.firestore.proto.SnapshotFileElement;
+import com.google.firebase.firestore.proto.SnapshotFileMetadata;
+import com.google.firebase.firestore.proto.SnapshotFileQuery;
+import com.google.firebase.firestore.remote.RemoteSerializer;
+import com.google.firebase.firestore.testutil.IntegrationTestUtil;
+import com.google.firestore.v1.Value;
+import com.google.protobuf.ByteString;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public final class SnapshotFileTest {
+
+  /** More documents than fit into a single batch of the snapshot file reader. */
+  private static final int DOCUMENT_COUNT = 600;
+
+  @After
+  public void tearDown() {
+    IntegrationTestUtil.tearDown();
+  }
+
+  /** Returns a snapshot file with documents in the given collection, followed by its query. */
+  private static byte[] snapshotFile(CollectionReference collection) throws IOException {
+    FirebaseFirestore db = collection.getFirestore();
+    RemoteSerializer serializer = new RemoteSerializer(db.getDatabaseId());
+    com.google.protobuf.Timestamp readTime =
+        com.google.protobuf.Timestamp.newBuilder().setSeconds(1).build();
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    SnapshotFileElement.newBuilder()
+        .setMetadata(
+            SnapshotFileMetadata.newBuilder()
+                .setCreateTime(readTime)
+                .setTotalDocuments(DOCUMENT_COUNT))
+        .build()
+        .writeDelimitedTo(output);
+
+    SnapshotFileQuery.Builder query =
+        SnapshotFileQuery.newBuilder()
+            .setQuery(
+                serializer.encodeQueryTarget(
+                    com.google.firebase.firestore.core.Query.atPath(
+                            ResourcePath.fromString(collection.getPath()))
+                        .toTarget()))
+            .setReadTime(readTime)
+            .setResumeToken(ByteString.copyFromUtf8("token"));
+    for (int i = 0; i < DOCUMENT_COUNT; ++i) {
+      String name = serializer.databaseName() + "/documents/" + collection.getPath() + "/doc" + i;
+      SnapshotFileElement.newBuilder()
+          .setDocument(
+              com.google.firestore.v1.Document.newBuilder()
+                  .setName(name)
+                  .putFields("value", Value.newBuilder().setIntegerValue(i).build())
+                  .setUpdateTime(readTime))
+          .build()
+          .writeDelimitedTo(output);
+      query.addDocumentNames(name);
+    }
+    SnapshotFileElement.newBuilder().setQuery(query).build().writeDelimitedTo(output);
+    return output.toByteArray();
+  }
+
+  @Test
+  public void loadsSnapshotFileIntoCache() throws IOException {
+    CollectionReference collection = testCollection();
+    byte[] file = snapshotFile(collection);
+
+    SnapshotFileProgress progress =
+        waitFor(collection.getFirestore().loadSnapshotFile(new ByteArrayInputStream(file)));
+    assertEquals(DOCUMENT_COUNT, progress.getDocumentsLoaded());
+
+    QuerySnapshot snapshot = waitFor(collection.get(Source.CACHE));
+    assertEquals(DOCUMENT_COUNT, snapshot.size());
+  }
+
+  @Test
+  public void rejectsTruncatedSnapshotFile() throws IOException {
+    CollectionReference collection = testCollection();
+    byte[] file = snapshotFile(collection);
+    byte[] truncated = Arrays.copyOf(file, file.length - 1);
+
+    Exception e =
+        waitForException(
+            collection.getFirestore().loadSnapshotFile(new ByteArrayInputStream(truncated)));
+    assertEquals(
+        FirebaseFirestoreException.Code.INVALID_ARGUMENT,
+        ((FirebaseFirestoreException) e).getCode());
+  }
+}
@@ -610,6 +610,32 @@ public class TransactionTest {
     assertEquals(map("foo", "bar"), snapshot.getData());
   }
 
+  @Test
+  public void testGetAllReadsDocumentsInOrder() {
+    FirebaseFirestore firestore = testFirestore();
+    DocumentReference doc1 = firestore.collection("foo").document();
+    DocumentReference doc2 = firestore.collection("foo").document();
+    DocumentReference doc3 = firestore.collection("foo").document();
+    waitFor(doc1.set(map("count", 1)));
+    waitFor(doc3.set(map("count", 3)));
+    waitFor(
+        firestore.runTransaction(
+            transaction -> {
+              List<DocumentSnapshot> snapshots =
+                  transaction.getAll(Arrays.asList(doc3, doc2, doc1));
+              assertEquals(3, snapshots.size());
+              assertEquals(doc3, snapshots.get(0).getReference());
+              assertEquals(map("count", 3L), snapshots.get(0).getData());
+              assertFalse(snapshots.get(1).exists());
+              assertEquals(map("count", 1L), snapshots.get(2).getData());
+
+              transaction.set(doc2, map("count", 2));
+              return null;
+            }));
+    DocumentSnapshot snapshot = waitFor(doc2.get());
+    assertEquals(map("count", 2L), snapshot.getData());
+  }
+
   @Test
   public void testDoesNotRetryOnPermanentError() {
     final FirebaseFirestore firestore = testFirestore();
@@ -0,0 +1,167 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.local;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.firebase.firestore.testutil.TestUtil.doc;
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static com.google.firebase.firestore.testutil.TestUtil.query;
+import static com.google.firebase.firestore.testutil.TestUtil.version;
+import static org.junit.Assume.assumeTrue;
+
+import android.content.Context;
+import android.util.Log;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import com.google.firebase.firestore.core.Query;
+import com.google.firebase.firestore.model.DatabaseId;
+import com.google.firebase.firestore.model.SnapshotVersion;
+import com.google.firebase.firestore.remote.RemoteSerializer;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the time it takes to read and decode all documents of a collection from the SQLite
+ * RemoteDocumentCache.
+ *
+ * <p>Each benchmark runs a number of warmup iterations followed by measured iterations and logs
+ * the average and minimum time per operation. The benchmarks are skipped unless the instrumentation
+ * argument {@code runBenchmarks} is set to {@code true}, e.g.:
+ *
+ * <pre>
+ * ./gradlew :firebase-firestore:connectedCheck \
+ *     -Pandroid.testInstrumentationRunnerArguments.runBenchmarks=true \
+ *     -Pandroid.testInstrumentationRunnerArguments.class=\
+ *         com.google.firebase.firestore.local.RemoteDocumentCacheBenchmark
+ * </pre>
+ */
+@RunWith(AndroidJUnit4.class)
+public class RemoteDocumentCacheBenchmark {
+  private static final String TAG = "RemoteDocumentCacheBenchmark";
+
+  private static final int WARMUP_ITERATIONS = 2;
+  private static final int MEASURED_ITERATIONS = 5;
+
+  /** The number of documents that are written in a single transaction during setup. */
+  private static final int WRITE_BATCH_SIZE = 10000;
+
+  private Context context;
+  private DatabaseId databaseId;
+  private String persistenceKey;
+  private SQLitePersistence persistence;
+  private RemoteDocumentCache remoteDocumentCache;
+
+  @Before
+  public void setUp() {
+    assumeTrue(
+        "Benchmarks are only run if 'runBenchmarks' is set",
+        Boolean.parseBoolean(InstrumentationRegistry.getArguments().getString("runBenchmarks")));
+
+    context = ApplicationProvider.getApplicationContext();
+    databaseId = DatabaseId.forProject("benchmark");
+    persistenceKey = "benchmark-" + System.currentTimeMillis();
+    LocalSerializer serializer = new LocalSerializer(new RemoteSerializer(databaseId));
+    persistence =
+        new SQLitePersistence(
+            context, persistenceKey, databaseId, serializer, LruGarbageCollector.Params.Default());
+    persistence.start();
+    remoteDocumentCache = persistence.getRemoteDocumentCache();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (persistence != null) {
+      persistence.shutdown();
+      SQLitePersistence.clearPersistence(context, databaseId, persistenceKey);
+    }
+  }
+
+  @Test
+  public void collectionScan10k() {
+    runCollectionScan(10000);
+  }
+
+  @Test
+  public void collectionScan100k() {
+    runCollectionScan(100000);
+  }
+
+  @Test
+  public void collectionScan1m() {
+    runCollectionScan(1000000);
+  }
+
+  private void runCollectionScan(int documentCount) {
+    writeDocuments("coll", documentCount);
+    Query query = query("coll");
+
+    for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+      scan(query, documentCount);
+    }
+
+    long[] durations = new long[MEASURED_ITERATIONS];
+    for (int i = 0; i < MEASURED_ITERATIONS; ++i) {
+      long start = System.nanoTime();
+      scan(query, documentCount);
+      durations[i] = System.nanoTime() - start;
+    }
+
+    Arrays.sort(durations);
+    long total = 0;
+    for (long duration : durations) {
+      total += duration;
+    }
+    Log.i(
+        TAG,
+        String.format(
+            "collectionScan(%d documents): avg %.2f ms/op, min %.2f ms/op (%d iterations)",
+            documentCount,
+            total / (double) MEASURED_ITERATIONS / 1e6,
+            durations[0] / 1e6,
+            MEASURED_ITERATIONS));
+  }
+
+  private void scan(Query query, int expectedCount) {
+    int resultCount =
+        persistence.runTransaction(
+            "Benchmark scan",
+            () -> remoteDocumentCache.getAllDocumentsMatchingQuery(query, SnapshotVersion.NONE))
+            .size();
+    assertThat(resultCount).isEqualTo(expectedCount);
+  }
+
+  private void writeDocuments(String collection, int documentCount) {
+    for (int offset = 0; offset < documentCount; offset += WRITE_BATCH_SIZE) {
+      int batchStart = offset;
+      int batchEnd = Math.min(documentCount, offset + WRITE_BATCH_SIZE);
+      persistence.runTransaction(
+          "Benchmark setup",
+          () -> {
+            for (int i = batchStart; i < batchEnd; ++i) {
+              remoteDocumentCache.add(
+                  doc(
+                      String.format("%s/doc%07d", collection, i),
+                      1,
+                      map("id", i, "name", "document " + i, "tags", Arrays.asList("a", "b"))),
+                  version(1));
+            }
+          });
+    }
+  }
+}
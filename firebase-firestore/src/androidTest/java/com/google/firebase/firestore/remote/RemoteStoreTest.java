@@ -79,7 +79,14 @@ public class RemoteStoreTest {
     persistence.start();
     LocalStore localStore = new LocalStore(persistence, queryEngine, User.UNAUTHENTICATED);
     RemoteStore remoteStore =
-        new RemoteStore(callback, localStore, datastore, testQueue, connectivityMonitor);
+        new RemoteStore(
+            callback,
+            localStore,
+            datastore,
+            testQueue,
+            connectivityMonitor,
+            /* adaptiveWritePipeliningEnabled= */ false,
+            /* existenceFilterRecoveryEnabled= */ false);
 
     waitFor(testQueue.enqueue(() -> remoteStore.forceEnableNetwork()));
     drain(testQueue);
@@ -14,15 +14,13 @@
 
 package com.google.firebase.firestore;
 
-import static com.google.firebase.firestore.util.Assert.hardAssert;
-
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import com.google.firebase.firestore.core.DocumentViewChange;
 import com.google.firebase.firestore.core.ViewSnapshot;
 import com.google.firebase.firestore.model.Document;
-import com.google.firebase.firestore.model.DocumentSet;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -123,42 +121,49 @@ public class DocumentChange {
     return newIndex;
   }
 
-  /** Creates the list of document changes from a {@code ViewSnapshot}. */
+  /**
+   * Creates the list of document changes from a {@code ViewSnapshot}. The indexes of the changes
+   * are shared by all listeners that receive the snapshot, and each {@code DocumentChange} is only
+   * created once it is accessed.
+   */
   static List<DocumentChange> changesFromSnapshot(
       FirebaseFirestore firestore, MetadataChanges metadataChanges, ViewSnapshot snapshot) {
-    List<DocumentChange> documentChanges = new ArrayList<>();
-    if (snapshot.getOldDocuments().isEmpty()) {
-      // Special case the first snapshot because index calculation is easy and fast. Also all
-      // changes on the first snapshot are adds so there are also no metadata-only changes to filter
-      // out.
-      int index = 0;
-      Document lastDoc = null;
-      for (DocumentViewChange change : snapshot.getChanges()) {
-        Document document = change.getDocument();
-        QueryDocumentSnapshot documentSnapshot =
-            QueryDocumentSnapshot.fromDocument(
-                firestore,
-                document,
-                snapshot.isFromCache(),
-                snapshot.getMutatedKeys().contains(document.getKey()));
-        hardAssert(
-            change.getType() == DocumentViewChange.Type.ADDED,
-            "Invalid added event for first snapshot");
-        hardAssert(
-            lastDoc == null || snapshot.getQuery().comparator().compare(lastDoc, document) < 0,
-            "Got added events in wrong order");
-        documentChanges.add(new DocumentChange(documentSnapshot, Type.ADDED, -1, index++));
-        lastDoc = document;
+    return new LazyDocumentChangeList(
+        firestore,
+        snapshot,
+        snapshot.getIndexedChanges(MetadataChanges.INCLUDE.equals(metadataChanges)));
+  }
+
+  /**
+   * A list that converts the changes of a {@code ViewSnapshot} on first access. If the list is read
+   * from several threads, a change may be converted more than once, but all threads see equal
+   * results. The list is copied into an {@code ArrayList} the first time it is modified.
+   */
+  private static class LazyDocumentChangeList extends AbstractList<DocumentChange> {
+    private final FirebaseFirestore firestore;
+    private final ViewSnapshot snapshot;
+    private final List<ViewSnapshot.IndexedChange> changes;
+    private final DocumentChange[] converted;
+    @Nullable private List<DocumentChange> modified;
+
+    LazyDocumentChangeList(
+        FirebaseFirestore firestore,
+        ViewSnapshot snapshot,
+        List<ViewSnapshot.IndexedChange> changes) {
+      this.firestore = firestore;
+      this.snapshot = snapshot;
+      this.changes = changes;
+      this.converted = new DocumentChange[changes.size()];
+    }
+
+    @Override
+    public DocumentChange get(int index) {
+      if (modified != null) {
+        return modified.get(index);
       }
-    } else {
-      // A DocumentSet that is updated incrementally as changes are applied to use to lookup the
-      // index of a document.
-      DocumentSet indexTracker = snapshot.getOldDocuments();
-      for (DocumentViewChange change : snapshot.getChanges()) {
-        if (metadataChanges == MetadataChanges.EXCLUDE
-            && change.getType() == DocumentViewChange.Type.METADATA) {
-          continue;
-        }
+      DocumentChange result = converted[index];
+      if (result == null) {
+        ViewSnapshot.IndexedChange change = changes.get(index);
         Document document = change.getDocument();
         QueryDocumentSnapshot documentSnapshot =
             QueryDocumentSnapshot.fromDocument(
@@ -166,30 +171,54 @@ public class DocumentChange {
                 document,
                 snapshot.isFromCache(),
                 snapshot.getMutatedKeys().contains(document.getKey()));
-        int oldIndex, newIndex;
-        Type type = getType(change);
-        if (type != Type.ADDED) {
-          oldIndex = indexTracker.indexOf(document.getKey());
-          hardAssert(oldIndex >= 0, "Index for document not found");
-          indexTracker = indexTracker.remove(document.getKey());
-        } else {
-          oldIndex = -1;
-        }
-        if (type != Type.REMOVED) {
-          indexTracker = indexTracker.add(document);
-          newIndex = indexTracker.indexOf(document.getKey());
-          hardAssert(newIndex >= 0, "Index for document not found");
-        } else {
-          newIndex = -1;
+        result =
+            new DocumentChange(
+                documentSnapshot,
+                getType(change.getType()),
+                change.getOldIndex(),
+                change.getNewIndex());
+        converted[index] = result;
+      }
+      return result;
+    }
+
+    @Override
+    public int size() {
+      return modified != null ? modified.size() : changes.size();
+    }
+
+    @Override
+    public DocumentChange set(int index, DocumentChange element) {
+      return modifiable().set(index, element);
+    }
+
+    @Override
+    public void add(int index, DocumentChange element) {
+      modifiable().add(index, element);
+      ++modCount;
+    }
+
+    @Override
+    public DocumentChange remove(int index) {
+      DocumentChange result = modifiable().remove(index);
+      ++modCount;
+      return result;
+    }
+
+    private List<DocumentChange> modifiable() {
+      if (modified == null) {
+        List<DocumentChange> copy = new ArrayList<>(changes.size());
+        for (int i = 0; i < changes.size(); ++i) {
+          copy.add(get(i));
         }
-        documentChanges.add(new DocumentChange(documentSnapshot, type, oldIndex, newIndex));
+        modified = copy;
       }
+      return modified;
     }
-    return documentChanges;
   }
 
-  private static Type getType(DocumentViewChange change) {
-    switch (change.getType()) {
+  private static Type getType(DocumentViewChange.Type type) {
+    switch (type) {
       case ADDED:
         return Type.ADDED;
       case METADATA:
@@ -198,7 +227,7 @@ public class DocumentChange {
       case REMOVED:
         return Type.REMOVED;
       default:
-        throw new IllegalArgumentException("Unknown view change type: " + change.getType());
+        throw new IllegalArgumentException("Unknown view change type: " + type);
     }
   }
 }
@@ -0,0 +1,96 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore;
+
+import androidx.annotation.RestrictTo;
+
+/**
+ * The statistics of the existence filter mismatches that the backend reported for active
+ * listeners, as returned by {@link FirebaseFirestore#getExistenceFilterStats}. A mismatch means
+ * that documents in the cache were deleted or stopped matching a query while the listener was
+ * offline.
+ *
+ * <p><b>Subclassing Note</b>: Cloud Firestore classes are not meant to be subclassed except for use
+ * in test mocks. Subclassing is not supported in production code and new SDK releases may break
+ * code that does so.
+ */
+public class ExistenceFilterStats {
+  private final int mismatchCount;
+  private final int recoveredQueryCount;
+  private final int resetQueryCount;
+  private final long reusedDocumentCount;
+  private final long bytesSaved;
+
+  /** @hide */
+  @RestrictTo(RestrictTo.Scope.LIBRARY_GROUP)
+  public ExistenceFilterStats(
+      int mismatchCount,
+      int recoveredQueryCount,
+      int resetQueryCount,
+      long reusedDocumentCount,
+      long bytesSaved) {
+    this.mismatchCount = mismatchCount;
+    this.recoveredQueryCount = recoveredQueryCount;
+    this.resetQueryCount = resetQueryCount;
+    this.reusedDocumentCount = reusedDocumentCount;
+    this.bytesSaved = bytesSaved;
+  }
+
+  /** @return The number of existence filter mismatches that were reported by the backend. */
+  public int getMismatchCount() {
+    return mismatchCount;
+  }
+
+  /** @return The number of queries that were recovered from an existence filter mismatch. */
+  public int getRecoveredQueryCount() {
+    return recoveredQueryCount;
+  }
+
+  /** @return The number of queries that were listened to again without a resume token. */
+  public int getResetQueryCount() {
+    return resetQueryCount;
+  }
+
+  /**
+   * @return The number of cached documents that were not downloaded again when recovering queries
+   *     from existence filter mismatches.
+   */
+  public long getReusedDocumentCount() {
+    return reusedDocumentCount;
+  }
+
+  /**
+   * @return The estimated number of bytes that recovering queries from existence filter mismatches
+   *     saved over listening to them again without a resume token.
+   */
+  public long getBytesSaved() {
+    return bytesSaved;
+  }
+
+  @Override
+  public String toString() {
+    return "ExistenceFilterStats{mismatchCount="
+        + mismatchCount
+        + ", recoveredQueryCount="
+        + recoveredQueryCount
+        + ", resetQueryCount="
+        + resetQueryCount
+        + ", reusedDocumentCount="
+        + reusedDocumentCount
+        + ", bytesSaved="
+        + bytesSaved
+        + "}";
+  }
+}
@@ -44,6 +44,7 @@ import com.google.firebase.firestore.util.Executors;
 import com.google.firebase.firestore.util.Function;
 import com.google.firebase.firestore.util.Logger;
 import com.google.firebase.firestore.util.Logger.Level;
+import java.io.InputStream;
 import java.util.concurrent.Executor;
 
 /**
@@ -402,11 +403,86 @@ public class FirebaseFirestore {
     return client.waitForPendingWrites();
   }
 
+  /**
+   * Loads a snapshot file into the local cache, so that the documents and query results of the file
+   * can be served from the cache before they have been downloaded from the backend.
+   *
+   * <p>A snapshot file contains documents and the results of queries at the time the file was
+   * created. Cached documents and query results that are newer than those of the file are kept.
+   * Queries that are loaded from a snapshot file raise events from cache until they have been
+   * synchronized with the backend.
+   *
+   * @param snapshotFile The snapshot file, for example from the assets of the app. The stream is
+   *     closed once it has been loaded.
+   * @return A {@code Task} that resolves with the final progress once the file has been loaded, or
+   *     is rejected with an {@code INVALID_ARGUMENT} error if the file cannot be read.
+   */
+  @NonNull
+  public Task<SnapshotFileProgress> loadSnapshotFile(@NonNull InputStream snapshotFile) {
+    return loadSnapshotFile(
+        snapshotFile, Executors.DEFAULT_CALLBACK_EXECUTOR, (progress, error) -> {});
+  }
+
+  /**
+   * Loads a snapshot file into the local cache, so that the documents and query results of the file
+   * can be served from the cache before they have been downloaded from the backend.
+   *
+   * <p>A snapshot file contains documents and the results of queries at the time the file was
+   * created. Cached documents and query results that are newer than those of the file are kept.
+   * Queries that are loaded from a snapshot file raise events from cache until they have been
+   * synchronized with the backend.
+   *
+   * @param snapshotFile The snapshot file, for example from the assets of the app. The stream is
+   *     closed once it has been loaded.
+   * @param executor The executor to use to call the listener.
+   * @param progressListener The listener that is called with the progress after each part of the
+   *     file that is written to the cache.
+   * @return A {@code Task} that resolves with the final progress once the file has been loaded, or
+   *     is rejected with an {@code INVALID_ARGUMENT} error if the file cannot be read.
+   */
+  @NonNull
+  public Task<SnapshotFileProgress> loadSnapshotFile(
+      @NonNull InputStream snapshotFile,
+      @NonNull Executor executor,
+      @NonNull EventListener<SnapshotFileProgress> progressListener) {
+    checkNotNull(snapshotFile, "Provided snapshot file must not be null.");
+    checkNotNull(executor, "Provided executor must not be null.");
+    checkNotNull(progressListener, "Provided progress listener must not be null.");
+    ensureClientConfigured();
+    return client.loadSnapshotFile(
+        snapshotFile, new AsyncEventListener<>(executor, progressListener));
+  }
+
   @VisibleForTesting
   AsyncQueue getAsyncQueue() {
     return asyncQueue;
   }
 
+  /**
+   * Reads the statistics of the existence filter mismatches that the backend reported for the
+   * active listeners of this instance, and of how the cached documents were reused to recover from
+   * them.
+   *
+   * @return A {@code Task} that resolves with the statistics at the time they were read.
+   */
+  @NonNull
+  public Task<ExistenceFilterStats> getExistenceFilterStats() {
+    ensureClientConfigured();
+    return client.getExistenceFilterStats();
+  }
+
+  /**
+   * Reads the statistics of the pipeline that sends pending writes to the backend, which can be
+   * used to tell whether writes are held back by the number of unacknowledged writes.
+   *
+   * @return A {@code Task} that resolves with the statistics at the time they were read.
+   */
+  @NonNull
+  public Task<WritePipelineStats> getWritePipelineStats() {
+    ensureClientConfigured();
+    return client.getWritePipelineStats();
+  }
+
   /**
    * Re-enables network usage for this instance after a prior call to {@link #disableNetwork()}.
    *
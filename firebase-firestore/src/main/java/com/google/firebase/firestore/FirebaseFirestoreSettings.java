@@ -39,6 +39,11 @@ public final class FirebaseFirestoreSettings {
     private boolean persistenceEnabled;
     private boolean timestampsInSnapshotsEnabled;
     private long cacheSizeBytes;
+    private boolean indexingEnabled;
+    private boolean adaptiveWritePipeliningEnabled;
+    private boolean writeCoalescingEnabled;
+    private boolean concurrentCacheReadsEnabled;
+    private boolean incrementalResyncEnabled;
 
     /** Constructs a new {@code FirebaseFirestoreSettings} Builder object. */
     public Builder() {
@@ -47,6 +52,11 @@ public final class FirebaseFirestoreSettings {
       persistenceEnabled = true;
       timestampsInSnapshotsEnabled = DEFAULT_TIMESTAMPS_IN_SNAPSHOTS_ENABLED;
       cacheSizeBytes = DEFAULT_CACHE_SIZE_BYTES;
+      indexingEnabled = false;
+      adaptiveWritePipeliningEnabled = false;
+      writeCoalescingEnabled = false;
+      concurrentCacheReadsEnabled = false;
+      incrementalResyncEnabled = false;
     }
 
     /**
@@ -59,6 +69,11 @@ public final class FirebaseFirestoreSettings {
       sslEnabled = settings.sslEnabled;
       persistenceEnabled = settings.persistenceEnabled;
       timestampsInSnapshotsEnabled = settings.timestampsInSnapshotsEnabled;
+      indexingEnabled = settings.indexingEnabled;
+      adaptiveWritePipeliningEnabled = settings.adaptiveWritePipeliningEnabled;
+      writeCoalescingEnabled = settings.writeCoalescingEnabled;
+      concurrentCacheReadsEnabled = settings.concurrentCacheReadsEnabled;
+      incrementalResyncEnabled = settings.incrementalResyncEnabled;
     }
 
     /**
@@ -144,6 +159,91 @@ public final class FirebaseFirestoreSettings {
       return this;
     }
 
+    /**
+     * Enables or disables indexing of cached documents. When enabled, Cloud Firestore maintains an
+     * on-disk index of the field values of all cached documents, which speeds up equality and range
+     * filters on queries that are served from the cache. Indexing requires additional disk space
+     * and makes writes to the cache slower. Indexing is disabled by default and is only supported
+     * if local persistent storage is enabled.
+     *
+     * @return A settings object on which indexing is configured as specified by the given {@code
+     *     value}.
+     */
+    @NonNull
+    public Builder setIndexingEnabled(boolean value) {
+      this.indexingEnabled = value;
+      return this;
+    }
+
+    /**
+     * Enables or disables adaptive pipelining of writes. By default, Cloud Firestore sends up to 10
+     * batches of writes to the backend before it waits for the backend to acknowledge them. When
+     * adaptive pipelining is enabled, this limit is raised while writes are waiting to be sent and
+     * lowered if the backend or the network cannot keep up, which speeds up large imports on
+     * connections with a high latency. Adaptive pipelining is disabled by default.
+     *
+     * @return A settings object on which adaptive pipelining is configured as specified by the
+     *     given {@code value}.
+     */
+    @NonNull
+    public Builder setAdaptiveWritePipeliningEnabled(boolean value) {
+      this.adaptiveWritePipeliningEnabled = value;
+      return this;
+    }
+
+    /**
+     * Enables or disables coalescing of writes. When enabled, a write that updates the same
+     * document as the previous write is merged into the previous write if the previous write has
+     * not been sent to the backend yet, which reduces the number of writes that are stored and sent
+     * when a document is updated in quick succession. Listeners still observe every write, and the
+     * tasks of all merged writes complete when the merged write is acknowledged. Write coalescing
+     * is disabled by default and is only supported if local persistent storage is enabled.
+     *
+     * @return A settings object on which write coalescing is configured as specified by the given
+     *     {@code value}.
+     */
+    @NonNull
+    public Builder setWriteCoalescingEnabled(boolean value) {
+      this.writeCoalescingEnabled = value;
+      return this;
+    }
+
+    /**
+     * Enables or disables concurrent reads from the cache. When enabled, reads with {@link
+     * Source#CACHE} run on a separate pool of threads instead of the thread that processes writes
+     * and snapshot listeners, so that a slow read from the cache does not delay snapshots of other
+     * listeners. Concurrent reads use the write-ahead log of SQLite, which does not prevent other
+     * processes from opening the cache: only enable concurrent reads if your app uses Cloud
+     * Firestore from a single process. Concurrent reads are disabled by default and are only
+     * supported if local persistent storage is enabled.
+     *
+     * @return A settings object on which concurrent cache reads are configured as specified by the
+     *     given {@code value}.
+     */
+    @NonNull
+    public Builder setConcurrentCacheReadsEnabled(boolean value) {
+      this.concurrentCacheReadsEnabled = value;
+      return this;
+    }
+
+    /**
+     * Enables or disables incremental resynchronization of queries. When a listener resumes a query
+     * and the backend reports that the cached results of the query are out of date (for example,
+     * because documents were deleted while the listener was offline), Cloud Firestore downloads all
+     * results of the query again. When incremental resynchronization is enabled, Cloud Firestore
+     * instead first reads the list of documents that match the query and then only downloads the
+     * documents that are missing from the cache or have changed, which saves bandwidth for large
+     * queries. Incremental resynchronization is disabled by default.
+     *
+     * @return A settings object on which incremental resynchronization is configured as specified
+     *     by the given {@code value}.
+     */
+    @NonNull
+    public Builder setIncrementalResyncEnabled(boolean value) {
+      this.incrementalResyncEnabled = value;
+      return this;
+    }
+
     /** @return the host of the Cloud Firestore backend. */
     @NonNull
     public String getHost() {
@@ -165,6 +265,31 @@ public final class FirebaseFirestoreSettings {
       return cacheSizeBytes;
     }
 
+    /** @return boolean indicating whether indexing of cached documents is enabled or not. */
+    public boolean isIndexingEnabled() {
+      return indexingEnabled;
+    }
+
+    /** @return boolean indicating whether adaptive pipelining of writes is enabled or not. */
+    public boolean isAdaptiveWritePipeliningEnabled() {
+      return adaptiveWritePipeliningEnabled;
+    }
+
+    /** @return boolean indicating whether coalescing of writes is enabled or not. */
+    public boolean isWriteCoalescingEnabled() {
+      return writeCoalescingEnabled;
+    }
+
+    /** @return boolean indicating whether concurrent reads from the cache are enabled or not. */
+    public boolean isConcurrentCacheReadsEnabled() {
+      return concurrentCacheReadsEnabled;
+    }
+
+    /** @return boolean indicating whether incremental resynchronization is enabled or not. */
+    public boolean isIncrementalResyncEnabled() {
+      return incrementalResyncEnabled;
+    }
+
     @NonNull
     public FirebaseFirestoreSettings build() {
       if (!this.sslEnabled && this.host.equals(DEFAULT_HOST)) {
@@ -180,6 +305,11 @@ public final class FirebaseFirestoreSettings {
   private final boolean persistenceEnabled;
   private final boolean timestampsInSnapshotsEnabled;
   private final long cacheSizeBytes;
+  private final boolean indexingEnabled;
+  private final boolean adaptiveWritePipeliningEnabled;
+  private final boolean writeCoalescingEnabled;
+  private final boolean concurrentCacheReadsEnabled;
+  private final boolean incrementalResyncEnabled;
 
   /** Constructs a {@code FirebaseFirestoreSettings} object based on the values in the Builder. */
   private FirebaseFirestoreSettings(Builder builder) {
@@ -188,6 +318,11 @@ public final class FirebaseFirestoreSettings {
     persistenceEnabled = builder.persistenceEnabled;
     timestampsInSnapshotsEnabled = builder.timestampsInSnapshotsEnabled;
     cacheSizeBytes = builder.cacheSizeBytes;
+    indexingEnabled = builder.indexingEnabled;
+    adaptiveWritePipeliningEnabled = builder.adaptiveWritePipeliningEnabled;
+    writeCoalescingEnabled = builder.writeCoalescingEnabled;
+    concurrentCacheReadsEnabled = builder.concurrentCacheReadsEnabled;
+    incrementalResyncEnabled = builder.incrementalResyncEnabled;
   }
 
   @Override
@@ -204,7 +339,12 @@ public final class FirebaseFirestoreSettings {
         && sslEnabled == that.sslEnabled
         && persistenceEnabled == that.persistenceEnabled
         && timestampsInSnapshotsEnabled == that.timestampsInSnapshotsEnabled
-        && cacheSizeBytes == that.cacheSizeBytes;
+        && cacheSizeBytes == that.cacheSizeBytes
+        && indexingEnabled == that.indexingEnabled
+        && adaptiveWritePipeliningEnabled == that.adaptiveWritePipeliningEnabled
+        && writeCoalescingEnabled == that.writeCoalescingEnabled
+        && concurrentCacheReadsEnabled == that.concurrentCacheReadsEnabled
+        && incrementalResyncEnabled == that.incrementalResyncEnabled;
   }
 
   @Override
@@ -214,6 +354,11 @@ public final class FirebaseFirestoreSettings {
     result = 31 * result + (persistenceEnabled ? 1 : 0);
     result = 31 * result + (timestampsInSnapshotsEnabled ? 1 : 0);
     result = 31 * result + (int) cacheSizeBytes;
+    result = 31 * result + (indexingEnabled ? 1 : 0);
+    result = 31 * result + (adaptiveWritePipeliningEnabled ? 1 : 0);
+    result = 31 * result + (writeCoalescingEnabled ? 1 : 0);
+    result = 31 * result + (concurrentCacheReadsEnabled ? 1 : 0);
+    result = 31 * result + (incrementalResyncEnabled ? 1 : 0);
     return result;
   }
 
@@ -231,6 +376,16 @@ public final class FirebaseFirestoreSettings {
         + timestampsInSnapshotsEnabled
         + ", cacheSizeBytes="
         + cacheSizeBytes
+        + ", indexingEnabled="
+        + indexingEnabled
+        + ", adaptiveWritePipeliningEnabled="
+        + adaptiveWritePipeliningEnabled
+        + ", writeCoalescingEnabled="
+        + writeCoalescingEnabled
+        + ", concurrentCacheReadsEnabled="
+        + concurrentCacheReadsEnabled
+        + ", incrementalResyncEnabled="
+        + incrementalResyncEnabled
         + "}";
   }
 
@@ -265,4 +420,29 @@ public final class FirebaseFirestoreSettings {
   public long getCacheSizeBytes() {
     return cacheSizeBytes;
   }
+
+  /** Returns whether or not cached documents are indexed by their field values. */
+  public boolean isIndexingEnabled() {
+    return indexingEnabled;
+  }
+
+  /** Returns whether or not the number of in-flight writes adapts to the connection. */
+  public boolean isAdaptiveWritePipeliningEnabled() {
+    return adaptiveWritePipeliningEnabled;
+  }
+
+  /** Returns whether or not consecutive writes to the same document are merged before sending. */
+  public boolean isWriteCoalescingEnabled() {
+    return writeCoalescingEnabled;
+  }
+
+  /** Returns whether or not reads from the cache run concurrently with other operations. */
+  public boolean isConcurrentCacheReadsEnabled() {
+    return concurrentCacheReadsEnabled;
+  }
+
+  /** Returns whether or not out-of-date query results are resynchronized incrementally. */
+  public boolean isIncrementalResyncEnabled() {
+    return incrementalResyncEnabled;
+  }
 }
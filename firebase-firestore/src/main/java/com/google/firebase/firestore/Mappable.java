@@ -0,0 +1,35 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation used to mark a POJO class for which the Firestore annotation processor
+ * (firebase-firestore-processor) generates a mapper at compile time. Generated mappers convert the
+ * class to and from documents without using reflection, which speeds up calls like {@link
+ * DocumentSnapshot#toObject} and {@link QuerySnapshot#toObjects}.
+ *
+ * <p>The class is mapped in the same way as a class without this annotation. Since the generated
+ * mapper lives in the same package as the class, the class as well as its setters and fields that
+ * are written during deserialization must not be private. If no generated mapper is found at
+ * runtime, the class is mapped using reflection.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE})
+public @interface Mappable {}
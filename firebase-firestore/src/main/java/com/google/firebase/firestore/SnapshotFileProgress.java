@@ -0,0 +1,100 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.RestrictTo;
+
+/**
+ * The progress of loading a snapshot file with {@link FirebaseFirestore#loadSnapshotFile}.
+ *
+ * <p><b>Subclassing Note</b>: Cloud Firestore classes are not meant to be subclassed except for use
+ * in test mocks. Subclassing is not supported in production code and new SDK releases may break
+ * code that does so.
+ */
+public class SnapshotFileProgress {
+  private final int documentsLoaded;
+  private final int totalDocuments;
+  private final long bytesLoaded;
+  private final long totalBytes;
+
+  /** @hide */
+  @RestrictTo(RestrictTo.Scope.LIBRARY_GROUP)
+  public SnapshotFileProgress(
+      int documentsLoaded, int totalDocuments, long bytesLoaded, long totalBytes) {
+    this.documentsLoaded = documentsLoaded;
+    this.totalDocuments = totalDocuments;
+    this.bytesLoaded = bytesLoaded;
+    this.totalBytes = totalBytes;
+  }
+
+  /** @return The number of documents that have been written to the local cache so far. */
+  public int getDocumentsLoaded() {
+    return documentsLoaded;
+  }
+
+  /** @return The number of documents in the snapshot file. */
+  public int getTotalDocuments() {
+    return totalDocuments;
+  }
+
+  /** @return The number of bytes of the snapshot file that have been loaded so far. */
+  public long getBytesLoaded() {
+    return bytesLoaded;
+  }
+
+  /** @return The size of the snapshot file in bytes. */
+  public long getTotalBytes() {
+    return totalBytes;
+  }
+
+  @Override
+  public boolean equals(@Nullable Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof SnapshotFileProgress)) {
+      return false;
+    }
+    SnapshotFileProgress other = (SnapshotFileProgress) obj;
+    return documentsLoaded == other.documentsLoaded
+        && totalDocuments == other.totalDocuments
+        && bytesLoaded == other.bytesLoaded
+        && totalBytes == other.totalBytes;
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = documentsLoaded;
+    hash = hash * 31 + totalDocuments;
+    hash = hash * 31 + (int) (bytesLoaded ^ (bytesLoaded >>> 32));
+    hash = hash * 31 + (int) (totalBytes ^ (totalBytes >>> 32));
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return "SnapshotFileProgress{"
+        + "documentsLoaded="
+        + documentsLoaded
+        + ", totalDocuments="
+        + totalDocuments
+        + ", bytesLoaded="
+        + bytesLoaded
+        + ", totalBytes="
+        + totalBytes
+        + '}';
+  }
+}
@@ -0,0 +1,78 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore;
+
+import androidx.annotation.RestrictTo;
+
+/**
+ * The statistics of the pipeline that sends pending writes to the backend, as returned by {@link
+ * FirebaseFirestore#getWritePipelineStats}.
+ *
+ * <p><b>Subclassing Note</b>: Cloud Firestore classes are not meant to be subclassed except for use
+ * in test mocks. Subclassing is not supported in production code and new SDK releases may break
+ * code that does so.
+ */
+public class WritePipelineStats {
+  private final int pipelineSize;
+  private final int inFlightCount;
+  private final int maxInFlightCount;
+  private final long blockedTimeMs;
+
+  /** @hide */
+  @RestrictTo(RestrictTo.Scope.LIBRARY_GROUP)
+  public WritePipelineStats(
+      int pipelineSize, int inFlightCount, int maxInFlightCount, long blockedTimeMs) {
+    this.pipelineSize = pipelineSize;
+    this.inFlightCount = inFlightCount;
+    this.maxInFlightCount = maxInFlightCount;
+    this.blockedTimeMs = blockedTimeMs;
+  }
+
+  /** @return The maximum number of batches of writes that can be sent ahead of acknowledgements. */
+  public int getPipelineSize() {
+    return pipelineSize;
+  }
+
+  /** @return The number of batches of writes that were sent but not yet acknowledged. */
+  public int getInFlightCount() {
+    return inFlightCount;
+  }
+
+  /** @return The highest number of batches of writes that were in flight at the same time. */
+  public int getMaxInFlightCount() {
+    return maxInFlightCount;
+  }
+
+  /**
+   * @return The total time (in milliseconds) that pending batches of writes waited for room in the
+   *     write pipeline.
+   */
+  public long getBlockedTimeMs() {
+    return blockedTimeMs;
+  }
+
+  @Override
+  public String toString() {
+    return "WritePipelineStats{pipelineSize="
+        + pipelineSize
+        + ", inFlightCount="
+        + inFlightCount
+        + ", maxInFlightCount="
+        + maxInFlightCount
+        + ", blockedTimeMs="
+        + blockedTimeMs
+        + "}";
+  }
+}
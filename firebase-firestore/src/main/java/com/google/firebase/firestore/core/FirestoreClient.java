@@ -22,9 +22,12 @@ import com.google.android.gms.tasks.Task;
 import com.google.android.gms.tasks.TaskCompletionSource;
 import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.ExistenceFilterStats;
 import com.google.firebase.firestore.FirebaseFirestoreException;
 import com.google.firebase.firestore.FirebaseFirestoreException.Code;
 import com.google.firebase.firestore.FirebaseFirestoreSettings;
+import com.google.firebase.firestore.SnapshotFileProgress;
+import com.google.firebase.firestore.WritePipelineStats;
 import com.google.firebase.firestore.auth.CredentialsProvider;
 import com.google.firebase.firestore.auth.User;
 import com.google.firebase.firestore.core.EventManager.ListenOptions;
@@ -32,17 +35,24 @@ import com.google.firebase.firestore.local.GarbageCollectionScheduler;
 import com.google.firebase.firestore.local.LocalStore;
 import com.google.firebase.firestore.local.Persistence;
 import com.google.firebase.firestore.local.QueryResult;
+import com.google.firebase.firestore.local.SnapshotFileReader;
 import com.google.firebase.firestore.model.Document;
 import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.MaybeDocument;
 import com.google.firebase.firestore.model.NoDocument;
+import com.google.firebase.firestore.model.SnapshotVersion;
 import com.google.firebase.firestore.model.mutation.Mutation;
 import com.google.firebase.firestore.remote.Datastore;
 import com.google.firebase.firestore.remote.GrpcMetadataProvider;
+import com.google.firebase.firestore.remote.RemoteSerializer;
 import com.google.firebase.firestore.remote.RemoteStore;
 import com.google.firebase.firestore.util.AsyncQueue;
+import com.google.firebase.firestore.util.Executors;
 import com.google.firebase.firestore.util.Function;
 import com.google.firebase.firestore.util.Logger;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -56,9 +66,13 @@ public final class FirestoreClient {
   private static final String LOG_TAG = "FirestoreClient";
   private static final int MAX_CONCURRENT_LIMBO_RESOLUTIONS = 100;
 
+  /** The number of reader lanes of the AsyncQueue if concurrent cache reads are enabled. */
+  private static final int CACHE_READER_LANES = 2;
+
   private final DatabaseInfo databaseInfo;
   private final CredentialsProvider credentialsProvider;
   private final AsyncQueue asyncQueue;
+  private final boolean concurrentCacheReadsEnabled;
 
   private Persistence persistence;
   private LocalStore localStore;
@@ -81,6 +95,8 @@ public final class FirestoreClient {
     this.credentialsProvider = credentialsProvider;
     this.asyncQueue = asyncQueue;
     this.metadataProvider = metadataProvider;
+    this.concurrentCacheReadsEnabled =
+        settings.isPersistenceEnabled() && settings.isConcurrentCacheReadsEnabled();
 
     TaskCompletionSource<User> firstUser = new TaskCompletionSource<>();
     final AtomicBoolean initialized = new AtomicBoolean(false);
@@ -167,7 +183,7 @@ public final class FirestoreClient {
   public Task<Document> getDocumentFromLocalCache(DocumentKey docKey) {
     this.verifyNotTerminated();
     return asyncQueue
-        .enqueue(() -> localStore.readDocument(docKey))
+        .enqueueRead(() -> localStore.readDocument(docKey))
         .continueWith(
             (result) -> {
               @Nullable MaybeDocument maybeDoc = result.getResult();
@@ -188,9 +204,12 @@ public final class FirestoreClient {
 
   public Task<ViewSnapshot> getDocumentsFromLocalCache(Query query) {
     this.verifyNotTerminated();
-    return asyncQueue.enqueue(
+    return asyncQueue.enqueueRead(
         () -> {
-          QueryResult queryResult = localStore.executeQuery(query, /* usePreviousResults= */ true);
+          QueryResult queryResult =
+              concurrentCacheReadsEnabled
+                  ? localStore.executeQueryReadOnly(query)
+                  : localStore.executeQuery(query, /* usePreviousResults= */ true);
           View view = new View(query, queryResult.getRemoteKeys());
           View.DocumentChanges viewDocChanges = view.computeDocChanges(queryResult.getDocuments());
           return view.applyChanges(viewDocChanges).getSnapshot();
@@ -224,6 +243,103 @@ public final class FirestoreClient {
     return source.getTask();
   }
 
+  /** Returns the existence filter statistics, which are read on the worker queue. */
+  public Task<ExistenceFilterStats> getExistenceFilterStats() {
+    this.verifyNotTerminated();
+    return asyncQueue.enqueue(() -> remoteStore.getExistenceFilterStats());
+  }
+
+  /** Returns the statistics of the write pipeline, which are read on the worker queue. */
+  public Task<WritePipelineStats> getWritePipelineStats() {
+    this.verifyNotTerminated();
+    return asyncQueue.enqueue(() -> remoteStore.getWritePipelineStats());
+  }
+
+  /**
+   * Loads a snapshot file into the local cache. The file is read on a background thread and the
+   * documents of each batch of the file are written to the cache in their own transaction on the
+   * worker queue, so that other operations are not blocked until the whole file is loaded. The
+   * query results of the file are stored in a final transaction.
+   *
+   * @param snapshotFile The snapshot file, which is closed once it has been loaded.
+   * @param progressListener The listener that is called with the progress after each batch.
+   * @return A task that resolves with the final progress once the file has been loaded.
+   */
+  public Task<SnapshotFileProgress> loadSnapshotFile(
+      InputStream snapshotFile, EventListener<SnapshotFileProgress> progressListener) {
+    verifyNotTerminated();
+    return Tasks.call(
+        Executors.BACKGROUND_EXECUTOR,
+        () -> {
+          try {
+            return readSnapshotFile(snapshotFile, progressListener);
+          } finally {
+            snapshotFile.close();
+          }
+        });
+  }
+
+  private SnapshotFileProgress readSnapshotFile(
+      InputStream snapshotFile, EventListener<SnapshotFileProgress> progressListener)
+      throws Exception {
+    SnapshotFileReader reader =
+        new SnapshotFileReader(new RemoteSerializer(databaseInfo.getDatabaseId()), snapshotFile);
+    SnapshotVersion createTime = reader.getCreateTime();
+    SnapshotFileProgress progress =
+        new SnapshotFileProgress(
+            /* documentsLoaded= */ 0,
+            reader.getTotalDocuments(),
+            reader.getBytesRead(),
+            reader.getTotalBytes());
+
+    // The queries are only stored once all documents have been written, so that a file that fails
+    // to load does not leave behind queries whose results are incomplete.
+    List<SnapshotFileReader.QueryResults> queries = new ArrayList<>();
+    List<DocumentKey> documentKeys = new ArrayList<>();
+    try {
+      for (SnapshotFileReader.Batch batch = reader.readBatch();
+          batch != null;
+          batch = reader.readBatch()) {
+        List<Document> documents = batch.getDocuments();
+        queries.addAll(batch.getQueries());
+        awaitOnQueue(() -> syncEngine.loadSnapshotFileDocuments(documents, createTime));
+        for (Document document : documents) {
+          documentKeys.add(document.getKey());
+        }
+        progress =
+            new SnapshotFileProgress(
+                documentKeys.size(),
+                reader.getTotalDocuments(),
+                reader.getBytesRead(),
+                reader.getTotalBytes());
+        progressListener.onEvent(progress, null);
+      }
+    } catch (Exception e) {
+      // The documents that were written are kept and handed to garbage collection.
+      awaitOnQueue(
+          () -> syncEngine.loadSnapshotFileQueries(Collections.emptyList(), documentKeys));
+      throw e;
+    }
+    awaitOnQueue(() -> syncEngine.loadSnapshotFileQueries(queries, documentKeys));
+    return progress;
+  }
+
+  /**
+   * Runs the given operation on the worker queue and waits for it. Unlike {@link Tasks#await}, this
+   * throws the exception of the operation itself rather than an ExecutionException.
+   */
+  private void awaitOnQueue(Runnable operation) throws Exception {
+    try {
+      Tasks.await(asyncQueue.enqueue(operation));
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      throw e;
+    }
+  }
+
   private void initialize(Context context, User user, FirebaseFirestoreSettings settings) {
     // Note: The initialization work must all be synchronous (we can't dispatch more work) since
     // external write/listen operations could get queued to run before that subsequent work
@@ -257,6 +373,11 @@ public final class FirestoreClient {
     if (gcScheduler != null) {
       gcScheduler.start();
     }
+
+    if (concurrentCacheReadsEnabled) {
+      // Reads that were enqueued before this point run on the serial lane after initialization.
+      asyncQueue.enableReaderLanes(CACHE_READER_LANES);
+    }
   }
 
   public void addSnapshotsInSyncListener(EventListener<Void> listener) {
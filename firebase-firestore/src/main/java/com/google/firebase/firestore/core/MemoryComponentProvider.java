@@ -69,7 +69,9 @@ public class MemoryComponentProvider extends ComponentProvider {
         getLocalStore(),
         configuration.getDatastore(),
         configuration.getAsyncQueue(),
-        getConnectivityMonitor());
+        getConnectivityMonitor(),
+        configuration.getSettings().isAdaptiveWritePipeliningEnabled(),
+        configuration.getSettings().isIncrementalResyncEnabled());
   }
 
   @Override
@@ -19,9 +19,6 @@ import static com.google.firebase.firestore.util.Assert.hardAssert;
 import androidx.annotation.Nullable;
 import com.google.firebase.firestore.EventListener;
 import com.google.firebase.firestore.FirebaseFirestoreException;
-import com.google.firebase.firestore.core.DocumentViewChange.Type;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * QueryListener takes a series of internal view snapshots and determines when to raise events.
@@ -71,23 +68,9 @@ public class QueryListener {
 
     boolean raisedEvent = false;
     if (!options.includeDocumentMetadataChanges) {
-      // Remove the metadata only changes
-      List<DocumentViewChange> documentChanges = new ArrayList<>();
-      for (DocumentViewChange change : newSnapshot.getChanges()) {
-        if (change.getType() != Type.METADATA) {
-          documentChanges.add(change);
-        }
-      }
-      newSnapshot =
-          new ViewSnapshot(
-              newSnapshot.getQuery(),
-              newSnapshot.getDocuments(),
-              newSnapshot.getOldDocuments(),
-              documentChanges,
-              newSnapshot.isFromCache(),
-              newSnapshot.getMutatedKeys(),
-              newSnapshot.didSyncStateChange(),
-              /* excludesMetadataChanges= */ true);
+      // Remove the metadata only changes. The stripped snapshot is shared by all listeners of the
+      // query, so their events can share the same document changes.
+      newSnapshot = newSnapshot.withoutMetadataChanges();
     }
 
     if (!raisedInitialEvent) {
@@ -165,13 +148,7 @@ public class QueryListener {
 
   private void raiseInitialEvent(ViewSnapshot snapshot) {
     hardAssert(!raisedInitialEvent, "Trying to raise initial event for second time");
-    snapshot =
-        ViewSnapshot.fromInitialDocuments(
-            snapshot.getQuery(),
-            snapshot.getDocuments(),
-            snapshot.getMutatedKeys(),
-            snapshot.isFromCache(),
-            snapshot.excludesMetadataChanges());
+    snapshot = snapshot.toInitialSnapshot();
     raisedInitialEvent = true;
     listener.onEvent(snapshot, null);
   }
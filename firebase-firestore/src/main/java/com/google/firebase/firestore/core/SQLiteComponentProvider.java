@@ -15,10 +15,13 @@
 package com.google.firebase.firestore.core;
 
 import com.google.firebase.firestore.local.GarbageCollectionScheduler;
+import com.google.firebase.firestore.local.IndexedQueryEngine;
+import com.google.firebase.firestore.local.LocalStore;
 import com.google.firebase.firestore.local.LocalSerializer;
 import com.google.firebase.firestore.local.LruDelegate;
 import com.google.firebase.firestore.local.LruGarbageCollector;
 import com.google.firebase.firestore.local.Persistence;
+import com.google.firebase.firestore.local.SQLiteCollectionIndex;
 import com.google.firebase.firestore.local.SQLitePersistence;
 import com.google.firebase.firestore.remote.RemoteSerializer;
 
@@ -40,11 +43,35 @@ public class SQLiteComponentProvider extends MemoryComponentProvider {
     LruGarbageCollector.Params params =
         LruGarbageCollector.Params.WithCacheSizeBytes(
             configuration.getSettings().getCacheSizeBytes());
-    return new SQLitePersistence(
-        configuration.getContext(),
-        configuration.getDatabaseInfo().getPersistenceKey(),
-        configuration.getDatabaseInfo().getDatabaseId(),
-        serializer,
-        params);
+    SQLitePersistence persistence =
+        new SQLitePersistence(
+            configuration.getContext(),
+            configuration.getDatabaseInfo().getPersistenceKey(),
+            configuration.getDatabaseInfo().getDatabaseId(),
+            serializer,
+            params);
+    if (configuration.getSettings().isIndexingEnabled()) {
+      persistence.enableCollectionIndex();
+    }
+    if (configuration.getSettings().isWriteCoalescingEnabled()) {
+      persistence.enableWriteCoalescing();
+    }
+    if (configuration.getSettings().isConcurrentCacheReadsEnabled()) {
+      persistence.enableConcurrentReads();
+    }
+    return persistence;
+  }
+
+  @Override
+  protected LocalStore createLocalStore(Configuration configuration) {
+    SQLiteCollectionIndex collectionIndex =
+        ((SQLitePersistence) getPersistence()).getCollectionIndex();
+    if (collectionIndex == null) {
+      return super.createLocalStore(configuration);
+    }
+    return new LocalStore(
+        getPersistence(),
+        new IndexedQueryEngine(collectionIndex),
+        configuration.getInitialUser());
   }
 }
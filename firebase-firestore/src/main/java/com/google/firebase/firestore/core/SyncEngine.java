@@ -32,7 +32,9 @@ import com.google.firebase.firestore.local.LocalWriteResult;
 import com.google.firebase.firestore.local.QueryPurpose;
 import com.google.firebase.firestore.local.QueryResult;
 import com.google.firebase.firestore.local.ReferenceSet;
+import com.google.firebase.firestore.local.SnapshotFileReader;
 import com.google.firebase.firestore.local.TargetData;
+import com.google.firebase.firestore.model.Document;
 import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.MaybeDocument;
 import com.google.firebase.firestore.model.NoDocument;
@@ -138,7 +140,7 @@ public class SyncEngine implements RemoteStore.RemoteStoreCallback {
   private final ReferenceSet limboDocumentRefs;
 
   /** Stores user completion blocks, indexed by user and batch ID. */
-  private final Map<User, Map<Integer, TaskCompletionSource<Void>>> mutationUserCallbacks;
+  private final Map<User, Map<Integer, List<TaskCompletionSource<Void>>>> mutationUserCallbacks;
 
   /** Stores user callbacks waiting for all pending writes to be acknowledged. */
   private final Map<Integer, List<TaskCompletionSource<Void>>> pendingWritesCallbacks;
@@ -274,13 +276,43 @@ public class SyncEngine implements RemoteStore.RemoteStoreCallback {
     remoteStore.fillWritePipeline();
   }
 
+  /**
+   * Writes documents of a snapshot file to the local cache and raises events for the documents that
+   * changed.
+   */
+  public void loadSnapshotFileDocuments(List<Document> documents, SnapshotVersion createTime) {
+    assertCallback("loadSnapshotFileDocuments");
+
+    ImmutableSortedMap<DocumentKey, MaybeDocument> changes =
+        localStore.applySnapshotFileDocuments(documents, createTime);
+    emitNewSnapsAndNotifyLocalStore(changes, /*remoteEvent=*/ null);
+  }
+
+  /**
+   * Stores the query results of a snapshot file, after all of its documents have been loaded with
+   * {@link #loadSnapshotFileDocuments}.
+   */
+  public void loadSnapshotFileQueries(
+      List<SnapshotFileReader.QueryResults> queries, List<DocumentKey> documentKeys) {
+    assertCallback("loadSnapshotFileQueries");
+
+    localStore.saveSnapshotFileQueries(queries, documentKeys);
+  }
+
   private void addUserCallback(int batchId, TaskCompletionSource<Void> userTask) {
-    Map<Integer, TaskCompletionSource<Void>> userTasks = mutationUserCallbacks.get(currentUser);
+    Map<Integer, List<TaskCompletionSource<Void>>> userTasks =
+        mutationUserCallbacks.get(currentUser);
     if (userTasks == null) {
       userTasks = new HashMap<>();
       mutationUserCallbacks.put(currentUser, userTasks);
     }
-    userTasks.put(batchId, userTask);
+    // A batch can have multiple callbacks if writes were coalesced into an existing batch.
+    List<TaskCompletionSource<Void>> batchTasks = userTasks.get(batchId);
+    if (batchTasks == null) {
+      batchTasks = new ArrayList<>();
+      userTasks.put(batchId, batchTasks);
+    }
+    batchTasks.add(userTask);
   }
 
   /**
@@ -509,18 +541,21 @@ public class SyncEngine implements RemoteStore.RemoteStoreCallback {
 
   /** Resolves the task corresponding to this write result. */
   private void notifyUser(int batchId, @Nullable Status status) {
-    Map<Integer, TaskCompletionSource<Void>> userTasks = mutationUserCallbacks.get(currentUser);
+    Map<Integer, List<TaskCompletionSource<Void>>> userTasks =
+        mutationUserCallbacks.get(currentUser);
 
     // NOTE: Mutations restored from persistence won't have task completion sources, so it's okay
-    // for this (or the task below) to be null.
+    // for this (or the tasks below) to be null.
     if (userTasks != null) {
       Integer boxedBatchId = batchId;
-      TaskCompletionSource<Void> userTask = userTasks.get(boxedBatchId);
-      if (userTask != null) {
-        if (status != null) {
-          userTask.setException(Util.exceptionFromStatus(status));
-        } else {
-          userTask.setResult(null);
+      List<TaskCompletionSource<Void>> batchTasks = userTasks.get(boxedBatchId);
+      if (batchTasks != null) {
+        for (TaskCompletionSource<Void> userTask : batchTasks) {
+          if (status != null) {
+            userTask.setException(Util.exceptionFromStatus(status));
+          } else {
+            userTask.setResult(null);
+          }
         }
         userTasks.remove(boxedBatchId);
       }
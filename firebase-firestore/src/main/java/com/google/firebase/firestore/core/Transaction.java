@@ -93,8 +93,12 @@ public class Transaction {
             Executors.DIRECT_EXECUTOR,
             task -> {
               if (task.isSuccessful()) {
+                // The same key may be looked up more than once in a single lookup.
+                Set<DocumentKey> recordedKeys = new HashSet<>();
                 for (MaybeDocument doc : task.getResult()) {
-                  recordVersion(doc);
+                  if (recordedKeys.add(doc.getKey())) {
+                    recordVersion(doc);
+                  }
                 }
               }
               return task;
@@ -14,11 +14,15 @@
 
 package com.google.firebase.firestore.core;
 
+import static com.google.firebase.firestore.util.Assert.hardAssert;
+
+import androidx.annotation.Nullable;
 import com.google.firebase.database.collection.ImmutableSortedSet;
 import com.google.firebase.firestore.model.Document;
 import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.DocumentSet;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /** A view snapshot is an immutable capture of the results of a query and the changes to them. */
@@ -40,6 +44,16 @@ public class ViewSnapshot {
   private final boolean didSyncStateChange;
   private boolean excludesMetadataChanges;
 
+  // The snapshots derived from this snapshot, which are shared by all listeners of the query. They
+  // are computed on first use on the worker queue.
+  @Nullable private ViewSnapshot withoutMetadataChanges;
+  @Nullable private ViewSnapshot initialSnapshot;
+
+  // The changes with the indexes of their documents, which are shared by all listeners that
+  // receive this snapshot. They are computed on first use on any thread and guarded by `this`.
+  @Nullable private List<IndexedChange> indexedChangesWithMetadata;
+  @Nullable private List<IndexedChange> indexedChangesWithoutMetadata;
+
   public ViewSnapshot(
       Query query,
       DocumentSet documents,
@@ -81,6 +95,49 @@ public class ViewSnapshot {
         excludesMetadataChanges);
   }
 
+  /**
+   * Returns a view snapshot with the same documents as this snapshot but without its metadata-only
+   * changes. All calls return the same instance.
+   *
+   * <p>Must only be called from the worker queue.
+   */
+  public ViewSnapshot withoutMetadataChanges() {
+    if (withoutMetadataChanges == null) {
+      List<DocumentViewChange> documentChanges = new ArrayList<>();
+      for (DocumentViewChange change : changes) {
+        if (change.getType() != DocumentViewChange.Type.METADATA) {
+          documentChanges.add(change);
+        }
+      }
+      withoutMetadataChanges =
+          new ViewSnapshot(
+              query,
+              documents,
+              oldDocuments,
+              documentChanges,
+              isFromCache,
+              mutatedKeys,
+              didSyncStateChange,
+              /* excludesMetadataChanges= */ true);
+    }
+    return withoutMetadataChanges;
+  }
+
+  /**
+   * Returns a view snapshot as if all documents in this snapshot were added. All calls return the
+   * same instance.
+   *
+   * <p>Must only be called from the worker queue.
+   */
+  public ViewSnapshot toInitialSnapshot() {
+    if (initialSnapshot == null) {
+      initialSnapshot =
+          fromInitialDocuments(
+              query, documents, mutatedKeys, isFromCache, excludesMetadataChanges);
+    }
+    return initialSnapshot;
+  }
+
   public Query getQuery() {
     return query;
   }
@@ -97,6 +154,77 @@ public class ViewSnapshot {
     return changes;
   }
 
+  /**
+   * Returns the changes of this snapshot together with the index of each changed document before
+   * and after the change. The list is computed once and shared by all callers.
+   *
+   * @param includeMetadataChanges Whether to include changes that only affect the metadata of a
+   *     document.
+   */
+  public synchronized List<IndexedChange> getIndexedChanges(boolean includeMetadataChanges) {
+    if (includeMetadataChanges) {
+      if (indexedChangesWithMetadata == null) {
+        indexedChangesWithMetadata = computeIndexedChanges(/* includeMetadataChanges= */ true);
+      }
+      return indexedChangesWithMetadata;
+    } else {
+      if (indexedChangesWithoutMetadata == null) {
+        indexedChangesWithoutMetadata = computeIndexedChanges(/* includeMetadataChanges= */ false);
+      }
+      return indexedChangesWithoutMetadata;
+    }
+  }
+
+  private List<IndexedChange> computeIndexedChanges(boolean includeMetadataChanges) {
+    List<IndexedChange> indexedChanges = new ArrayList<>(changes.size());
+    if (oldDocuments.isEmpty()) {
+      // Special case the first snapshot because index calculation is easy and fast. Also all
+      // changes on the first snapshot are adds so there are also no metadata-only changes to filter
+      // out.
+      int index = 0;
+      Document lastDoc = null;
+      for (DocumentViewChange change : changes) {
+        Document document = change.getDocument();
+        hardAssert(
+            change.getType() == DocumentViewChange.Type.ADDED,
+            "Invalid added event for first snapshot");
+        hardAssert(
+            lastDoc == null || query.comparator().compare(lastDoc, document) < 0,
+            "Got added events in wrong order");
+        indexedChanges.add(new IndexedChange(change, -1, index++));
+        lastDoc = document;
+      }
+    } else {
+      // A DocumentSet that is updated incrementally as changes are applied to use to lookup the
+      // index of a document.
+      DocumentSet indexTracker = oldDocuments;
+      for (DocumentViewChange change : changes) {
+        DocumentViewChange.Type type = change.getType();
+        if (!includeMetadataChanges && type == DocumentViewChange.Type.METADATA) {
+          continue;
+        }
+        Document document = change.getDocument();
+        int oldIndex, newIndex;
+        if (type != DocumentViewChange.Type.ADDED) {
+          oldIndex = indexTracker.indexOf(document.getKey());
+          hardAssert(oldIndex >= 0, "Index for document not found");
+          indexTracker = indexTracker.remove(document.getKey());
+        } else {
+          oldIndex = -1;
+        }
+        if (type != DocumentViewChange.Type.REMOVED) {
+          indexTracker = indexTracker.add(document);
+          newIndex = indexTracker.indexOf(document.getKey());
+          hardAssert(newIndex >= 0, "Index for document not found");
+        } else {
+          newIndex = -1;
+        }
+        indexedChanges.add(new IndexedChange(change, oldIndex, newIndex));
+      }
+    }
+    return Collections.unmodifiableList(indexedChanges);
+  }
+
   public boolean isFromCache() {
     return isFromCache;
   }
@@ -185,4 +313,35 @@ public class ViewSnapshot {
         + excludesMetadataChanges
         + ")";
   }
+
+  /** A change of a view snapshot together with the index of its document. */
+  public static final class IndexedChange {
+    private final DocumentViewChange change;
+    private final int oldIndex;
+    private final int newIndex;
+
+    IndexedChange(DocumentViewChange change, int oldIndex, int newIndex) {
+      this.change = change;
+      this.oldIndex = oldIndex;
+      this.newIndex = newIndex;
+    }
+
+    public DocumentViewChange.Type getType() {
+      return change.getType();
+    }
+
+    public Document getDocument() {
+      return change.getDocument();
+    }
+
+    /** Returns the index of the document before the change, or -1 if it was added. */
+    public int getOldIndex() {
+      return oldIndex;
+    }
+
+    /** Returns the index of the document after the change, or -1 if it was removed. */
+    public int getNewIndex() {
+      return newIndex;
+    }
+  }
 }
@@ -0,0 +1,62 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.local;
+
+import androidx.annotation.Nullable;
+import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.model.MaybeDocument;
+import com.google.firebase.firestore.model.ResourcePath;
+import java.util.Map;
+
+/**
+ * Stores the local view ("overlay") of documents that are affected by pending mutations for a
+ * specific user.
+ *
+ * <p>An overlay is the result of applying all of the user's pending mutation batches to the remote
+ * version of a document. Reads use the overlay in place of the remote document, so they don't need
+ * to decode and replay the mutation queue. The LocalStore recalculates the overlays whenever the
+ * mutation queue or the remote version of an affected document changes.
+ *
+ * <p>Documents without pending mutations have no overlay.
+ */
+interface DocumentOverlayCache {
+  /**
+   * Returns the overlay for the given document key.
+   *
+   * @return The overlay or null if the document has no overlay.
+   */
+  @Nullable
+  MaybeDocument getOverlay(DocumentKey key);
+
+  /**
+   * Returns the overlays for the given document keys. Documents without an overlay are not
+   * included in the result.
+   */
+  Map<DocumentKey, MaybeDocument> getOverlays(Iterable<DocumentKey> keys);
+
+  /**
+   * Returns the overlays for all documents that are immediate children of the given collection.
+   */
+  Map<DocumentKey, MaybeDocument> getOverlays(ResourcePath collection);
+
+  /** Stores the overlay for a document, replacing any existing overlay. */
+  void saveOverlay(MaybeDocument overlay);
+
+  /** Removes the overlay for the given document key, if there is one. */
+  void removeOverlay(DocumentKey key);
+
+  /** Removes all overlays for this user. */
+  void removeAllOverlays();
+}
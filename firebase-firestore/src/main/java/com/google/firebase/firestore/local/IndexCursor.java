@@ -14,7 +14,11 @@
 
 package com.google.firebase.firestore.local;
 
+import static com.google.firebase.firestore.util.Assert.hardAssert;
+
+import android.database.Cursor;
 import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.model.ResourcePath;
 import java.io.Closeable;
 
 /**
@@ -27,21 +31,32 @@ import java.io.Closeable;
  * lossy).
  */
 public class IndexCursor implements Closeable {
+  private final Cursor cursor;
+  private final ResourcePath collectionPath;
+  private boolean hasCurrent;
+
+  IndexCursor(Cursor cursor, ResourcePath collectionPath) {
+    this.cursor = cursor;
+    this.collectionPath = collectionPath;
+  }
+
   /**
    * Advances the cursor (to the first result if this is the first call), returning false if there
    * are no more items.
    */
   public boolean next() {
-    throw new RuntimeException("Not yet implemented.");
+    hasCurrent = cursor.moveToNext();
+    return hasCurrent;
   }
 
   /** Returns the DocumentKey for the current index entry (throws if there are no more entries). */
   public DocumentKey getDocumentKey() {
-    throw new RuntimeException("Not yet implemented.");
+    hardAssert(hasCurrent, "IndexCursor has no current entry");
+    return DocumentKey.fromPath(collectionPath.append(cursor.getString(0)));
   }
 
   @Override
   public void close() {
-    throw new RuntimeException("Not yet implemented.");
+    cursor.close();
   }
 }
@@ -34,8 +34,10 @@ import com.google.firebase.firestore.model.SnapshotVersion;
 import com.google.firebase.firestore.model.Values;
 import com.google.firebase.firestore.util.Assert;
 import com.google.firestore.v1.Value;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 /**
  * An indexed implementation of {@link QueryEngine} which performs fairly efficient queries.
@@ -74,7 +76,11 @@ import java.util.List;
  * that contains these fields and can hence optimize our lookups by providing some selectivity.
  *
  * <p>A full collection scan is therefore only needed when no filters or orderBy constraints are
- * specified.
+ * specified, or when none of the filters can be served by the index (e.g. filters on the document
+ * key or array membership filters).
+ *
+ * <p>The index only contains remote documents. Pending mutations are overlaid on top of the index
+ * results by the {@link LocalDocumentsView}.
  */
 public class IndexedQueryEngine implements QueryEngine {
 
@@ -108,7 +114,7 @@ public class IndexedQueryEngine implements QueryEngine {
       ImmutableSortedSet<DocumentKey> remoteKeys) {
     hardAssert(localDocuments != null, "setLocalDocumentsView() not called");
 
-    return query.isDocumentQuery()
+    return query.isDocumentQuery() || query.isCollectionGroupQuery()
         ? localDocuments.getDocumentsMatchingQuery(query, SnapshotVersion.NONE)
         : performCollectionQuery(query);
   }
@@ -123,9 +129,6 @@ public class IndexedQueryEngine implements QueryEngine {
     if (indexRange != null) {
       filteredResults = performQueryUsingIndex(query, indexRange);
     } else {
-      hardAssert(
-          query.getFilters().isEmpty(),
-          "If there are any filters, we should be able to use an index.");
       // TODO: Call overlay.getCollectionDocuments(query.getPath()) and filter the
       // results (there may still be startAt/endAt bounds that apply).
       filteredResults = localDocuments.getDocumentsMatchingQuery(query, SnapshotVersion.NONE);
@@ -135,25 +138,52 @@ public class IndexedQueryEngine implements QueryEngine {
   }
 
   /**
-   * Applies 'filter' to the index cursor, looks up the relevant documents from the local documents
-   * view and returns all matches.
+   * Applies 'filter' to the index cursor, looks up the relevant remote documents and overlays the
+   * local mutations.
    */
   private ImmutableSortedMap<DocumentKey, Document> performQueryUsingIndex(
       Query query, IndexRange indexRange) {
-    ImmutableSortedMap<DocumentKey, Document> results = DocumentCollections.emptyDocumentMap();
+    List<DocumentKey> candidateKeys = new ArrayList<>();
     IndexCursor cursor = collectionIndex.getCursor(query.getPath(), indexRange);
     try {
       while (cursor.next()) {
-        Document document = (Document) localDocuments.getDocument(cursor.getDocumentKey());
-        if (query.matches(document)) {
-          results = results.insert(cursor.getDocumentKey(), document);
-        }
+        candidateKeys.add(cursor.getDocumentKey());
       }
     } finally {
       cursor.close();
     }
 
-    return results;
+    ImmutableSortedMap<DocumentKey, Document> remoteMatches =
+        DocumentCollections.emptyDocumentMap();
+    Map<DocumentKey, MaybeDocument> candidates =
+        localDocuments.getRemoteDocumentCache().getAll(candidateKeys);
+    for (MaybeDocument maybeDoc : candidates.values()) {
+      if (maybeDoc instanceof Document && query.matches((Document) maybeDoc)) {
+        remoteMatches = remoteMatches.insert(maybeDoc.getKey(), (Document) maybeDoc);
+      }
+    }
+
+    return localDocuments.getLocalViewOfCollectionQuery(query, remoteMatches);
+  }
+
+  /**
+   * Returns whether the filter can be served by the collection index. Filters on the document key
+   * and array membership filters cannot.
+   */
+  private static boolean isIndexable(Filter filter) {
+    if (!(filter instanceof FieldFilter) || filter.getField().isKeyField()) {
+      return false;
+    }
+    switch (((FieldFilter) filter).getOperator()) {
+      case LESS_THAN:
+      case LESS_THAN_OR_EQUAL:
+      case EQUAL:
+      case GREATER_THAN:
+      case GREATER_THAN_OR_EQUAL:
+        return true;
+      default:
+        return false;
+    }
   }
 
   /**
@@ -192,26 +222,30 @@ public class IndexedQueryEngine implements QueryEngine {
 
     double currentSelectivity = -1;
 
-    if (!query.getFilters().isEmpty()) {
-      Filter selectedFilter = null;
-      for (Filter currentFilter : query.getFilters()) {
-        double estimatedSelectivity = estimateFilterSelectivity(currentFilter);
-        if (estimatedSelectivity > currentSelectivity) {
-          selectedFilter = currentFilter;
-          currentSelectivity = estimatedSelectivity;
-        }
+    Filter selectedFilter = null;
+    for (Filter currentFilter : query.getFilters()) {
+      if (!isIndexable(currentFilter)) {
+        continue;
       }
-      hardAssert(selectedFilter != null, "Filter should be defined");
-      return convertFilterToIndexRange(selectedFilter);
-    } else {
-      // If there are no filters, use the first orderBy constraint when performing the index lookup.
-      // This index lookup will remove results that do not contain the field we use for ordering.
-      FieldPath orderPath = query.getOrderBy().get(0).getField();
-      if (!orderPath.equals(FieldPath.KEY_PATH)) {
-        return IndexRange.builder().setFieldPath(query.getOrderBy().get(0).getField()).build();
+      double estimatedSelectivity = estimateFilterSelectivity(currentFilter);
+      if (estimatedSelectivity > currentSelectivity) {
+        selectedFilter = currentFilter;
+        currentSelectivity = estimatedSelectivity;
       }
     }
 
+    if (selectedFilter != null) {
+      return convertFilterToIndexRange(selectedFilter);
+    }
+
+    // If there are no indexable filters, use the first orderBy constraint when performing the index
+    // lookup. This index lookup will remove results that do not contain the field we use for
+    // ordering.
+    FieldPath orderPath = query.getOrderBy().get(0).getField();
+    if (!orderPath.equals(FieldPath.KEY_PATH)) {
+      return IndexRange.builder().setFieldPath(orderPath).build();
+    }
+
     return null;
   }
 
@@ -246,8 +280,7 @@ public class IndexedQueryEngine implements QueryEngine {
 
   @Override
   public void handleDocumentChange(MaybeDocument oldDocument, MaybeDocument newDocument) {
-    // TODO: Determine changed fields and make appropriate addEntry() / removeEntry()
-    // on SQLiteCollectionIndex.
-    throw new RuntimeException("Not yet implemented.");
+    // The collection index is updated by the SQLiteRemoteDocumentCache whenever a remote document
+    // changes. Local changes are not indexed, since mutations are overlaid at query time.
   }
 }
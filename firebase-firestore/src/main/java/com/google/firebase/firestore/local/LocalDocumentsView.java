@@ -28,35 +28,40 @@ import com.google.firebase.firestore.model.MaybeDocument;
 import com.google.firebase.firestore.model.NoDocument;
 import com.google.firebase.firestore.model.ResourcePath;
 import com.google.firebase.firestore.model.SnapshotVersion;
-import com.google.firebase.firestore.model.mutation.Mutation;
 import com.google.firebase.firestore.model.mutation.MutationBatch;
-import com.google.firebase.firestore.model.mutation.PatchMutation;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
- * A readonly view of the local state of all documents we're tracking (i.e. we have a cached version
- * in remoteDocumentCache or local mutations for the document). The view is computed by applying the
- * mutations in the MutationQueue to the RemoteDocumentCache.
+ * A view of the local state of all documents we're tracking (i.e. we have a cached version in
+ * remoteDocumentCache or local mutations for the document). The view of documents with pending
+ * mutations is materialized in the DocumentOverlayCache, which is kept up to date whenever the
+ * MutationQueue or the RemoteDocumentCache changes. All other documents are read from the
+ * RemoteDocumentCache directly.
  */
 // TODO: Turn this into the UnifiedDocumentCache / whatever.
 class LocalDocumentsView {
 
   private final RemoteDocumentCache remoteDocumentCache;
   private final MutationQueue mutationQueue;
+  private final DocumentOverlayCache documentOverlayCache;
   private final IndexManager indexManager;
 
   LocalDocumentsView(
       RemoteDocumentCache remoteDocumentCache,
       MutationQueue mutationQueue,
+      DocumentOverlayCache documentOverlayCache,
       IndexManager indexManager) {
     this.remoteDocumentCache = remoteDocumentCache;
     this.mutationQueue = mutationQueue;
+    this.documentOverlayCache = documentOverlayCache;
     this.indexManager = indexManager;
   }
 
-  @VisibleForTesting
   RemoteDocumentCache getRemoteDocumentCache() {
     return remoteDocumentCache;
   }
@@ -66,6 +71,11 @@ class LocalDocumentsView {
     return mutationQueue;
   }
 
+  @VisibleForTesting
+  DocumentOverlayCache getDocumentOverlayCache() {
+    return documentOverlayCache;
+  }
+
   @VisibleForTesting
   IndexManager getIndexManager() {
     return indexManager;
@@ -78,34 +88,8 @@ class LocalDocumentsView {
    */
   @Nullable
   MaybeDocument getDocument(DocumentKey key) {
-    List<MutationBatch> batches = mutationQueue.getAllMutationBatchesAffectingDocumentKey(key);
-    return getDocument(key, batches);
-  }
-
-  // Internal version of {@code getDocument} that allows reusing batches.
-  @Nullable
-  private MaybeDocument getDocument(DocumentKey key, List<MutationBatch> inBatches) {
-    @Nullable MaybeDocument document = remoteDocumentCache.get(key);
-    for (MutationBatch batch : inBatches) {
-      document = batch.applyToLocalView(key, document);
-    }
-
-    return document;
-  }
-
-  // Returns the view of the given {@code docs} as they would appear after applying all mutations in
-  // the given {@code batches}.
-  private Map<DocumentKey, MaybeDocument> applyLocalMutationsToDocuments(
-      Map<DocumentKey, MaybeDocument> docs, List<MutationBatch> batches) {
-    for (Map.Entry<DocumentKey, MaybeDocument> base : docs.entrySet()) {
-      MaybeDocument localView = base.getValue();
-      for (MutationBatch batch : batches) {
-        localView = batch.applyToLocalView(base.getKey(), localView);
-      }
-      base.setValue(localView);
-    }
-
-    return docs;
+    MaybeDocument overlay = documentOverlayCache.getOverlay(key);
+    return overlay != null ? overlay : remoteDocumentCache.get(key);
   }
 
   /**
@@ -115,8 +99,27 @@ class LocalDocumentsView {
    * for that key in the resulting set.
    */
   ImmutableSortedMap<DocumentKey, MaybeDocument> getDocuments(Iterable<DocumentKey> keys) {
-    Map<DocumentKey, MaybeDocument> docs = remoteDocumentCache.getAll(keys);
-    return getLocalViewOfDocuments(docs);
+    // Overlays are read before remote documents, so that a read on a reader lane of the AsyncQueue
+    // observes each document either before or after a concurrent transaction that changes both.
+    Map<DocumentKey, MaybeDocument> overlays = documentOverlayCache.getOverlays(keys);
+    Set<DocumentKey> keysWithoutOverlay = new HashSet<>();
+    for (DocumentKey key : keys) {
+      if (!overlays.containsKey(key)) {
+        keysWithoutOverlay.add(key);
+      }
+    }
+    Map<DocumentKey, MaybeDocument> remoteDocs = remoteDocumentCache.getAll(keysWithoutOverlay);
+
+    ImmutableSortedMap<DocumentKey, MaybeDocument> results = emptyMaybeDocumentMap();
+    for (DocumentKey key : keys) {
+      MaybeDocument maybeDoc = overlays.containsKey(key) ? overlays.get(key) : remoteDocs.get(key);
+      // TODO: Don't conflate missing / deleted.
+      if (maybeDoc == null) {
+        maybeDoc = new NoDocument(key, SnapshotVersion.NONE, /*hasCommittedMutations=*/ false);
+      }
+      results = results.insert(key, maybeDoc);
+    }
+    return results;
   }
 
   /**
@@ -127,12 +130,11 @@ class LocalDocumentsView {
       Map<DocumentKey, MaybeDocument> baseDocs) {
     ImmutableSortedMap<DocumentKey, MaybeDocument> results = emptyMaybeDocumentMap();
 
-    List<MutationBatch> batches =
-        mutationQueue.getAllMutationBatchesAffectingDocumentKeys(baseDocs.keySet());
-    Map<DocumentKey, MaybeDocument> docs = applyLocalMutationsToDocuments(baseDocs, batches);
-    for (Map.Entry<DocumentKey, MaybeDocument> entry : docs.entrySet()) {
+    Map<DocumentKey, MaybeDocument> overlays = documentOverlayCache.getOverlays(baseDocs.keySet());
+    for (Map.Entry<DocumentKey, MaybeDocument> entry : baseDocs.entrySet()) {
       DocumentKey key = entry.getKey();
-      MaybeDocument maybeDoc = entry.getValue();
+      MaybeDocument overlay = overlays.get(key);
+      MaybeDocument maybeDoc = overlay != null ? overlay : entry.getValue();
       // TODO: Don't conflate missing / deleted.
       if (maybeDoc == null) {
         maybeDoc = new NoDocument(key, SnapshotVersion.NONE, /*hasCommittedMutations=*/ false);
@@ -150,6 +152,9 @@ class LocalDocumentsView {
   /**
    * Performs a query against the local view of all documents.
    *
+   * <p>If the query has a limit and {@code sinceReadTime} is not set, the results may omit
+   * documents that sort after the limit.
+   *
    * @param query The query to match documents against.
    * @param sinceReadTime If not set to SnapshotVersion.MIN, return only documents that have been
    *     read since this snapshot version (exclusive).
@@ -203,29 +208,48 @@ class LocalDocumentsView {
   /** Queries the remote documents and overlays mutations. */
   private ImmutableSortedMap<DocumentKey, Document> getDocumentsMatchingCollectionQuery(
       Query query, SnapshotVersion sinceReadTime) {
-    ImmutableSortedMap<DocumentKey, Document> results =
-        remoteDocumentCache.getAllDocumentsMatchingQuery(query, sinceReadTime);
-
-    List<MutationBatch> matchingBatches = mutationQueue.getAllMutationBatchesAffectingQuery(query);
-
-    results = addMissingBaseDocuments(matchingBatches, results);
+    // As in getDocuments(), overlays are read before remote documents.
+    Map<DocumentKey, MaybeDocument> overlays = documentOverlayCache.getOverlays(query.getPath());
+    ImmutableSortedMap<DocumentKey, Document> remoteDocuments;
+    if (sinceReadTime.equals(SnapshotVersion.NONE)
+        && (query.hasLimitToFirst() || query.hasLimitToLast())) {
+      // Only the documents that sort within the limit can be part of the results. Each overlay can
+      // replace or remove one of these documents, in which case the next remote document moves up
+      // into the limit.
+      long limit = query.hasLimitToFirst() ? query.getLimitToFirst() : query.getLimitToLast();
+      int count = (int) Math.min(Integer.MAX_VALUE, limit + overlays.size());
+      remoteDocuments = remoteDocumentCache.getTopDocumentsMatchingQuery(query, count);
+    } else {
+      remoteDocuments = remoteDocumentCache.getAllDocumentsMatchingQuery(query, sinceReadTime);
+    }
+    return applyOverlays(query, remoteDocuments, overlays);
+  }
 
-    for (MutationBatch batch : matchingBatches) {
-      for (Mutation mutation : batch.getMutations()) {
-        // Only process documents belonging to the collection.
-        if (!query.getPath().isImmediateParentOf(mutation.getKey().getPath())) {
-          continue;
-        }
+  /**
+   * Overlays the local view of the documents with pending mutations in the query's collection on
+   * top of {@code remoteDocuments} and returns the documents that match the query.
+   *
+   * @param query The collection query to match documents against.
+   * @param remoteDocuments The remote documents to use as a base. Must contain at least all remote
+   *     documents that match the query.
+   */
+  ImmutableSortedMap<DocumentKey, Document> getLocalViewOfCollectionQuery(
+      Query query, ImmutableSortedMap<DocumentKey, Document> remoteDocuments) {
+    return applyOverlays(
+        query, remoteDocuments, documentOverlayCache.getOverlays(query.getPath()));
+  }
 
-        DocumentKey key = mutation.getKey();
-        MaybeDocument baseDoc = results.get(key);
-        MaybeDocument mutatedDoc =
-            mutation.applyToLocalView(baseDoc, baseDoc, batch.getLocalWriteTime());
-        if (mutatedDoc instanceof Document) {
-          results = results.insert(key, (Document) mutatedDoc);
-        } else {
-          results = results.remove(key);
-        }
+  private ImmutableSortedMap<DocumentKey, Document> applyOverlays(
+      Query query,
+      ImmutableSortedMap<DocumentKey, Document> remoteDocuments,
+      Map<DocumentKey, MaybeDocument> overlays) {
+    ImmutableSortedMap<DocumentKey, Document> results = remoteDocuments;
+    for (Map.Entry<DocumentKey, MaybeDocument> entry : overlays.entrySet()) {
+      MaybeDocument overlay = entry.getValue();
+      if (overlay instanceof Document) {
+        results = results.insert(entry.getKey(), (Document) overlay);
+      } else {
+        results = results.remove(entry.getKey());
       }
     }
 
@@ -240,32 +264,90 @@ class LocalDocumentsView {
   }
 
   /**
-   * It is possible that a {@code PatchMutation} can make a document match a query, even if the
-   * version in the {@code RemoteDocumentCache} is not a match yet (waiting for server to ack). To
-   * handle this, we find all document keys affected by the {@code PatchMutation}s that are not in
-   * {@code existingDocs} yet, and back fill them via {@code remoteDocumentCache.getAll}, otherwise
-   * those {@code PatchMutation}s will be ignored because no base document can be found, and lead to
-   * missing results for the query.
+   * Updates the overlays of the documents in {@code batch}, which must have been added to the end
+   * of the mutation queue. Since the batch is applied last, it can be applied on top of the current
+   * local view of each document without replaying the batches before it.
+   */
+  void applyNewBatchToOverlays(MutationBatch batch) {
+    Set<DocumentKey> keys = batch.getKeys();
+    Map<DocumentKey, MaybeDocument> overlays = documentOverlayCache.getOverlays(keys);
+
+    Set<DocumentKey> keysWithoutOverlay = new HashSet<>(keys);
+    keysWithoutOverlay.removeAll(overlays.keySet());
+    Map<DocumentKey, MaybeDocument> remoteDocs = remoteDocumentCache.getAll(keysWithoutOverlay);
+
+    for (DocumentKey key : keys) {
+      MaybeDocument baseDoc = overlays.containsKey(key) ? overlays.get(key) : remoteDocs.get(key);
+      saveOrRemoveOverlay(key, batch.applyToLocalView(key, baseDoc));
+    }
+  }
+
+  /**
+   * Recomputes the overlays of the documents identified by {@code keys} from the
+   * RemoteDocumentCache and the MutationQueue. Must be called whenever a batch that affects these
+   * documents is removed from the queue, or when their remote version changes.
    */
-  private ImmutableSortedMap<DocumentKey, Document> addMissingBaseDocuments(
-      List<MutationBatch> matchingBatches, ImmutableSortedMap<DocumentKey, Document> existingDocs) {
-    HashSet<DocumentKey> missingDocKeys = new HashSet<>();
-    for (MutationBatch batch : matchingBatches) {
-      for (Mutation mutation : batch.getMutations()) {
-        if (mutation instanceof PatchMutation && !existingDocs.containsKey(mutation.getKey())) {
-          missingDocKeys.add(mutation.getKey());
+  void recalculateOverlays(Set<DocumentKey> keys) {
+    List<MutationBatch> batches = mutationQueue.getAllMutationBatchesAffectingDocumentKeys(keys);
+    recalculateOverlays(keys, batches);
+  }
+
+  /** Discards all overlays and recomputes them from the pending batches in the MutationQueue. */
+  void rebuildOverlays() {
+    documentOverlayCache.removeAllOverlays();
+
+    List<MutationBatch> batches = mutationQueue.getAllMutationBatches();
+    Set<DocumentKey> keys = new HashSet<>();
+    for (MutationBatch batch : batches) {
+      keys.addAll(batch.getKeys());
+    }
+    recalculateOverlays(keys, batches);
+  }
+
+  private void recalculateOverlays(Set<DocumentKey> keys, List<MutationBatch> batches) {
+    // Group the batches by document so that each document only replays its own batches. The
+    // batches are sorted by batch ID, which is preserved by the grouping.
+    Map<DocumentKey, List<MutationBatch>> batchesByKey = new HashMap<>();
+    for (MutationBatch batch : batches) {
+      for (DocumentKey key : batch.getKeys()) {
+        if (!keys.contains(key)) {
+          continue;
+        }
+        List<MutationBatch> keyBatches = batchesByKey.get(key);
+        if (keyBatches == null) {
+          keyBatches = new ArrayList<>();
+          batchesByKey.put(key, keyBatches);
         }
+        keyBatches.add(batch);
       }
     }
 
-    ImmutableSortedMap<DocumentKey, Document> mergedDocs = existingDocs;
-    Map<DocumentKey, MaybeDocument> missingDocs = remoteDocumentCache.getAll(missingDocKeys);
-    for (Map.Entry<DocumentKey, MaybeDocument> entry : missingDocs.entrySet()) {
-      if (entry.getValue() != null && (entry.getValue() instanceof Document)) {
-        mergedDocs = mergedDocs.insert(entry.getKey(), (Document) entry.getValue());
+    Map<DocumentKey, MaybeDocument> remoteDocs = remoteDocumentCache.getAll(batchesByKey.keySet());
+    for (Map.Entry<DocumentKey, List<MutationBatch>> entry : batchesByKey.entrySet()) {
+      DocumentKey key = entry.getKey();
+      MaybeDocument localView = remoteDocs.get(key);
+      for (MutationBatch batch : entry.getValue()) {
+        localView = batch.applyToLocalView(key, localView);
       }
+      saveOrRemoveOverlay(key, localView);
     }
 
-    return mergedDocs;
+    // Documents without pending batches must not have an overlay. Only documents whose last batch
+    // was just removed can still have one, so we look them up before issuing any deletes.
+    Set<DocumentKey> keysWithoutBatches = new HashSet<>(keys);
+    keysWithoutBatches.removeAll(batchesByKey.keySet());
+    if (!keysWithoutBatches.isEmpty()) {
+      for (DocumentKey key : documentOverlayCache.getOverlays(keysWithoutBatches).keySet()) {
+        documentOverlayCache.removeOverlay(key);
+      }
+    }
+  }
+
+  private void saveOrRemoveOverlay(DocumentKey key, @Nullable MaybeDocument localView) {
+    if (localView != null) {
+      documentOverlayCache.saveOverlay(localView);
+    } else {
+      documentOverlayCache.removeOverlay(key);
+    }
   }
 }
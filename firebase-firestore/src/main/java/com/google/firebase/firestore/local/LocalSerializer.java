@@ -30,12 +30,18 @@ import com.google.firebase.firestore.model.mutation.Mutation;
 import com.google.firebase.firestore.model.mutation.MutationBatch;
 import com.google.firebase.firestore.remote.RemoteSerializer;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.UnsafeByteOperations;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 /** Serializer for values stored in the LocalStore. */
 public final class LocalSerializer {
 
+  /** The number of low bits of a protobuf tag that hold the wire type. */
+  private static final int TAG_TYPE_BITS = 3;
+
   private final RemoteSerializer rpcSerializer;
 
   public LocalSerializer(RemoteSerializer rpcSerializer) {
@@ -55,6 +61,7 @@ public final class LocalSerializer {
       Document existingDocument = (Document) document;
       builder.setDocument(encodeDocument(existingDocument));
       builder.setHasCommittedMutations(existingDocument.hasCommittedMutations());
+      builder.setHasLocalMutations(existingDocument.hasLocalMutations());
     } else if (document instanceof UnknownDocument) {
       builder.setUnknownDocument(encodeUnknownDocument((UnknownDocument) document));
       builder.setHasCommittedMutations(true);
@@ -69,7 +76,8 @@ public final class LocalSerializer {
   MaybeDocument decodeMaybeDocument(com.google.firebase.firestore.proto.MaybeDocument proto) {
     switch (proto.getDocumentTypeCase()) {
       case DOCUMENT:
-        return decodeDocument(proto.getDocument(), proto.getHasCommittedMutations());
+        return decodeDocument(
+            proto.getDocument(), proto.getHasCommittedMutations(), proto.getHasLocalMutations());
 
       case NO_DOCUMENT:
         return decodeNoDocument(proto.getNoDocument(), proto.getHasCommittedMutations());
@@ -82,6 +90,72 @@ public final class LocalSerializer {
     }
   }
 
+  /**
+   * Decodes an encoded MaybeDocument proto to the equivalent model. Unlike {@link
+   * #decodeMaybeDocument}, the data of a document is not decoded until it is accessed, which makes
+   * decoding documents that are only checked against a query filter cheaper.
+   */
+  MaybeDocument decodeMaybeDocumentLazily(byte[] bytes) {
+    try {
+      CodedInputStream input = newAliasingInput(UnsafeByteOperations.unsafeWrap(bytes));
+      ByteString document = null;
+      boolean hasCommittedMutations = false;
+      boolean hasLocalMutations = false;
+      for (int tag = input.readTag(); tag != 0; tag = input.readTag()) {
+        switch (tag >>> TAG_TYPE_BITS) {
+          case com.google.firebase.firestore.proto.MaybeDocument.DOCUMENT_FIELD_NUMBER:
+            document = input.readBytes();
+            break;
+          case com.google.firebase.firestore.proto.MaybeDocument
+              .HAS_COMMITTED_MUTATIONS_FIELD_NUMBER:
+            hasCommittedMutations = input.readBool();
+            break;
+          case com.google.firebase.firestore.proto.MaybeDocument.HAS_LOCAL_MUTATIONS_FIELD_NUMBER:
+            hasLocalMutations = input.readBool();
+            break;
+          default:
+            input.skipField(tag);
+        }
+      }
+
+      if (document == null) {
+        // Deleted and unknown documents do not have any data to decode lazily.
+        return decodeMaybeDocument(
+            com.google.firebase.firestore.proto.MaybeDocument.parseFrom(bytes));
+      }
+
+      String name = "";
+      com.google.protobuf.Timestamp updateTime = com.google.protobuf.Timestamp.getDefaultInstance();
+      input = newAliasingInput(document);
+      for (int tag = input.readTag(); tag != 0; tag = input.readTag()) {
+        switch (tag >>> TAG_TYPE_BITS) {
+          case com.google.firestore.v1.Document.NAME_FIELD_NUMBER:
+            name = input.readStringRequireUtf8();
+            break;
+          case com.google.firestore.v1.Document.UPDATE_TIME_FIELD_NUMBER:
+            updateTime = com.google.protobuf.Timestamp.parseFrom(input.readBytes());
+            break;
+          default:
+            input.skipField(tag);
+        }
+      }
+
+      return new Document(
+          rpcSerializer.decodeKey(name),
+          rpcSerializer.decodeVersion(updateTime),
+          decodeDocumentState(hasCommittedMutations, hasLocalMutations),
+          document);
+    } catch (IOException e) {
+      throw fail("MaybeDocument failed to parse: %s", e);
+    }
+  }
+
+  private static CodedInputStream newAliasingInput(ByteString bytes) {
+    CodedInputStream input = bytes.newCodedInput();
+    input.enableAliasing(true);
+    return input;
+  }
+
   /**
    * Encodes a Document for local storage. This differs from the v1 RPC serializer for Documents in
    * that it preserves the updateTime, which is considered an output only value by the server.
@@ -98,16 +172,27 @@ public final class LocalSerializer {
 
   /** Decodes a Document proto to the equivalent model. */
   private Document decodeDocument(
-      com.google.firestore.v1.Document document, boolean hasCommittedMutations) {
+      com.google.firestore.v1.Document document,
+      boolean hasCommittedMutations,
+      boolean hasLocalMutations) {
     DocumentKey key = rpcSerializer.decodeKey(document.getName());
     SnapshotVersion version = rpcSerializer.decodeVersion(document.getUpdateTime());
     return new Document(
         key,
         version,
         ObjectValue.fromMap(document.getFieldsMap()),
-        hasCommittedMutations
-            ? Document.DocumentState.COMMITTED_MUTATIONS
-            : Document.DocumentState.SYNCED);
+        decodeDocumentState(hasCommittedMutations, hasLocalMutations));
+  }
+
+  private static Document.DocumentState decodeDocumentState(
+      boolean hasCommittedMutations, boolean hasLocalMutations) {
+    if (hasLocalMutations) {
+      return Document.DocumentState.LOCAL_MUTATIONS;
+    } else if (hasCommittedMutations) {
+      return Document.DocumentState.COMMITTED_MUTATIONS;
+    } else {
+      return Document.DocumentState.SYNCED;
+    }
   }
 
   /** Encodes a NoDocument value to the equivalent proto. */
@@ -176,7 +261,10 @@ public final class LocalSerializer {
     for (int i = 0; i < mutationsCount; i++) {
       mutations.add(rpcSerializer.decodeMutation(batch.getWrites(i)));
     }
-    return new MutationBatch(batchId, localWriteTime, baseMutations, mutations);
+    // The stored writes are kept so that they do not need to be encoded again when the batch is
+    // sent to the backend.
+    return new MutationBatch(
+        batchId, localWriteTime, baseMutations, mutations, batch.getWritesList());
   }
 
   com.google.firebase.firestore.proto.Target encodeTargetData(TargetData targetData) {
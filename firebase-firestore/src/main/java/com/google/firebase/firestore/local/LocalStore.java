@@ -109,8 +109,11 @@ public final class LocalStore {
   /** The last known state of all referenced documents according to the backend. */
   private final RemoteDocumentCache remoteDocuments;
 
-  /** The current state of all referenced documents, reflecting local changes. */
-  private LocalDocumentsView localDocuments;
+  /**
+   * The current state of all referenced documents, reflecting local changes. Volatile since it is
+   * also read by readDocument() on the reader lanes of the AsyncQueue.
+   */
+  private volatile LocalDocumentsView localDocuments;
 
   /** Performs queries over the localDocuments (and potentially maintains indexes). */
   private QueryEngine queryEngine;
@@ -130,6 +133,9 @@ public final class LocalStore {
   /** Used to generate targetIds for queries tracked locally. */
   private final TargetIdGenerator targetIdGenerator;
 
+  /** The results of recently executed queries that are still up to date. */
+  private final QueryResultCache queryResultCache;
+
   public LocalStore(Persistence persistence, QueryEngine queryEngine, User initialUser) {
     hardAssert(
         persistence.isStarted(), "LocalStore was passed an unstarted persistence implementation");
@@ -139,7 +145,11 @@ public final class LocalStore {
     mutationQueue = persistence.getMutationQueue(initialUser);
     remoteDocuments = persistence.getRemoteDocumentCache();
     localDocuments =
-        new LocalDocumentsView(remoteDocuments, mutationQueue, persistence.getIndexManager());
+        new LocalDocumentsView(
+            remoteDocuments,
+            mutationQueue,
+            persistence.getDocumentOverlayCache(initialUser),
+            persistence.getIndexManager());
 
     this.queryEngine = queryEngine;
     queryEngine.setLocalDocumentsView(localDocuments);
@@ -149,10 +159,12 @@ public final class LocalStore {
 
     queryDataByTarget = new SparseArray<>();
     targetIdByTarget = new HashMap<>();
+    queryResultCache = new QueryResultCache();
   }
 
   public void start() {
     startMutationQueue();
+    rebuildOverlays();
   }
 
   private void startMutationQueue() {
@@ -163,6 +175,15 @@ public final class LocalStore {
         });
   }
 
+  /**
+   * Recomputes the overlays of the current user from the mutation queue. Overlays are not updated
+   * while a different user is active (or by SDK versions that predate them), so they are rebuilt
+   * whenever the mutation queue is (re)started.
+   */
+  private void rebuildOverlays() {
+    persistence.runTransaction("Rebuild overlays", () -> localDocuments.rebuildOverlays());
+  }
+
   // PORTING NOTE: no shutdown for LocalStore or persistence components on Android.
 
   public ImmutableSortedMap<DocumentKey, MaybeDocument> handleUserChange(User user) {
@@ -176,8 +197,14 @@ public final class LocalStore {
 
     // Recreate our LocalDocumentsView using the new MutationQueue.
     localDocuments =
-        new LocalDocumentsView(remoteDocuments, mutationQueue, persistence.getIndexManager());
+        new LocalDocumentsView(
+            remoteDocuments,
+            mutationQueue,
+            persistence.getDocumentOverlayCache(user),
+            persistence.getIndexManager());
     queryEngine.setLocalDocumentsView(localDocuments);
+    rebuildOverlays();
+    queryResultCache.clear();
 
     // Union the old/new changed keys.
     ImmutableSortedSet<DocumentKey> changedKeys = DocumentKey.emptyKeySet();
@@ -234,8 +261,15 @@ public final class LocalStore {
 
           MutationBatch batch =
               mutationQueue.addMutationBatch(localWriteTime, baseMutations, mutations);
+
+          // The mutation queue may have merged the mutations into an existing batch, whose effects
+          // are already part of the local view. Only the new mutations are applied on top of it.
+          MutationBatch newWrites =
+              new MutationBatch(batch.getBatchId(), localWriteTime, baseMutations, mutations);
+          localDocuments.applyNewBatchToOverlays(newWrites);
+          queryResultCache.invalidate(keys);
           ImmutableSortedMap<DocumentKey, MaybeDocument> changedDocuments =
-              batch.applyToLocalDocumentSet(existingDocuments);
+              newWrites.applyToLocalDocumentSet(existingDocuments);
           return new LocalWriteResult(batch.getBatchId(), changedDocuments);
         });
   }
@@ -264,6 +298,8 @@ public final class LocalStore {
           mutationQueue.acknowledgeBatch(batch, batchResult.getStreamToken());
           applyWriteToRemoteDocuments(batchResult);
           mutationQueue.performConsistencyCheck();
+          localDocuments.recalculateOverlays(batch.getKeys());
+          queryResultCache.invalidate(batch.getKeys());
           return localDocuments.getDocuments(batch.getKeys());
         });
   }
@@ -285,6 +321,8 @@ public final class LocalStore {
 
           mutationQueue.removeMutationBatch(toReject);
           mutationQueue.performConsistencyCheck();
+          localDocuments.recalculateOverlays(toReject.getKeys());
+          queryResultCache.invalidate(toReject.getKeys());
           return localDocuments.getDocuments(toReject.getKeys());
         });
   }
@@ -354,6 +392,7 @@ public final class LocalStore {
 
             targetCache.removeMatchingKeys(change.getRemovedDocuments(), targetId);
             targetCache.addMatchingKeys(change.getAddedDocuments(), targetId);
+            queryResultCache.invalidate(oldTargetData.getTarget());
 
             ByteString resumeToken = change.getResumeToken();
             // Update the resume token if the change includes one.
@@ -379,6 +418,8 @@ public final class LocalStore {
           // documents in advance in a single call.
           Map<DocumentKey, MaybeDocument> existingDocs =
               remoteDocuments.getAll(documentUpdates.keySet());
+          // Updated documents are written to the cache in a single batch after the loop.
+          List<MaybeDocument> updatedDocs = new ArrayList<>();
 
           for (Entry<DocumentKey, MaybeDocument> entry : documentUpdates.entrySet()) {
             DocumentKey key = entry.getKey();
@@ -400,7 +441,7 @@ public final class LocalStore {
               hardAssert(
                   !SnapshotVersion.NONE.equals(remoteEvent.getSnapshotVersion()),
                   "Cannot add a document when the remote version is zero");
-              remoteDocuments.add(doc, remoteEvent.getSnapshotVersion());
+              updatedDocs.add(doc);
               changedDocs.put(key, doc);
             } else {
               Logger.debug(
@@ -416,6 +457,9 @@ public final class LocalStore {
               persistence.getReferenceDelegate().updateLimboDocument(key);
             }
           }
+          if (!updatedDocs.isEmpty()) {
+            remoteDocuments.addAll(updatedDocs, remoteEvent.getSnapshotVersion());
+          }
 
           // HACK: The only reason we allow snapshot version NONE is so that we can synthesize
           // remote events when we get permission denied errors while trying to resolve the
@@ -430,10 +474,116 @@ public final class LocalStore {
             targetCache.setLastRemoteSnapshotVersion(remoteVersion);
           }
 
+          localDocuments.recalculateOverlays(changedDocs.keySet());
+          // Resolved limbo documents may be garbage collected even if they did not change.
+          queryResultCache.invalidate(documentUpdates.keySet());
           return localDocuments.getLocalViewOfDocuments(changedDocs);
         });
   }
 
+  /**
+   * Writes documents of a snapshot file to the local cache. Documents only replace cached documents
+   * with an older version.
+   *
+   * <p>The documents are not handed to garbage collection until {@link #saveSnapshotFileQueries}
+   * is called, as eager garbage collection would otherwise remove them before the queries that
+   * reference them are stored.
+   *
+   * @param documents The documents of a part of the snapshot file.
+   * @param createTime The time at which the documents of the snapshot file were read.
+   * @return The local views of the documents that changed.
+   */
+  public ImmutableSortedMap<DocumentKey, MaybeDocument> applySnapshotFileDocuments(
+      List<Document> documents, SnapshotVersion createTime) {
+    return persistence.runTransaction(
+        "Apply snapshot file documents",
+        () -> {
+          List<DocumentKey> keys = new ArrayList<>();
+          for (Document document : documents) {
+            keys.add(document.getKey());
+          }
+          Map<DocumentKey, MaybeDocument> existingDocs = remoteDocuments.getAll(keys);
+
+          Map<DocumentKey, MaybeDocument> changedDocs = new HashMap<>();
+          List<MaybeDocument> updatedDocs = new ArrayList<>();
+          for (Document document : documents) {
+            DocumentKey key = document.getKey();
+            MaybeDocument existingDoc = existingDocs.get(key);
+            if (existingDoc == null
+                || document.getVersion().compareTo(existingDoc.getVersion()) > 0) {
+              updatedDocs.add(document);
+              changedDocs.put(key, document);
+            }
+          }
+          if (!updatedDocs.isEmpty()) {
+            remoteDocuments.addAll(updatedDocs, createTime);
+          }
+
+          localDocuments.recalculateOverlays(changedDocs.keySet());
+          queryResultCache.invalidate(changedDocs.keySet());
+          return localDocuments.getLocalViewOfDocuments(changedDocs);
+        });
+  }
+
+  /**
+   * Stores the query results of a snapshot file once all of its documents have been written. The
+   * stored queries claim to be current at their read time, so they must not be stored before all
+   * of their documents are in the cache. The results of a query are only stored if the query is
+   * not active and its cached results (if any) are older.
+   *
+   * @param queries The query results of the snapshot file, or an empty list if the file could not
+   *     be loaded completely.
+   * @param documentKeys The keys of the documents that were written with {@link
+   *     #applySnapshotFileDocuments}, which are handed to garbage collection.
+   */
+  public void saveSnapshotFileQueries(
+      List<SnapshotFileReader.QueryResults> queries, List<DocumentKey> documentKeys) {
+    persistence.runTransaction(
+        "Save snapshot file queries",
+        () -> {
+          // Queries are stored first, so that their documents are referenced when they are handed
+          // to garbage collection.
+          for (SnapshotFileReader.QueryResults query : queries) {
+            saveSnapshotQuery(query);
+          }
+          for (DocumentKey key : documentKeys) {
+            persistence.getReferenceDelegate().updateLimboDocument(key);
+          }
+        });
+  }
+
+  private void saveSnapshotQuery(SnapshotFileReader.QueryResults query) {
+    Target target = query.getTarget();
+    if (targetIdByTarget.containsKey(target)) {
+      // The results of active targets are kept up to date by the watch stream.
+      return;
+    }
+
+    long sequenceNumber = persistence.getReferenceDelegate().getCurrentSequenceNumber();
+    TargetData targetData = targetCache.getTargetData(target);
+    if (targetData == null) {
+      targetData =
+          new TargetData(target, targetIdGenerator.nextId(), sequenceNumber, QueryPurpose.LISTEN);
+      targetCache.addTargetData(targetData);
+    } else if (targetData.getSnapshotVersion().compareTo(query.getReadTime()) >= 0) {
+      return;
+    }
+
+    int targetId = targetData.getTargetId();
+    targetCache.updateTargetData(
+        targetData
+            .withResumeToken(query.getResumeToken(), query.getReadTime())
+            .withLastLimboFreeSnapshotVersion(query.getReadTime())
+            .withSequenceNumber(sequenceNumber));
+    targetCache.removeMatchingKeys(targetCache.getMatchingKeysForTargetId(targetId), targetId);
+    ImmutableSortedSet<DocumentKey> keys = DocumentKey.emptyKeySet();
+    for (DocumentKey key : query.getKeys()) {
+      keys = keys.insert(key);
+    }
+    targetCache.addMatchingKeys(keys, targetId);
+    queryResultCache.invalidate(target);
+  }
+
   /**
    * Returns true if the newTargetData should be persisted during an update of an active target.
    * TargetData should always be persisted when a target is being released and should not call this
@@ -487,6 +637,8 @@ public final class LocalStore {
               persistence.getReferenceDelegate().removeReference(key);
             }
             localViewReferences.removeReferences(removed, targetId);
+            // Documents that are no longer referenced may be garbage collected.
+            queryResultCache.invalidate(removed);
 
             if (!viewChange.isFromCache()) {
               TargetData targetData = queryDataByTarget.get(targetId);
@@ -515,12 +667,23 @@ public final class LocalStore {
     return mutationQueue.getNextMutationBatchAfterBatchId(afterBatchId);
   }
 
-  /** Returns the current value of a document with a given key, or null if not found. */
+  /**
+   * Returns the current value of a document with a given key, or null if not found. Only reads from
+   * persistence, so it can be called from the reader lanes of the AsyncQueue.
+   */
   @Nullable
   public MaybeDocument readDocument(DocumentKey key) {
     return localDocuments.getDocument(key);
   }
 
+  /**
+   * Returns the cached remote versions of the given documents, without applying local mutations.
+   * Documents that are not cached are mapped to null.
+   */
+  public Map<DocumentKey, MaybeDocument> readRemoteDocuments(Iterable<DocumentKey> keys) {
+    return remoteDocuments.getAll(keys);
+  }
+
   /**
    * Assigns the given target an internal ID so that its results can be pinned so they don't get
    * GC'd. A query must be allocated in the local store before the store can be used to manage its
@@ -557,6 +720,7 @@ public final class LocalStore {
     if (queryDataByTarget.get(targetId) == null) {
       queryDataByTarget.put(targetId, cached);
       targetIdByTarget.put(target, targetId);
+      queryResultCache.invalidate(target);
     }
     return cached;
   }
@@ -607,6 +771,10 @@ public final class LocalStore {
           persistence.getReferenceDelegate().removeTarget(targetData);
           queryDataByTarget.remove(targetId);
           targetIdByTarget.remove(targetData.getTarget());
+
+          // Releasing the target may garbage collect any of its documents, which can be part of the
+          // results of other queries.
+          queryResultCache.clear();
         });
   }
 
@@ -614,11 +782,39 @@ public final class LocalStore {
    * Runs the specified query against the local store and returns the results, potentially taking
    * advantage of query data from previous executions (such as the set of remote keys).
    *
+   * <p>The results of recent queries are cached until a document in the path of the query changes,
+   * so repeated executions of a query whose documents did not change return the previous result.
+   *
    * @param usePreviousResults Whether results from previous executions can be used to optimize this
    *     query execution.
    */
   public QueryResult executeQuery(Query query, boolean usePreviousResults) {
-    TargetData targetData = getTargetData(query.toTarget());
+    Target target = query.toTarget();
+    QueryResult cachedResult = queryResultCache.get(target);
+    if (cachedResult != null) {
+      return cachedResult;
+    }
+
+    QueryResult result = runQuery(query, getTargetData(target), usePreviousResults);
+    queryResultCache.put(target, result);
+    return result;
+  }
+
+  /**
+   * Runs a query against the local view of all documents, using the target data that is persisted
+   * for the query (if any) to avoid a full scan.
+   *
+   * <p>Unlike {@link #executeQuery}, this does not use the in-memory state of the LocalStore and
+   * only reads from persistence, so it can be called from the reader lanes of the AsyncQueue. Only
+   * supported with SQLite persistence.
+   */
+  public QueryResult executeQueryReadOnly(Query query) {
+    TargetData targetData = targetCache.getTargetData(query.toTarget());
+    return runQuery(query, targetData, /* usePreviousResults= */ true);
+  }
+
+  private QueryResult runQuery(
+      Query query, @Nullable TargetData targetData, boolean usePreviousResults) {
     SnapshotVersion lastLimboFreeSnapshotVersion = SnapshotVersion.NONE;
     ImmutableSortedSet<DocumentKey> remoteKeys = DocumentKey.emptyKeySet();
 
@@ -637,7 +833,8 @@ public final class LocalStore {
 
   /**
    * Returns the keys of the documents that are associated with the given target id in the remote
-   * table.
+   * table. Only reads from persistence, so it can be called from the reader lanes of the
+   * AsyncQueue.
    */
   public ImmutableSortedSet<DocumentKey> getRemoteDocumentKeys(int targetId) {
     return targetCache.getMatchingKeysForTargetId(targetId);
@@ -669,8 +866,20 @@ public final class LocalStore {
     mutationQueue.removeMutationBatch(batch);
   }
 
+  /**
+   * Runs the next part of an incremental garbage collection. The returned results are not complete
+   * if the collection ran out of its time budget and needs to be continued by another call.
+   */
   public LruGarbageCollector.Results collectGarbage(LruGarbageCollector garbageCollector) {
     return persistence.runTransaction(
-        "Collect garbage", () -> garbageCollector.collect(queryDataByTarget));
+        "Collect garbage",
+        () -> {
+          LruGarbageCollector.Results results =
+              garbageCollector.collectIncrementally(queryDataByTarget);
+          if (results.getDocumentsRemoved() > 0) {
+            queryResultCache.clear();
+          }
+          return results;
+        });
   }
 }
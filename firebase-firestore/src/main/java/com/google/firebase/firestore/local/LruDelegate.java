@@ -15,6 +15,9 @@
 package com.google.firebase.firestore.local;
 
 import android.util.SparseArray;
+import androidx.annotation.Nullable;
+import com.google.firebase.firestore.core.ListenSequence;
+import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.util.Consumer;
 
 /**
@@ -31,6 +34,13 @@ public interface LruDelegate {
   /** Enumerates sequence numbers for documents not associated with a target. */
   void forEachOrphanedDocumentSequenceNumber(Consumer<Long> consumer);
 
+  /**
+   * Returns the largest of the `count` smallest sequence numbers of all targets and orphaned
+   * documents that have a sequence number greater than `lowerBound`, or `ListenSequence.INVALID`
+   * if there are no such targets or documents.
+   */
+  long getNthSequenceNumber(int count, long lowerBound);
+
   /**
    * Removes all targets that have a sequence number less than or equal to `upperBound`, and are not
    * present in the `activeTargetIds` set.
@@ -40,16 +50,53 @@ public interface LruDelegate {
   int removeTargets(long upperBound, SparseArray<?> activeTargetIds);
 
   /**
-   * Removes all unreferenced documents from the cache that have a sequence number less than or
-   * equal to the given sequence number.
+   * Removes unreferenced documents from the cache that have a sequence number less than or equal to
+   * `upperBound`. The documents are visited in the order of their sequence numbers and keys,
+   * starting after `cursor`, and at most `limit` documents are visited. The cursor is advanced past
+   * the visited documents and is exhausted once no documents are left to visit.
    *
    * @return the number of documents removed.
    */
-  int removeOrphanedDocuments(long upperBound);
+  int removeOrphanedDocuments(long upperBound, DocumentCursor cursor, int limit);
 
   /** Access to the underlying LRU Garbage collector instance. */
   LruGarbageCollector getGarbageCollector();
 
   /** Return the size of the cache in bytes. */
   long getByteSize();
+
+  /**
+   * The position of a removal of orphaned documents that is spread across several calls to
+   * `removeOrphanedDocuments()`.
+   */
+  final class DocumentCursor {
+    private long sequenceNumber = ListenSequence.INVALID;
+    @Nullable private DocumentKey key;
+    private boolean isExhausted;
+
+    /** Returns the sequence number of the last visited document. */
+    long getSequenceNumber() {
+      return sequenceNumber;
+    }
+
+    /** Returns the key of the last visited document, or null if no document was visited yet. */
+    @Nullable
+    DocumentKey getKey() {
+      return key;
+    }
+
+    /** Returns whether all documents up to the upper bound of the removal have been visited. */
+    boolean isExhausted() {
+      return isExhausted;
+    }
+
+    void advance(long sequenceNumber, DocumentKey key) {
+      this.sequenceNumber = sequenceNumber;
+      this.key = key;
+    }
+
+    void markExhausted() {
+      isExhausted = true;
+    }
+  }
 }
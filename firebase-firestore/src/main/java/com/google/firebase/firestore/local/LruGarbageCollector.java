@@ -20,17 +20,45 @@ import com.google.firebase.firestore.FirebaseFirestoreSettings;
 import com.google.firebase.firestore.core.ListenSequence;
 import com.google.firebase.firestore.util.AsyncQueue;
 import com.google.firebase.firestore.util.Logger;
-import java.util.Comparator;
 import java.util.Locale;
-import java.util.PriorityQueue;
 import java.util.concurrent.TimeUnit;
 
-/** Implements the steps for LRU garbage collection. */
+/**
+ * Implements the steps for LRU garbage collection.
+ *
+ * <p>A collection determines an upper bound for the sequence numbers to collect and then removes
+ * the targets below it in slices of {@link #SEQUENCE_NUMBERS_PER_SLICE} sequence numbers, followed
+ * by the orphaned documents below it in slices of {@link #DOCUMENTS_PER_SLICE} documents. When run
+ * by the {@link Scheduler}, a collection runs for at most {@link #SLICE_TIME_BUDGET_MS} at a time
+ * and yields the AsyncQueue between slices, so that a collection of a large cache does not block
+ * other operations.
+ */
 public class LruGarbageCollector {
   /** How long we wait to try running LRU GC after SDK initialization. */
   private static final long INITIAL_GC_DELAY_MS = TimeUnit.MINUTES.toMillis(1);
   /** Minimum amount of time between GC checks, after the first one. */
   private static final long REGULAR_GC_DELAY_MS = TimeUnit.MINUTES.toMillis(5);
+  /** How long we wait before continuing an incomplete collection. */
+  private static final long SLICE_DELAY_MS = 100;
+
+  /**
+   * The time after which an incremental collection stops removing slices and yields the
+   * AsyncQueue. A slice that is started before the budget is exhausted is always completed.
+   */
+  static final long SLICE_TIME_BUDGET_MS = 20;
+
+  /** The number of sequence numbers whose targets are removed by each slice of a collection. */
+  static final int SEQUENCE_NUMBERS_PER_SLICE = 100;
+
+  /**
+   * The number of documents that are visited by each slice of a collection. Documents are counted
+   * separately from sequence numbers, as all documents that are orphaned in one transaction share
+   * a sequence number.
+   *
+   * <p>This also addresses https://github.com/firebase/firebase-android-sdk/issues/706, where a
+   * customer reported that LRU GC hit a CursorWindow size limit during orphaned document removal.
+   */
+  static final int DOCUMENTS_PER_SLICE = 100;
 
   public static class Params {
     private static final long COLLECTION_DISABLED = FirebaseFirestoreSettings.CACHE_SIZE_UNLIMITED;
@@ -77,6 +105,10 @@ public class LruGarbageCollector {
     private final int sequenceNumbersCollected;
     private final int targetsRemoved;
     private final int documentsRemoved;
+    private final boolean isComplete;
+    private final int pauseCount;
+    private final long totalPauseMs;
+    private final long maxPauseMs;
 
     static Results DidNotRun() {
       return new Results(/* hasRun= */ false, 0, 0, 0);
@@ -84,10 +116,34 @@ public class LruGarbageCollector {
 
     Results(
         boolean hasRun, int sequenceNumbersCollected, int targetsRemoved, int documentsRemoved) {
+      this(
+          hasRun,
+          sequenceNumbersCollected,
+          targetsRemoved,
+          documentsRemoved,
+          /* isComplete= */ true,
+          /* pauseCount= */ 0,
+          /* totalPauseMs= */ 0,
+          /* maxPauseMs= */ 0);
+    }
+
+    Results(
+        boolean hasRun,
+        int sequenceNumbersCollected,
+        int targetsRemoved,
+        int documentsRemoved,
+        boolean isComplete,
+        int pauseCount,
+        long totalPauseMs,
+        long maxPauseMs) {
       this.hasRun = hasRun;
       this.sequenceNumbersCollected = sequenceNumbersCollected;
       this.targetsRemoved = targetsRemoved;
       this.documentsRemoved = documentsRemoved;
+      this.isComplete = isComplete;
+      this.pauseCount = pauseCount;
+      this.totalPauseMs = totalPauseMs;
+      this.maxPauseMs = maxPauseMs;
     }
 
     public boolean hasRun() {
@@ -98,13 +154,75 @@ public class LruGarbageCollector {
       return sequenceNumbersCollected;
     }
 
+    /** Returns the number of targets that were removed so far by this collection. */
     public int getTargetsRemoved() {
       return targetsRemoved;
     }
 
+    /** Returns the number of documents that were removed so far by this collection. */
     public int getDocumentsRemoved() {
       return documentsRemoved;
     }
+
+    /**
+     * Returns whether the collection has finished, or false if it has run out of its time budget
+     * and will continue in a later call.
+     */
+    public boolean isComplete() {
+      return isComplete;
+    }
+
+    /** Returns the number of times that the collection has blocked the AsyncQueue so far. */
+    public int getPauseCount() {
+      return pauseCount;
+    }
+
+    /** Returns the total time that the collection has blocked the AsyncQueue so far. */
+    public long getTotalPauseMs() {
+      return totalPauseMs;
+    }
+
+    /** Returns the longest time that the collection has blocked the AsyncQueue at once. */
+    public long getMaxPauseMs() {
+      return maxPauseMs;
+    }
+  }
+
+  /** The state of a collection that has not yet removed all targets and documents. */
+  private static class RunningCollection {
+    final int sequenceNumbers;
+    final long upperBound;
+    final long startTs;
+
+    /** The targets of all sequence numbers up to and including this one have been removed. */
+    long collectedUpTo = ListenSequence.INVALID;
+
+    /** The position of the removal of orphaned documents, which follows that of the targets. */
+    final LruDelegate.DocumentCursor documentCursor = new LruDelegate.DocumentCursor();
+
+    int targetsRemoved;
+    int documentsRemoved;
+    int pauseCount;
+    long totalPauseNanos;
+    long maxPauseNanos;
+
+    RunningCollection(int sequenceNumbers, long upperBound, long startTs) {
+      this.sequenceNumbers = sequenceNumbers;
+      this.upperBound = upperBound;
+      this.startTs = startTs;
+    }
+
+    Results toResults(boolean isComplete) {
+      return new Results(
+          /* hasRun= */ true,
+          sequenceNumbers,
+          targetsRemoved,
+          documentsRemoved,
+          isComplete,
+          pauseCount,
+          TimeUnit.NANOSECONDS.toMillis(totalPauseNanos),
+          TimeUnit.NANOSECONDS.toMillis(maxPauseNanos));
+    }
   }
 
   /**
@@ -137,21 +255,29 @@ public class LruGarbageCollector {
     }
 
     private void scheduleGC() {
-      long delay = hasRun ? REGULAR_GC_DELAY_MS : INITIAL_GC_DELAY_MS;
+      scheduleGC(hasRun ? REGULAR_GC_DELAY_MS : INITIAL_GC_DELAY_MS);
+    }
+
+    private void scheduleGC(long delay) {
       gcTask =
           asyncQueue.enqueueAfterDelay(
               AsyncQueue.TimerId.GARBAGE_COLLECTION,
               delay,
               () -> {
-                localStore.collectGarbage(LruGarbageCollector.this);
+                Results results = localStore.collectGarbage(LruGarbageCollector.this);
                 hasRun = true;
-                scheduleGC();
+                if (results.isComplete()) {
+                  scheduleGC();
+                } else {
+                  scheduleGC(SLICE_DELAY_MS);
+                }
               });
     }
   }
 
   private final LruDelegate delegate;
   private final Params params;
+  @Nullable private RunningCollection pendingCollection;
 
   LruGarbageCollector(LruDelegate delegate, Params params) {
     this.delegate = delegate;
@@ -169,47 +295,9 @@ public class LruGarbageCollector {
     return (int) ((percentile / 100.0f) * targetCount);
   }
 
-  /**
-   * Used to calculate the nth sequence number. Keeps a rolling buffer of the lowest n values passed
-   * to addElement, and finally reports the largest of them in getMaxValue().
-   */
-  private static class RollingSequenceNumberBuffer {
-    // Invert the comparison because we want to keep the smallest values.
-    private static final Comparator<Long> COMPARATOR = (Long a, Long b) -> b.compareTo(a);
-    private final PriorityQueue<Long> queue;
-    private final int maxElements;
-
-    RollingSequenceNumberBuffer(int count) {
-      this.maxElements = count;
-      this.queue = new PriorityQueue<>(count, COMPARATOR);
-    }
-
-    void addElement(Long sequenceNumber) {
-      if (queue.size() < maxElements) {
-        queue.add(sequenceNumber);
-      } else {
-        Long highestValue = queue.peek();
-        if (sequenceNumber < highestValue) {
-          queue.poll();
-          queue.add(sequenceNumber);
-        }
-      }
-    }
-
-    long getMaxValue() {
-      return queue.peek();
-    }
-  }
-
   /** Returns the nth sequence number, counting in order from the smallest. */
   long getNthSequenceNumber(int count) {
-    if (count == 0) {
-      return ListenSequence.INVALID;
-    }
-    RollingSequenceNumberBuffer buffer = new RollingSequenceNumberBuffer(count);
-    delegate.forEachTarget((targetData) -> buffer.addElement(targetData.getSequenceNumber()));
-    delegate.forEachOrphanedDocumentSequenceNumber(buffer::addElement);
-    return buffer.getMaxValue();
+    return delegate.getNthSequenceNumber(count, ListenSequence.INVALID);
   }
 
   /**
@@ -225,30 +313,69 @@ public class LruGarbageCollector {
    * otherwise pinned.
    */
   int removeOrphanedDocuments(long upperBound) {
-    return delegate.removeOrphanedDocuments(upperBound);
+    LruDelegate.DocumentCursor cursor = new LruDelegate.DocumentCursor();
+    int count = 0;
+    while (!cursor.isExhausted()) {
+      count += delegate.removeOrphanedDocuments(upperBound, cursor, DOCUMENTS_PER_SLICE);
+    }
+    return count;
   }
 
+  /** Runs a complete collection, or completes the pending incremental collection. */
   Results collect(SparseArray<?> activeTargetIds) {
-    if (params.minBytesThreshold == Params.COLLECTION_DISABLED) {
-      Logger.debug("LruGarbageCollector", "Garbage collection skipped; disabled");
-      return Results.DidNotRun();
+    return collect(activeTargetIds, Long.MAX_VALUE);
+  }
+
+  /**
+   * Continues the pending collection, or starts a new one, and removes slices of it until
+   * SLICE_TIME_BUDGET_MS have passed. The returned results are not complete if the collection needs
+   * to be continued by another call.
+   */
+  Results collectIncrementally(SparseArray<?> activeTargetIds) {
+    return collect(activeTargetIds, TimeUnit.MILLISECONDS.toNanos(SLICE_TIME_BUDGET_MS));
+  }
+
+  private Results collect(SparseArray<?> activeTargetIds, long timeBudgetNanos) {
+    long startNanos = System.nanoTime();
+    if (pendingCollection == null) {
+      if (params.minBytesThreshold == Params.COLLECTION_DISABLED) {
+        Logger.debug("LruGarbageCollector", "Garbage collection skipped; disabled");
+        return Results.DidNotRun();
+      }
+
+      long cacheSize = getByteSize();
+      if (cacheSize < params.minBytesThreshold) {
+        Logger.debug(
+            "LruGarbageCollector",
+            "Garbage collection skipped; Cache size "
+                + cacheSize
+                + " is lower than threshold "
+                + params.minBytesThreshold);
+        return Results.DidNotRun();
+      }
+
+      pendingCollection = startCollection();
     }
 
-    long cacheSize = getByteSize();
-    if (cacheSize < params.minBytesThreshold) {
-      Logger.debug(
-          "LruGarbageCollector",
-          "Garbage collection skipped; Cache size "
-              + cacheSize
-              + " is lower than threshold "
-              + params.minBytesThreshold);
-      return Results.DidNotRun();
-    } else {
-      return runGarbageCollection(activeTargetIds);
+    RunningCollection collection = pendingCollection;
+    boolean isComplete;
+    do {
+      isComplete = removeSlice(collection, activeTargetIds);
+    } while (!isComplete && System.nanoTime() - startNanos < timeBudgetNanos);
+
+    long pauseNanos = System.nanoTime() - startNanos;
+    collection.pauseCount++;
+    collection.totalPauseNanos += pauseNanos;
+    collection.maxPauseNanos = Math.max(collection.maxPauseNanos, pauseNanos);
+
+    if (isComplete) {
+      pendingCollection = null;
+      logCollection(collection);
     }
+    return collection.toResults(isComplete);
   }
 
-  private Results runGarbageCollection(SparseArray<?> liveTargetIds) {
+  private RunningCollection startCollection() {
     long startTs = System.currentTimeMillis();
     int sequenceNumbers = calculateQueryCount(params.percentileToCollect);
     // Cap at the configured max
@@ -266,37 +393,66 @@ public class LruGarbageCollector {
     long upperBound = getNthSequenceNumber(sequenceNumbers);
     long foundUpperBoundTs = System.currentTimeMillis();
 
-    int numTargetsRemoved = removeTargets(upperBound, liveTargetIds);
-    long removedTargetsTs = System.currentTimeMillis();
-
-    int numDocumentsRemoved = removeOrphanedDocuments(upperBound);
-    long removedDocumentsTs = System.currentTimeMillis();
-
     if (Logger.isDebugEnabled()) {
       String desc = "LRU Garbage Collection:\n";
       desc += "\tCounted targets in " + (countedTargetsTs - startTs) + "ms\n";
       desc +=
           String.format(
               Locale.ROOT,
-              "\tDetermined least recently used %d sequence numbers in %dms\n",
+              "\tDetermined least recently used %d sequence numbers in %dms",
               sequenceNumbers,
               (foundUpperBoundTs - countedTargetsTs));
-      desc +=
-          String.format(
-              Locale.ROOT,
-              "\tRemoved %d targets in %dms\n",
-              numTargetsRemoved,
-              (removedTargetsTs - foundUpperBoundTs));
-      desc +=
-          String.format(
-              Locale.ROOT,
-              "\tRemoved %d documents in %dms\n",
-              numDocumentsRemoved,
-              (removedDocumentsTs - removedTargetsTs));
-      desc += String.format(Locale.ROOT, "Total Duration: %dms", (removedDocumentsTs - startTs));
       Logger.debug("LruGarbageCollector", desc);
     }
-    return new Results(/* hasRun= */ true, sequenceNumbers, numTargetsRemoved, numDocumentsRemoved);
+    return new RunningCollection(sequenceNumbers, upperBound, startTs);
+  }
+
+  /**
+   * Removes the targets of the next SEQUENCE_NUMBERS_PER_SLICE sequence numbers of the given
+   * collection or, once all its targets are removed, visits the next DOCUMENTS_PER_SLICE documents.
+   * Returns whether the collection is complete.
+   */
+  private boolean removeSlice(RunningCollection collection, SparseArray<?> activeTargetIds) {
+    if (collection.upperBound == ListenSequence.INVALID) {
+      return true;
+    }
+
+    if (collection.collectedUpTo != collection.upperBound) {
+      long sliceUpperBound =
+          delegate.getNthSequenceNumber(SEQUENCE_NUMBERS_PER_SLICE, collection.collectedUpTo);
+      if (sliceUpperBound == ListenSequence.INVALID || sliceUpperBound > collection.upperBound) {
+        sliceUpperBound = collection.upperBound;
+      }
+
+      // Targets at or below `collectedUpTo` that were active during earlier slices are considered
+      // again, as they may have been released in the meantime.
+      collection.targetsRemoved += removeTargets(sliceUpperBound, activeTargetIds);
+      collection.collectedUpTo = sliceUpperBound;
+      return false;
+    }
+
+    // Documents are only removed once all targets are, so that the documents that were released by
+    // the removed targets are visited regardless of their sequence numbers. Pinned documents are
+    // skipped by the cursor and left for the next collection.
+    collection.documentsRemoved +=
+        delegate.removeOrphanedDocuments(
+            collection.upperBound, collection.documentCursor, DOCUMENTS_PER_SLICE);
+    return collection.documentCursor.isExhausted();
+  }
+
+  private void logCollection(RunningCollection collection) {
+    if (Logger.isDebugEnabled()) {
+      Logger.debug(
+          "LruGarbageCollector",
+          "Removed %d targets and %d documents in %d pauses (longest pause %dms, total pause "
+              + "%dms). Total Duration: %dms",
+          collection.targetsRemoved,
+          collection.documentsRemoved,
+          collection.pauseCount,
+          TimeUnit.NANOSECONDS.toMillis(collection.maxPauseNanos),
+          TimeUnit.NANOSECONDS.toMillis(collection.totalPauseNanos),
+          System.currentTimeMillis() - collection.startTs);
+    }
   }
 
   long getByteSize() {
@@ -0,0 +1,78 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.local;
+
+import androidx.annotation.Nullable;
+import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.model.MaybeDocument;
+import com.google.firebase.firestore.model.ResourcePath;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** An in-memory implementation of DocumentOverlayCache. */
+final class MemoryDocumentOverlayCache implements DocumentOverlayCache {
+  // A sorted map allows us to find all overlays of a collection with a range scan.
+  private final TreeMap<DocumentKey, MaybeDocument> overlays = new TreeMap<>();
+
+  @Nullable
+  @Override
+  public MaybeDocument getOverlay(DocumentKey key) {
+    return overlays.get(key);
+  }
+
+  @Override
+  public Map<DocumentKey, MaybeDocument> getOverlays(Iterable<DocumentKey> keys) {
+    Map<DocumentKey, MaybeDocument> result = new HashMap<>();
+    for (DocumentKey key : keys) {
+      MaybeDocument overlay = overlays.get(key);
+      if (overlay != null) {
+        result.put(key, overlay);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public Map<DocumentKey, MaybeDocument> getOverlays(ResourcePath collection) {
+    Map<DocumentKey, MaybeDocument> result = new HashMap<>();
+    DocumentKey prefix = DocumentKey.fromPath(collection.append(""));
+    for (Map.Entry<DocumentKey, MaybeDocument> entry : overlays.tailMap(prefix).entrySet()) {
+      ResourcePath path = entry.getKey().getPath();
+      if (!collection.isPrefixOf(path)) {
+        break;
+      }
+      if (collection.isImmediateParentOf(path)) {
+        result.put(entry.getKey(), entry.getValue());
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public void saveOverlay(MaybeDocument overlay) {
+    overlays.put(overlay.getKey(), overlay);
+  }
+
+  @Override
+  public void removeOverlay(DocumentKey key) {
+    overlays.remove(key);
+  }
+
+  @Override
+  public void removeAllOverlays() {
+    overlays.clear();
+  }
+}
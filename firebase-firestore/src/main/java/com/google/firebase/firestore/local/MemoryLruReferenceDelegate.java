@@ -21,8 +21,13 @@ import com.google.firebase.firestore.core.ListenSequence;
 import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.MaybeDocument;
 import com.google.firebase.firestore.util.Consumer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 
 /** Provides LRU garbage collection functionality for MemoryPersistence. */
 class MemoryLruReferenceDelegate implements ReferenceDelegate, LruDelegate {
@@ -103,6 +108,27 @@ class MemoryLruReferenceDelegate implements ReferenceDelegate, LruDelegate {
     }
   }
 
+  @Override
+  public long getNthSequenceNumber(int count, long lowerBound) {
+    if (count == 0) {
+      return ListenSequence.INVALID;
+    }
+    RollingSequenceNumberBuffer buffer = new RollingSequenceNumberBuffer(count);
+    forEachTarget(
+        targetData -> {
+          if (targetData.getSequenceNumber() > lowerBound) {
+            buffer.addElement(targetData.getSequenceNumber());
+          }
+        });
+    forEachOrphanedDocumentSequenceNumber(
+        sequenceNumber -> {
+          if (sequenceNumber > lowerBound) {
+            buffer.addElement(sequenceNumber);
+          }
+        });
+    return buffer.getMaxValue();
+  }
+
   @Override
   public void setInMemoryPins(ReferenceSet inMemoryPins) {
     this.inMemoryPins = inMemoryPins;
@@ -114,20 +140,53 @@ class MemoryLruReferenceDelegate implements ReferenceDelegate, LruDelegate {
   }
 
   @Override
-  public int removeOrphanedDocuments(long upperBound) {
-    int count = 0;
+  public int removeOrphanedDocuments(long upperBound, DocumentCursor cursor, int limit) {
+    // The memory cache keeps no order of sequence numbers, so the remaining documents are sorted on
+    // every call. This is acceptable as this delegate is only used for testing.
+    List<DocumentKey> remaining = new ArrayList<>();
     MemoryRemoteDocumentCache cache = persistence.getRemoteDocumentCache();
     for (MaybeDocument doc : cache.getDocuments()) {
       DocumentKey key = doc.getKey();
+      long sequenceNumber = getSequenceNumber(key);
+      if (sequenceNumber <= upperBound && isAfter(cursor, sequenceNumber, key)) {
+        remaining.add(key);
+      }
+    }
+    Collections.sort(
+        remaining,
+        (a, b) -> {
+          int cmp = Long.compare(getSequenceNumber(a), getSequenceNumber(b));
+          return cmp != 0 ? cmp : a.compareTo(b);
+        });
+
+    int count = 0;
+    for (DocumentKey key : remaining.subList(0, Math.min(limit, remaining.size()))) {
+      cursor.advance(getSequenceNumber(key), key);
       if (!isPinned(key, upperBound)) {
         cache.remove(key);
         orphanedSequenceNumbers.remove(key);
         count++;
       }
     }
+    if (remaining.size() <= limit) {
+      cursor.markExhausted();
+    }
     return count;
   }
 
+  private long getSequenceNumber(DocumentKey key) {
+    Long sequenceNumber = orphanedSequenceNumbers.get(key);
+    return sequenceNumber != null ? sequenceNumber : ListenSequence.INVALID;
+  }
+
+  /** Returns whether the given document comes after the last document visited by the cursor. */
+  private static boolean isAfter(DocumentCursor cursor, long sequenceNumber, DocumentKey key) {
+    if (sequenceNumber != cursor.getSequenceNumber()) {
+      return sequenceNumber > cursor.getSequenceNumber();
+    }
+    return cursor.getKey() == null || key.compareTo(cursor.getKey()) > 0;
+  }
+
   @Override
   public void removeMutationReference(DocumentKey key) {
     orphanedSequenceNumbers.put(key, getCurrentSequenceNumber());
@@ -197,4 +256,36 @@ class MemoryLruReferenceDelegate implements ReferenceDelegate, LruDelegate {
     }
     return count;
   }
+
+  /**
+   * Used to calculate the nth sequence number. Keeps a rolling buffer of the lowest n values passed
+   * to addElement, and finally reports the largest of them in getMaxValue().
+   */
+  private static class RollingSequenceNumberBuffer {
+    // Invert the comparison because we want to keep the smallest values.
+    private static final Comparator<Long> COMPARATOR = (Long a, Long b) -> b.compareTo(a);
+    private final PriorityQueue<Long> queue;
+    private final int maxElements;
+
+    RollingSequenceNumberBuffer(int count) {
+      this.maxElements = count;
+      this.queue = new PriorityQueue<>(count, COMPARATOR);
+    }
+
+    void addElement(Long sequenceNumber) {
+      if (queue.size() < maxElements) {
+        queue.add(sequenceNumber);
+      } else {
+        Long highestValue = queue.peek();
+        if (sequenceNumber < highestValue) {
+          queue.poll();
+          queue.add(sequenceNumber);
+        }
+      }
+    }
+
+    long getMaxValue() {
+      return queue.isEmpty() ? ListenSequence.INVALID : queue.peek();
+    }
+  }
 }
@@ -32,6 +32,7 @@ public final class MemoryPersistence extends Persistence {
   // LocalStore wrapping this Persistence instance and this will make the in-memory persistence
   // layer behave as if it were actually persisting values.
   private final Map<User, MemoryMutationQueue> mutationQueues;
+  private final Map<User, MemoryDocumentOverlayCache> overlays;
   private final MemoryIndexManager indexManager;
   private final MemoryTargetCache targetCache;
   private final MemoryRemoteDocumentCache remoteDocumentCache;
@@ -56,6 +57,7 @@ public final class MemoryPersistence extends Persistence {
   /** Use static helpers to instantiate */
   private MemoryPersistence() {
     mutationQueues = new HashMap<>();
+    overlays = new HashMap<>();
     indexManager = new MemoryIndexManager();
     targetCache = new MemoryTargetCache(this);
     remoteDocumentCache = new MemoryRemoteDocumentCache(this);
@@ -99,6 +101,16 @@ public final class MemoryPersistence extends Persistence {
     return queue;
   }
 
+  @Override
+  DocumentOverlayCache getDocumentOverlayCache(User user) {
+    MemoryDocumentOverlayCache overlayCache = overlays.get(user);
+    if (overlayCache == null) {
+      overlayCache = new MemoryDocumentOverlayCache();
+      overlays.put(user, overlayCache);
+    }
+    return overlayCache;
+  }
+
   Iterable<MemoryMutationQueue> getMutationQueues() {
     return mutationQueues.values();
   }
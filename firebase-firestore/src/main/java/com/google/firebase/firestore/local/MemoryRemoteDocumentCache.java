@@ -14,13 +14,14 @@
 
 package com.google.firebase.firestore.local;
 
-import static com.google.firebase.firestore.model.DocumentCollections.emptyDocumentMap;
 import static com.google.firebase.firestore.util.Assert.hardAssert;
 
 import android.util.Pair;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import com.google.firebase.database.collection.ImmutableSortedMap;
+import com.google.firebase.database.collection.SortedMapBuilder;
+import com.google.firebase.firestore.core.OrderBy;
 import com.google.firebase.firestore.core.Query;
 import com.google.firebase.firestore.model.Document;
 import com.google.firebase.firestore.model.DocumentKey;
@@ -54,6 +55,13 @@ final class MemoryRemoteDocumentCache implements RemoteDocumentCache {
     persistence.getIndexManager().addToCollectionParentIndex(document.getKey().getPath().popLast());
   }
 
+  @Override
+  public void addAll(Iterable<MaybeDocument> documents, SnapshotVersion readTime) {
+    for (MaybeDocument document : documents) {
+      add(document, readTime);
+    }
+  }
+
   @Override
   public void remove(DocumentKey key) {
     docs = docs.remove(key);
@@ -85,10 +93,12 @@ final class MemoryRemoteDocumentCache implements RemoteDocumentCache {
     hardAssert(
         !query.isCollectionGroupQuery(),
         "CollectionGroup queries should be handled in LocalDocumentsView");
-    ImmutableSortedMap<DocumentKey, Document> result = emptyDocumentMap();
+    SortedMapBuilder<DocumentKey, Document> result =
+        new SortedMapBuilder<>(DocumentKey.comparator());
 
     // Documents are ordered by key, so we can use a prefix scan to narrow down the documents
-    // we need to match the query against.
+    // we need to match the query against. Since the scan returns the documents in order, the
+    // result can be built in bulk.
     ResourcePath queryPath = query.getPath();
     DocumentKey prefix = DocumentKey.fromPath(queryPath.append(""));
     Iterator<Map.Entry<DocumentKey, Pair<MaybeDocument, SnapshotVersion>>> iterator =
@@ -114,11 +124,46 @@ final class MemoryRemoteDocumentCache implements RemoteDocumentCache {
 
       Document doc = (Document) maybeDoc;
       if (query.matches(doc)) {
-        result = result.insert(doc.getKey(), doc);
+        result.add(doc.getKey(), doc);
       }
     }
 
-    return result;
+    return result.build();
+  }
+
+  @Override
+  public ImmutableSortedMap<DocumentKey, Document> getTopDocumentsMatchingQuery(
+      Query query, int count) {
+    hardAssert(
+        !query.isCollectionGroupQuery(),
+        "CollectionGroup queries should be handled in LocalDocumentsView");
+    TopDocuments topDocuments = new TopDocuments(query, count);
+
+    // If the query is ordered by key, the scan can stop once enough documents have been found.
+    OrderBy firstOrderBy = query.getOrderBy().get(0);
+    boolean stopWhenFull =
+        firstOrderBy.getField().isKeyField()
+            && firstOrderBy.getDirection() == OrderBy.Direction.ASCENDING
+            && query.hasLimitToFirst();
+
+    ResourcePath queryPath = query.getPath();
+    DocumentKey prefix = DocumentKey.fromPath(queryPath.append(""));
+    Iterator<Map.Entry<DocumentKey, Pair<MaybeDocument, SnapshotVersion>>> iterator =
+        docs.iteratorFrom(prefix);
+
+    while (iterator.hasNext() && !(stopWhenFull && topDocuments.isFull())) {
+      Map.Entry<DocumentKey, Pair<MaybeDocument, SnapshotVersion>> entry = iterator.next();
+      if (!queryPath.isPrefixOf(entry.getKey().getPath())) {
+        break;
+      }
+
+      MaybeDocument maybeDoc = entry.getValue().first;
+      if (maybeDoc instanceof Document && query.matches((Document) maybeDoc)) {
+        topDocuments.add((Document) maybeDoc);
+      }
+    }
+
+    return topDocuments.toMap();
   }
 
   Iterable<MaybeDocument> getDocuments() {
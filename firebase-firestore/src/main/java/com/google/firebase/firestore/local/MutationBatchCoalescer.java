@@ -0,0 +1,317 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.local;
+
+import static com.google.firebase.firestore.model.Values.isInteger;
+
+import androidx.annotation.Nullable;
+import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.model.FieldPath;
+import com.google.firebase.firestore.model.ObjectValue;
+import com.google.firebase.firestore.model.mutation.DeleteMutation;
+import com.google.firebase.firestore.model.mutation.FieldMask;
+import com.google.firebase.firestore.model.mutation.FieldTransform;
+import com.google.firebase.firestore.model.mutation.Mutation;
+import com.google.firebase.firestore.model.mutation.MutationBatch;
+import com.google.firebase.firestore.model.mutation.NumericIncrementTransformOperation;
+import com.google.firebase.firestore.model.mutation.PatchMutation;
+import com.google.firebase.firestore.model.mutation.Precondition;
+import com.google.firebase.firestore.model.mutation.SetMutation;
+import com.google.firebase.firestore.model.mutation.TransformMutation;
+import com.google.firestore.v1.Value;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Merges a write into the preceding mutation batch of the same document, so that rapid successive
+ * updates of a document are persisted and sent as a single batch.
+ *
+ * <p>Both batches must consist of a single set, patch or delete of the same document, optionally
+ * followed by a transform of that document. Batches are only merged if the merged batch produces
+ * the same local view as applying both batches in order, and if the backend accepts the merged
+ * batch exactly when it accepts both batches. In particular:
+ *
+ * <ul>
+ *   <li>A set or delete replaces the preceding batch.
+ *   <li>A patch is folded into a preceding set or patch. Transforms of fields that the patch
+ *       overwrites are dropped.
+ *   <li>Integer increments of the same field are added up. All other transforms (server
+ *       timestamps, array unions and removals, floating point increments) are never merged, since
+ *       their results depend on the time or the order in which they are applied.
+ * </ul>
+ */
+final class MutationBatchCoalescer {
+
+  private MutationBatchCoalescer() {}
+
+  /**
+   * Returns a batch that has the ID and write time of {@code previous} and the combined effect of
+   * {@code previous} followed by a batch with the given mutations, or null if the mutations cannot
+   * be merged into {@code previous}.
+   */
+  @Nullable
+  static MutationBatch coalesce(
+      MutationBatch previous, List<Mutation> baseMutations, List<Mutation> mutations) {
+    DocumentWrite first = DocumentWrite.parse(previous.getBaseMutations(), previous.getMutations());
+    DocumentWrite second = DocumentWrite.parse(baseMutations, mutations);
+    if (first == null || second == null || !first.key.equals(second.key)) {
+      return null;
+    }
+
+    DocumentWrite merged = merge(first, second);
+    if (merged == null) {
+      return null;
+    }
+
+    return new MutationBatch(
+        previous.getBatchId(),
+        previous.getLocalWriteTime(),
+        merged.toBaseMutations(),
+        merged.toMutations());
+  }
+
+  @Nullable
+  private static DocumentWrite merge(DocumentWrite first, DocumentWrite second) {
+    // If the first write fails its precondition, the second write must fail as well.
+    Precondition precondition = first.write.getPrecondition();
+    if (!precondition.isNone() && !precondition.equals(second.write.getPrecondition())) {
+      return null;
+    }
+
+    if (second.write instanceof SetMutation || second.write instanceof DeleteMutation) {
+      // The second write replaces the document, which discards the effects of the first batch.
+      return second;
+    }
+
+    PatchMutation patch = (PatchMutation) second.write;
+    Mutation write;
+    if (first.write instanceof SetMutation) {
+      write =
+          new SetMutation(
+              first.key, applyPatch(((SetMutation) first.write).getValue(), patch), precondition);
+    } else if (first.write instanceof PatchMutation) {
+      PatchMutation firstPatch = (PatchMutation) first.write;
+      Set<FieldPath> mask = new HashSet<>(firstPatch.getMask().getMask());
+      mask.addAll(patch.getMask().getMask());
+      write =
+          new PatchMutation(
+              first.key,
+              applyPatch(firstPatch.getValue(), patch),
+              FieldMask.fromSet(mask),
+              precondition);
+    } else {
+      // A patch of a deleted document fails.
+      return null;
+    }
+
+    // Transforms from the first batch are dropped if the patch overwrites their field. The patch
+    // must not write to nested fields of a transformed field, which would replace the transformed
+    // value with a map before the transform is applied.
+    List<FieldTransform> transforms = new ArrayList<>();
+    List<Value> baseValues = new ArrayList<>();
+    for (int i = 0; i < first.transforms.size(); ++i) {
+      FieldPath fieldPath = first.transforms.get(i).getFieldPath();
+      if (patch.getMask().covers(fieldPath)) {
+        continue;
+      }
+      for (FieldPath maskPath : patch.getMask().getMask()) {
+        if (fieldPath.isPrefixOf(maskPath)) {
+          return null;
+        }
+      }
+      transforms.add(first.transforms.get(i));
+      baseValues.add(first.baseValues.get(i));
+    }
+
+    for (int i = 0; i < second.transforms.size(); ++i) {
+      FieldTransform transform = second.transforms.get(i);
+      FieldPath fieldPath = transform.getFieldPath();
+      int existing = -1;
+      for (int j = 0; j < transforms.size(); ++j) {
+        FieldPath otherPath = transforms.get(j).getFieldPath();
+        if (otherPath.equals(fieldPath)) {
+          existing = j;
+        } else if (otherPath.isPrefixOf(fieldPath) || fieldPath.isPrefixOf(otherPath)) {
+          return null;
+        }
+      }
+
+      if (existing < 0) {
+        transforms.add(transform);
+        baseValues.add(second.baseValues.get(i));
+      } else {
+        // Both increments start from the value before the first batch, so the base value of the
+        // first batch is kept.
+        FieldTransform sum = addIncrements(transforms.get(existing), transform);
+        if (sum == null) {
+          return null;
+        }
+        transforms.set(existing, sum);
+      }
+    }
+
+    return new DocumentWrite(first.key, write, transforms, baseValues);
+  }
+
+  /** Returns {@code value} after applying the fields of {@code patch} to it. */
+  private static ObjectValue applyPatch(ObjectValue value, PatchMutation patch) {
+    ObjectValue.Builder builder = value.toBuilder();
+    for (FieldPath path : patch.getMask().getMask()) {
+      if (!path.isEmpty()) {
+        Value newValue = patch.getValue().get(path);
+        if (newValue == null) {
+          builder.delete(path);
+        } else {
+          builder.set(path, newValue);
+        }
+      }
+    }
+    return builder.build();
+  }
+
+  /** Adds up two integer increments, or returns null if the sum overflows. */
+  @Nullable
+  private static FieldTransform addIncrements(FieldTransform first, FieldTransform second) {
+    long x = integerOperand(first);
+    long y = integerOperand(second);
+    long sum = x + y;
+    if (((x ^ sum) & (y ^ sum)) < 0) {
+      return null;
+    }
+    return new FieldTransform(
+        first.getFieldPath(),
+        new NumericIncrementTransformOperation(Value.newBuilder().setIntegerValue(sum).build()));
+  }
+
+  private static long integerOperand(FieldTransform transform) {
+    return ((NumericIncrementTransformOperation) transform.getOperation())
+        .getOperand()
+        .getIntegerValue();
+  }
+
+  private static boolean isIntegerIncrement(FieldTransform transform) {
+    return transform.getOperation() instanceof NumericIncrementTransformOperation
+        && isInteger(
+            ((NumericIncrementTransformOperation) transform.getOperation()).getOperand());
+  }
+
+  /**
+   * A set, patch or delete of a single document, followed by integer increments of some of its
+   * fields.
+   */
+  private static class DocumentWrite {
+    final DocumentKey key;
+    final Mutation write;
+    final List<FieldTransform> transforms;
+
+    /**
+     * The value that each transform is applied to if the write does not set the field, or null if
+     * the batch does not have a base value for the field.
+     */
+    final List<Value> baseValues;
+
+    DocumentWrite(
+        DocumentKey key, Mutation write, List<FieldTransform> transforms, List<Value> baseValues) {
+      this.key = key;
+      this.write = write;
+      this.transforms = transforms;
+      this.baseValues = baseValues;
+    }
+
+    @Nullable
+    static DocumentWrite parse(List<Mutation> baseMutations, List<Mutation> mutations) {
+      if (mutations.isEmpty() || mutations.size() > 2 || baseMutations.size() > 1) {
+        return null;
+      }
+
+      Mutation write = mutations.get(0);
+      if (!(write instanceof SetMutation
+          || write instanceof PatchMutation
+          || write instanceof DeleteMutation)) {
+        return null;
+      }
+
+      List<FieldTransform> transforms = Collections.emptyList();
+      if (mutations.size() == 2) {
+        if (write instanceof DeleteMutation) {
+          return null;
+        }
+        Mutation transform = mutations.get(1);
+        if (!(transform instanceof TransformMutation)
+            || !transform.getKey().equals(write.getKey())) {
+          return null;
+        }
+        transforms = ((TransformMutation) transform).getFieldTransforms();
+        for (FieldTransform fieldTransform : transforms) {
+          if (!isIntegerIncrement(fieldTransform)) {
+            return null;
+          }
+        }
+      }
+
+      ObjectValue baseValue = null;
+      if (!baseMutations.isEmpty()) {
+        Mutation baseMutation = baseMutations.get(0);
+        if (!(baseMutation instanceof PatchMutation)
+            || !baseMutation.getKey().equals(write.getKey())) {
+          return null;
+        }
+        baseValue = ((PatchMutation) baseMutation).getValue();
+      }
+
+      List<Value> baseValues = new ArrayList<>();
+      for (FieldTransform transform : transforms) {
+        baseValues.add(baseValue != null ? baseValue.get(transform.getFieldPath()) : null);
+      }
+
+      return new DocumentWrite(write.getKey(), write, transforms, baseValues);
+    }
+
+    List<Mutation> toMutations() {
+      List<Mutation> mutations = new ArrayList<>();
+      mutations.add(write);
+      if (!transforms.isEmpty()) {
+        mutations.add(new TransformMutation(key, transforms));
+      }
+      return mutations;
+    }
+
+    List<Mutation> toBaseMutations() {
+      ObjectValue.Builder baseObject = null;
+      Set<FieldPath> mask = new HashSet<>();
+      for (int i = 0; i < transforms.size(); ++i) {
+        Value baseValue = baseValues.get(i);
+        if (baseValue != null) {
+          if (baseObject == null) {
+            baseObject = ObjectValue.newBuilder();
+          }
+          FieldPath fieldPath = transforms.get(i).getFieldPath();
+          baseObject.set(fieldPath, baseValue);
+          mask.add(fieldPath);
+        }
+      }
+
+      if (baseObject == null) {
+        return Collections.emptyList();
+      }
+      return Collections.singletonList(
+          new PatchMutation(
+              key, baseObject.build(), FieldMask.fromSet(mask), Precondition.exists(true)));
+    }
+  }
+}
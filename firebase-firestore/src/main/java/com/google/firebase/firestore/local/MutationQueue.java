@@ -46,6 +46,11 @@ interface MutationQueue {
   /**
    * Creates a new mutation batch and adds it to this mutation queue.
    *
+   * <p>Implementations that support write coalescing may instead merge the mutations into the last
+   * batch of the queue, as long as that batch has not been returned by {@link
+   * #getNextMutationBatchAfterBatchId} yet. The returned batch then has the ID of the existing
+   * batch and contains the effects of both writes.
+   *
    * @param localWriteTime The original write time of this mutation.
    * @param baseMutations Mutations that are used to populate the base values when this mutation is
    *     applied locally. These mutations are used to locally overwrite values that are persisted in
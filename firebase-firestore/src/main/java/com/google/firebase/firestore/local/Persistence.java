@@ -49,10 +49,6 @@ import com.google.firebase.firestore.util.Supplier;
 public abstract class Persistence {
   static final String TAG = Persistence.class.getSimpleName();
 
-  /** Temporary setting for enabling indexing-specific code paths while in development. */
-  // TODO: Remove this.
-  public static boolean INDEXING_SUPPORT_ENABLED = false;
-
   // Local subclasses only, please.
   Persistence() {}
 
@@ -80,6 +76,15 @@ public abstract class Persistence {
    */
   abstract MutationQueue getMutationQueue(User user);
 
+  /**
+   * Returns a DocumentOverlayCache representing the local view of the documents that are affected
+   * by the given user's pending mutations.
+   *
+   * <p>Note: Like {@link #getMutationQueue}, the memory-backed implementation returns the same
+   * instance every time this is called for a given user.
+   */
+  abstract DocumentOverlayCache getDocumentOverlayCache(User user);
+
   /** Creates a TargetCache representing the persisted cache of queries. */
   abstract TargetCache getTargetCache();
 
@@ -0,0 +1,104 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.local;
+
+import androidx.annotation.Nullable;
+import com.google.firebase.firestore.core.Target;
+import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.model.ResourcePath;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of the most recently computed local query results, keyed by target.
+ *
+ * <p>Results are invalidated incrementally: when documents change, only the results of targets
+ * whose path the documents belong to (or that contain the documents) are dropped. Results of other
+ * targets are unaffected by the change and remain valid.
+ *
+ * <p>This class is not thread safe and should only be accessed from the worker queue.
+ */
+final class QueryResultCache {
+
+  /** The maximum number of query results that are kept in memory. */
+  static final int MAX_CACHED_RESULTS = 100;
+
+  private final Map<Target, QueryResult> results =
+      new LinkedHashMap<Target, QueryResult>(
+          /* initialCapacity= */ 16, /* loadFactor= */ 0.75f, /* accessOrder= */ true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Target, QueryResult> eldest) {
+          return size() > MAX_CACHED_RESULTS;
+        }
+      };
+
+  /** Returns the cached result for the given target, or null if there is none. */
+  @Nullable
+  QueryResult get(Target target) {
+    return results.get(target);
+  }
+
+  void put(Target target, QueryResult result) {
+    results.put(target, result);
+  }
+
+  /** Drops the result of the given target, for example because its remote keys changed. */
+  void invalidate(Target target) {
+    results.remove(target);
+  }
+
+  /** Drops the results of all targets that the documents with the given keys may affect. */
+  void invalidate(Iterable<DocumentKey> changedKeys) {
+    if (results.isEmpty()) {
+      return;
+    }
+
+    Iterator<Map.Entry<Target, QueryResult>> iterator = results.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<Target, QueryResult> entry = iterator.next();
+      for (DocumentKey key : changedKeys) {
+        if (mayContain(entry.getKey(), key)
+            || entry.getValue().getDocuments().containsKey(key)
+            || entry.getValue().getRemoteKeys().contains(key)) {
+          iterator.remove();
+          break;
+        }
+      }
+    }
+  }
+
+  /** Drops all results. */
+  void clear() {
+    results.clear();
+  }
+
+  int size() {
+    return results.size();
+  }
+
+  /** Returns whether the document with the given key is in the path of the given target. */
+  private static boolean mayContain(Target target, DocumentKey key) {
+    ResourcePath path = target.getPath();
+    ResourcePath docPath = key.getPath();
+    if (target.getCollectionGroup() != null) {
+      return key.hasCollectionId(target.getCollectionGroup()) && path.isPrefixOf(docPath);
+    } else if (target.isDocumentQuery()) {
+      return path.equals(docPath);
+    } else {
+      return path.isImmediateParentOf(docPath);
+    }
+  }
+}
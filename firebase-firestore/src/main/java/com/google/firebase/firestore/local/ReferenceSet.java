@@ -17,6 +17,7 @@ package com.google.firebase.firestore.local;
 import static java.util.Collections.emptyList;
 
 import com.google.firebase.database.collection.ImmutableSortedSet;
+import com.google.firebase.database.collection.SortedSetBuilder;
 import com.google.firebase.firestore.model.DocumentKey;
 import java.util.Iterator;
 
@@ -60,9 +61,18 @@ public class ReferenceSet {
 
   /** Add references to the given document keys for the given ID. */
   public void addReferences(ImmutableSortedSet<DocumentKey> keys, int targetOrBatchId) {
+    // Since all references share the same ID, iterating the keys in order produces references that
+    // are sorted in both indexes. This allows us to merge them into the indexes in bulk.
+    SortedSetBuilder<DocumentReference> byKey = new SortedSetBuilder<>(DocumentReference.BY_KEY);
+    SortedSetBuilder<DocumentReference> byTarget =
+        new SortedSetBuilder<>(DocumentReference.BY_TARGET);
     for (DocumentKey key : keys) {
-      addReference(key, targetOrBatchId);
+      DocumentReference ref = new DocumentReference(key, targetOrBatchId);
+      byKey.add(ref);
+      byTarget.add(ref);
     }
+    referencesByKey = referencesByKey.unionWith(byKey.build());
+    referencesByTarget = referencesByTarget.unionWith(byTarget.build());
   }
 
   /** Removes a reference to the given document key for the given ID. */
@@ -86,18 +96,18 @@ public class ReferenceSet {
     DocumentKey emptyKey = DocumentKey.empty();
     DocumentReference startRef = new DocumentReference(emptyKey, targetId);
     Iterator<DocumentReference> it = referencesByTarget.iteratorFrom(startRef);
-    ImmutableSortedSet<DocumentKey> keys = DocumentKey.emptyKeySet();
+    SortedSetBuilder<DocumentKey> keys = new SortedSetBuilder<>(DocumentKey.comparator());
     while (it.hasNext()) {
       DocumentReference ref = it.next();
       if (ref.getId() == targetId) {
-        keys = keys.insert(ref.getKey());
+        keys.add(ref.getKey());
         removeReference(ref);
       } else {
         break;
       }
     }
 
-    return keys;
+    return keys.build();
   }
 
   /** Clears all references for all IDs. */
@@ -118,16 +128,16 @@ public class ReferenceSet {
     DocumentReference startRef = new DocumentReference(emptyKey, target);
 
     Iterator<DocumentReference> iterator = referencesByTarget.iteratorFrom(startRef);
-    ImmutableSortedSet<DocumentKey> keys = DocumentKey.emptyKeySet();
+    SortedSetBuilder<DocumentKey> keys = new SortedSetBuilder<>(DocumentKey.comparator());
     while (iterator.hasNext()) {
       DocumentReference reference = iterator.next();
       if (reference.getId() == target) {
-        keys = keys.insert(reference.getKey());
+        keys.add(reference.getKey());
       } else {
         break;
       }
     }
-    return keys;
+    return keys.build();
   }
 
   public boolean containsKey(DocumentKey key) {
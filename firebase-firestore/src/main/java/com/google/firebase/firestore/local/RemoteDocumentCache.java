@@ -42,6 +42,15 @@ interface RemoteDocumentCache {
    */
   void add(MaybeDocument maybeDocument, SnapshotVersion readTime);
 
+  /**
+   * Adds or replaces several entries in the cache. This is equivalent to calling {@link #add} for
+   * each document, but allows implementations to share work between the documents.
+   *
+   * @param maybeDocuments The Documents or NoDocuments to put in the cache.
+   * @param readTime The time at which the documents were read or committed.
+   */
+  void addAll(Iterable<MaybeDocument> maybeDocuments, SnapshotVersion readTime);
+
   /** Removes the cached entry for the given key (no-op if no entry exists). */
   void remove(DocumentKey documentKey);
 
@@ -78,4 +87,18 @@ interface RemoteDocumentCache {
    */
   ImmutableSortedMap<DocumentKey, Document> getAllDocumentsMatchingQuery(
       Query query, SnapshotVersion sinceReadTime);
+
+  /**
+   * Executes a limit query against the cached Document entries and returns the {@code count}
+   * matching documents that sort first in the query's order (or last, for limit-to-last queries).
+   *
+   * <p>Unlike {@link #getAllDocumentsMatchingQuery}, the memory needed to run the query depends on
+   * {@code count} rather than on the number of matching documents. The results should be
+   * re-filtered by the consumer before presenting them to the user.
+   *
+   * @param query The limit query to match documents against.
+   * @param count The number of documents to return, which may be larger than the query's limit.
+   * @return The matching documents that sort first.
+   */
+  ImmutableSortedMap<DocumentKey, Document> getTopDocumentsMatchingQuery(Query query, int count);
 }
@@ -14,45 +14,249 @@
 
 package com.google.firebase.firestore.local;
 
-import com.google.firebase.firestore.auth.User;
+import static com.google.firebase.firestore.util.Assert.fail;
+import static com.google.firebase.firestore.util.Assert.hardAssert;
+
+import androidx.annotation.Nullable;
 import com.google.firebase.firestore.core.IndexRange;
+import com.google.firebase.firestore.model.Document;
 import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.FieldPath;
+import com.google.firebase.firestore.model.MaybeDocument;
 import com.google.firebase.firestore.model.ResourcePath;
+import com.google.firebase.firestore.model.Values;
 import com.google.firestore.v1.Value;
+import com.google.protobuf.InvalidProtocolBufferException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 /**
- * A persisted "collection index" of all documents in the local cache (with mutations overlaid on
- * top of remote documents).
+ * A persisted "collection index" of all remote documents in the local cache. For every field of
+ * every cached document, the index stores an entry that maps the field's value to the document's
+ * key. Mutations are not indexed and need to be overlaid on top of the index results.
+ *
+ * <p>Index entries are lossy: Values are indexed by their type and by a representation that
+ * preserves the Firestore sort order for most types. References, arrays and maps are only indexed
+ * by their type. Consumers must therefore post-filter all results.
  *
  * <p>NOTE: There is no in-memory implementation at this time.
  */
 public class SQLiteCollectionIndex {
 
+  private static final Charset UTF_16BE = Charset.forName("UTF-16BE");
+
+  /** The value that is stored in value components that are not used by a field value type. */
+  private static final Long UNUSED_COMPONENT = 0L;
+
   private final SQLitePersistence db;
-  private final String uid;
+  private final LocalSerializer serializer;
 
-  SQLiteCollectionIndex(SQLitePersistence persistence, User user) {
+  SQLiteCollectionIndex(SQLitePersistence persistence, LocalSerializer serializer) {
     this.db = persistence;
-    this.uid = user.isAuthenticated() ? user.getUid() : "";
+    this.serializer = serializer;
+  }
+
+  /**
+   * Populates the index from the remote document cache if the index is empty. This is required if
+   * the index was not enabled when documents were added to the cache.
+   */
+  void start() {
+    // Note: If none of the cached documents contains any fields, the index remains empty and the
+    // remote document cache is re-scanned on the next start. This is cheap since such documents
+    // are small.
+    if (!db.query("SELECT 1 FROM collection_index LIMIT 1").isEmpty()) {
+      return;
+    }
+
+    db.query("SELECT contents FROM remote_documents")
+        .forEach(
+            row -> {
+              MaybeDocument maybeDocument = decodeMaybeDocument(row.getBlob(0));
+              if (maybeDocument instanceof Document) {
+                addDocument((Document) maybeDocument);
+              }
+            });
+  }
+
+  /** Removes all entries from the index. */
+  void clear() {
+    db.execute("DELETE FROM collection_index");
+  }
+
+  /** Adds index entries for all fields of the specified document. */
+  void addDocument(Document document) {
+    addEntries(FieldPath.EMPTY_PATH, document.getData().getFieldsMap(), document.getKey());
+  }
+
+  /** Removes all index entries of the document with the specified key. */
+  void removeDocument(DocumentKey documentKey) {
+    db.execute(
+        "DELETE FROM collection_index WHERE collection_path = ? AND document_id = ?",
+        EncodedPath.encode(documentKey.getPath().popLast()),
+        documentKey.getPath().getLastSegment());
+  }
+
+  private void addEntries(FieldPath parent, Map<String, Value> fields, DocumentKey documentKey) {
+    for (Map.Entry<String, Value> field : fields.entrySet()) {
+      FieldPath fieldPath = parent.append(field.getKey());
+      Value fieldValue = field.getValue();
+      addEntry(fieldPath, fieldValue, documentKey);
+      if (Values.typeOrder(fieldValue) == Values.TYPE_ORDER_MAP) {
+        // Index nested fields so that queries can filter on them via dotted field paths.
+        addEntries(fieldPath, fieldValue.getMapValue().getFieldsMap(), documentKey);
+      }
+    }
   }
 
   /** Adds the specified entry to the index. */
   public void addEntry(FieldPath fieldPath, Value fieldValue, DocumentKey documentKey) {
-    throw new RuntimeException("Not yet implemented.");
+    Object[] components = encodeValue(fieldValue);
+    db.execute(
+        "INSERT OR REPLACE INTO collection_index (collection_path, field_path, field_value_type, "
+            + "field_value_1, field_value_2, document_id) VALUES (?, ?, ?, ?, ?, ?)",
+        EncodedPath.encode(documentKey.getPath().popLast()),
+        fieldPath.canonicalString(),
+        Values.typeOrder(fieldValue),
+        components[0],
+        components[1],
+        documentKey.getPath().getLastSegment());
   }
 
-  /** Adds the specified entry to the index. */
+  /** Removes the specified entry from the index. */
   public void removeEntry(FieldPath fieldPath, Value fieldValue, DocumentKey documentKey) {
-    throw new RuntimeException("Not yet implemented.");
+    Object[] components = encodeValue(fieldValue);
+    db.execute(
+        "DELETE FROM collection_index WHERE collection_path = ? AND field_path = ? "
+            + "AND field_value_type = ? AND field_value_1 = ? AND field_value_2 = ? "
+            + "AND document_id = ?",
+        EncodedPath.encode(documentKey.getPath().popLast()),
+        fieldPath.canonicalString(),
+        Values.typeOrder(fieldValue),
+        components[0],
+        components[1],
+        documentKey.getPath().getLastSegment());
   }
 
   /**
-   * Gets a forward or reverse cursor for the specified range of the index. Since index entries are
-   * lossy, some cursor results may not match the specified range, so the consumer must always
+   * Gets a forward cursor for the specified range of the index. Since index entries are lossy,
+   * some cursor results may not match the specified range, so the consumer must always
    * post-filter the results.
+   *
+   * <p>If only one of the bounds of the range is set, the cursor only returns entries of the same
+   * type as the bound. If neither bound is set, the cursor returns all entries for the range's
+   * field.
    */
   public IndexCursor getCursor(ResourcePath collectionPath, IndexRange indexRange) {
-    throw new RuntimeException("Not yet implemented.");
+    @Nullable Value start = indexRange.getStart();
+    @Nullable Value end = indexRange.getEnd();
+
+    StringBuilder sql =
+        new StringBuilder(
+            "SELECT document_id FROM collection_index "
+                + "WHERE collection_path = ? AND field_path = ?");
+    List<Object> args = new ArrayList<>();
+    args.add(EncodedPath.encode(collectionPath));
+    args.add(indexRange.getFieldPath().canonicalString());
+
+    if (start != null || end != null) {
+      int typeOrder = Values.typeOrder(start != null ? start : end);
+      hardAssert(
+          start == null || end == null || Values.typeOrder(end) == typeOrder,
+          "Index range bounds must be of the same type");
+      sql.append(" AND field_value_type = ?");
+      args.add(typeOrder);
+
+      if (isOrderPreserving(typeOrder)) {
+        if (start != null) {
+          appendBound(sql, args, encodeValue(start), ">");
+        }
+        if (end != null) {
+          appendBound(sql, args, encodeValue(end), "<");
+        }
+      }
+    }
+
+    return new IndexCursor(
+        db.query(sql.toString()).binding(args.toArray()).startQuery(), collectionPath);
+  }
+
+  /**
+   * Appends the inclusive condition `(field_value_1, field_value_2) op= (value_1, value_2)` to
+   * {@code sql}, where {@code op} is either '<' or '>'.
+   */
+  private static void appendBound(
+      StringBuilder sql, List<Object> args, Object[] components, String op) {
+    sql.append(" AND (field_value_1 ")
+        .append(op)
+        .append(" ? OR (field_value_1 = ? AND field_value_2 ")
+        .append(op)
+        .append("= ?))");
+    args.add(components[0]);
+    args.add(components[0]);
+    args.add(components[1]);
+  }
+
+  /** Returns whether the encoded values of the given type preserve the Firestore sort order. */
+  private static boolean isOrderPreserving(int typeOrder) {
+    switch (typeOrder) {
+      case Values.TYPE_ORDER_BOOLEAN:
+      case Values.TYPE_ORDER_NUMBER:
+      case Values.TYPE_ORDER_TIMESTAMP:
+      case Values.TYPE_ORDER_STRING:
+      case Values.TYPE_ORDER_BLOB:
+      case Values.TYPE_ORDER_GEOPOINT:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Encodes the given value into the two value components of an index entry. For the types that
+   * are order preserving, SQLite's ordering of the components matches the Firestore ordering of the
+   * values (though distinct values may be encoded identically).
+   */
+  private static Object[] encodeValue(Value value) {
+    switch (Values.typeOrder(value)) {
+      case Values.TYPE_ORDER_BOOLEAN:
+        return new Object[] {value.getBooleanValue() ? 1L : 0L, UNUSED_COMPONENT};
+      case Values.TYPE_ORDER_NUMBER:
+        double number =
+            value.getValueTypeCase() == Value.ValueTypeCase.INTEGER_VALUE
+                ? (double) value.getIntegerValue()
+                : value.getDoubleValue();
+        // NaN sorts before all other numbers. SQLite cannot store NaN, so it shares its encoding
+        // with negative infinity.
+        return new Object[] {
+          Double.isNaN(number) ? Double.NEGATIVE_INFINITY : number, UNUSED_COMPONENT
+        };
+      case Values.TYPE_ORDER_TIMESTAMP:
+        return new Object[] {
+          value.getTimestampValue().getSeconds(), (long) value.getTimestampValue().getNanos()
+        };
+      case Values.TYPE_ORDER_STRING:
+        // UTF-16BE preserves Java's string ordering when compared byte-by-byte.
+        return new Object[] {value.getStringValue().getBytes(UTF_16BE), UNUSED_COMPONENT};
+      case Values.TYPE_ORDER_BLOB:
+        return new Object[] {value.getBytesValue().toByteArray(), UNUSED_COMPONENT};
+      case Values.TYPE_ORDER_GEOPOINT:
+        return new Object[] {
+          value.getGeoPointValue().getLatitude(), value.getGeoPointValue().getLongitude()
+        };
+      default:
+        // Other types are only indexed by their type.
+        return new Object[] {UNUSED_COMPONENT, UNUSED_COMPONENT};
+    }
+  }
+
+  private MaybeDocument decodeMaybeDocument(byte[] bytes) {
+    try {
+      return serializer.decodeMaybeDocument(
+          com.google.firebase.firestore.proto.MaybeDocument.parseFrom(bytes));
+    } catch (InvalidProtocolBufferException e) {
+      throw fail("MaybeDocument failed to parse: %s", e);
+    }
   }
 }
@@ -0,0 +1,127 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.local;
+
+import static com.google.firebase.firestore.util.Assert.fail;
+
+import androidx.annotation.Nullable;
+import com.google.firebase.firestore.auth.User;
+import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.model.MaybeDocument;
+import com.google.firebase.firestore.model.ResourcePath;
+import com.google.protobuf.InvalidProtocolBufferException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** A DocumentOverlayCache for a specific user, backed by SQLite. */
+final class SQLiteDocumentOverlayCache implements DocumentOverlayCache {
+
+  private final SQLitePersistence db;
+  private final LocalSerializer serializer;
+
+  /** The normalized uid (e.g. null => "") used in the uid column. */
+  private final String uid;
+
+  SQLiteDocumentOverlayCache(SQLitePersistence persistence, LocalSerializer serializer, User user) {
+    this.db = persistence;
+    this.serializer = serializer;
+    this.uid = user.isAuthenticated() ? user.getUid() : "";
+  }
+
+  @Nullable
+  @Override
+  public MaybeDocument getOverlay(DocumentKey key) {
+    return db.query("SELECT overlay FROM document_overlays WHERE uid = ? AND path = ?")
+        .binding(uid, EncodedPath.encode(key.getPath()))
+        .firstValue(row -> decodeOverlay(row.getBlob(0)));
+  }
+
+  @Override
+  public Map<DocumentKey, MaybeDocument> getOverlays(Iterable<DocumentKey> keys) {
+    List<Object> args = new ArrayList<>();
+    for (DocumentKey key : keys) {
+      args.add(EncodedPath.encode(key.getPath()));
+    }
+
+    Map<DocumentKey, MaybeDocument> result = new HashMap<>();
+    SQLitePersistence.LongQuery longQuery =
+        new SQLitePersistence.LongQuery(
+            db,
+            "SELECT overlay FROM document_overlays WHERE uid = ? AND path IN (",
+            Collections.singletonList(uid),
+            args,
+            ")");
+    while (longQuery.hasMoreSubqueries()) {
+      longQuery
+          .performNextSubquery()
+          .forEach(
+              row -> {
+                MaybeDocument overlay = decodeOverlay(row.getBlob(0));
+                result.put(overlay.getKey(), overlay);
+              });
+    }
+    return result;
+  }
+
+  @Override
+  public Map<DocumentKey, MaybeDocument> getOverlays(ResourcePath collection) {
+    Map<DocumentKey, MaybeDocument> result = new HashMap<>();
+    db.query("SELECT overlay FROM document_overlays WHERE uid = ? AND collection_path = ?")
+        .binding(uid, EncodedPath.encode(collection))
+        .forEach(
+            row -> {
+              MaybeDocument overlay = decodeOverlay(row.getBlob(0));
+              result.put(overlay.getKey(), overlay);
+            });
+    return result;
+  }
+
+  @Override
+  public void saveOverlay(MaybeDocument overlay) {
+    ResourcePath path = overlay.getKey().getPath();
+    db.execute(
+        "INSERT OR REPLACE INTO document_overlays (uid, path, collection_path, overlay) "
+            + "VALUES (?, ?, ?, ?)",
+        uid,
+        EncodedPath.encode(path),
+        EncodedPath.encode(path.popLast()),
+        serializer.encodeMaybeDocument(overlay).toByteArray());
+  }
+
+  @Override
+  public void removeOverlay(DocumentKey key) {
+    db.execute(
+        "DELETE FROM document_overlays WHERE uid = ? AND path = ?",
+        uid,
+        EncodedPath.encode(key.getPath()));
+  }
+
+  @Override
+  public void removeAllOverlays() {
+    db.execute("DELETE FROM document_overlays WHERE uid = ?", uid);
+  }
+
+  private MaybeDocument decodeOverlay(byte[] bytes) {
+    try {
+      return serializer.decodeMaybeDocument(
+          com.google.firebase.firestore.proto.MaybeDocument.parseFrom(bytes));
+    } catch (InvalidProtocolBufferException e) {
+      throw fail("Overlay failed to parse: %s", e);
+    }
+  }
+}
@@ -16,6 +16,7 @@ package com.google.firebase.firestore.local;
 
 import static com.google.firebase.firestore.util.Assert.hardAssert;
 
+import android.database.Cursor;
 import android.util.SparseArray;
 import com.google.firebase.firestore.core.ListenSequence;
 import com.google.firebase.firestore.model.DocumentKey;
@@ -25,12 +26,14 @@ import com.google.firebase.firestore.util.Consumer;
 /** Provides LRU functionality for SQLite persistence. */
 class SQLiteLruReferenceDelegate implements ReferenceDelegate, LruDelegate {
   /**
-   * The batch size for orphaned document GC in `removeOrphanedDocuments()`.
-   *
-   * <p>This addresses https://github.com/firebase/firebase-android-sdk/issues/706, where a customer
-   * reported that LRU GC hit a CursorWindow size limit during orphaned document removal.
+   * Matches the rows `t` of documents that are associated with a target. The `document_targets`
+   * index turns the subquery into a single lookup.
    */
-  static final int REMOVE_ORPHANED_DOCUMENTS_BATCH_SIZE = 100;
+  private static final String HAS_TARGET =
+      "EXISTS (SELECT 1 FROM target_documents AS o WHERE o.path = t.path AND o.target_id != 0)";
+
+  /** Matches the sentinel rows `t` of documents that are not associated with any target. */
+  private static final String IS_ORPHANED_SENTINEL = "t.target_id = 0 AND NOT " + HAS_TARGET;
 
   private final SQLitePersistence persistence;
   private ListenSequence listenSequence;
@@ -82,12 +85,32 @@ class SQLiteLruReferenceDelegate implements ReferenceDelegate, LruDelegate {
     long targetCount = persistence.getTargetCache().getTargetCount();
     long orphanedDocumentCount =
         persistence
-            .query(
-                "SELECT COUNT(*) FROM (SELECT sequence_number FROM target_documents GROUP BY path HAVING COUNT(*) = 1 AND target_id = 0)")
+            .query("SELECT COUNT(*) FROM target_documents AS t WHERE " + IS_ORPHANED_SENTINEL)
             .firstValue(row -> row.getLong(0));
     return targetCount + orphanedDocumentCount;
   }
 
+  @Override
+  public long getNthSequenceNumber(int count, long lowerBound) {
+    if (count == 0) {
+      return ListenSequence.INVALID;
+    }
+    // Both halves of the compound query are read in order from the sequence number indexes and
+    // merged by SQLite, so only the first `count` entries of each index are visited.
+    return persistence
+        .query(
+            "SELECT MAX(sequence_number) FROM ("
+                + "SELECT last_listen_sequence_number AS sequence_number FROM targets "
+                + "WHERE last_listen_sequence_number > ? "
+                + "UNION ALL "
+                + "SELECT sequence_number FROM target_documents AS t "
+                + "WHERE sequence_number > ? AND "
+                + IS_ORPHANED_SENTINEL
+                + " ORDER BY 1 LIMIT ?)")
+        .binding(lowerBound, lowerBound, count)
+        .firstValue(row -> row.isNull(0) ? ListenSequence.INVALID : row.getLong(0));
+  }
+
   @Override
   public void forEachTarget(Consumer<TargetData> consumer) {
     persistence.getTargetCache().forEachTarget(consumer);
@@ -154,29 +177,55 @@ class SQLiteLruReferenceDelegate implements ReferenceDelegate, LruDelegate {
   }
 
   @Override
-  public int removeOrphanedDocuments(long upperBound) {
+  public int removeOrphanedDocuments(long upperBound, DocumentCursor cursor, int limit) {
     int[] count = new int[1];
+    // The sentinel rows are read in order from the `target_document_sequence_numbers` index, and
+    // whether a document is orphaned is selected rather than filtered on, so that the LIMIT bounds
+    // the number of rows that are visited.
+    Consumer<Cursor> removeIfOrphaned =
+        row -> {
+          ResourcePath path = EncodedPath.decodeResourcePath(row.getString(0));
+          DocumentKey key = DocumentKey.fromPath(path);
+          cursor.advance(row.getLong(1), key);
+          boolean hasTarget = row.getInt(2) != 0;
+          if (!hasTarget && !isPinned(key)) {
+            count[0]++;
+            persistence.getRemoteDocumentCache().remove(key);
+            removeSentinel(key);
+          }
+        };
+
+    int rowsProcessed = 0;
+    if (cursor.getKey() != null) {
+      // Continue with the documents that share the sequence number of the last visited document.
+      rowsProcessed =
+          persistence
+              .query(
+                  "SELECT path, sequence_number, "
+                      + HAS_TARGET
+                      + " FROM target_documents AS t "
+                      + "WHERE target_id = 0 AND sequence_number = ? AND path > ? "
+                      + "ORDER BY path LIMIT ?")
+              .binding(
+                  cursor.getSequenceNumber(), EncodedPath.encode(cursor.getKey().getPath()), limit)
+              .forEach(removeIfOrphaned);
+    }
 
-    boolean resultsRemaining = true;
-
-    while (resultsRemaining) {
-      int rowsProccessed =
+    if (rowsProcessed < limit) {
+      int remainingLimit = limit - rowsProcessed;
+      rowsProcessed =
           persistence
               .query(
-                  "select path from target_documents group by path having COUNT(*) = 1 AND target_id = 0 AND sequence_number <= ? LIMIT ?")
-              .binding(upperBound, REMOVE_ORPHANED_DOCUMENTS_BATCH_SIZE)
-              .forEach(
-                  row -> {
-                    ResourcePath path = EncodedPath.decodeResourcePath(row.getString(0));
-                    DocumentKey key = DocumentKey.fromPath(path);
-                    if (!isPinned(key)) {
-                      count[0]++;
-                      persistence.getRemoteDocumentCache().remove(key);
-                      removeSentinel(key);
-                    }
-                  });
-
-      resultsRemaining = (rowsProccessed == REMOVE_ORPHANED_DOCUMENTS_BATCH_SIZE);
+                  "SELECT path, sequence_number, "
+                      + HAS_TARGET
+                      + " FROM target_documents AS t "
+                      + "WHERE target_id = 0 AND sequence_number > ? AND sequence_number <= ? "
+                      + "ORDER BY sequence_number, path LIMIT ?")
+              .binding(cursor.getSequenceNumber(), upperBound, remainingLimit)
+              .forEach(removeIfOrphaned);
+      if (rowsProcessed < remainingLimit) {
+        cursor.markExhausted();
+      }
     }
 
     return count[0];
@@ -33,7 +33,6 @@ import com.google.firebase.firestore.util.Consumer;
 import com.google.firebase.firestore.util.Util;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
-import com.google.protobuf.MessageLite;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -81,18 +80,38 @@ final class SQLiteMutationQueue implements MutationQueue {
    */
   private ByteString lastStreamToken;
 
+  /** Whether writes to a document are merged into the preceding batch if it has not been sent. */
+  private final boolean writeCoalescingEnabled;
+
+  /**
+   * The highest batch ID returned by getNextMutationBatchAfterBatchId(), or the highest batch ID
+   * that existed when the queue was started. The RemoteStore retrieves batches through this method,
+   * so any batch up to this ID may have been sent to the backend and must not be modified.
+   *
+   * <p>This ID can only be too high if a transaction is rolled back, which only prevents write
+   * coalescing. The batch that writes are coalesced into is always read from SQLite, so that it
+   * reflects the committed state of the queue.
+   */
+  private int highestRetrievedBatchId = MutationBatch.UNKNOWN;
+
   /**
    * Creates a new mutation queue for the given user, in the SQLite database wrapped by the
    * persistence interface.
    *
    * @param persistence The SQLite database in which to create the queue.
    * @param user The user for which to create a mutation queue.
+   * @param writeCoalescingEnabled Whether to merge consecutive writes to the same document.
    */
-  SQLiteMutationQueue(SQLitePersistence persistence, LocalSerializer serializer, User user) {
+  SQLiteMutationQueue(
+      SQLitePersistence persistence,
+      LocalSerializer serializer,
+      User user,
+      boolean writeCoalescingEnabled) {
     this.db = persistence;
     this.serializer = serializer;
     this.uid = user.isAuthenticated() ? user.getUid() : "";
     this.lastStreamToken = WriteStream.EMPTY_STREAM_TOKEN;
+    this.writeCoalescingEnabled = writeCoalescingEnabled;
   }
 
   // MutationQueue implementation
@@ -100,6 +119,8 @@ final class SQLiteMutationQueue implements MutationQueue {
   @Override
   public void start() {
     loadNextBatchIdAcrossAllUsers();
+    // Batches from an earlier session may have been sent before the client was restarted.
+    highestRetrievedBatchId = nextBatchId - 1;
 
     int rows =
         db.query("SELECT last_stream_token FROM mutation_queues WHERE uid = ?")
@@ -181,11 +202,29 @@ final class SQLiteMutationQueue implements MutationQueue {
   @Override
   public MutationBatch addMutationBatch(
       Timestamp localWriteTime, List<Mutation> baseMutations, List<Mutation> mutations) {
+    MutationBatch lastBatch = writeCoalescingEnabled ? getLastUnretrievedMutationBatch() : null;
+    if (lastBatch != null) {
+      MutationBatch coalescedBatch =
+          MutationBatchCoalescer.coalesce(lastBatch, baseMutations, mutations);
+      if (coalescedBatch != null) {
+        com.google.firebase.firestore.proto.WriteBatch proto =
+            serializer.encodeMutationBatch(coalescedBatch);
+        // The coalesced batch affects the same document as the batch it replaces, so the
+        // document_mutations index does not change.
+        db.execute(
+            "UPDATE mutations SET mutations = ? WHERE uid = ? AND batch_id = ?",
+            proto.toByteArray(),
+            uid,
+            coalescedBatch.getBatchId());
+        return withEncodedMutations(coalescedBatch, proto);
+      }
+    }
+
     int batchId = nextBatchId;
     nextBatchId += 1;
 
     MutationBatch batch = new MutationBatch(batchId, localWriteTime, baseMutations, mutations);
-    MessageLite proto = serializer.encodeMutationBatch(batch);
+    com.google.firebase.firestore.proto.WriteBatch proto = serializer.encodeMutationBatch(batch);
 
     db.execute(
         "INSERT INTO mutations (uid, batch_id, mutations) VALUES (?, ?, ?)",
@@ -212,7 +251,35 @@ final class SQLiteMutationQueue implements MutationQueue {
       db.getIndexManager().addToCollectionParentIndex(key.getPath().popLast());
     }
 
-    return batch;
+    return withEncodedMutations(batch, proto);
+  }
+
+  /**
+   * Returns the last batch of the queue if it has not been returned by
+   * getNextMutationBatchAfterBatchId() yet, or null otherwise.
+   */
+  @Nullable
+  private MutationBatch getLastUnretrievedMutationBatch() {
+    return db.query(
+            "SELECT batch_id, SUBSTR(mutations, 1, ?) FROM mutations "
+                + "WHERE uid = ? AND batch_id > ? "
+                + "ORDER BY batch_id DESC LIMIT 1")
+        .binding(BLOB_MAX_INLINE_LENGTH, uid, highestRetrievedBatchId)
+        .firstValue(row -> decodeInlineMutationBatch(row.getInt(0), row.getBlob(1)));
+  }
+
+  /**
+   * Returns a copy of the batch that keeps the encoded mutations from its stored proto, so that the
+   * mutations are not encoded again when the batch is sent to the backend.
+   */
+  private static MutationBatch withEncodedMutations(
+      MutationBatch batch, com.google.firebase.firestore.proto.WriteBatch proto) {
+    return new MutationBatch(
+        batch.getBatchId(),
+        batch.getLocalWriteTime(),
+        batch.getBaseMutations(),
+        batch.getMutations(),
+        proto.getWritesList());
   }
 
   @Nullable
@@ -228,12 +295,17 @@ final class SQLiteMutationQueue implements MutationQueue {
   public MutationBatch getNextMutationBatchAfterBatchId(int batchId) {
     int nextBatchId = batchId + 1;
 
-    return db.query(
-            "SELECT batch_id, SUBSTR(mutations, 1, ?) FROM mutations "
-                + "WHERE uid = ? AND batch_id >= ? "
-                + "ORDER BY batch_id ASC LIMIT 1")
-        .binding(BLOB_MAX_INLINE_LENGTH, uid, nextBatchId)
-        .firstValue(row -> decodeInlineMutationBatch(row.getInt(0), row.getBlob(1)));
+    MutationBatch batch =
+        db.query(
+                "SELECT batch_id, SUBSTR(mutations, 1, ?) FROM mutations "
+                    + "WHERE uid = ? AND batch_id >= ? "
+                    + "ORDER BY batch_id ASC LIMIT 1")
+            .binding(BLOB_MAX_INLINE_LENGTH, uid, nextBatchId)
+            .firstValue(row -> decodeInlineMutationBatch(row.getInt(0), row.getBlob(1)));
+    if (batch != null) {
+      highestRetrievedBatchId = Math.max(highestRetrievedBatchId, batch.getBatchId());
+    }
+    return batch;
   }
 
   @Override
@@ -44,8 +44,10 @@ import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A SQLite-backed instance of Persistence.
@@ -83,6 +85,9 @@ public final class SQLitePersistence extends Persistence {
   private final SQLiteIndexManager indexManager;
   private final SQLiteRemoteDocumentCache remoteDocumentCache;
   private final SQLiteLruReferenceDelegate referenceDelegate;
+  @Nullable private SQLiteCollectionIndex collectionIndex;
+  private boolean writeCoalescingEnabled;
+  private boolean concurrentReadsEnabled;
   private final SQLiteTransactionListener transactionListener =
       new SQLiteTransactionListener() {
         @Override
@@ -102,6 +107,9 @@ public final class SQLitePersistence extends Persistence {
   private SQLiteDatabase db;
   private boolean started;
 
+  // The statements compiled by prepareCached(), keyed by their SQL.
+  private final Map<String, SQLiteStatement> cachedStatements = new HashMap<>();
+
   public SQLitePersistence(
       Context context,
       String persistenceKey,
@@ -130,6 +138,11 @@ public final class SQLitePersistence extends Persistence {
     started = true;
     try {
       db = opener.getWritableDatabase();
+      if (concurrentReadsEnabled) {
+        // In WAL mode, reads from other threads use separate connections that see the last
+        // committed state of the database instead of waiting for the current transaction.
+        db.enableWriteAheadLogging();
+      }
     } catch (SQLiteDatabaseLockedException e) {
       // TODO: Use a better exception type
       throw new RuntimeException(
@@ -144,12 +157,60 @@ public final class SQLitePersistence extends Persistence {
     }
     targetCache.start();
     referenceDelegate.start(targetCache.getHighestListenSequenceNumber());
+
+    if (collectionIndex != null) {
+      runTransaction("Start collection index", collectionIndex::start);
+    } else {
+      // Index entries are not maintained while the index is disabled. Drop them so that a stale
+      // index is never used if indexing is enabled again.
+      execute("DELETE FROM collection_index");
+    }
+  }
+
+  /**
+   * Enables the collection index, which indexes the field values of all cached remote documents.
+   * Must be called before {@link #start}.
+   */
+  public void enableCollectionIndex() {
+    hardAssert(!started, "The collection index must be enabled before starting persistence");
+    collectionIndex = new SQLiteCollectionIndex(this, serializer);
+  }
+
+  /**
+   * Enables write coalescing, which merges consecutive writes to the same document into a single
+   * mutation batch as long as the first batch has not been sent to the backend yet.
+   */
+  public void enableWriteCoalescing() {
+    writeCoalescingEnabled = true;
+  }
+
+  /**
+   * Allows reads from threads other than the AsyncQueue to run concurrently with transactions. This
+   * opens the database in WAL mode without an exclusive lock, so other processes are no longer
+   * prevented from opening it. Must be called before {@link #start}.
+   */
+  public void enableConcurrentReads() {
+    hardAssert(!started, "Concurrent reads must be enabled before starting persistence");
+    concurrentReadsEnabled = true;
+    if (opener instanceof OpenHelper) {
+      ((OpenHelper) opener).exclusiveLocking = false;
+    }
+  }
+
+  /** Returns the collection index, or null if the collection index is not enabled. */
+  @Nullable
+  public SQLiteCollectionIndex getCollectionIndex() {
+    return collectionIndex;
   }
 
   @Override
   public void shutdown() {
     hardAssert(started, "SQLitePersistence shutdown without start!");
     started = false;
+    for (SQLiteStatement statement : cachedStatements.values()) {
+      statement.close();
+    }
+    cachedStatements.clear();
     db.close();
     db = null;
   }
@@ -166,7 +227,12 @@ public final class SQLitePersistence extends Persistence {
 
   @Override
   MutationQueue getMutationQueue(User user) {
-    return new SQLiteMutationQueue(this, serializer, user);
+    return new SQLiteMutationQueue(this, serializer, user, writeCoalescingEnabled);
+  }
+
+  @Override
+  DocumentOverlayCache getDocumentOverlayCache(User user) {
+    return new SQLiteDocumentOverlayCache(this, serializer, user);
   }
 
   @Override
@@ -279,6 +345,7 @@ public final class SQLitePersistence extends Persistence {
 
     private final LocalSerializer serializer;
     private boolean configured;
+    private boolean exclusiveLocking = true;
 
     OpenHelper(Context context, LocalSerializer serializer, String databaseName) {
       super(context, databaseName, null, SQLiteSchema.VERSION);
@@ -290,8 +357,10 @@ public final class SQLitePersistence extends Persistence {
       // Note that this is only called automatically by the SQLiteOpenHelper base class on Jelly
       // Bean and above.
       configured = true;
-      Cursor cursor = db.rawQuery("PRAGMA locking_mode = EXCLUSIVE", new String[0]);
-      cursor.close();
+      if (exclusiveLocking) {
+        Cursor cursor = db.rawQuery("PRAGMA locking_mode = EXCLUSIVE", new String[0]);
+        cursor.close();
+      }
     }
 
     /**
@@ -354,6 +423,21 @@ public final class SQLitePersistence extends Persistence {
     return db.compileStatement(sql);
   }
 
+  /**
+   * Prepare the given non-query SQL statement, or return the statement that was prepared by an
+   * earlier call with the same SQL. Cached statements are closed when persistence shuts down.
+   *
+   * <p>Statements are not thread safe, so this must only be used for writes on the worker queue.
+   */
+  SQLiteStatement prepareCached(String sql) {
+    SQLiteStatement statement = cachedStatements.get(sql);
+    if (statement == null) {
+      statement = db.compileStatement(sql);
+      cachedStatements.put(sql, statement);
+    }
+    return statement;
+  }
+
   /**
    * Execute the given prepared non-query statement using the supplied bind arguments.
    *
@@ -527,8 +611,11 @@ public final class SQLitePersistence extends Persistence {
       }
     }
 
-    /** Starts the query against the database, supplying binding arguments if they exist. */
-    private Cursor startQuery() {
+    /**
+     * Starts the query against the database, supplying binding arguments if they exist. The caller
+     * is responsible for closing the returned cursor.
+     */
+    Cursor startQuery() {
       if (cursorFactory != null) {
         return db.rawQueryWithFactory(cursorFactory, sql, null, null);
       } else {
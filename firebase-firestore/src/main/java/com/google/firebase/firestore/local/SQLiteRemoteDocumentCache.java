@@ -17,12 +17,15 @@ package com.google.firebase.firestore.local;
 import static com.google.firebase.firestore.util.Assert.fail;
 import static com.google.firebase.firestore.util.Assert.hardAssert;
 
+import android.database.sqlite.SQLiteStatement;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import com.google.firebase.Timestamp;
 import com.google.firebase.database.collection.ImmutableSortedMap;
+import com.google.firebase.database.collection.SortedMapBuilder;
+import com.google.firebase.firestore.core.OrderBy;
 import com.google.firebase.firestore.core.Query;
 import com.google.firebase.firestore.model.Document;
-import com.google.firebase.firestore.model.DocumentCollections;
 import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.MaybeDocument;
 import com.google.firebase.firestore.model.ResourcePath;
@@ -32,16 +35,38 @@ import com.google.firebase.firestore.util.Executors;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.MessageLite;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 
 final class SQLiteRemoteDocumentCache implements RemoteDocumentCache {
+  /** The number of rows that are decoded by a single background task. */
+  private static final int DECODE_BATCH_SIZE = 256;
+
+  /**
+   * The maximum number of decode batches that can be scheduled at the same time. Reading from the
+   * cursor pauses while this limit is reached, which bounds the number of undecoded rows that are
+   * held in memory.
+   */
+  private static final int MAX_IN_FLIGHT_DECODE_BATCHES = 8;
+
+  /**
+   * The smallest number of rows that are read at a time by a limit query in key order. The scan
+   * stops after the first page that contains enough matching documents.
+   */
+  private static final int MIN_KEY_ORDERED_PAGE_SIZE = 100;
 
   private final SQLitePersistence db;
   private final LocalSerializer serializer;
 
+  /** The number of rows that have been read by collection scans, possibly on several threads. */
+  private final AtomicLong collectionScanRowCount = new AtomicLong();
+
   SQLiteRemoteDocumentCache(SQLitePersistence persistence, LocalSerializer serializer) {
     this.db = persistence;
     this.serializer = serializer;
@@ -49,24 +74,50 @@ final class SQLiteRemoteDocumentCache implements RemoteDocumentCache {
 
   @Override
   public void add(MaybeDocument maybeDocument, SnapshotVersion readTime) {
+    addAll(Collections.singletonList(maybeDocument), readTime);
+  }
+
+  @Override
+  public void addAll(Iterable<MaybeDocument> maybeDocuments, SnapshotVersion readTime) {
     hardAssert(
         !readTime.equals(SnapshotVersion.NONE),
         "Cannot add document to the RemoteDocumentCache with a read time of zero");
 
-    String path = pathForKey(maybeDocument.getKey());
     Timestamp timestamp = readTime.getTimestamp();
-    MessageLite message = serializer.encodeMaybeDocument(maybeDocument);
-
-    db.execute(
-        "INSERT OR REPLACE INTO remote_documents "
-            + "(path, read_time_seconds, read_time_nanos, contents) "
-            + "VALUES (?, ?, ?, ?)",
-        path,
-        timestamp.getSeconds(),
-        timestamp.getNanoseconds(),
-        message.toByteArray());
-
-    db.getIndexManager().addToCollectionParentIndex(maybeDocument.getKey().getPath().popLast());
+    SQLiteStatement inserter =
+        db.prepareCached(
+            "INSERT OR REPLACE INTO remote_documents "
+                + "(path, path_length, read_time_seconds, read_time_nanos, contents) "
+                + "VALUES (?, ?, ?, ?, ?)");
+    SQLiteCollectionIndex collectionIndex = db.getCollectionIndex();
+    // Most documents of a remote event share their collection, so each collection is only added
+    // to the collection parent index once.
+    Set<ResourcePath> collectionPaths = new HashSet<>();
+
+    for (MaybeDocument maybeDocument : maybeDocuments) {
+      DocumentKey key = maybeDocument.getKey();
+      MessageLite message = serializer.encodeMaybeDocument(maybeDocument);
+      db.execute(
+          inserter,
+          pathForKey(key),
+          key.getPath().length(),
+          timestamp.getSeconds(),
+          timestamp.getNanoseconds(),
+          message.toByteArray());
+
+      collectionPaths.add(key.getPath().popLast());
+
+      if (collectionIndex != null) {
+        collectionIndex.removeDocument(key);
+        if (maybeDocument instanceof Document) {
+          collectionIndex.addDocument((Document) maybeDocument);
+        }
+      }
+    }
+
+    for (ResourcePath collectionPath : collectionPaths) {
+      db.getIndexManager().addToCollectionParentIndex(collectionPath);
+    }
   }
 
   @Override
@@ -74,6 +125,11 @@ final class SQLiteRemoteDocumentCache implements RemoteDocumentCache {
     String path = pathForKey(documentKey);
 
     db.execute("DELETE FROM remote_documents WHERE path = ?", path);
+
+    SQLiteCollectionIndex collectionIndex = db.getCollectionIndex();
+    if (collectionIndex != null) {
+      collectionIndex.removeDocument(documentKey);
+    }
   }
 
   @Nullable
@@ -127,6 +183,106 @@ final class SQLiteRemoteDocumentCache implements RemoteDocumentCache {
         !query.isCollectionGroupQuery(),
         "CollectionGroup queries should be handled in LocalDocumentsView");
 
+    BatchedDocumentDecoder decoder = new BatchedDocumentDecoder(query, /* topDocuments= */ null);
+    scanCollection(query, sinceReadTime, decoder);
+    return decoder.finish();
+  }
+
+  @Override
+  public ImmutableSortedMap<DocumentKey, Document> getTopDocumentsMatchingQuery(
+      Query query, int count) {
+    hardAssert(
+        !query.isCollectionGroupQuery(),
+        "CollectionGroup queries should be handled in LocalDocumentsView");
+
+    OrderBy firstOrderBy = query.getOrderBy().get(0);
+    if (firstOrderBy.getField().isKeyField()) {
+      // Limit-to-first queries in ascending key order and limit-to-last queries in descending key
+      // order want the documents with the lowest keys.
+      boolean ascending =
+          (firstOrderBy.getDirection() == OrderBy.Direction.ASCENDING) == query.hasLimitToFirst();
+      return getTopDocumentsInKeyOrder(query, count, ascending);
+    }
+
+    // Other orders require a scan of the entire collection, but only the documents that sort first
+    // are kept.
+    BatchedDocumentDecoder decoder =
+        new BatchedDocumentDecoder(query, new TopDocuments(query, count));
+    scanCollection(query, SnapshotVersion.NONE, decoder);
+    return decoder.finish();
+  }
+
+  /**
+   * Reads the documents of the query's collection in key order until {@code count} documents match
+   * the query.
+   */
+  private ImmutableSortedMap<DocumentKey, Document> getTopDocumentsInKeyOrder(
+      Query query, int count, boolean ascending) {
+    int immediateChildrenPathLength = query.getPath().length() + 1;
+    String prefixPath = EncodedPath.encode(query.getPath());
+    String prefixSuccessorPath = EncodedPath.prefixSuccessor(prefixPath);
+    int pageSize = Math.max(count, MIN_KEY_ORDERED_PAGE_SIZE);
+    String sql =
+        "SELECT path, contents FROM remote_documents "
+            + "WHERE path_length = ? AND path > ? AND path < ? "
+            + (ascending ? "ORDER BY path ASC LIMIT ?" : "ORDER BY path DESC LIMIT ?");
+
+    TopDocuments topDocuments = new TopDocuments(query, count);
+    // The exclusive bounds of the paths that have not been read yet.
+    String lowerBound = prefixPath;
+    String upperBound = prefixSuccessorPath;
+    String[] lastPath = new String[1];
+    while (true) {
+      int rowCount =
+          db.query(sql)
+              .binding(immediateChildrenPathLength, lowerBound, upperBound, pageSize)
+              .forEach(
+                  row -> {
+                    lastPath[0] = row.getString(0);
+                    MaybeDocument maybeDoc = serializer.decodeMaybeDocumentLazily(row.getBlob(1));
+                    if (maybeDoc instanceof Document && query.matches((Document) maybeDoc)) {
+                      topDocuments.add((Document) maybeDoc);
+                    }
+                  });
+
+      boolean exhausted = rowCount < pageSize;
+      if (exhausted || (topDocuments.isFull() && !hasUnorderedDocumentIds(topDocuments))) {
+        return topDocuments.toMap();
+      }
+
+      if (ascending) {
+        lowerBound = lastPath[0];
+      } else {
+        upperBound = lastPath[0];
+      }
+    }
+  }
+
+  /**
+   * Returns whether any of the collected documents has an ID for which the order of the encoded
+   * paths in SQLite may differ from the order of the document keys.
+   *
+   * <p>SQLite compares the paths by their UTF-8 encoding, which orders characters by code point.
+   * Document keys are compared by their UTF-16 code units, which orders the characters from U+E000
+   * to U+FFFF after all supplementary characters. Documents that have not been read yet can only
+   * sort before one of the collected documents if a collected ID contains one of these characters
+   * or a supplementary character.
+   */
+  private static boolean hasUnorderedDocumentIds(TopDocuments topDocuments) {
+    for (Document document : topDocuments.getDocuments()) {
+      String id = document.getKey().getPath().getLastSegment();
+      for (int i = 0; i < id.length(); ++i) {
+        if (id.charAt(i) >= Character.MIN_SURROGATE) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /** Scans the documents of the query's collection and adds them to {@code decoder}. */
+  private void scanCollection(
+      Query query, SnapshotVersion sinceReadTime, BatchedDocumentDecoder decoder) {
     // Use the query path as a prefix for testing if a document matches the query.
     ResourcePath prefix = query.getPath();
     int immediateChildrenPathLength = prefix.length() + 1;
@@ -135,71 +291,43 @@ final class SQLiteRemoteDocumentCache implements RemoteDocumentCache {
     String prefixSuccessorPath = EncodedPath.prefixSuccessor(prefixPath);
     Timestamp readTime = sinceReadTime.getTimestamp();
 
-    BackgroundQueue backgroundQueue = new BackgroundQueue();
-
-    ImmutableSortedMap<DocumentKey, Document>[] matchingDocuments =
-        (ImmutableSortedMap<DocumentKey, Document>[])
-            new ImmutableSortedMap[] {DocumentCollections.emptyDocumentMap()};
-
+    // Only scan the immediate children of the collection. The `path_length` column is indexed
+    // together with `path`, which allows SQLite to skip over documents in subcollections (e.g. a
+    // query on 'rooms' does not read 'rooms/abc/messages/xyz').
     SQLitePersistence.Query sqlQuery;
     if (sinceReadTime.equals(SnapshotVersion.NONE)) {
       sqlQuery =
-          db.query("SELECT path, contents FROM remote_documents WHERE path >= ? AND path < ?")
-              .binding(prefixPath, prefixSuccessorPath);
+          db.query(
+                  "SELECT contents FROM remote_documents "
+                      + "WHERE path_length = ? AND path >= ? AND path < ? "
+                      + "ORDER BY path")
+              .binding(immediateChildrenPathLength, prefixPath, prefixSuccessorPath);
     } else {
       // Execute an index-free query and filter by read time. This is safe since all document
       // changes to queries that have a lastLimboFreeSnapshotVersion (`sinceReadTime`) have a read
       // time set.
       sqlQuery =
           db.query(
-                  "SELECT path, contents FROM remote_documents WHERE path >= ? AND path < ?"
-                      + "AND (read_time_seconds > ? OR (read_time_seconds = ? AND read_time_nanos > ?))")
+                  "SELECT contents FROM remote_documents "
+                      + "WHERE path_length = ? AND path >= ? AND path < ? "
+                      + "AND (read_time_seconds > ? OR (read_time_seconds = ? AND read_time_nanos > ?)) "
+                      + "ORDER BY path")
               .binding(
+                  immediateChildrenPathLength,
                   prefixPath,
                   prefixSuccessorPath,
                   readTime.getSeconds(),
                   readTime.getSeconds(),
                   readTime.getNanoseconds());
     }
-    sqlQuery.forEach(
-        row -> {
-          // TODO: Actually implement a single-collection query
-          //
-          // The query is actually returning any path that starts with the query path prefix
-          // which may include documents in subcollections. For example, a query on 'rooms'
-          // will return rooms/abc/messages/xyx but we shouldn't match it. Fix this by
-          // discarding rows with document keys more than one segment longer than the query
-          // path.
-          ResourcePath path = EncodedPath.decodeResourcePath(row.getString(0));
-          if (path.length() != immediateChildrenPathLength) {
-            return;
-          }
-
-          byte[] rawDocument = row.getBlob(1);
-
-          // Since scheduling background tasks incurs overhead, we only dispatch to a
-          // background thread if there are still some documents remaining.
-          Executor executor = row.isLast() ? Executors.DIRECT_EXECUTOR : backgroundQueue;
-          executor.execute(
-              () -> {
-                MaybeDocument maybeDoc = decodeMaybeDocument(rawDocument);
-
-                if (maybeDoc instanceof Document && query.matches((Document) maybeDoc)) {
-                  synchronized (SQLiteRemoteDocumentCache.this) {
-                    matchingDocuments[0] =
-                        matchingDocuments[0].insert(maybeDoc.getKey(), (Document) maybeDoc);
-                  }
-                }
-              });
-        });
-
-    try {
-      backgroundQueue.drain();
-    } catch (InterruptedException e) {
-      fail("Interrupted while deserializing documents", e);
-    }
+    int rowCount = sqlQuery.forEach(row -> decoder.add(row.getBlob(0)));
+    collectionScanRowCount.addAndGet(rowCount);
+  }
 
-    return matchingDocuments[0];
+  /** Returns the number of rows that have been read by collection scans of this cache. */
+  @VisibleForTesting
+  long getCollectionScanRowCount() {
+    return collectionScanRowCount.get();
   }
 
   private String pathForKey(DocumentKey key) {
@@ -214,4 +342,99 @@ final class SQLiteRemoteDocumentCache implements RemoteDocumentCache {
       throw fail("MaybeDocument failed to parse: %s", e);
     }
   }
+
+  /**
+   * Decodes the documents of a collection query in batches. Each batch is decoded on the
+   * background queue into its own buffer, and all buffers are merged into a single sorted map with
+   * a bulk build once every batch has been decoded.
+   *
+   * <p>If the decoder is given a {@link TopDocuments}, the matching documents of each batch are
+   * added to it instead, so that only the documents that sort first are kept.
+   */
+  private class BatchedDocumentDecoder {
+    private final Query query;
+    @Nullable private final TopDocuments topDocuments;
+    private final BackgroundQueue backgroundQueue =
+        new BackgroundQueue(MAX_IN_FLIGHT_DECODE_BATCHES);
+    private final List<List<Document>> decodedBatches = new ArrayList<>();
+    private List<byte[]> pendingRows = new ArrayList<>();
+
+    BatchedDocumentDecoder(Query query, @Nullable TopDocuments topDocuments) {
+      this.query = query;
+      this.topDocuments = topDocuments;
+    }
+
+    /** Adds a row to the current batch and schedules the batch for decoding once it is full. */
+    void add(byte[] rawDocument) {
+      pendingRows.add(rawDocument);
+      if (pendingRows.size() == DECODE_BATCH_SIZE) {
+        scheduleBatch(backgroundQueue);
+      }
+    }
+
+    /** Waits for all batches to be decoded and returns the documents that match the query. */
+    ImmutableSortedMap<DocumentKey, Document> finish() {
+      // Since scheduling background tasks incurs overhead, the last batch is decoded on the
+      // calling thread. Small queries are therefore decoded without any thread hops.
+      if (!pendingRows.isEmpty()) {
+        scheduleBatch(Executors.DIRECT_EXECUTOR);
+      }
+
+      try {
+        backgroundQueue.drain();
+      } catch (InterruptedException e) {
+        fail("Interrupted while deserializing documents", e);
+      }
+
+      if (topDocuments != null) {
+        return topDocuments.toMap();
+      }
+
+      List<Document> matchingDocuments = new ArrayList<>();
+      for (List<Document> batch : decodedBatches) {
+        matchingDocuments.addAll(batch);
+      }
+
+      // The rows are read in the order of their encoded paths, which matches the order of the
+      // document keys for all but a few unusual document IDs. Sorting a list that is already in
+      // order only requires a single pass.
+      Collections.sort(matchingDocuments, Document.keyComparator());
+
+      SortedMapBuilder<DocumentKey, Document> result =
+          new SortedMapBuilder<>(DocumentKey.comparator(), matchingDocuments.size());
+      for (Document document : matchingDocuments) {
+        result.add(document.getKey(), document);
+      }
+      return result.build();
+    }
+
+    private void scheduleBatch(Executor executor) {
+      List<byte[]> rows = pendingRows;
+      List<Document> decoded = new ArrayList<>(rows.size());
+      if (topDocuments == null) {
+        decodedBatches.add(decoded);
+      }
+      pendingRows = new ArrayList<>(DECODE_BATCH_SIZE);
+
+      executor.execute(
+          () -> {
+            for (byte[] rawDocument : rows) {
+              // Most filters only read a few fields, so documents that do not match the query are
+              // never fully decoded.
+              MaybeDocument maybeDoc = serializer.decodeMaybeDocumentLazily(rawDocument);
+              if (maybeDoc instanceof Document && query.matches((Document) maybeDoc)) {
+                decoded.add((Document) maybeDoc);
+              }
+            }
+
+            if (topDocuments != null) {
+              synchronized (topDocuments) {
+                for (Document document : decoded) {
+                  topDocuments.add(document);
+                }
+              }
+            }
+          });
+    }
+  }
 }
@@ -28,7 +28,6 @@ import androidx.annotation.VisibleForTesting;
 import com.google.firebase.firestore.model.ResourcePath;
 import com.google.firebase.firestore.proto.Target;
 import com.google.firebase.firestore.util.Consumer;
-import com.google.firebase.firestore.util.Preconditions;
 import com.google.protobuf.InvalidProtocolBufferException;
 import java.util.ArrayList;
 import java.util.List;
@@ -49,19 +48,16 @@ class SQLiteSchema {
    * The version of the schema. Increase this by one for each migration added to runMigrations
    * below.
    */
-  static final int VERSION = 11;
-
-  // Remove this constant and increment VERSION to enable indexing support
-  static final int INDEXING_SUPPORT_VERSION = VERSION + 1;
+  static final int VERSION = 15;
 
   /**
-   * The batch size for the sequence number migration in `ensureSequenceNumbers()`.
+   * The batch size for data migrations such as `ensureSequenceNumbers()` and `ensurePathLength()`.
    *
    * <p>This addresses https://github.com/firebase/firebase-android-sdk/issues/370, where a customer
    * reported that schema migrations failed for clients with thousands of documents. The number has
    * been chosen based on manual experiments.
    */
-  private static final int SEQUENCE_NUMBER_BATCH_SIZE = 100;
+  private static final int MIGRATION_BATCH_SIZE = 100;
 
   private final SQLiteDatabase db;
 
@@ -158,6 +154,30 @@ class SQLiteSchema {
       rewriteCanonicalIds();
     }
 
+    if (fromVersion < 12 && toVersion >= 12) {
+      // Schema version 12 stores the number of path segments for each document so that collection
+      // queries only scan the collection's immediate children.
+      addPathLength();
+      ensurePathLength();
+    }
+
+    if (fromVersion < 13 && toVersion >= 13) {
+      createV13CollectionIndex();
+    }
+
+    if (fromVersion < 14 && toVersion >= 14) {
+      // The overlays are (re-)computed from the mutation queue when the LocalStore starts, which
+      // also covers mutations that were written by an older SDK version after a downgrade.
+      createV14DocumentOverlays();
+    }
+
+    if (fromVersion < 15 && toVersion >= 15) {
+      // Schema version 15 indexes the sequence numbers of targets and sentinel rows so that LRU
+      // garbage collection can find the least recently used entries and page through the sentinel
+      // rows without a full table scan.
+      createV15SequenceNumberIndexes();
+    }
+
     /*
      * Adding a new migration? READ THIS FIRST!
      *
@@ -170,11 +190,6 @@ class SQLiteSchema {
      *    maintained invariants from later versions, so migrations that update values cannot assume
      *    that existing values have been properly maintained. Calculate them again, if applicable.
      */
-
-    if (fromVersion < INDEXING_SUPPORT_VERSION && toVersion >= INDEXING_SUPPORT_VERSION) {
-      Preconditions.checkState(Persistence.INDEXING_SUPPORT_ENABLED);
-      createLocalDocumentsCollectionIndex();
-    }
   }
 
   /**
@@ -332,27 +347,59 @@ class SQLiteSchema {
         });
   }
 
-  // TODO(indexing): Put the schema version in this method name.
-  private void createLocalDocumentsCollectionIndex() {
+  private void createV13CollectionIndex() {
     ifTablesDontExist(
         new String[] {"collection_index"},
         () -> {
-          // A per-user, per-collection index for cached documents indexed by a single field's name
-          // and value.
+          // A per-collection index for cached remote documents indexed by a single field's name
+          // and value. The index is only populated if indexing is enabled in the settings.
           db.execSQL(
               "CREATE TABLE collection_index ("
-                  + "uid TEXT, "
                   + "collection_path TEXT, "
                   + "field_path TEXT, "
                   + "field_value_type INTEGER, " // determines type of field_value fields.
                   + "field_value_1, " // first component
                   + "field_value_2, " // second component; required for timestamps, GeoPoints
                   + "document_id TEXT, "
-                  + "PRIMARY KEY (uid, collection_path, field_path, field_value_type, field_value_1, "
+                  + "PRIMARY KEY (collection_path, field_path, field_value_type, field_value_1, "
                   + "field_value_2, document_id))");
+
+          // Used to remove all index entries of a document when the document changes.
+          db.execSQL(
+              "CREATE INDEX collection_index_documents "
+                  + "ON collection_index (collection_path, document_id)");
+        });
+  }
+
+  private void createV14DocumentOverlays() {
+    ifTablesDontExist(
+        new String[] {"document_overlays"},
+        () -> {
+          // The local view of each document that is affected by a user's pending mutations.
+          db.execSQL(
+              "CREATE TABLE document_overlays ("
+                  + "uid TEXT, "
+                  + "path TEXT, "
+                  + "collection_path TEXT, "
+                  + "overlay BLOB, "
+                  + "PRIMARY KEY (uid, path))");
+
+          // Used to look up the overlays of all documents in a collection.
+          db.execSQL(
+              "CREATE INDEX document_overlays_collection_path "
+                  + "ON document_overlays (uid, collection_path)");
         });
   }
 
+  private void createV15SequenceNumberIndexes() {
+    db.execSQL(
+        "CREATE INDEX IF NOT EXISTS target_sequence_numbers "
+            + "ON targets (last_listen_sequence_number)");
+    db.execSQL(
+        "CREATE INDEX IF NOT EXISTS target_document_sequence_numbers "
+            + "ON target_documents (target_id, sequence_number, path)");
+  }
+
   // Note that this runs before we add the target count column, so we don't populate it yet.
   private void ensureTargetGlobal() {
     boolean targetGlobalExists = DatabaseUtils.queryNumEntries(db, "target_globals") == 1;
@@ -382,6 +429,45 @@ class SQLiteSchema {
     }
   }
 
+  private void addPathLength() {
+    if (!tableContainsColumn("remote_documents", "path_length")) {
+      db.execSQL("ALTER TABLE remote_documents ADD COLUMN path_length INTEGER");
+    }
+    db.execSQL(
+        "CREATE INDEX IF NOT EXISTS remote_documents_path_length "
+            + "ON remote_documents (path_length, path)");
+  }
+
+  /**
+   * Populates the `path_length` column for all entries in the remote document cache that lack it.
+   * Older versions of the SDK do not write this column, so this runs on every upgrade.
+   */
+  private void ensurePathLength() {
+    SQLitePersistence.Query documentsToMigrate =
+        new SQLitePersistence.Query(
+                db, "SELECT path FROM remote_documents WHERE path_length IS NULL LIMIT ?")
+            .binding(MIGRATION_BATCH_SIZE);
+    SQLiteStatement setPathLength =
+        db.compileStatement("UPDATE remote_documents SET path_length = ? WHERE path = ?");
+
+    boolean[] resultsRemaining = new boolean[1];
+
+    do {
+      resultsRemaining[0] = false;
+
+      documentsToMigrate.forEach(
+          row -> {
+            resultsRemaining[0] = true;
+            String encodedPath = row.getString(0);
+            ResourcePath decodedPath = EncodedPath.decodeResourcePath(encodedPath);
+            setPathLength.clearBindings();
+            setPathLength.bindLong(1, decodedPath.length());
+            setPathLength.bindString(2, encodedPath);
+            hardAssert(setPathLength.executeUpdateDelete() != -1, "Failed to update path_length");
+          });
+    } while (resultsRemaining[0]);
+  }
+
   private boolean hasReadTime() {
     boolean hasReadTimeSeconds = tableContainsColumn("remote_documents", "read_time_seconds");
     boolean hasReadTimeNanos = tableContainsColumn("remote_documents", "read_time_nanos");
@@ -442,7 +528,7 @@ class SQLiteSchema {
                     + "SELECT TD.path FROM target_documents AS TD "
                     + "WHERE RD.path = TD.path AND TD.target_id = 0"
                     + ") LIMIT ?")
-            .binding(SEQUENCE_NUMBER_BATCH_SIZE);
+            .binding(MIGRATION_BATCH_SIZE);
 
     boolean[] resultsRemaining = new boolean[1];
 
@@ -22,11 +22,15 @@ import android.util.SparseArray;
 import androidx.annotation.Nullable;
 import com.google.firebase.Timestamp;
 import com.google.firebase.database.collection.ImmutableSortedSet;
+import com.google.firebase.database.collection.SortedSetBuilder;
 import com.google.firebase.firestore.core.Target;
 import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.SnapshotVersion;
 import com.google.firebase.firestore.util.Consumer;
 import com.google.protobuf.InvalidProtocolBufferException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /** Cached Queries backed by SQLite. */
 final class SQLiteTargetCache implements TargetCache {
@@ -253,8 +257,11 @@ final class SQLiteTargetCache implements TargetCache {
     // resolution strategy to avoid failing on any attempts to add duplicate entries. This works
     // because there's no additional information in the row. If we want to track additional data
     // this will probably need to become INSERT OR REPLACE instead.
+    if (keys.isEmpty()) {
+      return;
+    }
     SQLiteStatement inserter =
-        db.prepare("INSERT OR IGNORE INTO target_documents (target_id, path) VALUES (?, ?)");
+        db.prepareCached("INSERT OR IGNORE INTO target_documents (target_id, path) VALUES (?, ?)");
 
     ReferenceDelegate delegate = db.getReferenceDelegate();
     for (DocumentKey key : keys) {
@@ -267,8 +274,11 @@ final class SQLiteTargetCache implements TargetCache {
   @Override
   public void removeMatchingKeys(ImmutableSortedSet<DocumentKey> keys, int targetId) {
     // PORTING NOTE: The reverse index (document_targets) is maintained by SQLite.
+    if (keys.isEmpty()) {
+      return;
+    }
     SQLiteStatement deleter =
-        db.prepare("DELETE FROM target_documents WHERE target_id = ? AND path = ?");
+        db.prepareCached("DELETE FROM target_documents WHERE target_id = ? AND path = ?");
 
     ReferenceDelegate delegate = db.getReferenceDelegate();
     for (DocumentKey key : keys) {
@@ -284,21 +294,24 @@ final class SQLiteTargetCache implements TargetCache {
 
   @Override
   public ImmutableSortedSet<DocumentKey> getMatchingKeysForTargetId(int targetId) {
-    final DocumentKeysHolder holder = new DocumentKeysHolder();
-    db.query("SELECT path FROM target_documents WHERE target_id = ?")
+    List<DocumentKey> keys = new ArrayList<>();
+    db.query("SELECT path FROM target_documents WHERE target_id = ? ORDER BY path")
         .binding(targetId)
         .forEach(
             row -> {
               String path = row.getString(0);
-              DocumentKey key = DocumentKey.fromPath(EncodedPath.decodeResourcePath(path));
-              holder.keys = holder.keys.insert(key);
+              keys.add(DocumentKey.fromPath(EncodedPath.decodeResourcePath(path)));
             });
-    return holder.keys;
-  }
 
-  // A holder that can accumulate changes to the key set within the closure
-  private static class DocumentKeysHolder {
-    ImmutableSortedSet<DocumentKey> keys = DocumentKey.emptyKeySet();
+    // The encoded paths are sorted in key order for all but a few unusual document IDs. Sorting a
+    // list that is already in order only requires a single pass.
+    Collections.sort(keys);
+
+    SortedSetBuilder<DocumentKey> result = new SortedSetBuilder<>(DocumentKey.comparator());
+    for (DocumentKey key : keys) {
+      result.add(key);
+    }
+    return result.build();
   }
 
   @Override
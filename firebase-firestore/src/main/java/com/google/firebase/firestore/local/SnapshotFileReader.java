@@ -0,0 +1,250 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.local;
+
+import androidx.annotation.Nullable;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.FirebaseFirestoreException.Code;
+import com.google.firebase.firestore.core.Target;
+import com.google.firebase.firestore.model.Document;
+import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.model.ObjectValue;
+import com.google.firebase.firestore.model.SnapshotVersion;
+import com.google.firebase.firestore.proto.SnapshotFileElement;
+import com.google.firebase.firestore.proto.SnapshotFileMetadata;
+import com.google.firebase.firestore.proto.SnapshotFileQuery;
+import com.google.firebase.firestore.remote.RemoteSerializer;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the documents and query results of a snapshot file in batches, so that they can be loaded
+ * into the local cache with a transaction per batch.
+ *
+ * <p>A snapshot file is a sequence of {@code SnapshotFileElement} protos, each of which is preceded
+ * by its size as a varint. The first element is the {@code SnapshotFileMetadata} of the file.
+ */
+public final class SnapshotFileReader {
+
+  /** The maximum number of documents in a batch. */
+  private static final int MAX_DOCUMENTS_PER_BATCH = 500;
+
+  /** The size in bytes after which a batch is completed, even if it has fewer documents. */
+  private static final long MAX_BYTES_PER_BATCH = 1024 * 1024;
+
+  private final RemoteSerializer serializer;
+  private final InputStream input;
+
+  /** The prefix of the names of all documents of the database. */
+  private final String documentsPrefix;
+
+  @Nullable private SnapshotFileMetadata metadata;
+  private long bytesRead;
+  private boolean finished;
+
+  public SnapshotFileReader(RemoteSerializer serializer, InputStream input) {
+    this.serializer = serializer;
+    this.input = input;
+    this.documentsPrefix = serializer.databaseName() + "/documents";
+  }
+
+  /** Returns the time at which the documents of the file were read from the backend. */
+  public SnapshotVersion getCreateTime() throws FirebaseFirestoreException {
+    return serializer.decodeVersion(getMetadata().getCreateTime());
+  }
+
+  /** Returns the number of documents in the file, according to its metadata. */
+  public int getTotalDocuments() throws FirebaseFirestoreException {
+    return getMetadata().getTotalDocuments();
+  }
+
+  /** Returns the size of the file in bytes, according to its metadata. */
+  public long getTotalBytes() throws FirebaseFirestoreException {
+    return getMetadata().getTotalBytes();
+  }
+
+  /** Returns the number of bytes that have been read from the file so far. */
+  public long getBytesRead() {
+    return bytesRead;
+  }
+
+  /** Returns the next batch of the file, or null if the end of the file has been reached. */
+  @Nullable
+  public Batch readBatch() throws FirebaseFirestoreException {
+    getMetadata();
+    if (finished) {
+      return null;
+    }
+
+    List<Document> documents = new ArrayList<>();
+    List<QueryResults> queries = new ArrayList<>();
+    long batchStart = bytesRead;
+    while (documents.size() < MAX_DOCUMENTS_PER_BATCH
+        && bytesRead - batchStart < MAX_BYTES_PER_BATCH) {
+      SnapshotFileElement element = readElement();
+      if (element == null) {
+        finished = true;
+        break;
+      }
+
+      switch (element.getElementTypeCase()) {
+        case QUERY:
+          queries.add(decodeQuery(element.getQuery()));
+          break;
+        case DOCUMENT:
+          documents.add(decodeDocument(element.getDocument()));
+          break;
+        default:
+          throw invalidFile("Unexpected element %s", element.getElementTypeCase());
+      }
+    }
+
+    if (documents.isEmpty() && queries.isEmpty()) {
+      return null;
+    }
+    return new Batch(documents, queries);
+  }
+
+  private SnapshotFileMetadata getMetadata() throws FirebaseFirestoreException {
+    if (metadata == null) {
+      SnapshotFileElement element = readElement();
+      if (element == null
+          || element.getElementTypeCase() != SnapshotFileElement.ElementTypeCase.METADATA) {
+        throw invalidFile("The snapshot file does not start with its metadata");
+      }
+      if (!element.getMetadata().hasCreateTime()) {
+        throw invalidFile("The metadata of the snapshot file has no create time");
+      }
+      metadata = element.getMetadata();
+    }
+    return metadata;
+  }
+
+  @Nullable
+  private SnapshotFileElement readElement() throws FirebaseFirestoreException {
+    try {
+      SnapshotFileElement element = SnapshotFileElement.parseDelimitedFrom(input);
+      if (element != null) {
+        int size = element.getSerializedSize();
+        bytesRead += CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+      }
+      return element;
+    } catch (IOException e) {
+      throw new FirebaseFirestoreException(
+          "Failed to read snapshot file: " + e.getMessage(), Code.INVALID_ARGUMENT, e);
+    }
+  }
+
+  private Document decodeDocument(com.google.firestore.v1.Document proto)
+      throws FirebaseFirestoreException {
+    DocumentKey key = decodeKey(proto.getName());
+    SnapshotVersion version = serializer.decodeVersion(proto.getUpdateTime());
+    if (version.equals(SnapshotVersion.NONE)) {
+      throw invalidFile("Document %s has no update time", proto.getName());
+    }
+    return new Document(
+        key, version, ObjectValue.fromMap(proto.getFieldsMap()), Document.DocumentState.SYNCED);
+  }
+
+  private QueryResults decodeQuery(SnapshotFileQuery proto) throws FirebaseFirestoreException {
+    String parent = proto.getQuery().getParent();
+    if (!parent.equals(documentsPrefix) && !parent.startsWith(documentsPrefix + "/")) {
+      throw invalidFile("Query parent %s does not belong to this database", parent);
+    }
+    SnapshotVersion readTime = serializer.decodeVersion(proto.getReadTime());
+    if (readTime.equals(SnapshotVersion.NONE)) {
+      throw invalidFile("Query of %s has no read time", parent);
+    }
+
+    List<DocumentKey> keys = new ArrayList<>(proto.getDocumentNamesCount());
+    for (String name : proto.getDocumentNamesList()) {
+      keys.add(decodeKey(name));
+    }
+    return new QueryResults(
+        serializer.decodeQueryTarget(proto.getQuery()), readTime, proto.getResumeToken(), keys);
+  }
+
+  private DocumentKey decodeKey(String name) throws FirebaseFirestoreException {
+    // RemoteSerializer asserts that names belong to this database, which a snapshot file for
+    // another project would violate.
+    if (!name.startsWith(documentsPrefix + "/")) {
+      throw invalidFile("Document %s does not belong to this database", name);
+    }
+    return serializer.decodeKey(name);
+  }
+
+  private static FirebaseFirestoreException invalidFile(String format, Object... args) {
+    return new FirebaseFirestoreException(
+        "Invalid snapshot file: " + String.format(format, args), Code.INVALID_ARGUMENT);
+  }
+
+  /** The documents and query results of a part of a snapshot file. */
+  public static final class Batch {
+    private final List<Document> documents;
+    private final List<QueryResults> queries;
+
+    Batch(List<Document> documents, List<QueryResults> queries) {
+      this.documents = documents;
+      this.queries = queries;
+    }
+
+    public List<Document> getDocuments() {
+      return documents;
+    }
+
+    public List<QueryResults> getQueries() {
+      return queries;
+    }
+  }
+
+  /** The results of a query in a snapshot file. */
+  public static final class QueryResults {
+    private final Target target;
+    private final SnapshotVersion readTime;
+    private final ByteString resumeToken;
+    private final List<DocumentKey> keys;
+
+    QueryResults(
+        Target target, SnapshotVersion readTime, ByteString resumeToken, List<DocumentKey> keys) {
+      this.target = target;
+      this.readTime = readTime;
+      this.resumeToken = resumeToken;
+      this.keys = keys;
+    }
+
+    public Target getTarget() {
+      return target;
+    }
+
+    /** Returns the time at which the results of the query were read. */
+    public SnapshotVersion getReadTime() {
+      return readTime;
+    }
+
+    /** Returns a resume token for listening to the query from the read time on, or an empty one. */
+    public ByteString getResumeToken() {
+      return resumeToken;
+    }
+
+    /** Returns the keys of the documents that matched the query at the read time. */
+    public List<DocumentKey> getKeys() {
+      return keys;
+    }
+  }
+}
@@ -0,0 +1,89 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.local;
+
+import com.google.firebase.database.collection.ImmutableSortedMap;
+import com.google.firebase.database.collection.SortedMapBuilder;
+import com.google.firebase.firestore.core.Query;
+import com.google.firebase.firestore.model.Document;
+import com.google.firebase.firestore.model.DocumentKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Collects the documents that sort first in the order of a limit query (or last, for limit-to-last
+ * queries). At most {@code limit} documents are held in memory, independent of the number of
+ * documents that are added.
+ */
+final class TopDocuments {
+
+  /** The largest initial capacity of the heap, which grows on demand for larger limits. */
+  private static final int MAX_INITIAL_CAPACITY = 100;
+
+  private final int limit;
+
+  /** The order in which documents are kept. Documents that sort last are dropped first. */
+  private final Comparator<Document> comparator;
+
+  /** The collected documents, with the document that is dropped next at the head. */
+  private final PriorityQueue<Document> heap;
+
+  TopDocuments(Query query, int limit) {
+    this.limit = limit;
+    this.comparator =
+        query.hasLimitToLast()
+            ? Collections.reverseOrder(query.comparator())
+            : query.comparator();
+    this.heap =
+        new PriorityQueue<>(
+            Math.max(1, Math.min(limit, MAX_INITIAL_CAPACITY)),
+            Collections.reverseOrder(comparator));
+  }
+
+  /** Adds a document that matches the query, dropping the last document if the limit is reached. */
+  void add(Document document) {
+    if (heap.size() < limit) {
+      heap.add(document);
+    } else if (limit > 0 && comparator.compare(document, heap.peek()) < 0) {
+      heap.poll();
+      heap.add(document);
+    }
+  }
+
+  /** Returns whether {@code limit} documents have been collected. */
+  boolean isFull() {
+    return heap.size() >= limit;
+  }
+
+  /** Returns the collected documents. */
+  Iterable<Document> getDocuments() {
+    return heap;
+  }
+
+  /** Returns the collected documents, keyed by their document key. */
+  ImmutableSortedMap<DocumentKey, Document> toMap() {
+    List<Document> documents = new ArrayList<>(heap);
+    Collections.sort(documents, Document.keyComparator());
+    SortedMapBuilder<DocumentKey, Document> result =
+        new SortedMapBuilder<>(DocumentKey.comparator(), documents.size());
+    for (Document document : documents) {
+      result.add(document.getKey(), document);
+    }
+    return result.build();
+  }
+}
@@ -0,0 +1,144 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.mapping;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.google.firebase.firestore.DocumentReference;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Base class of the mappers that the Firestore annotation processor generates for classes
+ * annotated with {@link com.google.firebase.firestore.Mappable}.
+ *
+ * <p>A generated mapper reads and writes the properties of the class directly. The values of the
+ * properties are converted by the {@link Serializer} and {@link Deserializer} that are passed in,
+ * which map nested objects with their own generated mappers where available.
+ *
+ * @hide
+ */
+public abstract class GeneratedMapper<T> {
+
+  /** Converts the values of properties to plain Java types. */
+  public interface Serializer {
+    /** Converts the value of the given property to plain Java types. */
+    @Nullable
+    Object serialize(@Nullable Object value, @NonNull String property);
+  }
+
+  /** Converts plain Java types to the values of properties. */
+  public interface Deserializer {
+    /** Converts the value of the given property to the given type. */
+    @Nullable
+    <V> V deserialize(@Nullable Object value, @NonNull Type type, @NonNull String property);
+
+    /** Returns the document that is deserialized. */
+    @NonNull
+    DocumentReference getDocumentReference();
+
+    /**
+     * Called for a value in the document that does not map to a property of the class.
+     *
+     * @param throwError Whether the class is annotated with {@code ThrowOnExtraProperties}.
+     */
+    void handleUnknownProperty(@NonNull String property, boolean throwError);
+
+    /**
+     * Returns the exception to throw if the document contains a value for a property that is
+     * annotated with {@code DocumentId}.
+     */
+    @NonNull
+    RuntimeException documentIdConflict(@NonNull String property);
+  }
+
+  /** Converts the properties of the given object to a map. */
+  @NonNull
+  public abstract Map<String, Object> serialize(@NonNull T object, @NonNull Serializer serializer);
+
+  /** Creates an object of the mapped class from the given map of property values. */
+  @NonNull
+  public abstract T deserialize(
+      @NonNull Map<String, Object> values, @NonNull Deserializer deserializer);
+
+  /**
+   * Returns the parameterized type {@code rawType<typeArguments>}, which generated mappers use to
+   * deserialize properties of generic types such as {@code List<String>}.
+   */
+  @NonNull
+  protected static Type parameterizedType(
+      @NonNull Class<?> rawType, @NonNull Type... typeArguments) {
+    return new ParameterizedTypeImpl(rawType, typeArguments);
+  }
+
+  private static final class ParameterizedTypeImpl implements ParameterizedType {
+    private final Class<?> rawType;
+    private final Type[] typeArguments;
+
+    ParameterizedTypeImpl(Class<?> rawType, Type[] typeArguments) {
+      this.rawType = rawType;
+      this.typeArguments = typeArguments;
+    }
+
+    @Override
+    public Type[] getActualTypeArguments() {
+      return typeArguments.clone();
+    }
+
+    @Override
+    public Type getRawType() {
+      return rawType;
+    }
+
+    @Override
+    public Type getOwnerType() {
+      return null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof ParameterizedType)) {
+        return false;
+      }
+      ParameterizedType other = (ParameterizedType) o;
+      return rawType.equals(other.getRawType())
+          && other.getOwnerType() == null
+          && Arrays.equals(typeArguments, other.getActualTypeArguments());
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(typeArguments) ^ rawType.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder builder = new StringBuilder(rawType.getName()).append('<');
+      for (int i = 0; i < typeArguments.length; ++i) {
+        if (i > 0) {
+          builder.append(", ");
+        }
+        Type argument = typeArguments[i];
+        builder.append(argument instanceof Class ? ((Class<?>) argument).getName() : argument);
+      }
+      return builder.append('>').toString();
+    }
+  }
+}
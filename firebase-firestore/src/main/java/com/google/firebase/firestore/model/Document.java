@@ -17,7 +17,9 @@ package com.google.firebase.firestore.model;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import com.google.firestore.v1.Value;
+import com.google.protobuf.ByteString;
 import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Represents a document in Firestore with a key, version, data and whether the data has local
@@ -43,8 +45,23 @@ public final class Document extends MaybeDocument {
     return KEY_COMPARATOR;
   }
 
+  /**
+   * The number of fields that are read from the encoded document before all of its fields are
+   * decoded. Queries only read a few fields to filter a document, while sorting a list of documents
+   * reads the same fields many times.
+   */
+  private static final int MAX_ENCODED_FIELD_READS = 4;
+
   private final DocumentState documentState;
-  private ObjectValue objectValue;
+
+  /** The data of the document, or null if it has not been decoded from encodedDocument yet. */
+  private volatile @Nullable ObjectValue objectValue;
+
+  /** The encoded google.firestore.v1.Document proto, or null if the data has been decoded. */
+  private volatile @Nullable ByteString encodedDocument;
+
+  /** The number of fields that have been read from encodedDocument, possibly by several threads. */
+  private final AtomicInteger encodedFieldReads = new AtomicInteger();
 
   public Document(
       DocumentKey key,
@@ -56,13 +73,54 @@ public final class Document extends MaybeDocument {
     this.objectValue = objectValue;
   }
 
+  /**
+   * Creates a document whose data is decoded on demand from the given {@code
+   * google.firestore.v1.Document} proto. Individual fields are read from the encoded proto until
+   * the entire data of the document is requested.
+   */
+  public Document(
+      DocumentKey key,
+      SnapshotVersion version,
+      DocumentState documentState,
+      ByteString encodedDocument) {
+    super(key, version);
+    this.documentState = documentState;
+    this.encodedDocument = encodedDocument;
+  }
+
   @NonNull
   public ObjectValue getData() {
-    return objectValue;
+    ObjectValue data = objectValue;
+    return data != null ? data : decodeData();
   }
 
   public @Nullable Value getField(FieldPath path) {
-    return objectValue.get(path);
+    ObjectValue data = objectValue;
+    if (data == null) {
+      ByteString encoded = encodedDocument;
+      if (encoded != null && encodedFieldReads.getAndIncrement() < MAX_ENCODED_FIELD_READS) {
+        return EncodedDocumentFields.get(encoded, path);
+      }
+      data = decodeData();
+    }
+    return data.get(path);
+  }
+
+  /**
+   * Returns the approximate size of the document's data in its encoded form. Uses the size of the
+   * encoded proto if the data has not been decoded yet.
+   */
+  public int getEncodedDataSize() {
+    ByteString encoded = encodedDocument;
+    return encoded != null ? encoded.size() : getData().getProto().getSerializedSize();
+  }
+
+  private synchronized ObjectValue decodeData() {
+    if (objectValue == null) {
+      objectValue = EncodedDocumentFields.decodeAll(encodedDocument);
+      encodedDocument = null;
+    }
+    return objectValue;
   }
 
   public boolean hasLocalMutations() {
@@ -92,7 +150,7 @@ public final class Document extends MaybeDocument {
     return getVersion().equals(document.getVersion())
         && getKey().equals(document.getKey())
         && documentState.equals(document.documentState)
-        && objectValue.equals(document.objectValue);
+        && getData().equals(document.getData());
   }
 
   @Override
@@ -100,7 +158,7 @@ public final class Document extends MaybeDocument {
     int result = getKey().hashCode();
     result = 31 * result + getVersion().hashCode();
     result = 31 * result + documentState.hashCode();
-    result = 31 * result + objectValue.hashCode();
+    result = 31 * result + getData().hashCode();
     return result;
   }
 
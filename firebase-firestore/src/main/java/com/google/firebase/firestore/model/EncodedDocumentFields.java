@@ -0,0 +1,167 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.model;
+
+import static com.google.firebase.firestore.util.Assert.fail;
+
+import androidx.annotation.Nullable;
+import com.google.firestore.v1.Value;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+import java.io.IOException;
+
+/**
+ * Reads the fields of an encoded {@code google.firestore.v1.Document} proto.
+ *
+ * <p>Individual fields are read directly from the protobuf wire data, which only decodes the
+ * values along the requested field path and skips over all other values of the document.
+ */
+final class EncodedDocumentFields {
+
+  /** The field number of {@code fields} in {@code google.firestore.v1.Document}. */
+  private static final int DOCUMENT_FIELDS = 2;
+
+  /** The field number of {@code fields} in {@code google.firestore.v1.MapValue}. */
+  private static final int MAP_VALUE_FIELDS = 1;
+
+  /** The field number of {@code map_value} in {@code google.firestore.v1.Value}. */
+  private static final int VALUE_MAP_VALUE = 6;
+
+  /** The field numbers of the key and the value of a map entry. */
+  private static final int MAP_ENTRY_KEY = 1;
+
+  private static final int MAP_ENTRY_VALUE = 2;
+
+  private EncodedDocumentFields() {}
+
+  /** Decodes all fields of the given document. */
+  static ObjectValue decodeAll(ByteString encodedDocument) {
+    try {
+      return ObjectValue.fromMap(
+          com.google.firestore.v1.Document.parseFrom(encodedDocument).getFieldsMap());
+    } catch (IOException e) {
+      throw fail("Document failed to parse: %s", e);
+    }
+  }
+
+  /**
+   * Returns the value of the given field of the document, or null if the document does not contain
+   * the field.
+   */
+  @Nullable
+  static Value get(ByteString encodedDocument, FieldPath path) {
+    if (path.isEmpty()) {
+      return decodeAll(encodedDocument).getProto();
+    }
+
+    try {
+      ByteString message = encodedDocument;
+      int fieldsNumber = DOCUMENT_FIELDS;
+      for (int i = 0; i < path.length() - 1; ++i) {
+        ByteString value = findMapEntry(message, fieldsNumber, path.getSegment(i));
+        message = value != null ? findMapValue(value) : null;
+        if (message == null) {
+          return null;
+        }
+        fieldsNumber = MAP_VALUE_FIELDS;
+      }
+
+      ByteString value = findMapEntry(message, fieldsNumber, path.getLastSegment());
+      return value != null ? Value.parseFrom(value) : null;
+    } catch (IOException e) {
+      throw fail("Document failed to parse: %s", e);
+    }
+  }
+
+  /**
+   * Returns the encoded value of the entry with the given key in the map field with the given
+   * number, or null if the map does not contain the key.
+   */
+  @Nullable
+  private static ByteString findMapEntry(ByteString message, int fieldNumber, String key)
+      throws IOException {
+    CodedInputStream input = newInput(message);
+    ByteString result = null;
+    // As in the protobuf runtime, the last entry wins if a key is repeated.
+    for (int tag = input.readTag(); tag != 0; tag = input.readTag()) {
+      if (tag == lengthDelimitedTag(fieldNumber)) {
+        ByteString entry = input.readBytes();
+        ByteString value = readEntryValueIfKeyMatches(entry, key);
+        if (value != null) {
+          result = value;
+        }
+      } else {
+        input.skipField(tag);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the encoded value of the given map entry if its key is {@code key}, or null otherwise.
+   */
+  @Nullable
+  private static ByteString readEntryValueIfKeyMatches(ByteString entry, String key)
+      throws IOException {
+    CodedInputStream input = newInput(entry);
+    String entryKey = "";
+    ByteString entryValue = ByteString.EMPTY;
+    for (int tag = input.readTag(); tag != 0; tag = input.readTag()) {
+      if (tag == lengthDelimitedTag(MAP_ENTRY_KEY)) {
+        entryKey = input.readStringRequireUtf8();
+        if (!entryKey.equals(key)) {
+          return null;
+        }
+      } else if (tag == lengthDelimitedTag(MAP_ENTRY_VALUE)) {
+        entryValue = input.readBytes();
+      } else {
+        input.skipField(tag);
+      }
+    }
+    return entryKey.equals(key) ? entryValue : null;
+  }
+
+  /**
+   * Returns the encoded {@code MapValue} of the given {@code Value}, or null if the value is not a
+   * map.
+   */
+  @Nullable
+  private static ByteString findMapValue(ByteString value) throws IOException {
+    CodedInputStream input = newInput(value);
+    ByteString result = null;
+    // The value type is a oneof, of which the last field on the wire wins.
+    for (int tag = input.readTag(); tag != 0; tag = input.readTag()) {
+      if (tag == lengthDelimitedTag(VALUE_MAP_VALUE)) {
+        result = input.readBytes();
+      } else {
+        result = null;
+        input.skipField(tag);
+      }
+    }
+    return result;
+  }
+
+  private static CodedInputStream newInput(ByteString bytes) {
+    CodedInputStream input = bytes.newCodedInput();
+    // Nested messages are sliced from the original bytes instead of being copied.
+    input.enableAliasing(true);
+    return input;
+  }
+
+  private static int lengthDelimitedTag(int fieldNumber) {
+    return (fieldNumber << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  }
+}
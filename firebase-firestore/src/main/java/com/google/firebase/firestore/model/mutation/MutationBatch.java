@@ -21,6 +21,7 @@ import com.google.firebase.Timestamp;
 import com.google.firebase.database.collection.ImmutableSortedMap;
 import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.MaybeDocument;
+import com.google.firestore.v1.Write;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -59,16 +60,42 @@ public final class MutationBatch {
    */
   private final List<Mutation> mutations;
 
+  /**
+   * The user-provided mutations encoded as {@code Write} protos, or null if the mutations have not
+   * been encoded.
+   */
+  @Nullable private final List<Write> encodedMutations;
+
   public MutationBatch(
       int batchId,
       Timestamp localWriteTime,
       List<Mutation> baseMutations,
       List<Mutation> mutations) {
+    this(batchId, localWriteTime, baseMutations, mutations, /* encodedMutations= */ null);
+  }
+
+  /**
+   * Creates a batch whose user-provided mutations have already been encoded, for example because
+   * the batch was read from or written to local storage. The encoded mutations are sent to the
+   * backend as they are.
+   */
+  public MutationBatch(
+      int batchId,
+      Timestamp localWriteTime,
+      List<Mutation> baseMutations,
+      List<Mutation> mutations,
+      @Nullable List<Write> encodedMutations) {
     hardAssert(!mutations.isEmpty(), "Cannot create an empty mutation batch");
+    hardAssert(
+        encodedMutations == null || encodedMutations.size() == mutations.size(),
+        "Mismatch between mutations length (%d) and encoded mutations length (%d)",
+        mutations.size(),
+        encodedMutations != null ? encodedMutations.size() : 0);
     this.batchId = batchId;
     this.localWriteTime = localWriteTime;
     this.baseMutations = baseMutations;
     this.mutations = mutations;
+    this.encodedMutations = encodedMutations;
   }
 
   /**
@@ -221,6 +248,15 @@ public final class MutationBatch {
     return mutations;
   }
 
+  /**
+   * @return The user-provided mutations encoded as {@code Write} protos, or null if the mutations
+   *     have not been encoded.
+   */
+  @Nullable
+  public List<Write> getEncodedMutations() {
+    return encodedMutations;
+  }
+
   /**
    * @return The mutations that are used to populate the base values when this mutation batch is
    *     applied locally.
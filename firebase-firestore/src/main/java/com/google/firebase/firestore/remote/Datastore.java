@@ -21,20 +21,25 @@ import com.google.android.gms.tasks.Task;
 import com.google.firebase.firestore.FirebaseFirestoreException;
 import com.google.firebase.firestore.auth.CredentialsProvider;
 import com.google.firebase.firestore.core.DatabaseInfo;
+import com.google.firebase.firestore.core.Target;
 import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.MaybeDocument;
 import com.google.firebase.firestore.model.SnapshotVersion;
 import com.google.firebase.firestore.model.mutation.Mutation;
 import com.google.firebase.firestore.model.mutation.MutationResult;
 import com.google.firebase.firestore.util.AsyncQueue;
+import com.google.firebase.firestore.util.Consumer;
 import com.google.firestore.v1.BatchGetDocumentsRequest;
-import com.google.firestore.v1.BatchGetDocumentsResponse;
 import com.google.firestore.v1.CommitRequest;
 import com.google.firestore.v1.CommitResponse;
 import com.google.firestore.v1.FirestoreGrpc;
+import com.google.firestore.v1.RunQueryRequest;
+import com.google.firestore.v1.StructuredQuery;
+import com.google.firestore.v1.Target.QueryTarget;
 import io.grpc.Status;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -82,6 +87,7 @@ public class Datastore {
   private final AsyncQueue workerQueue;
 
   private final FirestoreChannel channel;
+  private final LookupBatcher lookupBatcher;
 
   public Datastore(
       DatabaseInfo databaseInfo,
@@ -96,6 +102,7 @@ public class Datastore {
     channel =
         new FirestoreChannel(
             workerQueue, context, credentialsProvider, databaseInfo, metadataProvider);
+    lookupBatcher = new LookupBatcher(workerQueue, this::runLookup);
   }
 
   void shutdown() {
@@ -152,14 +159,25 @@ public class Datastore {
             });
   }
 
+  /**
+   * Looks up the documents with the given keys. Lookups that are issued in quick succession are
+   * sent to the backend in a single request.
+   */
   public Task<List<MaybeDocument>> lookup(List<DocumentKey> keys) {
+    return lookupBatcher.lookup(keys);
+  }
+
+  private Task<Void> runLookup(Collection<DocumentKey> keys, Consumer<MaybeDocument> onDocument) {
     BatchGetDocumentsRequest.Builder builder = BatchGetDocumentsRequest.newBuilder();
     builder.setDatabase(serializer.databaseName());
     for (DocumentKey key : keys) {
       builder.addDocuments(serializer.encodeKey(key));
     }
     return channel
-        .runStreamingResponseRpc(FirestoreGrpc.getBatchGetDocumentsMethod(), builder.build())
+        .runStreamingResponseRpc(
+            FirestoreGrpc.getBatchGetDocumentsMethod(),
+            builder.build(),
+            response -> onDocument.accept(serializer.decodeMaybeDocument(response)))
         .continueWith(
             workerQueue.getExecutor(),
             task -> {
@@ -169,19 +187,58 @@ public class Datastore {
                         == FirebaseFirestoreException.Code.UNAUTHENTICATED) {
                   channel.invalidateToken();
                 }
+                throw task.getException();
               }
+              return null;
+            });
+  }
+
+  /**
+   * Runs the query of the given target without reading the contents of the matching documents.
+   * The result contains the keys and update times of all documents that match the query.
+   */
+  Task<KeysOnlyQueryResult> runKeysOnlyQuery(Target target) {
+    QueryTarget queryTarget = serializer.encodeQueryTarget(target);
+    StructuredQuery.Projection keysOnly =
+        StructuredQuery.Projection.newBuilder()
+            .addFields(
+                StructuredQuery.FieldReference.newBuilder()
+                    .setFieldPath(DocumentKey.KEY_FIELD_NAME))
+            .build();
+    RunQueryRequest request =
+        RunQueryRequest.newBuilder()
+            .setParent(queryTarget.getParent())
+            .setStructuredQuery(queryTarget.getStructuredQuery().toBuilder().setSelect(keysOnly))
+            .build();
 
-              Map<DocumentKey, MaybeDocument> resultMap = new HashMap<>();
-              List<BatchGetDocumentsResponse> responses = task.getResult();
-              for (BatchGetDocumentsResponse response : responses) {
-                MaybeDocument doc = serializer.decodeMaybeDocument(response);
-                resultMap.put(doc.getKey(), doc);
+    KeysOnlyQueryResult result = new KeysOnlyQueryResult();
+    return channel
+        .runStreamingResponseRpc(
+            FirestoreGrpc.getRunQueryMethod(),
+            request,
+            response -> {
+              result.responseBytes += response.getSerializedSize();
+              if (response.hasReadTime()) {
+                result.readTime = serializer.decodeVersion(response.getReadTime());
               }
-              List<MaybeDocument> results = new ArrayList<>();
-              for (DocumentKey key : keys) {
-                results.add(resultMap.get(key));
+              if (response.hasDocument()) {
+                result.documentVersions.put(
+                    serializer.decodeKey(response.getDocument().getName()),
+                    serializer.decodeVersion(response.getDocument().getUpdateTime()));
               }
-              return results;
+            })
+        .continueWith(
+            workerQueue.getExecutor(),
+            task -> {
+              if (!task.isSuccessful()) {
+                if (task.getException() instanceof FirebaseFirestoreException
+                    && ((FirebaseFirestoreException) task.getException()).getCode()
+                        == FirebaseFirestoreException.Code.UNAUTHENTICATED) {
+                  channel.invalidateToken();
+                }
+                throw task.getException();
+              }
+              return result;
             });
   }
 
@@ -270,4 +327,26 @@ public class Datastore {
   public static boolean isPermanentWriteError(Status status) {
     return isPermanentError(status) && !status.getCode().equals(Status.Code.ABORTED);
   }
+
+  /** The documents that match a query, as returned by {@link #runKeysOnlyQuery}. */
+  static final class KeysOnlyQueryResult {
+    private final Map<DocumentKey, SnapshotVersion> documentVersions = new HashMap<>();
+    private SnapshotVersion readTime = SnapshotVersion.NONE;
+    private long responseBytes;
+
+    /** Returns the update time of each document that matches the query. */
+    Map<DocumentKey, SnapshotVersion> getDocumentVersions() {
+      return documentVersions;
+    }
+
+    /** Returns the time at which the query was run. */
+    SnapshotVersion getReadTime() {
+      return readTime;
+    }
+
+    /** Returns the number of bytes that the backend sent in response to the query. */
+    long getResponseBytes() {
+      return responseBytes;
+    }
+  }
 }
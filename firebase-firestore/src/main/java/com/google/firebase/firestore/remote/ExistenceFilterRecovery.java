@@ -0,0 +1,207 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.remote;
+
+import com.google.firebase.database.collection.ImmutableSortedSet;
+import com.google.firebase.firestore.ExistenceFilterStats;
+import com.google.firebase.firestore.model.Document;
+import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.model.MaybeDocument;
+import com.google.firebase.firestore.model.SnapshotVersion;
+import com.google.protobuf.ByteString;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A component used by the RemoteStore to reconcile targets that have existence filter mismatches
+ * with the backend, and to keep statistics about existence filter mismatches.
+ *
+ * <p>Without recovery, a target with a mismatch is re-listened without a resume token, and the
+ * backend sends all documents that match the target again. To recover a target instead, the
+ * RemoteStore runs the query of the target without reading the contents of the documents (a
+ * keys-only query) and compares the result with the cache:
+ *
+ * <ul>
+ *   <li>Documents that are not cached, or whose cached version is older than the version on the
+ *       backend, are looked up.
+ *   <li>Documents that are cached in their latest version are added to the target without
+ *       downloading them again.
+ *   <li>Documents that are mapped to the target but no longer match its query are removed from the
+ *       target.
+ * </ul>
+ *
+ * <p>This class is not thread safe and should only be called from the worker AsyncQueue.
+ */
+final class ExistenceFilterRecovery {
+
+  private int mismatchCount;
+  private int recoveredTargetCount;
+  private int resetTargetCount;
+  private long reusedDocumentCount;
+  private long bytesSaved;
+
+  /** Returns the number of existence filter mismatches that were reported by the backend. */
+  int getMismatchCount() {
+    return mismatchCount;
+  }
+
+  /** Returns the number of targets that were recovered from a mismatch with a keys-only query. */
+  int getRecoveredTargetCount() {
+    return recoveredTargetCount;
+  }
+
+  /** Returns the number of targets that were re-listened without a resume token. */
+  int getResetTargetCount() {
+    return resetTargetCount;
+  }
+
+  /** Returns the number of cached documents that were not downloaded again during recoveries. */
+  long getReusedDocumentCount() {
+    return reusedDocumentCount;
+  }
+
+  /**
+   * Returns the estimated number of bytes that recoveries saved over re-listening without a resume
+   * token: the size of the documents that were not downloaded again, minus the size of the
+   * responses to keys-only queries.
+   */
+  long getBytesSaved() {
+    return bytesSaved;
+  }
+
+  /** Returns the current statistics of the existence filter mismatches. */
+  ExistenceFilterStats getStats() {
+    return new ExistenceFilterStats(
+        mismatchCount, recoveredTargetCount, resetTargetCount, reusedDocumentCount, bytesSaved);
+  }
+
+  /** Called when the backend reports an existence filter mismatch. */
+  void handleMismatch() {
+    ++mismatchCount;
+  }
+
+  /** Called when a target is re-listened without a resume token. */
+  void handleTargetReset() {
+    ++resetTargetCount;
+  }
+
+  /**
+   * Called when a target was recovered.
+   *
+   * @param plan The plan that was used to recover the target.
+   * @param queryResponseBytes The size of the responses to the keys-only query.
+   */
+  void handleTargetRecovered(Plan plan, long queryResponseBytes) {
+    ++recoveredTargetCount;
+    reusedDocumentCount += plan.reusedDocumentCount;
+    bytesSaved += plan.reusedDocumentBytes - queryResponseBytes;
+  }
+
+  /**
+   * Compares the documents that match the query of a target on the backend with the cached
+   * documents and returns the documents that need to be looked up.
+   *
+   * @param backendVersions The update time of each document that matches the query on the backend.
+   * @param cachedDocuments The cached versions of these documents, or null for documents that are
+   *     not cached.
+   */
+  static Plan createPlan(
+      Map<DocumentKey, SnapshotVersion> backendVersions,
+      Map<DocumentKey, MaybeDocument> cachedDocuments) {
+    Plan plan = new Plan();
+    for (Map.Entry<DocumentKey, SnapshotVersion> entry : backendVersions.entrySet()) {
+      MaybeDocument cachedDocument = cachedDocuments.get(entry.getKey());
+      // Documents with committed mutations contain the result of the mutations as computed by the
+      // client, so they are looked up even if their version matches.
+      if (cachedDocument instanceof Document
+          && !((Document) cachedDocument).hasCommittedMutations()
+          && cachedDocument.getVersion().compareTo(entry.getValue()) >= 0) {
+        ++plan.reusedDocumentCount;
+        plan.reusedDocumentBytes += ((Document) cachedDocument).getEncodedDataSize();
+      } else {
+        plan.documentsToFetch.add(entry.getKey());
+      }
+    }
+    return plan;
+  }
+
+  /**
+   * Returns the target change that maps the documents that match the query of a target on the
+   * backend to the target, and removes all other documents from the target.
+   *
+   * @param cachedKeys The documents that are currently mapped to the target.
+   * @param backendKeys The documents that match the query of the target on the backend.
+   * @param plan The plan that was used to look up documents.
+   * @param fetchedDocuments The documents that were looked up, as returned by the backend.
+   */
+  static TargetChange createTargetChange(
+      ImmutableSortedSet<DocumentKey> cachedKeys,
+      Set<DocumentKey> backendKeys,
+      Plan plan,
+      Map<DocumentKey, MaybeDocument> fetchedDocuments) {
+    ImmutableSortedSet<DocumentKey> addedDocuments = DocumentKey.emptyKeySet();
+    ImmutableSortedSet<DocumentKey> modifiedDocuments = DocumentKey.emptyKeySet();
+    ImmutableSortedSet<DocumentKey> removedDocuments = DocumentKey.emptyKeySet();
+
+    Set<DocumentKey> documentsToFetch = new HashSet<>(plan.documentsToFetch);
+    for (DocumentKey key : backendKeys) {
+      // A document that was deleted after the keys-only query ran is not added to the target.
+      boolean exists =
+          !documentsToFetch.contains(key) || fetchedDocuments.get(key) instanceof Document;
+      if (!exists) {
+        if (cachedKeys.contains(key)) {
+          removedDocuments = removedDocuments.insert(key);
+        }
+      } else if (!cachedKeys.contains(key)) {
+        addedDocuments = addedDocuments.insert(key);
+      } else if (documentsToFetch.contains(key)) {
+        modifiedDocuments = modifiedDocuments.insert(key);
+      }
+    }
+
+    for (DocumentKey key : cachedKeys) {
+      if (!backendKeys.contains(key)) {
+        removedDocuments = removedDocuments.insert(key);
+      }
+    }
+
+    return new TargetChange(
+        ByteString.EMPTY,
+        /* current= */ true,
+        addedDocuments,
+        modifiedDocuments,
+        removedDocuments);
+  }
+
+  /** The documents that need to be looked up to recover a target. */
+  static final class Plan {
+    private final List<DocumentKey> documentsToFetch = new ArrayList<>();
+    private int reusedDocumentCount;
+    private long reusedDocumentBytes;
+
+    /** Returns the documents that are not cached in their latest version. */
+    List<DocumentKey> getDocumentsToFetch() {
+      return documentsToFetch;
+    }
+
+    /** Returns the number of documents that are cached in their latest version. */
+    int getReusedDocumentCount() {
+      return reusedDocumentCount;
+    }
+  }
+}
@@ -26,14 +26,13 @@ import com.google.firebase.firestore.auth.CredentialsProvider;
 import com.google.firebase.firestore.core.DatabaseInfo;
 import com.google.firebase.firestore.model.DatabaseId;
 import com.google.firebase.firestore.util.AsyncQueue;
+import com.google.firebase.firestore.util.Consumer;
 import com.google.firebase.firestore.util.Util;
 import io.grpc.ClientCall;
 import io.grpc.ForwardingClientCall;
 import io.grpc.Metadata;
 import io.grpc.MethodDescriptor;
 import io.grpc.Status;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * Wrapper class around io.grpc.Channel that adds headers, exception handling and simplifies
@@ -174,10 +173,14 @@ class FirestoreChannel {
     };
   }
 
-  /** Creates and starts a streaming response RPC. */
-  <ReqT, RespT> Task<List<RespT>> runStreamingResponseRpc(
-      MethodDescriptor<ReqT, RespT> method, ReqT request) {
-    TaskCompletionSource<List<RespT>> tcs = new TaskCompletionSource<>();
+  /**
+   * Creates and starts a streaming response RPC. Each response is passed to {@code onResponse} on
+   * the worker queue as soon as it is received, and the returned task completes once the RPC is
+   * closed.
+   */
+  <ReqT, RespT> Task<Void> runStreamingResponseRpc(
+      MethodDescriptor<ReqT, RespT> method, ReqT request, Consumer<RespT> onResponse) {
+    TaskCompletionSource<Void> tcs = new TaskCompletionSource<>();
 
     callProvider
         .createClientCall(method)
@@ -186,13 +189,11 @@ class FirestoreChannel {
             result -> {
               ClientCall<ReqT, RespT> call = result.getResult();
 
-              List<RespT> results = new ArrayList<>();
-
               call.start(
                   new ClientCall.Listener<RespT>() {
                     @Override
                     public void onMessage(RespT message) {
-                      results.add(message);
+                      asyncQueue.enqueueAndForget(() -> onResponse.accept(message));
 
                       // Make sure next message can be delivered
                       call.request(1);
@@ -200,11 +201,15 @@ class FirestoreChannel {
 
                     @Override
                     public void onClose(Status status, Metadata trailers) {
-                      if (status.isOk()) {
-                        tcs.setResult(results);
-                      } else {
-                        tcs.setException(exceptionFromStatus(status));
-                      }
+                      // Completion is scheduled after all previously received responses.
+                      asyncQueue.enqueueAndForget(
+                          () -> {
+                            if (status.isOk()) {
+                              tcs.setResult(null);
+                            } else {
+                              tcs.setException(exceptionFromStatus(status));
+                            }
+                          });
                     }
                   },
                   requestHeaders());
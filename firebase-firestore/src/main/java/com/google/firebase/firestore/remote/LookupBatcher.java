@@ -0,0 +1,159 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.remote;
+
+import androidx.annotation.Nullable;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.model.MaybeDocument;
+import com.google.firebase.firestore.util.AsyncQueue;
+import com.google.firebase.firestore.util.Consumer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collapses document lookups that are issued in quick succession into a single lookup RPC.
+ *
+ * <p>A lookup is queued on the worker queue, and the queued lookups are sent together once the
+ * worker queue gets to the batch. All lookups that are issued before the worker queue flushes the
+ * batch (for example, concurrent reads of several transactions, or a read that arrives while the
+ * worker queue is busy) therefore share a round trip, while a lookup on an idle queue is sent
+ * without delay.
+ *
+ * <p>The documents of a batch are delivered as they stream back from the backend, and each lookup
+ * completes as soon as all of its documents have been received.
+ *
+ * <p>The internal state of this class is only accessed from the worker queue.
+ */
+class LookupBatcher {
+
+  /** Sends a single lookup RPC. */
+  interface LookupRpc {
+    /**
+     * Looks up the given keys and calls {@code onDocument} on the worker queue for each document
+     * that is received. The returned task completes once all documents have been received.
+     */
+    Task<Void> lookup(Collection<DocumentKey> keys, Consumer<MaybeDocument> onDocument);
+  }
+
+  private final AsyncQueue workerQueue;
+  private final LookupRpc rpc;
+
+  /** The lookups that are waiting to be sent, or null if no batch is scheduled. */
+  @Nullable private List<PendingLookup> pendingLookups;
+
+  LookupBatcher(AsyncQueue workerQueue, LookupRpc rpc) {
+    this.workerQueue = workerQueue;
+    this.rpc = rpc;
+  }
+
+  /**
+   * Looks up the given keys in the next batch. The documents are returned in the order of the keys.
+   */
+  Task<List<MaybeDocument>> lookup(List<DocumentKey> keys) {
+    PendingLookup lookup = new PendingLookup(keys);
+    workerQueue.enqueueAndForget(
+        () -> {
+          if (pendingLookups == null) {
+            pendingLookups = new ArrayList<>();
+            workerQueue.enqueueAndForget(this::flush);
+          }
+          pendingLookups.add(lookup);
+        });
+    return lookup.completionSource.getTask();
+  }
+
+  private void flush() {
+    List<PendingLookup> lookups = pendingLookups;
+    pendingLookups = null;
+
+    Set<DocumentKey> keys = new LinkedHashSet<>();
+    Map<DocumentKey, List<PendingLookup>> lookupsByKey = new HashMap<>();
+    for (PendingLookup lookup : lookups) {
+      for (DocumentKey key : lookup.keys) {
+        keys.add(key);
+        List<PendingLookup> lookupsForKey = lookupsByKey.get(key);
+        if (lookupsForKey == null) {
+          lookupsForKey = new ArrayList<>();
+          lookupsByKey.put(key, lookupsForKey);
+        }
+        lookupsForKey.add(lookup);
+      }
+    }
+
+    rpc.lookup(
+            keys,
+            document -> {
+              List<PendingLookup> lookupsForKey = lookupsByKey.remove(document.getKey());
+              if (lookupsForKey != null) {
+                for (PendingLookup lookup : lookupsForKey) {
+                  lookup.onDocument(document);
+                }
+              }
+            })
+        .addOnCompleteListener(
+            workerQueue.getExecutor(),
+            task -> {
+              for (PendingLookup lookup : lookups) {
+                if (!task.isSuccessful()) {
+                  lookup.completionSource.trySetException(task.getException());
+                } else {
+                  // The backend returns a result for every key, but lookups that are still pending
+                  // are completed in any case.
+                  lookup.complete();
+                }
+              }
+            });
+  }
+
+  /** A lookup that was issued by a caller and the documents that have been received for it. */
+  private static class PendingLookup {
+    final List<DocumentKey> keys;
+    final int distinctKeyCount;
+    final Map<DocumentKey, MaybeDocument> documents = new HashMap<>();
+    final TaskCompletionSource<List<MaybeDocument>> completionSource =
+        new TaskCompletionSource<>();
+
+    PendingLookup(List<DocumentKey> keys) {
+      this.keys = keys;
+      this.distinctKeyCount = new HashSet<>(keys).size();
+    }
+
+    void onDocument(MaybeDocument document) {
+      documents.put(document.getKey(), document);
+      if (documents.size() == distinctKeyCount) {
+        complete();
+      }
+    }
+
+    void complete() {
+      if (completionSource.getTask().isComplete()) {
+        return;
+      }
+      List<MaybeDocument> results = new ArrayList<>(keys.size());
+      for (DocumentKey key : keys) {
+        results.add(documents.get(key));
+      }
+      completionSource.setResult(results);
+    }
+  }
+}
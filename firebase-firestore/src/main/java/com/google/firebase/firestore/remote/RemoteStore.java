@@ -18,13 +18,18 @@ import static com.google.firebase.firestore.util.Assert.hardAssert;
 
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.database.collection.ImmutableSortedSet;
+import com.google.firebase.firestore.ExistenceFilterStats;
+import com.google.firebase.firestore.WritePipelineStats;
 import com.google.firebase.firestore.core.OnlineState;
 import com.google.firebase.firestore.core.Transaction;
 import com.google.firebase.firestore.local.LocalStore;
 import com.google.firebase.firestore.local.QueryPurpose;
 import com.google.firebase.firestore.local.TargetData;
 import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.model.MaybeDocument;
 import com.google.firebase.firestore.model.SnapshotVersion;
 import com.google.firebase.firestore.model.mutation.MutationBatch;
 import com.google.firebase.firestore.model.mutation.MutationBatchResult;
@@ -40,11 +45,14 @@ import com.google.firebase.firestore.util.Util;
 import com.google.protobuf.ByteString;
 import io.grpc.Status;
 import java.util.ArrayDeque;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 /**
  * RemoteStore handles all interaction with the backend through a simple, clean interface. This
@@ -52,9 +60,6 @@ import java.util.Map.Entry;
  */
 public final class RemoteStore implements WatchChangeAggregator.TargetMetadataProvider {
 
-  /** The maximum number of pending writes to allow. TODO: Negotiate this value with the backend. */
-  private static final int MAX_PENDING_WRITES = 10;
-
   /** The log tag to use for this class. */
   private static final String LOG_TAG = "RemoteStore";
 
@@ -109,6 +114,7 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
   private final RemoteStoreCallback remoteStoreCallback;
   private final LocalStore localStore;
   private final Datastore datastore;
+  private final AsyncQueue workerQueue;
   private final ConnectivityMonitor connectivityMonitor;
 
   /**
@@ -130,8 +136,8 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
   @Nullable private WatchChangeAggregator watchChangeAggregator;
 
   /**
-   * A list of up to MAX_PENDING_WRITES writes that we have fetched from the LocalStore via
-   * fillWritePipeline() and have or will send to the write stream.
+   * A list of up to {@code writePipelineController.getPipelineSize()} writes that we have fetched
+   * from the LocalStore via fillWritePipeline() and have or will send to the write stream.
    *
    * <p>Whenever writePipeline.length > 0 the RemoteStore will attempt to start or restart the write
    * stream. When the stream is established the writes in the pipeline will be sent in order.
@@ -145,19 +151,41 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
    */
   private final Deque<MutationBatch> writePipeline;
 
+  /** Determines the size of the write pipeline and keeps statistics about it. */
+  private final WritePipelineController writePipelineController;
+
+  /**
+   * Whether targets with existence filter mismatches are reconciled with a keys-only query instead
+   * of being re-listened without a resume token.
+   */
+  private final boolean existenceFilterRecoveryEnabled;
+
+  /** Plans existence filter recoveries and keeps statistics about existence filter mismatches. */
+  private final ExistenceFilterRecovery existenceFilterRecovery;
+
+  /** The IDs of the targets that are being recovered from an existence filter mismatch. */
+  private final Set<Integer> recoveringTargets;
+
   public RemoteStore(
       RemoteStoreCallback remoteStoreCallback,
       LocalStore localStore,
       Datastore datastore,
       AsyncQueue workerQueue,
-      ConnectivityMonitor connectivityMonitor) {
+      ConnectivityMonitor connectivityMonitor,
+      boolean adaptiveWritePipeliningEnabled,
+      boolean existenceFilterRecoveryEnabled) {
     this.remoteStoreCallback = remoteStoreCallback;
     this.localStore = localStore;
     this.datastore = datastore;
+    this.workerQueue = workerQueue;
     this.connectivityMonitor = connectivityMonitor;
+    this.existenceFilterRecoveryEnabled = existenceFilterRecoveryEnabled;
 
     listenTargets = new HashMap<>();
     writePipeline = new ArrayDeque<>();
+    writePipelineController = new WritePipelineController(adaptiveWritePipeliningEnabled);
+    existenceFilterRecovery = new ExistenceFilterRecovery();
+    recoveringTargets = new HashSet<>();
 
     onlineStateTracker =
         new OnlineStateTracker(workerQueue, remoteStoreCallback::handleOnlineStateChange);
@@ -269,6 +297,7 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
       Logger.debug(LOG_TAG, "Stopping write stream with %d pending writes", writePipeline.size());
       writePipeline.clear();
     }
+    writePipelineController.handlePipelineDrained();
 
     cleanUpWatchStreamState();
   }
@@ -410,7 +439,7 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
     hardAssert(
         shouldStartWatchStream(),
         "startWatchStream() called when shouldStartWatchStream() is false.");
-    watchChangeAggregator = new WatchChangeAggregator(this);
+    watchChangeAggregator = new WatchChangeAggregator(this, existenceFilterRecoveryEnabled);
     watchStream.start();
 
     onlineStateTracker.handleWatchStreamStart();
@@ -515,31 +544,17 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
     }
 
     // Re-establish listens for the targets that have been invalidated by  existence filter
-    // mismatches.
+    // mismatches, or reconcile them with the backend if existence filter recovery is enabled.
     for (int targetId : remoteEvent.getTargetMismatches()) {
+      existenceFilterRecovery.handleMismatch();
       TargetData targetData = this.listenTargets.get(targetId);
       // A watched target might have been removed already.
       if (targetData != null) {
-        // Clear the resume token for the query, since we're in a known mismatch state.
-        this.listenTargets.put(
-            targetId,
-            targetData.withResumeToken(ByteString.EMPTY, targetData.getSnapshotVersion()));
-
-        // Cause a hard reset by unwatching and rewatching immediately, but deliberately don't send
-        // a resume token so that we get a full update.
-        this.sendUnwatchRequest(targetId);
-
-        // Mark the query we send as being on behalf of an existence filter  mismatch, but don't
-        // actually retain that in listenTargets. This ensures that we flag the first re-listen this
-        // way without impacting future listens of this target (that might happen e.g. on
-        // reconnect).
-        TargetData requestTargetData =
-            new TargetData(
-                targetData.getTarget(),
-                targetId,
-                targetData.getSequenceNumber(),
-                QueryPurpose.EXISTENCE_FILTER_MISMATCH);
-        this.sendWatchRequest(requestTargetData);
+        if (existenceFilterRecoveryEnabled) {
+          recoverTarget(targetData);
+        } else {
+          resetTarget(targetData);
+        }
       }
     }
 
@@ -547,6 +562,181 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
     remoteStoreCallback.handleRemoteEvent(remoteEvent);
   }
 
+  /** Re-listens to the given target without a resume token, so that we get a full update. */
+  private void resetTarget(TargetData targetData) {
+    int targetId = targetData.getTargetId();
+    existenceFilterRecovery.handleTargetReset();
+
+    // Clear the resume token for the query, since we're in a known mismatch state.
+    this.listenTargets.put(
+        targetId, targetData.withResumeToken(ByteString.EMPTY, targetData.getSnapshotVersion()));
+
+    // If the watch stream is not open, the target is re-listened without a resume token once the
+    // stream is re-established.
+    if (watchStream.isOpen()) {
+      // Cause a hard reset by unwatching and rewatching immediately, but deliberately don't send
+      // a resume token so that we get a full update.
+      this.sendUnwatchRequest(targetId);
+
+      // Mark the query we send as being on behalf of an existence filter  mismatch, but don't
+      // actually retain that in listenTargets. This ensures that we flag the first re-listen this
+      // way without impacting future listens of this target (that might happen e.g. on
+      // reconnect).
+      TargetData requestTargetData =
+          new TargetData(
+              targetData.getTarget(),
+              targetId,
+              targetData.getSequenceNumber(),
+              QueryPurpose.EXISTENCE_FILTER_MISMATCH);
+      this.sendWatchRequest(requestTargetData);
+    }
+  }
+
+  /**
+   * Reconciles a target that has an existence filter mismatch with the backend. The target keeps
+   * its resume token, and only the documents that are not cached in their latest version are
+   * looked up (see {@link ExistenceFilterRecovery}). If the recovery fails, the target is reset.
+   */
+  private void recoverTarget(TargetData targetData) {
+    int targetId = targetData.getTargetId();
+    if (!recoveringTargets.add(targetId)) {
+      // The target is already being recovered from an earlier mismatch.
+      return;
+    }
+
+    datastore
+        .runKeysOnlyQuery(targetData.getTarget())
+        .addOnCompleteListener(
+            workerQueue.getExecutor(),
+            task -> {
+              if (!task.isSuccessful()) {
+                abortRecovery(targetId, task.getException());
+              } else {
+                fetchRecoveredDocuments(targetId, task.getResult());
+              }
+            });
+  }
+
+  private void fetchRecoveredDocuments(int targetId, Datastore.KeysOnlyQueryResult queryResult) {
+    if (!isRecoveryCurrent(queryResult)) {
+      abortRecovery(targetId, /* error= */ null);
+      return;
+    }
+
+    Map<DocumentKey, SnapshotVersion> backendVersions = queryResult.getDocumentVersions();
+    ExistenceFilterRecovery.Plan plan =
+        ExistenceFilterRecovery.createPlan(
+            backendVersions, localStore.readRemoteDocuments(backendVersions.keySet()));
+    Task<List<MaybeDocument>> lookup =
+        plan.getDocumentsToFetch().isEmpty()
+            ? Tasks.forResult(Collections.<MaybeDocument>emptyList())
+            : datastore.lookup(plan.getDocumentsToFetch());
+    lookup.addOnCompleteListener(
+        workerQueue.getExecutor(),
+        task -> {
+          if (!task.isSuccessful()) {
+            abortRecovery(targetId, task.getException());
+          } else {
+            completeRecovery(targetId, queryResult, plan, task.getResult());
+          }
+        });
+  }
+
+  private void completeRecovery(
+      int targetId,
+      Datastore.KeysOnlyQueryResult queryResult,
+      ExistenceFilterRecovery.Plan plan,
+      List<MaybeDocument> fetchedDocuments) {
+    if (!isRecoveryCurrent(queryResult)) {
+      abortRecovery(targetId, /* error= */ null);
+      return;
+    }
+
+    recoveringTargets.remove(targetId);
+    if (!listenTargets.containsKey(targetId)) {
+      // The target was removed while it was being recovered.
+      return;
+    }
+
+    Map<DocumentKey, MaybeDocument> documentUpdates = new HashMap<>();
+    for (MaybeDocument document : fetchedDocuments) {
+      if (document != null) {
+        documentUpdates.put(document.getKey(), document);
+      }
+    }
+    TargetChange targetChange =
+        ExistenceFilterRecovery.createTargetChange(
+            getRemoteKeysForTarget(targetId),
+            queryResult.getDocumentVersions().keySet(),
+            plan,
+            documentUpdates);
+
+    Logger.debug(
+        LOG_TAG,
+        "Recovered target %d from existence filter mismatch (%d documents fetched, %d reused)",
+        targetId,
+        plan.getDocumentsToFetch().size(),
+        plan.getReusedDocumentCount());
+    existenceFilterRecovery.handleTargetRecovered(plan, queryResult.getResponseBytes());
+
+    // The documents are raised at the time at which the keys-only query ran. Watch snapshots with
+    // an earlier version are merged into the next snapshot that is at least as recent.
+    if (watchChangeAggregator != null) {
+      watchChangeAggregator.markTargetRecovered(targetId);
+    }
+    remoteStoreCallback.handleRemoteEvent(
+        new RemoteEvent(
+            queryResult.getReadTime(),
+            Collections.singletonMap(targetId, targetChange),
+            Collections.emptySet(),
+            documentUpdates,
+            Collections.emptySet()));
+  }
+
+  /**
+   * Ends the recovery of the given target and falls back to resetting the target. Removes all
+   * documents from the target, as an existence filter mismatch without recovery does.
+   */
+  private void abortRecovery(int targetId, @Nullable Exception error) {
+    recoveringTargets.remove(targetId);
+    TargetData targetData = listenTargets.get(targetId);
+    if (targetData == null) {
+      return;
+    }
+
+    Logger.debug(
+        LOG_TAG,
+        "Failed to recover target %d from existence filter mismatch: %s",
+        targetId,
+        error != null ? error : "watch stream advanced past the keys-only query");
+
+    TargetChange targetChange =
+        new TargetChange(
+            ByteString.EMPTY,
+            /* current= */ false,
+            DocumentKey.emptyKeySet(),
+            DocumentKey.emptyKeySet(),
+            getRemoteKeysForTarget(targetId));
+    remoteStoreCallback.handleRemoteEvent(
+        new RemoteEvent(
+            localStore.getLastRemoteSnapshotVersion(),
+            Collections.singletonMap(targetId, targetChange),
+            Collections.emptySet(),
+            Collections.emptyMap(),
+            Collections.emptySet()));
+    resetTarget(targetData);
+  }
+
+  /**
+   * Returns whether the result of a keys-only query is at least as recent as the last snapshot
+   * that was raised. Otherwise, the query may miss documents that were added to the target since.
+   */
+  private boolean isRecoveryCurrent(Datastore.KeysOnlyQueryResult queryResult) {
+    SnapshotVersion readTime = queryResult.getReadTime();
+    return !readTime.equals(SnapshotVersion.NONE)
+        && readTime.compareTo(localStore.getLastRemoteSnapshotVersion()) >= 0;
+  }
+
   private void processTargetError(WatchTargetChange targetChange) {
     hardAssert(targetChange.getCause() != null, "Processing target error without a cause");
     for (Integer targetId : targetChange.getTargetIds()) {
@@ -575,6 +765,7 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
     while (canAddToWritePipeline()) {
       MutationBatch batch = localStore.getNextMutationBatch(lastBatchIdRetrieved);
       if (batch == null) {
+        writePipelineController.handlePipelineDrained();
         if (writePipeline.size() == 0) {
           writeStream.markIdle();
         }
@@ -584,6 +775,10 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
       lastBatchIdRetrieved = batch.getBatchId();
     }
 
+    if (canUseNetwork() && writePipeline.size() >= writePipelineController.getPipelineSize()) {
+      writePipelineController.handlePipelineFull(System.nanoTime());
+    }
+
     if (shouldStartWriteStream()) {
       startWriteStream();
     }
@@ -594,7 +789,7 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
    * enabled).
    */
   private boolean canAddToWritePipeline() {
-    return canUseNetwork() && writePipeline.size() < MAX_PENDING_WRITES;
+    return canUseNetwork() && writePipeline.size() < writePipelineController.getPipelineSize();
   }
 
   /**
@@ -605,9 +800,11 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
     hardAssert(canAddToWritePipeline(), "addToWritePipeline called when pipeline is full");
 
     writePipeline.add(mutationBatch);
+    writePipelineController.handleBatchAdded(System.nanoTime());
 
     if (writeStream.isOpen() && writeStream.isHandshakeComplete()) {
-      writeStream.writeMutations(mutationBatch.getMutations());
+      writeStream.writeMutationBatch(mutationBatch);
+      writePipelineController.handleBatchSent(System.nanoTime());
     }
   }
 
@@ -628,7 +825,8 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
 
     // Send the write pipeline now that stream is established.
     for (MutationBatch batch : writePipeline) {
-      writeStream.writeMutations(batch.getMutations());
+      writeStream.writeMutationBatch(batch);
+      writePipelineController.handleBatchSent(System.nanoTime());
     }
   }
 
@@ -640,6 +838,7 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
     // This is a response to a write containing mutations and should be correlated to the first
     // write in our write pipeline.
     MutationBatch batch = writePipeline.poll();
+    writePipelineController.handleBatchAcknowledged(System.nanoTime());
 
     MutationBatchResult mutationBatchResult =
         MutationBatchResult.create(batch, commitVersion, results, writeStream.getLastStreamToken());
@@ -656,6 +855,13 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
           !shouldStartWriteStream(), "Write stream was stopped gracefully while still needed.");
     }
 
+    // Any batches that are in flight are re-sent when the stream is restarted. Errors that are not
+    // caused by the batches themselves indicate that the network or the backend is overloaded.
+    writePipelineController.handleStreamClosed(
+        !status.isOk()
+            && writeStream.isHandshakeComplete()
+            && !Datastore.isPermanentWriteError(status));
+
     // If the write stream closed due to an error, invoke the error callbacks if there are pending
     // writes.
     if (!status.isOk() && !writePipeline.isEmpty()) {
@@ -701,6 +907,7 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
       // If this was a permanent error, the request itself was the problem so it's not going
       // to succeed if we resend it.
       MutationBatch batch = writePipeline.poll();
+      writePipelineController.handleBatchRejected();
 
       // In this case it's also unlikely that the server itself is melting down -- this was
       // just a bad request, so inhibit backoff on the next restart
@@ -713,6 +920,16 @@ public final class RemoteStore implements WatchChangeAggregator.TargetMetadataPr
     }
   }
 
+  /** Returns the current statistics of the write pipeline. */
+  public WritePipelineStats getWritePipelineStats() {
+    return writePipelineController.getStats();
+  }
+
+  /** Returns the current statistics of the existence filter mismatches. */
+  public ExistenceFilterStats getExistenceFilterStats() {
+    return existenceFilterRecovery.getStats();
+  }
+
   public Transaction createTransaction() {
     return new Transaction(datastore);
   }
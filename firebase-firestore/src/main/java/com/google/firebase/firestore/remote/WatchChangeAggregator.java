@@ -62,6 +62,12 @@ public class WatchChangeAggregator {
 
   private final TargetMetadataProvider targetMetadataProvider;
 
+  /**
+   * Whether targets with existence filter mismatches keep their documents until RemoteStore has
+   * reconciled them with the backend, instead of being reset.
+   */
+  private final boolean existenceFilterRecoveryEnabled;
+
   /** The internal state of all tracked targets. */
   private final Map<Integer, TargetState> targetStates = new HashMap<>();
 
@@ -78,7 +84,13 @@ public class WatchChangeAggregator {
   private Set<Integer> pendingTargetResets = new HashSet<>();
 
   public WatchChangeAggregator(TargetMetadataProvider targetMetadataProvider) {
+    this(targetMetadataProvider, /* existenceFilterRecoveryEnabled= */ false);
+  }
+
+  public WatchChangeAggregator(
+      TargetMetadataProvider targetMetadataProvider, boolean existenceFilterRecoveryEnabled) {
     this.targetMetadataProvider = targetMetadataProvider;
+    this.existenceFilterRecoveryEnabled = existenceFilterRecoveryEnabled;
   }
 
   /** Processes and adds the DocumentWatchChange to the current set of changes. */
@@ -176,6 +188,9 @@ public class WatchChangeAggregator {
   /**
    * Handles existence filters and synthesizes deletes for filter mismatches. Targets that are
    * invalidated by filter mismatches are added to `pendingTargetResets`.
+   *
+   * <p>If existence filter recovery is enabled, the documents of a mismatched target are kept and
+   * the target is only marked as not current until RemoteStore has reconciled it.
    */
   public void handleExistenceFilter(ExistenceFilterWatchChange watchChange) {
     int targetId = watchChange.getTargetId();
@@ -202,9 +217,13 @@ public class WatchChangeAggregator {
       } else {
         long currentSize = getCurrentDocumentCountForTarget(targetId);
         if (currentSize != expectedCount) {
-          // Existence filter mismatch: We reset the mapping and raise a new snapshot with
-          // `isFromCache:true`.
-          resetTarget(targetId);
+          // Existence filter mismatch: We reset the mapping (or keep it, if RemoteStore recovers
+          // the target) and raise a new snapshot with `isFromCache:true`.
+          if (existenceFilterRecoveryEnabled) {
+            ensureTargetState(targetId).markNotCurrent();
+          } else {
+            resetTarget(targetId);
+          }
           pendingTargetResets.add(targetId);
         }
       }
@@ -340,6 +359,16 @@ public class WatchChangeAggregator {
     targetStates.remove(targetId);
   }
 
+  /**
+   * Marks a target that was recovered from an existence filter mismatch as current again. The
+   * target is included in the next snapshot.
+   */
+  void markTargetRecovered(int targetId) {
+    if (isActiveTarget(targetId)) {
+      ensureTargetState(targetId).markCurrent();
+    }
+  }
+
   /**
    * Returns the current count of documents in the target. This includes both the number of
    * documents that the LocalStore considers to be part of the target as well as any accumulated
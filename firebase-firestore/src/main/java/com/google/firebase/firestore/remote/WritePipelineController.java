@@ -0,0 +1,219 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.remote;
+
+import com.google.firebase.firestore.WritePipelineStats;
+import com.google.firebase.firestore.util.Logger;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A component used by the RemoteStore to decide how many mutation batches may be in flight on the
+ * write stream, and to keep statistics about the write pipeline.
+ *
+ * <p>By default, the pipeline holds up to DEFAULT_PIPELINE_SIZE batches. In adaptive mode, the
+ * limit is derived from the acknowledgements of the backend:
+ *
+ * <ul>
+ *   <li>While writes are waiting for room in the pipeline, the limit grows by one batch for every
+ *       acknowledged batch until backpressure is first observed, and by one batch per round trip
+ *       afterwards.
+ *   <li>If the latency of acknowledgements rises to more than QUEUEING_DELAY_FACTOR times the
+ *       lowest latency observed, writes are queueing up in the network or in the backend, and the
+ *       limit is halved (at most once per round trip).
+ *   <li>If the write stream fails with a transient error, the limit is halved.
+ * </ul>
+ *
+ * <p>This class is not thread safe and should only be called from the worker AsyncQueue.
+ */
+class WritePipelineController {
+
+  /** The number of batches allowed in the pipeline if adaptive pipelining is disabled. */
+  static final int DEFAULT_PIPELINE_SIZE = 10;
+
+  /** The lower bound for the pipeline size in adaptive mode. */
+  static final int MIN_PIPELINE_SIZE = 1;
+
+  /** The upper bound for the pipeline size in adaptive mode. */
+  static final int MAX_PIPELINE_SIZE = 100;
+
+  /**
+   * Acknowledgement latencies above this multiple of the lowest observed latency are treated as
+   * backpressure.
+   */
+  static final int QUEUEING_DELAY_FACTOR = 2;
+
+  /** The log tag to use for this class. */
+  private static final String LOG_TAG = "WritePipeline";
+
+  private final boolean adaptive;
+
+  private int pipelineSize = DEFAULT_PIPELINE_SIZE;
+
+  // Whether the pipeline size is still growing exponentially (i.e. no backpressure has been
+  // observed yet).
+  private boolean slowStart = true;
+
+  // The number of batches that were added to a saturated pipeline since the pipeline size was last
+  // increased during congestion avoidance.
+  private int growthCredits;
+
+  // The times at which the batches that are awaiting an acknowledgement were sent, in the order in
+  // which they were sent.
+  private final Deque<Long> sendTimesNanos = new ArrayDeque<>();
+
+  // The lowest and the smoothed acknowledgement latency, or -1 if no batch has been acknowledged.
+  private long minLatencyNanos = -1;
+  private long smoothedLatencyNanos = -1;
+
+  // The earliest time at which the pipeline size can be decreased again due to backpressure.
+  private long nextDecreaseNanos;
+
+  // The time at which the pipeline became full while more batches may be pending, or -1 if the
+  // pipeline is not full.
+  private long fullSinceNanos = -1;
+
+  private long blockedNanos;
+  private int maxInFlightCount;
+
+  WritePipelineController(boolean adaptive) {
+    this.adaptive = adaptive;
+  }
+
+  /** Returns the maximum number of batches that may currently be in the pipeline. */
+  int getPipelineSize() {
+    return pipelineSize;
+  }
+
+  /** Returns the number of batches that have been sent but not yet acknowledged. */
+  int getInFlightCount() {
+    return sendTimesNanos.size();
+  }
+
+  /** Returns the highest number of batches that were in flight at the same time. */
+  int getMaxInFlightCount() {
+    return maxInFlightCount;
+  }
+
+  /** Returns the total time that pending batches waited for room in the pipeline. */
+  long getBlockedTimeMs() {
+    return TimeUnit.NANOSECONDS.toMillis(blockedNanos);
+  }
+
+  /** Returns the current statistics of the pipeline. */
+  WritePipelineStats getStats() {
+    return new WritePipelineStats(
+        getPipelineSize(), getInFlightCount(), getMaxInFlightCount(), getBlockedTimeMs());
+  }
+
+  /**
+   * Called when the pipeline cannot accept any more batches. The time until the next batch is added
+   * is counted as blocked time.
+   */
+  void handlePipelineFull(long nowNanos) {
+    if (fullSinceNanos < 0) {
+      fullSinceNanos = nowNanos;
+    }
+  }
+
+  /**
+   * Called when the LocalStore has no more batches to add to the pipeline. If the pipeline was full
+   * before, no batches were waiting and the elapsed time is not counted as blocked.
+   */
+  void handlePipelineDrained() {
+    fullSinceNanos = -1;
+  }
+
+  /** Called when a batch is added to the pipeline. */
+  void handleBatchAdded(long nowNanos) {
+    if (fullSinceNanos < 0) {
+      return;
+    }
+
+    // The batch was waiting for room in the pipeline, so the pipeline size limited throughput.
+    blockedNanos += nowNanos - fullSinceNanos;
+    fullSinceNanos = -1;
+
+    if (adaptive && pipelineSize < MAX_PIPELINE_SIZE) {
+      if (slowStart) {
+        setPipelineSize(pipelineSize + 1, "pipeline saturated");
+      } else if (++growthCredits >= pipelineSize) {
+        growthCredits = 0;
+        setPipelineSize(pipelineSize + 1, "pipeline saturated");
+      }
+    }
+  }
+
+  /** Called when a batch is sent on the write stream. */
+  void handleBatchSent(long nowNanos) {
+    sendTimesNanos.add(nowNanos);
+    maxInFlightCount = Math.max(maxInFlightCount, sendTimesNanos.size());
+  }
+
+  /** Called when the backend acknowledges the oldest batch that is in flight. */
+  void handleBatchAcknowledged(long nowNanos) {
+    Long sendTimeNanos = sendTimesNanos.poll();
+    if (sendTimeNanos == null || !adaptive) {
+      return;
+    }
+
+    long latencyNanos = nowNanos - sendTimeNanos;
+    if (minLatencyNanos < 0 || latencyNanos < minLatencyNanos) {
+      minLatencyNanos = latencyNanos;
+    }
+    smoothedLatencyNanos =
+        smoothedLatencyNanos < 0 ? latencyNanos : (7 * smoothedLatencyNanos + latencyNanos) / 8;
+
+    if (smoothedLatencyNanos > QUEUEING_DELAY_FACTOR * minLatencyNanos
+        && nowNanos >= nextDecreaseNanos) {
+      nextDecreaseNanos = nowNanos + smoothedLatencyNanos;
+      decrease("acknowledgement latency increased");
+    }
+  }
+
+  /** Called when the backend rejects the oldest batch that is in flight. */
+  void handleBatchRejected() {
+    sendTimesNanos.poll();
+  }
+
+  /**
+   * Called when the write stream closes. All batches that are in flight are re-sent once the stream
+   * is re-established.
+   *
+   * @param transientError Whether the stream failed with an error that is caused by the network or
+   *     the backend (rather than by the batch that was sent).
+   */
+  void handleStreamClosed(boolean transientError) {
+    sendTimesNanos.clear();
+    if (adaptive && transientError) {
+      decrease("write stream failed");
+    }
+  }
+
+  private void decrease(String reason) {
+    slowStart = false;
+    growthCredits = 0;
+    setPipelineSize(Math.max(MIN_PIPELINE_SIZE, pipelineSize / 2), reason);
+  }
+
+  private void setPipelineSize(int newSize, String reason) {
+    if (newSize != pipelineSize) {
+      Logger.debug(
+          LOG_TAG, "Changing pipeline size from %d to %d (%s)", pipelineSize, newSize, reason);
+      pipelineSize = newSize;
+    }
+  }
+}
@@ -19,10 +19,12 @@ import static com.google.firebase.firestore.util.Preconditions.checkNotNull;
 
 import com.google.firebase.firestore.model.SnapshotVersion;
 import com.google.firebase.firestore.model.mutation.Mutation;
+import com.google.firebase.firestore.model.mutation.MutationBatch;
 import com.google.firebase.firestore.model.mutation.MutationResult;
 import com.google.firebase.firestore.util.AsyncQueue;
 import com.google.firebase.firestore.util.AsyncQueue.TimerId;
 import com.google.firestore.v1.FirestoreGrpc;
+import com.google.firestore.v1.Write;
 import com.google.firestore.v1.WriteRequest;
 import com.google.firestore.v1.WriteResponse;
 import com.google.protobuf.ByteString;
@@ -146,14 +148,33 @@ public class WriteStream extends AbstractStream<WriteRequest, WriteResponse, Wri
    * @param mutations The mutations
    */
   void writeMutations(List<Mutation> mutations) {
-    hardAssert(isOpen(), "Writing mutations requires an opened stream");
-    hardAssert(handshakeComplete, "Handshake must be complete before writing mutations");
-    WriteRequest.Builder request = WriteRequest.newBuilder();
-
+    List<Write> writes = new ArrayList<>(mutations.size());
     for (Mutation mutation : mutations) {
-      request.addWrites(serializer.encodeMutation(mutation));
+      writes.add(serializer.encodeMutation(mutation));
     }
+    writeEncodedMutations(writes);
+  }
 
+  /**
+   * Sends the mutations of a batch to the Firestore backend to apply. If the mutations of the batch
+   * have already been encoded, the encoded mutations are sent without encoding them again.
+   *
+   * @param batch The batch
+   */
+  void writeMutationBatch(MutationBatch batch) {
+    List<Write> encodedMutations = batch.getEncodedMutations();
+    if (encodedMutations != null) {
+      writeEncodedMutations(encodedMutations);
+    } else {
+      writeMutations(batch.getMutations());
+    }
+  }
+
+  private void writeEncodedMutations(List<Write> writes) {
+    hardAssert(isOpen(), "Writing mutations requires an opened stream");
+    hardAssert(handshakeComplete, "Handshake must be complete before writing mutations");
+    WriteRequest.Builder request = WriteRequest.newBuilder();
+    request.addAllWrites(writes);
     request.setStreamToken(lastStreamToken);
     writeRequest(request.build());
   }
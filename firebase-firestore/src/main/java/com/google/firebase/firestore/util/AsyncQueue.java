@@ -20,6 +20,7 @@ import static com.google.firebase.firestore.util.Assert.hardAssert;
 import android.os.Handler;
 import android.os.Looper;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import com.google.android.gms.tasks.Continuation;
 import com.google.android.gms.tasks.Task;
@@ -27,22 +28,32 @@ import com.google.android.gms.tasks.TaskCompletionSource;
 import com.google.firebase.firestore.BuildConfig;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import javax.annotation.CheckReturnValue;
 
-/** A helper class that allows to schedule/queue Runnables on a single threaded background queue. */
+/**
+ * A helper class that allows to schedule/queue Runnables on a single threaded background queue.
+ *
+ * <p>Optionally, read-only operations can be run on a bounded pool of reader lanes (see {@link
+ * #enableReaderLanes}), so that a slow read does not delay the tasks on the serial lane.
+ */
 public class AsyncQueue {
 
   /**
@@ -79,7 +90,9 @@ public class AsyncQueue {
      * A timer used to monitor when a connection attempt in gRPC is unsuccessful and retry
      * accordingly.
      */
-    CONNECTIVITY_ATTEMPT_TIMER
+    CONNECTIVITY_ATTEMPT_TIMER,
+    /** A timer used to periodically log the lane statistics while reader lanes are enabled. */
+    LANE_STATISTICS
   }
 
   /**
@@ -149,6 +162,78 @@ public class AsyncQueue {
     }
   }
 
+  /**
+   * Statistics about the tasks that were run on one lane of the AsyncQueue. The wait time of a task
+   * is the time between enqueuing the task (or the end of its delay) and the start of the task.
+   */
+  public static class LaneStatistics {
+    private final String name;
+    private final long createdNanos;
+    private long taskCount;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+    private long busyNanos;
+
+    LaneStatistics(String name) {
+      this.name = name;
+      this.createdNanos = System.nanoTime();
+    }
+
+    synchronized void recordTask(long enqueuedNanos, long startNanos, long endNanos) {
+      long waitNanos = Math.max(0, startNanos - enqueuedNanos);
+      ++taskCount;
+      totalWaitNanos += waitNanos;
+      maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+      busyNanos += endNanos - startNanos;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public synchronized long getTaskCount() {
+      return taskCount;
+    }
+
+    public synchronized long getTotalWaitTimeMs() {
+      return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos);
+    }
+
+    public synchronized long getMaxWaitTimeMs() {
+      return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+    }
+
+    /** Returns the fraction of the time since the lane was created that it spent running tasks. */
+    public synchronized double getUtilization() {
+      long elapsedNanos = System.nanoTime() - createdNanos;
+      return elapsedNanos > 0 ? Math.min(1.0, (double) busyNanos / elapsedNanos) : 0.0;
+    }
+
+    @Override
+    public synchronized String toString() {
+      return String.format(
+          Locale.ROOT,
+          "%s: %d tasks, total wait %dms, max wait %dms, utilization %.1f%%",
+          name,
+          taskCount,
+          getTotalWaitTimeMs(),
+          getMaxWaitTimeMs(),
+          100 * getUtilization());
+    }
+  }
+
+  /** Returns a Runnable that runs the given task and records it in the given lane statistics. */
+  private static Runnable timed(LaneStatistics lane, long enqueuedNanos, Runnable task) {
+    return () -> {
+      long startNanos = System.nanoTime();
+      try {
+        task.run();
+      } finally {
+        lane.recordTask(enqueuedNanos, startNanos, System.nanoTime());
+      }
+    };
+  }
+
   /**
    * Executes the given Callable on a specific executor and returns a Task that completes when the
    * Task returned from the Callable completes. Similar to Tasks.call, but takes a function that
@@ -291,14 +376,14 @@ public class AsyncQueue {
     @Override
     public synchronized void execute(Runnable command) {
       if (!isShuttingDown) {
-        internalExecutor.execute(command);
+        internalExecutor.execute(timed(serialLane, System.nanoTime(), command));
       }
     }
 
     /** Execute the command, regardless if shutdown has been initiated. */
     public void executeEvenAfterShutdown(Runnable command) {
       try {
-        internalExecutor.execute(command);
+        internalExecutor.execute(timed(serialLane, System.nanoTime(), command));
       } catch (RejectedExecutionException e) {
         // The only way we can get here is if the AsyncQueue has panicked and we're now racing with
         // the post to the main looper that will crash the app.
@@ -364,7 +449,8 @@ public class AsyncQueue {
      */
     private synchronized ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
       if (!isShuttingDown) {
-        return internalExecutor.schedule(command, delay, unit);
+        long dueNanos = System.nanoTime() + unit.toNanos(delay);
+        return internalExecutor.schedule(timed(serialLane, dueNanos, command), delay, unit);
       }
       return null;
     }
@@ -382,6 +468,20 @@ public class AsyncQueue {
 
   /** The executor backing this AsyncQueue. */
   private final SynchronizedShutdownAwareExecutor executor;
+
+  /** How often the lane statistics are logged while reader lanes are enabled. */
+  private static final long LANE_STATISTICS_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+
+  private final LaneStatistics serialLane = new LaneStatistics("FirestoreWorker");
+
+  /** The executor of the reader lanes, or null if reader lanes are not enabled. */
+  @Nullable private volatile ThreadPoolExecutor readerExecutor;
+
+  private final List<LaneStatistics> readerLanes = new CopyOnWriteArrayList<>();
+  private final ThreadLocal<LaneStatistics> currentReaderLane = new ThreadLocal<>();
+
+  /** The task that next logs the lane statistics, or null if reader lanes are not enabled. */
+  @Nullable private DelayedTask laneStatisticsTask;
   // Tasks scheduled to be queued in the future. Tasks are automatically removed after they are run
   // or canceled.
   // NOTE: We disallow duplicates currently, so this could be a Set<> which might have better
@@ -438,13 +538,141 @@ public class AsyncQueue {
         });
   }
 
+  /**
+   * Runs the given read-only operation on a reader lane, or on the serial lane if reader lanes are
+   * not enabled.
+   *
+   * <p>The operation is dispatched to a reader lane by the serial lane, so it observes the effects
+   * of all tasks that were enqueued before it. Tasks that are enqueued after it may run
+   * concurrently with it. The operation must therefore not access any state that is modified by
+   * tasks on the serial lane, other than through SQLite.
+   *
+   * @param task The task to run.
+   * @return A Task object that is resolved after the operation has completed, with the return value
+   *     of the operation.
+   */
+  @CheckReturnValue
+  public <T> Task<T> enqueueRead(Callable<T> task) {
+    if (readerExecutor == null) {
+      return enqueue(task);
+    }
+
+    TaskCompletionSource<T> completionSource = new TaskCompletionSource<>();
+    long enqueuedNanos = System.nanoTime();
+    enqueueAndForget(
+        () -> {
+          // Reader lanes are only shut down by the task that initiates the shutdown, after which no
+          // further tasks are run on the serial lane.
+          readerExecutor.execute(
+              () -> {
+                LaneStatistics lane = currentReaderLane.get();
+                long startNanos = System.nanoTime();
+                try {
+                  completionSource.setResult(task.call());
+                } catch (Exception e) {
+                  // Unlike on the serial lane, a failed read only fails the Task of the caller.
+                  completionSource.setException(e);
+                } finally {
+                  lane.recordTask(enqueuedNanos, startNanos, System.nanoTime());
+                }
+              });
+        });
+    return completionSource.getTask();
+  }
+
+  /**
+   * Starts the given number of reader lanes, which run the tasks that are enqueued with {@link
+   * #enqueueRead}. Must be called on the AsyncQueue. The reader lanes are drained before the task
+   * that initiates the shutdown of the AsyncQueue runs. While the reader lanes are enabled, the
+   * statistics of all lanes are logged every LANE_STATISTICS_INTERVAL_MS at debug level.
+   */
+  public void enableReaderLanes(int laneCount) {
+    verifyIsCurrentThread();
+    hardAssert(readerExecutor == null, "Reader lanes are already enabled");
+    readerExecutor =
+        new ThreadPoolExecutor(
+            laneCount,
+            laneCount,
+            /* keepAliveTime= */ 0,
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(),
+            runnable -> {
+              LaneStatistics lane = new LaneStatistics("FirestoreReader-" + readerLanes.size());
+              readerLanes.add(lane);
+              Thread thread =
+                  Executors.defaultThreadFactory()
+                      .newThread(
+                          () -> {
+                            currentReaderLane.set(lane);
+                            runnable.run();
+                          });
+              thread.setName(lane.getName());
+              thread.setDaemon(true);
+              thread.setUncaughtExceptionHandler((crashingThread, throwable) -> panic(throwable));
+              return thread;
+            });
+    scheduleLaneStatisticsLogging();
+  }
+
+  private void scheduleLaneStatisticsLogging() {
+    laneStatisticsTask =
+        enqueueAfterDelay(
+            TimerId.LANE_STATISTICS,
+            LANE_STATISTICS_INTERVAL_MS,
+            () -> {
+              logLaneStatistics();
+              scheduleLaneStatisticsLogging();
+            });
+  }
+
+  private void logLaneStatistics() {
+    if (Logger.isDebugEnabled()) {
+      for (LaneStatistics lane : getLaneStatistics()) {
+        Logger.debug(AsyncQueue.class.getSimpleName(), "%s", lane);
+      }
+    }
+  }
+
+  /** Returns the statistics of the serial lane, followed by those of the reader lanes. */
+  public List<LaneStatistics> getLaneStatistics() {
+    List<LaneStatistics> lanes = new ArrayList<>();
+    lanes.add(serialLane);
+    lanes.addAll(readerLanes);
+    return lanes;
+  }
+
+  /** Waits for all reader tasks to complete and stops the reader lanes. */
+  private void drainReaderLanes() {
+    if (laneStatisticsTask != null) {
+      laneStatisticsTask.cancel();
+      laneStatisticsTask = null;
+    }
+
+    ThreadPoolExecutor readers = readerExecutor;
+    if (readers != null) {
+      readers.shutdown();
+      try {
+        while (!readers.awaitTermination(1, TimeUnit.SECONDS)) {
+          Logger.debug(AsyncQueue.class.getSimpleName(), "Waiting for reader lanes to drain");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    logLaneStatistics();
+  }
+
   /**
    * Queue a Runnable and immediately mark the initiation of shutdown process. Tasks queued after
    * this method is called are not run unless they explicitly are requested via {@link
    * AsyncQueue#enqueueAndForgetEvenAfterShutdown(Runnable)}.
    */
   public Task<Void> enqueueAndInitiateShutdown(Runnable task) {
-    return executor.executeAndInitiateShutdown(task);
+    return executor.executeAndInitiateShutdown(
+        () -> {
+          drainReaderLanes();
+          task.run();
+        });
   }
 
   /**
@@ -514,6 +742,10 @@ public class AsyncQueue {
    */
   public void panic(Throwable t) {
     executor.shutdownNow();
+    ThreadPoolExecutor readers = readerExecutor;
+    if (readers != null) {
+      readers.shutdownNow();
+    }
     Handler handler = new Handler(Looper.getMainLooper());
     handler.post(
         () -> {
@@ -608,6 +840,9 @@ public class AsyncQueue {
   public void shutdown() {
     // Will cause the executor to de-reference all threads, the best we can do
     executor.setCorePoolSize(0);
+    if (readerExecutor != null) {
+      readerExecutor.shutdown();
+    }
   }
 
   /**
@@ -14,6 +14,9 @@
 
 package com.google.firebase.firestore.util;
 
+import static com.google.firebase.firestore.util.Assert.hardAssert;
+
+import androidx.annotation.Nullable;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Semaphore;
 
@@ -21,21 +24,49 @@ import java.util.concurrent.Semaphore;
  * A simple queue that executes tasks in parallel on the Android's AsyncTask.THREAD_POOL_EXECUTOR
  * and supports blocking on their completion.
  *
+ * <p>The queue can optionally limit the number of tasks that are in flight at any given time. Once
+ * the limit is reached, `execute()` blocks until a previously scheduled task completes. This allows
+ * producers to bound the amount of memory that is held by tasks that have not yet run.
+ *
  * <p>This class is not thread-safe. In particular, `execute()` and `drain()` should not be called
  * from parallel threads.
  */
 public class BackgroundQueue implements Executor {
   private Semaphore completedTasks = new Semaphore(0);
+  @Nullable private final Semaphore availableSlots;
   private int pendingTaskCount = 0;
 
+  /** Creates a queue that does not limit the number of in-flight tasks. */
+  public BackgroundQueue() {
+    this.availableSlots = null;
+  }
+
+  /**
+   * Creates a queue that runs at most {@code maxInFlightTasks} tasks at a time. Calls to
+   * `execute()` block while this limit is reached.
+   */
+  public BackgroundQueue(int maxInFlightTasks) {
+    hardAssert(maxInFlightTasks > 0, "maxInFlightTasks must be positive");
+    this.availableSlots = new Semaphore(maxInFlightTasks);
+  }
+
   /** Enqueue a task on Android's THREAD_POOL_EXECUTOR. */
   @Override
   public void execute(Runnable task) {
+    if (availableSlots != null) {
+      availableSlots.acquireUninterruptibly();
+    }
     ++pendingTaskCount;
     Executors.BACKGROUND_EXECUTOR.execute(
         () -> {
-          task.run();
-          completedTasks.release();
+          try {
+            task.run();
+          } finally {
+            if (availableSlots != null) {
+              availableSlots.release();
+            }
+            completedTasks.release();
+          }
         });
   }
 
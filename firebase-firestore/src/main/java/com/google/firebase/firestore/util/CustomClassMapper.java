@@ -25,9 +25,11 @@ import com.google.firebase.firestore.Exclude;
 import com.google.firebase.firestore.FieldValue;
 import com.google.firebase.firestore.GeoPoint;
 import com.google.firebase.firestore.IgnoreExtraProperties;
+import com.google.firebase.firestore.Mappable;
 import com.google.firebase.firestore.PropertyName;
 import com.google.firebase.firestore.ServerTimestamp;
 import com.google.firebase.firestore.ThrowOnExtraProperties;
+import com.google.firebase.firestore.mapping.GeneratedMapper;
 import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
@@ -57,6 +59,15 @@ public class CustomClassMapper {
 
   private static final ConcurrentMap<Class<?>, BeanMapper<?>> mappers = new ConcurrentHashMap<>();
 
+  /**
+   * The mappers generated for classes annotated with {@link Mappable}. Classes without a generated
+   * mapper map to NO_GENERATED_MAPPER.
+   */
+  private static final ConcurrentMap<Class<?>, Object> generatedMappers =
+      new ConcurrentHashMap<>();
+
+  private static final Object NO_GENERATED_MAPPER = new Object();
+
   private static void hardAssert(boolean assertion) {
     hardAssert(assertion, "Internal inconsistency");
   }
@@ -174,6 +185,10 @@ public class CustomClassMapper {
       return o;
     } else {
       Class<T> clazz = (Class<T>) o.getClass();
+      GeneratedMapper<T> generatedMapper = loadGeneratedMapperForClass(clazz);
+      if (generatedMapper != null) {
+        return generatedMapper.serialize(o, new GeneratedMapperSerializer(path));
+      }
       BeanMapper<T> mapper = loadOrCreateBeanMapperForClass(clazz);
       return mapper.serialize(o, path);
     }
@@ -382,6 +397,56 @@ public class CustomClassMapper {
     return mapper;
   }
 
+  /**
+   * Returns the mapper that the Firestore annotation processor generated for the given class, or
+   * null if the class is not annotated with {@link Mappable} or if the annotation processor did not
+   * run.
+   */
+  @SuppressWarnings("unchecked")
+  private static <T> GeneratedMapper<T> loadGeneratedMapperForClass(Class<T> clazz) {
+    Object mapper = generatedMappers.get(clazz);
+    if (mapper == null) {
+      mapper = NO_GENERATED_MAPPER;
+      if (clazz.isAnnotationPresent(Mappable.class)) {
+        // Multi-catch of these types compiles down to using a new ReflectiveOperationException base
+        // class from API 19.
+        try {
+          Class<?> mapperClass =
+              Class.forName(generatedMapperClassName(clazz), true, clazz.getClassLoader());
+          mapper = newInstance(mapperClass.getConstructor());
+        } catch (ClassNotFoundException e) {
+          logMissingGeneratedMapper(clazz);
+        } catch (NoSuchMethodException e) {
+          logMissingGeneratedMapper(clazz);
+        }
+      }
+      // As with BeanMapper, it's fine if multiple threads look up the mapper at the same time.
+      generatedMappers.put(clazz, mapper);
+    }
+    return mapper != NO_GENERATED_MAPPER ? (GeneratedMapper<T>) mapper : null;
+  }
+
+  private static void logMissingGeneratedMapper(Class<?> clazz) {
+    Logger.warn(
+        CustomClassMapper.class.getSimpleName(),
+        "No generated mapper found for class %s annotated with @Mappable, falling back to "
+            + "reflection. Is the Firestore annotation processor configured?",
+        clazz.getName());
+  }
+
+  /**
+   * Returns the name of the mapper class that the Firestore annotation processor generates for the
+   * given class: {@code com.example.AutoFooMapper} for {@code com.example.Foo}, and {@code
+   * com.example.AutoOuterNestedMapper} for {@code com.example.Outer.Nested}.
+   */
+  static String generatedMapperClassName(Class<?> clazz) {
+    String name = clazz.getName();
+    int packageEnd = name.lastIndexOf('.');
+    String packagePrefix = name.substring(0, packageEnd + 1);
+    String simpleName = name.substring(packageEnd + 1).replace("$", "");
+    return packagePrefix + "Auto" + simpleName + "Mapper";
+  }
+
   @SuppressWarnings("unchecked")
   private static Map<String, Object> expectMap(Object object, DeserializeContext context) {
     if (object instanceof Map) {
@@ -537,6 +602,11 @@ public class CustomClassMapper {
   }
 
   private static <T> T convertBean(Object o, Class<T> clazz, DeserializeContext context) {
+    GeneratedMapper<T> generatedMapper = loadGeneratedMapperForClass(clazz);
+    if (generatedMapper != null && o instanceof Map) {
+      return generatedMapper.deserialize(
+          expectMap(o, context), new GeneratedMapperDeserializer(clazz, context));
+    }
     BeanMapper<T> mapper = loadOrCreateBeanMapperForClass(clazz);
     if (o instanceof Map) {
       return mapper.deserialize(expectMap(o, context), context);
@@ -1119,6 +1189,64 @@ public class CustomClassMapper {
     }
   }
 
+  /** Converts the property values of an object that is serialized by a generated mapper. */
+  private static class GeneratedMapperSerializer implements GeneratedMapper.Serializer {
+    private final ErrorPath path;
+
+    GeneratedMapperSerializer(ErrorPath path) {
+      this.path = path;
+    }
+
+    @Override
+    public Object serialize(Object value, String property) {
+      return CustomClassMapper.serialize(value, path.child(property));
+    }
+  }
+
+  /** Converts the property values of an object that is deserialized by a generated mapper. */
+  private static class GeneratedMapperDeserializer implements GeneratedMapper.Deserializer {
+    private final Class<?> clazz;
+    private final DeserializeContext context;
+
+    GeneratedMapperDeserializer(Class<?> clazz, DeserializeContext context) {
+      this.clazz = clazz;
+      this.context = context;
+    }
+
+    @Override
+    @SuppressWarnings("TypeParameterUnusedInFormals")
+    public <V> V deserialize(Object value, Type type, String property) {
+      return deserializeToType(
+          value, type, context.newInstanceWithErrorPath(context.errorPath.child(property)));
+    }
+
+    @Override
+    public DocumentReference getDocumentReference() {
+      return context.documentRef;
+    }
+
+    @Override
+    public void handleUnknownProperty(String property, boolean throwError) {
+      String message = "No setter/field for " + property + " found on class " + clazz.getName();
+      if (throwError) {
+        throw new RuntimeException(message);
+      } else {
+        Logger.warn(CustomClassMapper.class.getSimpleName(), "%s", message);
+      }
+    }
+
+    @Override
+    public RuntimeException documentIdConflict(String property) {
+      return new RuntimeException(
+          "'"
+              + property
+              + "' was found from document "
+              + context.documentRef.getPath()
+              + ", cannot apply @DocumentId on this property for class "
+              + clazz.getName());
+    }
+  }
+
   /**
    * Immutable class representing the path to a specific field in an object. Used to provide better
    * error messages.
@@ -25,6 +25,7 @@ import static com.google.firebase.firestore.testutil.TestUtil.path;
 import static com.google.firebase.firestore.testutil.TestUtil.targetChange;
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Mockito.mock;
 
 import com.google.firebase.database.collection.ImmutableSortedMap;
@@ -199,4 +200,48 @@ public class DocumentChangeTest {
       validatePositions(query, initialDocs.values(), adds, updates, deletes);
     }
   }
+
+  @Test
+  public void testChangesAreConvertedOnce() {
+    Query query = Query.atPath(path("c"));
+    View view = new View(query, DocumentKey.emptyKeySet());
+    ViewSnapshot snapshot =
+        view.applyChanges(
+                view.computeDocChanges(docUpdates(doc("c/a", 1, map()), doc("c/b", 1, map()))))
+            .getSnapshot();
+
+    FirebaseFirestore firestore = mock(FirebaseFirestore.class);
+    List<DocumentChange> changes =
+        DocumentChange.changesFromSnapshot(firestore, MetadataChanges.EXCLUDE, snapshot);
+    List<DocumentChange> otherChanges =
+        DocumentChange.changesFromSnapshot(firestore, MetadataChanges.EXCLUDE, snapshot);
+
+    assertEquals(2, changes.size());
+    assertSame(changes.get(1), changes.get(1));
+    assertEquals(changes, otherChanges);
+  }
+
+  @Test
+  public void testChangesCanBeModified() {
+    Query query = Query.atPath(path("c"));
+    View view = new View(query, DocumentKey.emptyKeySet());
+    ViewSnapshot snapshot =
+        view.applyChanges(
+                view.computeDocChanges(docUpdates(doc("c/a", 1, map()), doc("c/b", 1, map()))))
+            .getSnapshot();
+
+    FirebaseFirestore firestore = mock(FirebaseFirestore.class);
+    List<DocumentChange> changes =
+        DocumentChange.changesFromSnapshot(firestore, MetadataChanges.EXCLUDE, snapshot);
+    Collections.sort(changes, (c1, c2) -> c2.getNewIndex() - c1.getNewIndex());
+    assertEquals(asList(1, 0), asList(changes.get(0).getNewIndex(), changes.get(1).getNewIndex()));
+
+    changes.remove(0);
+    assertEquals(1, changes.size());
+    assertEquals(key("c/a"), changes.get(0).getDocument().getReference().getKey());
+
+    List<DocumentChange> otherChanges =
+        DocumentChange.changesFromSnapshot(firestore, MetadataChanges.EXCLUDE, snapshot);
+    assertEquals(2, otherChanges.size());
+  }
 }
@@ -23,6 +23,7 @@ import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import com.google.firebase.firestore.FirebaseFirestoreException;
@@ -113,6 +114,33 @@ public class QueryListenerTest {
     assertEquals(asList(snap2Prime), otherAccum);
   }
 
+  @Test
+  public void testListenersOfTheSameQueryShareSnapshots() {
+    List<ViewSnapshot> accum = new ArrayList<>();
+    List<ViewSnapshot> otherAccum = new ArrayList<>();
+
+    Query query = Query.atPath(path("rooms"));
+    Document doc1 = doc("rooms/eros", 1, map("name", "eros"));
+    Document doc2 = doc("rooms/hades", 2, map("name", "hades"));
+
+    QueryListener listener = queryListener(query, new ListenOptions(), accum);
+    QueryListener otherListener = queryListener(query, new ListenOptions(), otherAccum);
+
+    View view = new View(query, DocumentKey.emptyKeySet());
+    ViewSnapshot snap1 = applyChanges(view, doc1);
+    ViewSnapshot snap2 = applyChanges(view, doc2);
+
+    listener.onViewSnapshot(snap1);
+    otherListener.onViewSnapshot(snap1);
+    listener.onViewSnapshot(snap2);
+    otherListener.onViewSnapshot(snap2);
+
+    assertEquals(2, accum.size());
+    assertEquals(2, otherAccum.size());
+    assertSame(accum.get(0), otherAccum.get(0));
+    assertSame(accum.get(1), otherAccum.get(1));
+  }
+
   @Test
   public void testRaisesErrorEvent() {
     Query query = Query.atPath(path("rooms/eros"));
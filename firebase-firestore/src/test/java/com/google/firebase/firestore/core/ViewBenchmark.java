@@ -0,0 +1,111 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.core;
+
+import static com.google.firebase.firestore.testutil.TestUtil.doc;
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static com.google.firebase.firestore.testutil.TestUtil.orderBy;
+import static com.google.firebase.firestore.testutil.TestUtil.query;
+import static org.junit.Assume.assumeTrue;
+
+import com.google.firebase.database.collection.ImmutableSortedMap;
+import com.google.firebase.firestore.model.Document;
+import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.testutil.BenchmarkRunner;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Benchmarks the computation of document changes of a View.
+ *
+ * <p>Run with {@code ./gradlew :firebase-firestore:testReleaseUnitTest -PrunBenchmarks=true
+ * --tests '*Benchmark'}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ViewBenchmark {
+
+  private static final int[] VIEW_SIZES = {100, 1000, 10000};
+
+  /** The number of documents that change in a view that is already populated. */
+  private static final int UPDATE_SIZE = 10;
+
+  private static BenchmarkRunner runner;
+
+  @BeforeClass
+  public static void setUpRunner() {
+    runner = new BenchmarkRunner("ViewBenchmark");
+  }
+
+  @AfterClass
+  public static void finishRunner() throws Exception {
+    runner.finish();
+  }
+
+  @Before
+  public void setUp() {
+    assumeTrue("Benchmarks are only run if 'runBenchmarks' is set", BenchmarkRunner.isEnabled());
+  }
+
+  @Test
+  public void computeInitialDocChanges() throws Exception {
+    Query query = query("coll").orderBy(orderBy("sort"));
+    for (int size : VIEW_SIZES) {
+      ImmutableSortedMap<DocumentKey, Document> docs = docs(0, size, 1);
+      runner.measure(
+          "computeDocChanges initial (" + size + " documents)",
+          () ->
+              BenchmarkRunner.sink =
+                  new View(query, DocumentKey.emptyKeySet()).computeDocChanges(docs));
+      runner.measure(
+          "computeDocChanges initial with limit (" + size + " documents)",
+          () ->
+              BenchmarkRunner.sink =
+                  new View(query.limitToFirst(10), DocumentKey.emptyKeySet())
+                      .computeDocChanges(docs));
+    }
+  }
+
+  @Test
+  public void computeUpdatedDocChanges() throws Exception {
+    Query query = query("coll").orderBy(orderBy("sort"));
+    for (int size : VIEW_SIZES) {
+      View view = new View(query, DocumentKey.emptyKeySet());
+      view.applyChanges(view.computeDocChanges(docs(0, size, 1)));
+      ImmutableSortedMap<DocumentKey, Document> updates = docs(size / 2, UPDATE_SIZE, 2);
+      runner.measure(
+          "computeDocChanges update (" + UPDATE_SIZE + " of " + size + " documents)",
+          () -> BenchmarkRunner.sink = view.computeDocChanges(updates));
+    }
+  }
+
+  private static ImmutableSortedMap<DocumentKey, Document> docs(
+      int start, int count, long version) {
+    ImmutableSortedMap<DocumentKey, Document> docs =
+        ImmutableSortedMap.Builder.emptyMap(DocumentKey.comparator());
+    for (int i = start; i < start + count; ++i) {
+      // The sort order differs from the key order, so that the view has to reorder documents.
+      Document doc =
+          doc("coll/doc" + i, version, map("sort", (i * 7919) % 10007, "version", version));
+      docs = docs.insert(doc.getKey(), doc);
+    }
+    return docs;
+  }
+}
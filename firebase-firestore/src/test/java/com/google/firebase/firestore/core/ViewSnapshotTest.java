@@ -19,6 +19,7 @@ import static com.google.firebase.firestore.testutil.TestUtil.key;
 import static com.google.firebase.firestore.testutil.TestUtil.keySet;
 import static com.google.firebase.firestore.testutil.TestUtil.map;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 import com.google.firebase.database.collection.ImmutableSortedSet;
 import com.google.firebase.firestore.core.DocumentViewChange.Type;
@@ -71,4 +72,76 @@ public class ViewSnapshotTest {
     assertEquals(syncStateChanges, snapshot.didSyncStateChange());
     assertEquals(excludesMetadataChanges, snapshot.excludesMetadataChanges());
   }
+
+  @Test
+  public void testIndexedChanges() {
+    Query query = Query.atPath(ResourcePath.fromString("c"));
+    Document docA = doc("c/a", 1, map());
+    Document docB = doc("c/b", 1, map());
+    Document docC = doc("c/c", 1, map());
+    Document newDocB = doc("c/b", 2, map("updated", true));
+    DocumentSet oldDocs = DocumentSet.emptySet(query.comparator()).add(docA).add(docB);
+    DocumentSet docs = oldDocs.remove(docA.getKey()).add(newDocB).add(docC);
+    List<DocumentViewChange> changes =
+        Arrays.asList(
+            DocumentViewChange.create(Type.REMOVED, docA),
+            DocumentViewChange.create(Type.METADATA, newDocB),
+            DocumentViewChange.create(Type.ADDED, docC));
+
+    ViewSnapshot snapshot =
+        new ViewSnapshot(
+            query,
+            docs,
+            oldDocs,
+            changes,
+            /* isFromCache= */ false,
+            keySet(),
+            /* didSyncStateChange= */ false,
+            /* excludesMetadataChanges= */ false);
+
+    List<ViewSnapshot.IndexedChange> withMetadata = snapshot.getIndexedChanges(true);
+    assertEquals(3, withMetadata.size());
+    assertEquals(0, withMetadata.get(0).getOldIndex());
+    assertEquals(-1, withMetadata.get(0).getNewIndex());
+    assertEquals(0, withMetadata.get(1).getOldIndex());
+    assertEquals(0, withMetadata.get(1).getNewIndex());
+    assertEquals(-1, withMetadata.get(2).getOldIndex());
+    assertEquals(1, withMetadata.get(2).getNewIndex());
+
+    List<ViewSnapshot.IndexedChange> withoutMetadata = snapshot.getIndexedChanges(false);
+    assertEquals(2, withoutMetadata.size());
+    assertEquals(docA, withoutMetadata.get(0).getDocument());
+    assertEquals(docC, withoutMetadata.get(1).getDocument());
+
+    // The changes are only computed once.
+    assertSame(withMetadata, snapshot.getIndexedChanges(true));
+    assertSame(withoutMetadata, snapshot.getIndexedChanges(false));
+  }
+
+  @Test
+  public void testDerivedSnapshotsAreShared() {
+    Query query = Query.atPath(ResourcePath.fromString("c"));
+    Document doc = doc("c/a", 1, map());
+    DocumentSet docs = DocumentSet.emptySet(query.comparator()).add(doc);
+    ViewSnapshot snapshot =
+        new ViewSnapshot(
+            query,
+            docs,
+            docs,
+            Arrays.asList(DocumentViewChange.create(Type.METADATA, doc)),
+            /* isFromCache= */ false,
+            keySet(),
+            /* didSyncStateChange= */ false,
+            /* excludesMetadataChanges= */ false);
+
+    ViewSnapshot withoutMetadataChanges = snapshot.withoutMetadataChanges();
+    assertEquals(0, withoutMetadataChanges.getChanges().size());
+    assertEquals(true, withoutMetadataChanges.excludesMetadataChanges());
+    assertSame(withoutMetadataChanges, snapshot.withoutMetadataChanges());
+
+    ViewSnapshot initialSnapshot = snapshot.toInitialSnapshot();
+    assertEquals(
+        Arrays.asList(DocumentViewChange.create(Type.ADDED, doc)), initialSnapshot.getChanges());
+    assertSame(initialSnapshot, snapshot.toInitialSnapshot());
+  }
 }
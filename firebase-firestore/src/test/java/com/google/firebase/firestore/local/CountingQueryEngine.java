@@ -22,6 +22,7 @@ import com.google.firebase.firestore.core.Query;
 import com.google.firebase.firestore.model.Document;
 import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.MaybeDocument;
+import com.google.firebase.firestore.model.ResourcePath;
 import com.google.firebase.firestore.model.SnapshotVersion;
 import com.google.firebase.firestore.model.mutation.Mutation;
 import com.google.firebase.firestore.model.mutation.MutationBatch;
@@ -30,8 +31,8 @@ import java.util.List;
 import java.util.Map;
 
 /**
- * A test-only QueryEngine that forwards all API calls and exposes the number of documents and
- * mutations read.
+ * A test-only QueryEngine that forwards all API calls and exposes the number of documents,
+ * mutations and overlays read.
  */
 class CountingQueryEngine implements QueryEngine {
   private final QueryEngine queryEngine;
@@ -40,6 +41,8 @@ class CountingQueryEngine implements QueryEngine {
   private final int[] mutationsReadByKey = new int[] {0};
   private final int[] documentsReadByQuery = new int[] {0};
   private final int[] documentsReadByKey = new int[] {0};
+  private final int[] overlaysReadByQuery = new int[] {0};
+  private final int[] overlaysReadByKey = new int[] {0};
 
   CountingQueryEngine(QueryEngine queryEngine) {
     this.queryEngine = queryEngine;
@@ -50,6 +53,8 @@ class CountingQueryEngine implements QueryEngine {
     mutationsReadByKey[0] = 0;
     documentsReadByQuery[0] = 0;
     documentsReadByKey[0] = 0;
+    overlaysReadByQuery[0] = 0;
+    overlaysReadByKey[0] = 0;
   }
 
   @Override
@@ -58,6 +63,7 @@ class CountingQueryEngine implements QueryEngine {
         new LocalDocumentsView(
             wrapRemoteDocumentCache(localDocuments.getRemoteDocumentCache()),
             wrapMutationQueue(localDocuments.getMutationQueue()),
+            wrapDocumentOverlayCache(localDocuments.getDocumentOverlayCache()),
             localDocuments.getIndexManager());
     queryEngine.setLocalDocumentsView(view);
   }
@@ -113,6 +119,22 @@ class CountingQueryEngine implements QueryEngine {
     return mutationsReadByKey[0];
   }
 
+  /**
+   * Returns the number of overlays returned by the DocumentOverlayCache's `getOverlays(collection)`
+   * API (since the last call to `resetCounts()`)
+   */
+  int getOverlaysReadByQuery() {
+    return overlaysReadByQuery[0];
+  }
+
+  /**
+   * Returns the number of overlays returned by the DocumentOverlayCache's `getOverlay()` and
+   * `getOverlays(keys)` APIs (since the last call to `resetCounts()`)
+   */
+  int getOverlaysReadByKey() {
+    return overlaysReadByKey[0];
+  }
+
   private RemoteDocumentCache wrapRemoteDocumentCache(RemoteDocumentCache subject) {
     return new RemoteDocumentCache() {
       @Override
@@ -120,6 +142,11 @@ class CountingQueryEngine implements QueryEngine {
         subject.add(maybeDocument, readTime);
       }
 
+      @Override
+      public void addAll(Iterable<MaybeDocument> maybeDocuments, SnapshotVersion readTime) {
+        subject.addAll(maybeDocuments, readTime);
+      }
+
       @Override
       public void remove(DocumentKey documentKey) {
         subject.remove(documentKey);
@@ -148,6 +175,15 @@ class CountingQueryEngine implements QueryEngine {
         documentsReadByQuery[0] += result.size();
         return result;
       }
+
+      @Override
+      public ImmutableSortedMap<DocumentKey, Document> getTopDocumentsMatchingQuery(
+          Query query, int count) {
+        ImmutableSortedMap<DocumentKey, Document> result =
+            subject.getTopDocumentsMatchingQuery(query, count);
+        documentsReadByQuery[0] += result.size();
+        return result;
+      }
     };
   }
 
@@ -243,4 +279,45 @@ class CountingQueryEngine implements QueryEngine {
       }
     };
   }
+
+  private DocumentOverlayCache wrapDocumentOverlayCache(DocumentOverlayCache subject) {
+    return new DocumentOverlayCache() {
+      @Nullable
+      @Override
+      public MaybeDocument getOverlay(DocumentKey key) {
+        MaybeDocument result = subject.getOverlay(key);
+        overlaysReadByKey[0] += result != null ? 1 : 0;
+        return result;
+      }
+
+      @Override
+      public Map<DocumentKey, MaybeDocument> getOverlays(Iterable<DocumentKey> keys) {
+        Map<DocumentKey, MaybeDocument> result = subject.getOverlays(keys);
+        overlaysReadByKey[0] += result.size();
+        return result;
+      }
+
+      @Override
+      public Map<DocumentKey, MaybeDocument> getOverlays(ResourcePath collection) {
+        Map<DocumentKey, MaybeDocument> result = subject.getOverlays(collection);
+        overlaysReadByQuery[0] += result.size();
+        return result;
+      }
+
+      @Override
+      public void saveOverlay(MaybeDocument overlay) {
+        subject.saveOverlay(overlay);
+      }
+
+      @Override
+      public void removeOverlay(DocumentKey key) {
+        subject.removeOverlay(key);
+      }
+
+      @Override
+      public void removeAllOverlays() {
+        subject.removeAllOverlays();
+      }
+    };
+  }
 }
@@ -0,0 +1,149 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.local;
+
+import static com.google.firebase.firestore.testutil.TestUtil.deletedDoc;
+import static com.google.firebase.firestore.testutil.TestUtil.doc;
+import static com.google.firebase.firestore.testutil.TestUtil.key;
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static com.google.firebase.firestore.testutil.TestUtil.path;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.firebase.firestore.auth.User;
+import com.google.firebase.firestore.model.Document;
+import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.model.MaybeDocument;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * These are tests for any implementation of the DocumentOverlayCache interface.
+ *
+ * <p>To test a specific implementation of DocumentOverlayCache:
+ *
+ * <ol>
+ *   <li>Subclass DocumentOverlayCacheTestCase
+ *   <li>Override {@link #getPersistence}, creating a new implementation of Persistence
+ * </ol>
+ */
+abstract class DocumentOverlayCacheTestCase {
+
+  private Persistence persistence;
+  private DocumentOverlayCache overlayCache;
+
+  @Before
+  public void setUp() {
+    persistence = getPersistence();
+    overlayCache = persistence.getDocumentOverlayCache(User.UNAUTHENTICATED);
+  }
+
+  @After
+  public void tearDown() {
+    persistence.shutdown();
+  }
+
+  abstract Persistence getPersistence();
+
+  @Test
+  public void testReadOverlayNotInCache() {
+    assertNull(overlayCache.getOverlay(key("coll/doc")));
+  }
+
+  @Test
+  public void testSaveAndReadOverlay() {
+    Document doc = doc("coll/doc", 0, map("a", 1), Document.DocumentState.LOCAL_MUTATIONS);
+    save(doc);
+    assertEquals(doc, overlayCache.getOverlay(key("coll/doc")));
+  }
+
+  @Test
+  public void testSaveReplacesOverlay() {
+    save(doc("coll/doc", 0, map("a", 1), Document.DocumentState.LOCAL_MUTATIONS));
+    MaybeDocument deleted = deletedDoc("coll/doc", 0);
+    save(deleted);
+    assertEquals(deleted, overlayCache.getOverlay(key("coll/doc")));
+  }
+
+  @Test
+  public void testReadOverlaysByKey() {
+    Document a = doc("coll/a", 0, map("a", 1), Document.DocumentState.LOCAL_MUTATIONS);
+    Document b = doc("coll/b", 0, map("b", 1), Document.DocumentState.LOCAL_MUTATIONS);
+    save(a);
+    save(b);
+
+    Map<DocumentKey, MaybeDocument> expected = new HashMap<>();
+    expected.put(a.getKey(), a);
+    expected.put(b.getKey(), b);
+    assertEquals(
+        expected, overlayCache.getOverlays(asList(key("coll/a"), key("coll/b"), key("coll/c"))));
+  }
+
+  @Test
+  public void testReadOverlaysByCollectionOnlyReturnsImmediateChildren() {
+    Document a = doc("coll/a", 0, map(), Document.DocumentState.LOCAL_MUTATIONS);
+    Document b = doc("coll/b", 0, map(), Document.DocumentState.LOCAL_MUTATIONS);
+    save(a);
+    save(b);
+    save(doc("coll/a/sub/c", 0, map(), Document.DocumentState.LOCAL_MUTATIONS));
+    save(doc("coll2/d", 0, map(), Document.DocumentState.LOCAL_MUTATIONS));
+
+    Map<DocumentKey, MaybeDocument> expected = new HashMap<>();
+    expected.put(a.getKey(), a);
+    expected.put(b.getKey(), b);
+    assertEquals(expected, overlayCache.getOverlays(path("coll")));
+  }
+
+  @Test
+  public void testRemoveOverlay() {
+    save(doc("coll/a", 0, map(), Document.DocumentState.LOCAL_MUTATIONS));
+    save(doc("coll/b", 0, map(), Document.DocumentState.LOCAL_MUTATIONS));
+    persistence.runTransaction("remove", () -> overlayCache.removeOverlay(key("coll/a")));
+
+    assertNull(overlayCache.getOverlay(key("coll/a")));
+    assertEquals(1, overlayCache.getOverlays(path("coll")).size());
+  }
+
+  @Test
+  public void testRemoveAllOverlays() {
+    save(doc("coll/a", 0, map(), Document.DocumentState.LOCAL_MUTATIONS));
+    save(doc("coll/b/sub/c", 0, map(), Document.DocumentState.LOCAL_MUTATIONS));
+    persistence.runTransaction("remove all", () -> overlayCache.removeAllOverlays());
+
+    assertNull(overlayCache.getOverlay(key("coll/a")));
+    assertNull(overlayCache.getOverlay(key("coll/b/sub/c")));
+  }
+
+  @Test
+  public void testOverlaysAreScopedToUser() {
+    save(doc("coll/a", 0, map(), Document.DocumentState.LOCAL_MUTATIONS));
+
+    DocumentOverlayCache otherUserCache = persistence.getDocumentOverlayCache(new User("other"));
+    assertNull(otherUserCache.getOverlay(key("coll/a")));
+    assertTrue(otherUserCache.getOverlays(path("coll")).isEmpty());
+
+    persistence.runTransaction("remove all", () -> otherUserCache.removeAllOverlays());
+    assertEquals(1, overlayCache.getOverlays(path("coll")).size());
+  }
+
+  private void save(MaybeDocument overlay) {
+    persistence.runTransaction("save overlay", () -> overlayCache.saveOverlay(overlay));
+  }
+}
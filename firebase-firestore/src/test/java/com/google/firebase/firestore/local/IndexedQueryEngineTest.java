@@ -37,8 +37,8 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import org.junit.After;
 import org.junit.Before;
-import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
@@ -47,6 +47,7 @@ import org.robolectric.annotation.Config;
 @RunWith(RobolectricTestRunner.class)
 @Config(manifest = Config.NONE)
 public class IndexedQueryEngineTest {
+  private SQLitePersistence persistence;
   private IndexedQueryEngine queryEngine;
   private RemoteDocumentCache remoteDocuments;
 
@@ -61,12 +62,20 @@ public class IndexedQueryEngineTest {
 
   @Before
   public void setUp() {
-    Persistence.INDEXING_SUPPORT_ENABLED = true;
-
-    SQLitePersistence persistence = PersistenceTestHelpers.createSQLitePersistence();
-    SQLiteCollectionIndex index = new SQLiteCollectionIndex(persistence, User.UNAUTHENTICATED);
+    persistence = PersistenceTestHelpers.createSQLitePersistenceWithCollectionIndex();
     remoteDocuments = persistence.getRemoteDocumentCache();
-    queryEngine = new IndexedQueryEngine(index);
+    queryEngine = new IndexedQueryEngine(persistence.getCollectionIndex());
+    queryEngine.setLocalDocumentsView(
+        new LocalDocumentsView(
+            remoteDocuments,
+            persistence.getMutationQueue(User.UNAUTHENTICATED),
+            persistence.getDocumentOverlayCache(User.UNAUTHENTICATED),
+            persistence.getIndexManager()));
+  }
+
+  @After
+  public void tearDown() {
+    persistence.shutdown();
   }
 
   private void addDocument(Document newDoc) {
@@ -204,7 +213,6 @@ public class IndexedQueryEngineTest {
   }
 
   @Test
-  @Ignore("Pending cr/164068667")
   public void addDocumentQuery() {
     addDocument(IGNORED_DOC);
     addDocument(MATCHING_DOC);
@@ -219,7 +227,6 @@ public class IndexedQueryEngineTest {
   }
 
   @Test
-  @Ignore("Pending cr/164068667")
   public void updateDocumentQuery() {
     addDocument(IGNORED_DOC);
     addDocument(NON_MATCHING_DOC);
@@ -235,7 +242,6 @@ public class IndexedQueryEngineTest {
   }
 
   @Test
-  @Ignore("Pending cr/164068667")
   public void removeDocumentQuery() {
     addDocument(IGNORED_DOC);
     addDocument(MATCHING_DOC);
@@ -251,7 +257,6 @@ public class IndexedQueryEngineTest {
   }
 
   @Test
-  @Ignore("Pending cr/164068667")
   public void nestedQuery() {
     Document nonMatchingDoc = doc("coll/a", ORIGINAL_VERSION, map("a", map("a", "b")));
     Document matchingDoc = doc("coll/a", UPDATED_VERSION, map("a", map("a", "a")));
@@ -270,7 +275,6 @@ public class IndexedQueryEngineTest {
   }
 
   @Test
-  @Ignore("Pending cr/164068667")
   public void orderByQuery() {
     addDocument(IGNORED_DOC);
     addDocument(MATCHING_DOC);
@@ -283,4 +287,45 @@ public class IndexedQueryEngineTest {
     assertThat(results).doesNotContain(IGNORED_DOC.getKey());
     assertThat(results).contains(MATCHING_DOC.getKey());
   }
+
+  @Test
+  public void rangeQuery() {
+    Document doc1 = doc("coll/1", ORIGINAL_VERSION, map("a", 1));
+    Document doc2 = doc("coll/2", ORIGINAL_VERSION, map("a", 2));
+    Document doc3 = doc("coll/3", ORIGINAL_VERSION, map("a", 3));
+    Document doc4 = doc("coll/4", ORIGINAL_VERSION, map("a", "3"));
+    addDocument(doc1);
+    addDocument(doc2);
+    addDocument(doc3);
+    addDocument(doc4);
+    Query query = query("coll").filter(filter("a", ">", 1)).filter(filter("a", "<=", 3));
+
+    ImmutableSortedMap<DocumentKey, Document> results =
+        queryEngine.getDocumentsMatchingQuery(
+            query, /* lastLimboFreeSnapshotVersion= */ null, DocumentKey.emptyKeySet());
+
+    assertThat(results).doesNotContain(doc1.getKey());
+    assertThat(results).contains(doc2.getKey());
+    assertThat(results).contains(doc3.getKey());
+    assertThat(results).doesNotContain(doc4.getKey());
+  }
+
+  @Test
+  public void excludesDocumentsFromOtherCollections() {
+    Document doc1 = doc("coll/a", ORIGINAL_VERSION, map("a", "a"));
+    Document doc2 = doc("coll/a/sub/b", ORIGINAL_VERSION, map("a", "a"));
+    Document doc3 = doc("other/c", ORIGINAL_VERSION, map("a", "a"));
+    addDocument(doc1);
+    addDocument(doc2);
+    addDocument(doc3);
+    Query query = query("coll").filter(filter("a", "==", "a"));
+
+    ImmutableSortedMap<DocumentKey, Document> results =
+        queryEngine.getDocumentsMatchingQuery(
+            query, /* lastLimboFreeSnapshotVersion= */ null, DocumentKey.emptyKeySet());
+
+    assertThat(results).contains(doc1.getKey());
+    assertThat(results).doesNotContain(doc2.getKey());
+    assertThat(results).doesNotContain(doc3.getKey());
+  }
 }
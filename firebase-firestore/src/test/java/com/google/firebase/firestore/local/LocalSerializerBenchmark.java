@@ -0,0 +1,137 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.local;
+
+import static com.google.firebase.firestore.testutil.TestUtil.doc;
+import static com.google.firebase.firestore.testutil.TestUtil.field;
+import static com.google.firebase.firestore.testutil.TestUtil.setMutation;
+import static org.junit.Assume.assumeTrue;
+
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.model.DatabaseId;
+import com.google.firebase.firestore.model.Document;
+import com.google.firebase.firestore.model.mutation.Mutation;
+import com.google.firebase.firestore.model.mutation.MutationBatch;
+import com.google.firebase.firestore.remote.RemoteSerializer;
+import com.google.firebase.firestore.testutil.BenchmarkRunner;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Benchmarks decoding documents and mutation batches from their local storage format.
+ *
+ * <p>Run with {@code ./gradlew :firebase-firestore:testReleaseUnitTest -PrunBenchmarks=true
+ * --tests '*Benchmark'}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class LocalSerializerBenchmark {
+
+  private static final int[] FIELD_COUNTS = {10, 100, 1000};
+
+  /** The number of documents that are decoded per operation. */
+  private static final int DOCUMENTS = 1000;
+
+  private static BenchmarkRunner runner;
+
+  private LocalSerializer serializer;
+
+  @BeforeClass
+  public static void setUpRunner() {
+    runner = new BenchmarkRunner("LocalSerializerBenchmark");
+  }
+
+  @AfterClass
+  public static void finishRunner() throws Exception {
+    runner.finish();
+  }
+
+  @Before
+  public void setUp() {
+    assumeTrue("Benchmarks are only run if 'runBenchmarks' is set", BenchmarkRunner.isEnabled());
+    serializer = new LocalSerializer(new RemoteSerializer(DatabaseId.forProject("benchmark")));
+  }
+
+  @Test
+  public void decodeDocuments() throws Exception {
+    for (int fieldCount : FIELD_COUNTS) {
+      Document document = doc("coll/doc", 1, fields(fieldCount));
+      com.google.firebase.firestore.proto.MaybeDocument proto =
+          serializer.encodeMaybeDocument(document);
+      byte[] bytes = proto.toByteArray();
+
+      runner.measure(
+          "decodeMaybeDocument (" + DOCUMENTS + " documents, " + fieldCount + " fields)",
+          () -> {
+            for (int i = 0; i < DOCUMENTS; ++i) {
+              BenchmarkRunner.sink =
+                  serializer.decodeMaybeDocument(
+                      com.google.firebase.firestore.proto.MaybeDocument.parseFrom(bytes));
+            }
+          });
+      runner.measure(
+          "decodeMaybeDocumentLazily with field read ("
+              + DOCUMENTS
+              + " documents, "
+              + fieldCount
+              + " fields)",
+          () -> {
+            for (int i = 0; i < DOCUMENTS; ++i) {
+              Document decoded = (Document) serializer.decodeMaybeDocumentLazily(bytes);
+              BenchmarkRunner.sink = decoded.getField(field("field0"));
+            }
+          });
+    }
+  }
+
+  @Test
+  public void decodeMutationBatches() throws Exception {
+    List<Mutation> mutations = new ArrayList<>();
+    for (int i = 0; i < 10; ++i) {
+      mutations.add(setMutation("coll/doc" + i, fields(10)));
+    }
+    MutationBatch batch =
+        new MutationBatch(1, Timestamp.now(), Collections.emptyList(), mutations);
+    byte[] bytes = serializer.encodeMutationBatch(batch).toByteArray();
+
+    runner.measure(
+        "decodeMutationBatch (" + DOCUMENTS + " batches, 10 mutations)",
+        () -> {
+          for (int i = 0; i < DOCUMENTS; ++i) {
+            BenchmarkRunner.sink =
+                serializer.decodeMutationBatch(
+                    com.google.firebase.firestore.proto.WriteBatch.parseFrom(bytes));
+          }
+        });
+  }
+
+  private static Map<String, Object> fields(int count) {
+    Map<String, Object> fields = new HashMap<>();
+    for (int i = 0; i < count; ++i) {
+      fields.put("field" + i, i % 2 == 0 ? i : "value" + i);
+    }
+    return fields;
+  }
+}
@@ -25,6 +25,7 @@ import static com.google.firebase.firestore.testutil.TestUtil.setMutation;
 import static com.google.firebase.firestore.testutil.TestUtil.unknownDoc;
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import com.google.firebase.Timestamp;
 import com.google.firebase.firestore.core.Query;
@@ -140,6 +141,7 @@ public final class LocalSerializerTest {
     assertEquals(model.getMutations(), decoded.getMutations());
     assertEquals(model.getBaseMutations(), decoded.getBaseMutations());
     assertEquals(model.getKeys(), decoded.getKeys());
+    assertEquals(asList(setProto, patchProto, delProto), decoded.getEncodedMutations());
   }
 
   @Test
@@ -198,6 +200,46 @@ public final class LocalSerializerTest {
     assertEquals(unknownDoc, decoded);
   }
 
+  @Test
+  public void testDecodesDocumentFieldsLazily() {
+    Document document =
+        doc(
+            "some/path",
+            42,
+            map(
+                "foo",
+                "bar",
+                "nested",
+                map("a", 1, "b", map("c", true)),
+                "array",
+                asList(1, 2)),
+            Document.DocumentState.LOCAL_MUTATIONS);
+    byte[] bytes = serializer.encodeMaybeDocument(document).toByteArray();
+
+    Document decoded = (Document) serializer.decodeMaybeDocumentLazily(bytes);
+    assertEquals(document.getKey(), decoded.getKey());
+    assertEquals(document.getVersion(), decoded.getVersion());
+    assertEquals(document.hasLocalMutations(), decoded.hasLocalMutations());
+
+    // Individual fields are read from the encoded document.
+    assertEquals(TestUtil.wrap("bar"), decoded.getField(field("foo")));
+    assertEquals(TestUtil.wrap(true), decoded.getField(field("nested.b.c")));
+    assertNull(decoded.getField(field("missing")));
+    assertNull(decoded.getField(field("foo.bar")));
+
+    // Once more fields are read, the entire document is decoded.
+    assertEquals(TestUtil.wrap(1), decoded.getField(field("nested.a")));
+    assertEquals(TestUtil.wrap(asList(1, 2)), decoded.getField(field("array")));
+    assertEquals(document, decoded);
+  }
+
+  @Test
+  public void testDecodesDeletedDocumentLazily() {
+    NoDocument deletedDoc = deletedDoc("some/path", 42);
+    byte[] bytes = serializer.encodeMaybeDocument(deletedDoc).toByteArray();
+    assertEquals(deletedDoc, serializer.decodeMaybeDocumentLazily(bytes));
+  }
+
   @Test
   public void testEncodesTargetData() {
     Query query = TestUtil.query("room");
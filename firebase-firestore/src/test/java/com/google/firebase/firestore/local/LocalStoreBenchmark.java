@@ -0,0 +1,271 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.local;
+
+import static com.google.firebase.firestore.testutil.TestUtil.addedRemoteEvent;
+import static com.google.firebase.firestore.testutil.TestUtil.doc;
+import static com.google.firebase.firestore.testutil.TestUtil.filter;
+import static com.google.firebase.firestore.testutil.TestUtil.key;
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static com.google.firebase.firestore.testutil.TestUtil.query;
+import static com.google.firebase.firestore.testutil.TestUtil.setMutation;
+import static com.google.firebase.firestore.testutil.TestUtil.version;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assume.assumeTrue;
+
+import com.google.firebase.database.collection.ImmutableSortedSet;
+import com.google.firebase.firestore.auth.User;
+import com.google.firebase.firestore.core.Query;
+import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.model.MaybeDocument;
+import com.google.firebase.firestore.model.ResourcePath;
+import com.google.firebase.firestore.model.mutation.Mutation;
+import com.google.firebase.firestore.remote.RemoteEvent;
+import com.google.firebase.firestore.testutil.BenchmarkRunner;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Benchmarks the operations of the LocalStore on SQLite persistence.
+ *
+ * <p>Run with {@code ./gradlew :firebase-firestore:testReleaseUnitTest -PrunBenchmarks=true
+ * --tests '*Benchmark'}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class LocalStoreBenchmark {
+
+  private static final int[] COLLECTION_SIZES = {100, 1000, 10000};
+
+  private static final int[] BATCH_SIZES = {10, 100, 1000};
+
+  private static final int ROOM_COUNT = 100;
+
+  private static final int[] MESSAGES_PER_ROOM = {1, 10, 100};
+
+  private static BenchmarkRunner runner;
+
+  private SQLitePersistence persistence;
+  private LocalStore localStore;
+
+  /** The version of the documents of the next remote event, which must increase. */
+  private long nextVersion = 1;
+
+  @BeforeClass
+  public static void setUpRunner() {
+    runner = new BenchmarkRunner("LocalStoreBenchmark");
+  }
+
+  @AfterClass
+  public static void finishRunner() throws Exception {
+    runner.finish();
+  }
+
+  @Before
+  public void setUp() {
+    assumeTrue("Benchmarks are only run if 'runBenchmarks' is set", BenchmarkRunner.isEnabled());
+    persistence = PersistenceTestHelpers.createSQLitePersistence();
+    localStore = new LocalStore(persistence, new IndexFreeQueryEngine(), User.UNAUTHENTICATED);
+    localStore.start();
+  }
+
+  @After
+  public void tearDown() {
+    if (persistence != null) {
+      persistence.shutdown();
+    }
+  }
+
+  @Test
+  public void writeLocally() throws Exception {
+    runner.measure(
+        "writeLocally (100 writes)",
+        () -> {
+          for (int i = 0; i < 100; ++i) {
+            Mutation mutation = setMutation("coll/doc" + i, map("value", i, "name", "doc" + i));
+            BenchmarkRunner.sink = localStore.writeLocally(singletonList(mutation));
+          }
+        });
+  }
+
+  @Test
+  public void applyRemoteEvent() throws Exception {
+    int targetId = localStore.allocateTarget(query("coll").toTarget()).getTargetId();
+    for (int size : BATCH_SIZES) {
+      RemoteEvent[] event = new RemoteEvent[1];
+      runner.measure(
+          "applyRemoteEvent (" + size + " documents)",
+          () -> event[0] = remoteEvent(size, targetId),
+          () -> BenchmarkRunner.sink = localStore.applyRemoteEvent(event[0]));
+    }
+  }
+
+  @Test
+  public void writeRemoteDocuments() throws Exception {
+    RemoteDocumentCache remoteDocuments = persistence.getRemoteDocumentCache();
+    for (int size : BATCH_SIZES) {
+      List<MaybeDocument> docs = new ArrayList<>();
+      runner.measure(
+          "RemoteDocumentCache.add (" + size + " documents)",
+          () -> docs(docs, size),
+          () ->
+              persistence.runTransaction(
+                  "add",
+                  () -> {
+                    for (MaybeDocument doc : docs) {
+                      remoteDocuments.add(doc, doc.getVersion());
+                    }
+                  }));
+      runner.measure(
+          "RemoteDocumentCache.addAll (" + size + " documents)",
+          () -> docs(docs, size),
+          () ->
+              persistence.runTransaction(
+                  "addAll", () -> remoteDocuments.addAll(docs, docs.get(0).getVersion())));
+    }
+  }
+
+  @Test
+  public void updateMatchingKeys() throws Exception {
+    TargetCache targetCache = persistence.getTargetCache();
+    int targetId = localStore.allocateTarget(query("coll").toTarget()).getTargetId();
+    for (int size : BATCH_SIZES) {
+      ImmutableSortedSet<DocumentKey> keys = DocumentKey.emptyKeySet();
+      for (int i = 0; i < size; ++i) {
+        keys = keys.insert(key("coll/doc" + i));
+      }
+      ImmutableSortedSet<DocumentKey> matchingKeys = keys;
+      runner.measure(
+          "TargetCache.addMatchingKeys (" + size + " keys)",
+          () ->
+              persistence.runTransaction(
+                  "Remove keys", () -> targetCache.removeMatchingKeys(matchingKeys, targetId)),
+          () ->
+              persistence.runTransaction(
+                  "addMatchingKeys", () -> targetCache.addMatchingKeys(matchingKeys, targetId)));
+      runner.measure(
+          "TargetCache.removeMatchingKeys (" + size + " keys)",
+          () ->
+              persistence.runTransaction(
+                  "Add keys", () -> targetCache.addMatchingKeys(matchingKeys, targetId)),
+          () ->
+              persistence.runTransaction(
+                  "removeMatchingKeys",
+                  () -> targetCache.removeMatchingKeys(matchingKeys, targetId)));
+    }
+  }
+
+  @Test
+  public void executeQuery() throws Exception {
+    RemoteDocumentCache remoteDocuments = persistence.getRemoteDocumentCache();
+    int written = 0;
+    for (int size : COLLECTION_SIZES) {
+      List<MaybeDocument> docs = new ArrayList<>();
+      for (int i = written; i < size; ++i) {
+        docs.add(doc("coll/doc" + i, nextVersion, map("value", i, "even", i % 2 == 0)));
+      }
+      persistence.runTransaction("Populate", () -> remoteDocuments.addAll(docs, version(1)));
+      written = size;
+
+      Query query = query("coll");
+      Query filtered = query("coll").filter(filter("even", "==", true));
+      runner.measure(
+          "executeQuery (" + size + " documents)",
+          () -> BenchmarkRunner.sink = localStore.executeQueryReadOnly(query));
+      runner.measure(
+          "executeQuery with filter (" + size + " documents)",
+          () -> BenchmarkRunner.sink = localStore.executeQueryReadOnly(filtered));
+      runner.measure(
+          "executeQuery with limit (" + size + " documents)",
+          () -> BenchmarkRunner.sink = localStore.executeQueryReadOnly(query.limitToFirst(10)));
+    }
+  }
+
+  @Test
+  public void executeQueryWithSubcollections() throws Exception {
+    SQLiteRemoteDocumentCache remoteDocuments =
+        (SQLiteRemoteDocumentCache) persistence.getRemoteDocumentCache();
+    List<MaybeDocument> rooms = new ArrayList<>();
+    for (int i = 0; i < ROOM_COUNT; ++i) {
+      rooms.add(doc("rooms/room" + i, nextVersion, map("name", "room" + i)));
+    }
+    persistence.runTransaction("Populate rooms", () -> remoteDocuments.addAll(rooms, version(1)));
+
+    int written = 0;
+    for (int messagesPerRoom : MESSAGES_PER_ROOM) {
+      List<MaybeDocument> messages = new ArrayList<>();
+      for (int i = 0; i < ROOM_COUNT; ++i) {
+        for (int j = written; j < messagesPerRoom; ++j) {
+          messages.add(doc("rooms/room" + i + "/messages/msg" + j, nextVersion, map("index", j)));
+        }
+      }
+      persistence.runTransaction(
+          "Populate messages", () -> remoteDocuments.addAll(messages, version(1)));
+      written = messagesPerRoom;
+
+      // The rows that a scan of the `rooms` prefix read before `path_length` was indexed, which
+      // include the messages in the subcollections of every room.
+      String prefixPath = EncodedPath.encode(ResourcePath.fromString("rooms"));
+      long prefixRowCount =
+          persistence
+              .query("SELECT COUNT(*) FROM remote_documents WHERE path >= ? AND path < ?")
+              .binding(prefixPath, EncodedPath.prefixSuccessor(prefixPath))
+              .firstValue(row -> row.getLong(0));
+
+      Query query = query("rooms");
+      long rowCountBefore = remoteDocuments.getCollectionScanRowCount();
+      int documentCount = localStore.executeQueryReadOnly(query).getDocuments().size();
+      long rowCount = remoteDocuments.getCollectionScanRowCount() - rowCountBefore;
+      System.out.println(
+          String.format(
+              Locale.US,
+              "executeQuery with subcollections (%d messages per room): %d documents returned, "
+                  + "%d rows read, %d rows read by a prefix scan",
+              messagesPerRoom,
+              documentCount,
+              rowCount,
+              prefixRowCount));
+
+      runner.measure(
+          "executeQuery with subcollections (" + messagesPerRoom + " messages per room)",
+          () -> BenchmarkRunner.sink = localStore.executeQueryReadOnly(query));
+    }
+  }
+
+  private RemoteEvent remoteEvent(int size, int targetId) {
+    List<MaybeDocument> docs = new ArrayList<>();
+    docs(docs, size);
+    return addedRemoteEvent(docs, singletonList(targetId), emptyList());
+  }
+
+  /** Replaces the given list with newer versions of the first {@code size} documents. */
+  private void docs(List<MaybeDocument> docs, int size) {
+    long version = nextVersion++;
+    docs.clear();
+    for (int i = 0; i < size; ++i) {
+      docs.add(doc("coll/doc" + i, version, map("value", i, "version", version)));
+    }
+  }
+}
@@ -38,7 +38,9 @@ import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeFalse;
 import static org.junit.Assume.assumeTrue;
@@ -248,6 +250,15 @@ public abstract class LocalStoreTestCase {
     assertEquals("Mutations read (by key)", byKey, queryEngine.getMutationsReadByKey());
   }
 
+  /**
+   * Asserts the expected numbers of overlays read by the DocumentOverlayCache since the last call
+   * to `resetPersistenceStats()`.
+   */
+  private void assertOverlaysRead(int byKey, int byQuery) {
+    assertEquals("Overlays read (by query)", byQuery, queryEngine.getOverlaysReadByQuery());
+    assertEquals("Overlays read (by key)", byKey, queryEngine.getOverlaysReadByKey());
+  }
+
   /**
    * Asserts the expected numbers of documents read by the RemoteDocumentCache since the last call
    * to `resetPersistenceStats()`.
@@ -917,7 +928,77 @@ public abstract class LocalStoreTestCase {
     localStore.executeQuery(query, /* usePreviousResults= */ true);
 
     assertRemoteDocumentsRead(/* byKey= */ 0, /* byQuery= */ 2);
-    assertMutationsRead(/* byKey= */ 0, /* byQuery= */ 1);
+    assertMutationsRead(/* byKey= */ 0, /* byQuery= */ 0);
+    assertOverlaysRead(/* byKey= */ 0, /* byQuery= */ 1);
+  }
+
+  @Test
+  public void testReadsOnlyDocumentsWithinLimitForInitialLimitQueries() {
+    allocateQuery(Query.atPath(ResourcePath.fromString("foo")));
+    for (String id : asList("a", "b", "c", "d", "e")) {
+      applyRemoteEvent(updateRemoteEvent(doc("foo/" + id, 10, map()), asList(2), emptyList()));
+    }
+    writeMutation(setMutation("foo/a", map("local", true)));
+
+    resetPersistenceStats();
+
+    Query query = Query.atPath(ResourcePath.fromString("foo")).limitToFirst(2);
+    QueryResult result = localStore.executeQuery(query, /* usePreviousResults= */ false);
+
+    // One additional document is read for the document with a pending write.
+    assertRemoteDocumentsRead(/* byKey= */ 0, /* byQuery= */ 3);
+    assertEquals(
+        asList(
+            doc("foo/a", 10, map("local", true), Document.DocumentState.LOCAL_MUTATIONS),
+            doc("foo/b", 10, map()),
+            doc("foo/c", 10, map())),
+        values(result.getDocuments()));
+  }
+
+  @Test
+  public void testCachesQueryResultsUntilDocumentsInPathChange() {
+    Query query = Query.atPath(ResourcePath.fromString("foo"));
+    allocateQuery(query);
+    writeMutation(setMutation("foo/bar", map()));
+
+    executeQuery(query);
+    QueryResult firstResult = lastQueryResult;
+    assertQueryReturned("foo/bar");
+
+    // Executing the query again returns the previous result without reading any documents.
+    executeQuery(query);
+    assertSame(firstResult, lastQueryResult);
+    assertRemoteDocumentsRead(/* byKey= */ 0, /* byQuery= */ 0);
+    assertOverlaysRead(/* byKey= */ 0, /* byQuery= */ 0);
+
+    // Writes to other collections do not invalidate the result.
+    writeMutation(setMutation("fooo/bar", map()));
+    writeMutation(setMutation("foo/bar/sub/doc", map()));
+    executeQuery(query);
+    assertSame(firstResult, lastQueryResult);
+
+    // Writes to the collection of the query do.
+    writeMutation(setMutation("foo/baz", map()));
+    executeQuery(query);
+    assertNotSame(firstResult, lastQueryResult);
+    assertQueryReturned("foo/bar", "foo/baz");
+  }
+
+  @Test
+  public void testInvalidatesCachedQueryResultsOnRemoteEvents() {
+    Query query = Query.atPath(ResourcePath.fromString("foo"));
+    int targetId = allocateQuery(query);
+
+    applyRemoteEvent(
+        addedRemoteEvent(doc("foo/bar", 10, map("a", 1)), asList(targetId), emptyList()));
+    executeQuery(query);
+    assertQueryReturned("foo/bar");
+
+    applyRemoteEvent(
+        updateRemoteEvent(doc("foo/bar", 20, map("a", 2)), asList(targetId), emptyList()));
+    executeQuery(query);
+    assertEquals(
+        doc("foo/bar", 20, map("a", 2)), lastQueryResult.getDocuments().get(key("foo/bar")));
   }
 
   @Test
@@ -1372,4 +1453,81 @@ public abstract class LocalStoreTestCase {
     assertContains(doc("foo/bar", 1, map("val", "old"), Document.DocumentState.SYNCED));
     assertContains(doc("foo/baz", 2, map("val", "new"), Document.DocumentState.SYNCED));
   }
+
+  @Test
+  public void testLoadsSnapshotFile() {
+    Query query = query("foo");
+    lastChanges =
+        localStore.applySnapshotFileDocuments(
+            asList(doc("foo/bar", 10, map("a", 1)), doc("foo/baz", 10, map("b", 2))), version(10));
+    assertChanged(doc("foo/bar", 10, map("a", 1)), doc("foo/baz", 10, map("b", 2)));
+    assertContains(doc("foo/bar", 10, map("a", 1)));
+
+    localStore.saveSnapshotFileQueries(
+        asList(
+            new SnapshotFileReader.QueryResults(
+                query.toTarget(),
+                version(10),
+                resumeToken(10),
+                asList(key("foo/bar"), key("foo/baz")))),
+        asList(key("foo/bar"), key("foo/baz")));
+    // The documents are referenced by the query, so they are not garbage collected.
+    assertContains(doc("foo/bar", 10, map("a", 1)));
+
+    TargetData targetData = localStore.allocateTarget(query.toTarget());
+    assertEquals(version(10), targetData.getSnapshotVersion());
+    assertEquals(version(10), targetData.getLastLimboFreeSnapshotVersion());
+    assertEquals(resumeToken(10), targetData.getResumeToken());
+
+    executeQuery(query);
+    assertQueryReturned("foo/bar", "foo/baz");
+  }
+
+  @Test
+  public void testDoesNotStoreQueriesOfIncompleteSnapshotFile() {
+    Query query = query("foo");
+    lastChanges =
+        localStore.applySnapshotFileDocuments(asList(doc("foo/bar", 10, map("a", 1))), version(10));
+    assertChanged(doc("foo/bar", 10, map("a", 1)));
+
+    // Loading the file failed before its queries were read.
+    localStore.saveSnapshotFileQueries(emptyList(), asList(key("foo/bar")));
+    if (garbageCollectorIsEager()) {
+      assertNotContains("foo/bar");
+    } else {
+      assertContains(doc("foo/bar", 10, map("a", 1)));
+    }
+
+    TargetData targetData = localStore.allocateTarget(query.toTarget());
+    assertEquals(SnapshotVersion.NONE, targetData.getSnapshotVersion());
+    assertTrue(targetData.getResumeToken().isEmpty());
+  }
+
+  @Test
+  public void testSnapshotFileDoesNotReplaceNewerData() {
+    Query query = query("foo");
+    int targetId = allocateQuery(query);
+    applyRemoteEvent(
+        addedRemoteEvent(doc("foo/bar", 20, map("a", 2)), asList(targetId), emptyList()));
+
+    lastChanges =
+        localStore.applySnapshotFileDocuments(
+            asList(doc("foo/bar", 10, map("a", 1)), doc("foo/baz", 10, map("b", 1))), version(10));
+    assertChanged(doc("foo/baz", 10, map("b", 1)));
+    assertContains(doc("foo/bar", 20, map("a", 2)));
+
+    localStore.saveSnapshotFileQueries(
+        asList(
+            new SnapshotFileReader.QueryResults(
+                query.toTarget(),
+                version(10),
+                resumeToken(10),
+                asList(key("foo/bar"), key("foo/baz")))),
+        asList(key("foo/bar"), key("foo/baz")));
+
+    // The results of the active query are not replaced.
+    assertEquals(
+        DocumentKey.emptyKeySet().insert(key("foo/bar")),
+        localStore.getRemoteDocumentKeys(targetId));
+  }
 }
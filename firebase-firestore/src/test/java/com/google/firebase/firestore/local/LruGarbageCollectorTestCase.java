@@ -262,6 +262,23 @@ public abstract class LruGarbageCollectorTestCase {
     assertEquals(10 + initialSequenceNumber, garbageCollector.getNthSequenceNumber(10));
   }
 
+  @Test
+  public void testSequenceNumbersAboveLowerBound() {
+    // Add a target and an orphaned document on alternating sequence numbers. Only those above the
+    // lower bound are counted.
+    for (int i = 0; i < 10; i++) {
+      addNextQuery();
+      markADocumentEligibleForGc();
+    }
+    LruDelegate delegate = (LruDelegate) persistence.getReferenceDelegate();
+    assertEquals(
+        7 + initialSequenceNumber, delegate.getNthSequenceNumber(3, 4 + initialSequenceNumber));
+    assertEquals(
+        20 + initialSequenceNumber, delegate.getNthSequenceNumber(100, 4 + initialSequenceNumber));
+    assertEquals(
+        ListenSequence.INVALID, delegate.getNthSequenceNumber(10, 20 + initialSequenceNumber));
+  }
+
   @Test
   public void testSequenceNumbersWithMutationsInQueries() {
     // Add mutated docs, then add one of them to a query target so it doesn't get GC'd.
@@ -409,8 +426,7 @@ public abstract class LruGarbageCollectorTestCase {
 
   @Test
   public void testRemoveOrphanedDocumentsWithLargeNumberOfDocuments() {
-    int orphanedDocumentCount =
-        SQLiteLruReferenceDelegate.REMOVE_ORPHANED_DOCUMENTS_BATCH_SIZE * 2 + 1;
+    int orphanedDocumentCount = LruGarbageCollector.DOCUMENTS_PER_SLICE * 2 + 1;
 
     persistence.runTransaction(
         "add orphaned docs",
@@ -425,6 +441,46 @@ public abstract class LruGarbageCollectorTestCase {
     assertEquals(orphanedDocumentCount, removed);
   }
 
+  @Test
+  public void testRemoveOrphanedDocumentsVisitsBoundedNumberOfDocumentsPerSlice() {
+    int limit = LruGarbageCollector.DOCUMENTS_PER_SLICE;
+    int documentCount = limit * 3 + 1;
+    ReferenceSet inMemoryPins = new ReferenceSet();
+    persistence.getReferenceDelegate().setInMemoryPins(inMemoryPins);
+
+    // All documents are orphaned in one transaction and thus share a sequence number. Every third
+    // document is pinned, so the slices visit more documents than they remove.
+    persistence.runTransaction(
+        "add orphaned docs",
+        () -> {
+          for (int i = 0; i < documentCount; i++) {
+            Document doc = cacheADocumentInTransaction();
+            markDocumentEligibleForGcInTransaction(doc.getKey());
+            if (i % 3 == 0) {
+              inMemoryPins.addReference(doc.getKey(), /* targetOrBatchId= */ 1);
+            }
+          }
+        });
+
+    LruDelegate delegate = (LruDelegate) persistence.getReferenceDelegate();
+    LruDelegate.DocumentCursor cursor = new LruDelegate.DocumentCursor();
+    int slices = 0;
+    int removed = 0;
+    while (!cursor.isExhausted()) {
+      int removedInSlice =
+          persistence.runTransaction(
+              "GC slice", () -> delegate.removeOrphanedDocuments(1000, cursor, limit));
+      assertTrue(removedInSlice <= limit);
+      removed += removedInSlice;
+      ++slices;
+    }
+
+    // Each slice visits at most `limit` documents, pinned or not.
+    assertEquals(4, slices);
+    int pinnedCount = (documentCount + 2) / 3;
+    assertEquals(documentCount - pinnedCount, removed);
+  }
+
   @Test
   public void testRemoveTargetsThenGC() {
     // Create 3 targets, add docs to all of them
@@ -720,4 +776,61 @@ public abstract class LruGarbageCollectorTestCase {
     assertEquals(10, results.getTargetsRemoved());
     assertEquals(100, results.getDocumentsRemoved());
   }
+
+  @Test
+  public void testGCReportsPauseTimes() {
+    LruGarbageCollector.Params params = LruGarbageCollector.Params.WithCacheSizeBytes(100);
+    persistence.shutdown();
+    newTestResources(params);
+
+    for (int i = 0; i < 100; i++) {
+      addNextQuery();
+    }
+
+    LruGarbageCollector.Results results =
+        persistence.runTransaction("GC", () -> garbageCollector.collect(new SparseArray<>()));
+
+    assertTrue(results.isComplete());
+    assertEquals(10, results.getTargetsRemoved());
+    assertEquals(1, results.getPauseCount());
+    assertEquals(results.getMaxPauseMs(), results.getTotalPauseMs());
+  }
+
+  @Test
+  public void testIncrementalGCRemovesSameEntriesAsFullGC() {
+    LruGarbageCollector.Params params = LruGarbageCollector.Params.WithCacheSizeBytes(100);
+    persistence.shutdown();
+    newTestResources(params);
+
+    // Add enough targets that the collection spans several slices.
+    int targetCount = 15 * LruGarbageCollector.SEQUENCE_NUMBERS_PER_SLICE;
+    for (int i = 0; i < targetCount; i++) {
+      persistence.runTransaction(
+          "Add a target and a document",
+          () -> {
+            TargetData targetData = addNextQueryInTransaction();
+            Document doc = cacheADocumentInTransaction();
+            addDocumentToTarget(doc.getKey(), targetData.getTargetId());
+          });
+    }
+
+    int calls = 0;
+    LruGarbageCollector.Results results;
+    do {
+      results =
+          persistence.runTransaction(
+              "GC", () -> garbageCollector.collectIncrementally(new SparseArray<>()));
+      ++calls;
+      assertTrue(results.hasRun());
+    } while (!results.isComplete());
+
+    // By default, we collect 10% of the sequence numbers.
+    int collected = targetCount / 10;
+    assertEquals(collected, results.getSequenceNumbersCollected());
+    assertEquals(collected, results.getTargetsRemoved());
+    assertEquals(collected, results.getDocumentsRemoved());
+    assertEquals(calls, results.getPauseCount());
+    assertTrue(results.getMaxPauseMs() <= results.getTotalPauseMs());
+    assertEquals(targetCount - collected, targetCache.getTargetCount());
+  }
 }
@@ -0,0 +1,194 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.local;
+
+import static com.google.firebase.firestore.testutil.TestUtil.deleteMutation;
+import static com.google.firebase.firestore.testutil.TestUtil.field;
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static com.google.firebase.firestore.testutil.TestUtil.patchMutation;
+import static com.google.firebase.firestore.testutil.TestUtil.setMutation;
+import static com.google.firebase.firestore.testutil.TestUtil.transformMutation;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.model.mutation.Mutation;
+import com.google.firebase.firestore.model.mutation.MutationBatch;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class MutationBatchCoalescerTest {
+
+  private static final int BATCH_ID = 42;
+  private static final Timestamp WRITE_TIME = new Timestamp(1, 0);
+
+  @Test
+  public void testMergesPatchIntoSet() {
+    MutationBatch previous = batch(emptyList(), singletonList(setMutation("foo/bar", map("a", 1))));
+    MutationBatch merged =
+        MutationBatchCoalescer.coalesce(
+            previous, emptyList(), singletonList(patchMutation("foo/bar", map("b", 2))));
+
+    assertEquals(
+        batch(emptyList(), singletonList(setMutation("foo/bar", map("a", 1, "b", 2)))), merged);
+  }
+
+  @Test
+  public void testMergesPatchIntoPatch() {
+    MutationBatch previous =
+        batch(emptyList(), singletonList(patchMutation("foo/bar", map("a", 1, "b", 1))));
+    MutationBatch merged =
+        MutationBatchCoalescer.coalesce(
+            previous, emptyList(), singletonList(patchMutation("foo/bar", map("b", 2, "c", 3))));
+
+    assertEquals(
+        batch(emptyList(), singletonList(patchMutation("foo/bar", map("a", 1, "b", 2, "c", 3)))),
+        merged);
+  }
+
+  @Test
+  public void testSetReplacesPreviousWrite() {
+    MutationBatch previous = batch(emptyList(), singletonList(setMutation("foo/bar", map("a", 1))));
+
+    MutationBatch merged =
+        MutationBatchCoalescer.coalesce(
+            previous, emptyList(), singletonList(setMutation("foo/bar", map("b", 2))));
+    assertEquals(batch(emptyList(), singletonList(setMutation("foo/bar", map("b", 2)))), merged);
+
+    merged =
+        MutationBatchCoalescer.coalesce(
+            previous, emptyList(), singletonList(deleteMutation("foo/bar")));
+    assertEquals(batch(emptyList(), singletonList(deleteMutation("foo/bar"))), merged);
+  }
+
+  @Test
+  public void testAddsIntegerIncrements() {
+    MutationBatch previous =
+        batch(
+            singletonList(patchMutation("foo/bar", map("count", 5))),
+            asList(
+                patchMutation("foo/bar", map("a", 1)),
+                transformMutation("foo/bar", map("count", FieldValue.increment(1)))));
+    MutationBatch merged =
+        MutationBatchCoalescer.coalesce(
+            previous,
+            singletonList(patchMutation("foo/bar", map("count", 6, "total", 10))),
+            asList(
+                patchMutation("foo/bar", map("b", 2)),
+                transformMutation(
+                    "foo/bar",
+                    map("count", FieldValue.increment(2), "total", FieldValue.increment(3)))));
+
+    // The base value of `count` is taken from the first batch, since both increments are applied
+    // to the value before the first batch.
+    assertEquals(
+        batch(
+            singletonList(patchMutation("foo/bar", map("count", 5, "total", 10))),
+            asList(
+                patchMutation("foo/bar", map("a", 1, "b", 2)),
+                transformMutation(
+                    "foo/bar",
+                    map("count", FieldValue.increment(3), "total", FieldValue.increment(3))))),
+        merged);
+  }
+
+  @Test
+  public void testDropsTransformsOverwrittenByPatch() {
+    MutationBatch previous =
+        batch(
+            emptyList(),
+            asList(
+                setMutation("foo/bar", map("a", 1)),
+                transformMutation("foo/bar", map("count", FieldValue.increment(1)))));
+    MutationBatch merged =
+        MutationBatchCoalescer.coalesce(
+            previous, emptyList(), singletonList(patchMutation("foo/bar", map("count", 10))));
+
+    assertEquals(
+        batch(emptyList(), singletonList(setMutation("foo/bar", map("a", 1, "count", 10)))),
+        merged);
+  }
+
+  @Test
+  public void testDoesNotMergeWritesToDifferentDocuments() {
+    MutationBatch previous = batch(emptyList(), singletonList(setMutation("foo/bar", map("a", 1))));
+    assertNull(
+        MutationBatchCoalescer.coalesce(
+            previous, emptyList(), singletonList(patchMutation("foo/baz", map("b", 2)))));
+  }
+
+  @Test
+  public void testDoesNotMergeWritesWithDifferentPreconditions() {
+    // The patch requires the document to exist, which the set does not.
+    MutationBatch previous =
+        batch(emptyList(), singletonList(patchMutation("foo/bar", map("a", 1))));
+    assertNull(
+        MutationBatchCoalescer.coalesce(
+            previous, emptyList(), singletonList(setMutation("foo/bar", map("b", 2)))));
+  }
+
+  @Test
+  public void testDoesNotMergePatchIntoDelete() {
+    MutationBatch previous = batch(emptyList(), singletonList(deleteMutation("foo/bar")));
+    assertNull(
+        MutationBatchCoalescer.coalesce(
+            previous,
+            emptyList(),
+            singletonList(patchMutation("foo/bar", map("a", 1), singletonList(field("a"))))));
+  }
+
+  @Test
+  public void testDoesNotMergeServerTimestamps() {
+    MutationBatch previous =
+        batch(
+            emptyList(),
+            asList(
+                setMutation("foo/bar", map("a", 1)),
+                transformMutation("foo/bar", map("time", FieldValue.serverTimestamp()))));
+    assertNull(
+        MutationBatchCoalescer.coalesce(
+            previous, emptyList(), singletonList(patchMutation("foo/bar", map("b", 2)))));
+  }
+
+  @Test
+  public void testDoesNotMergeOverflowingIncrements() {
+    MutationBatch previous =
+        batch(
+            emptyList(),
+            asList(
+                setMutation("foo/bar", map("a", 1)),
+                transformMutation("foo/bar", map("count", FieldValue.increment(Long.MAX_VALUE)))));
+    assertNull(
+        MutationBatchCoalescer.coalesce(
+            previous,
+            emptyList(),
+            asList(
+                patchMutation("foo/bar", map("b", 2)),
+                transformMutation("foo/bar", map("count", FieldValue.increment(1))))));
+  }
+
+  private static MutationBatch batch(List<Mutation> baseMutations, List<Mutation> mutations) {
+    return new MutationBatch(BATCH_ID, WRITE_TIME, baseMutations, mutations);
+  }
+}
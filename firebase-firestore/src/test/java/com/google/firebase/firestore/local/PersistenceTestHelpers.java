@@ -56,6 +56,35 @@ public final class PersistenceTestHelpers {
     return openSQLitePersistence(nextSQLiteDatabaseName(), params);
   }
 
+  /**
+   * Creates and starts a new SQLitePersistence instance that maintains a collection index.
+   *
+   * @return a new SQLitePersistence with an empty database, an up-to-date schema and an enabled
+   *     collection index.
+   */
+  public static SQLitePersistence createSQLitePersistenceWithCollectionIndex() {
+    return openSQLitePersistence(
+        nextSQLiteDatabaseName(),
+        LruGarbageCollector.Params.Default(),
+        /* collectionIndexEnabled= */ true,
+        /* writeCoalescingEnabled= */ false);
+  }
+
+  /**
+   * Creates and starts a new SQLitePersistence instance that coalesces consecutive writes to the
+   * same document.
+   *
+   * @return a new SQLitePersistence with an empty database, an up-to-date schema and enabled write
+   *     coalescing.
+   */
+  public static SQLitePersistence createSQLitePersistenceWithWriteCoalescing() {
+    return openSQLitePersistence(
+        nextSQLiteDatabaseName(),
+        LruGarbageCollector.Params.Default(),
+        /* collectionIndexEnabled= */ false,
+        /* writeCoalescingEnabled= */ true);
+  }
+
   /** Creates and starts a new MemoryPersistence instance for testing. */
   public static MemoryPersistence createEagerGCMemoryPersistence() {
     MemoryPersistence persistence = MemoryPersistence.createEagerGcMemoryPersistence();
@@ -74,11 +103,26 @@ public final class PersistenceTestHelpers {
 
   private static SQLitePersistence openSQLitePersistence(
       String name, LruGarbageCollector.Params params) {
+    return openSQLitePersistence(
+        name, params, /* collectionIndexEnabled= */ false, /* writeCoalescingEnabled= */ false);
+  }
+
+  private static SQLitePersistence openSQLitePersistence(
+      String name,
+      LruGarbageCollector.Params params,
+      boolean collectionIndexEnabled,
+      boolean writeCoalescingEnabled) {
     DatabaseId databaseId = DatabaseId.forProject("projectId");
     LocalSerializer serializer = new LocalSerializer(new RemoteSerializer(databaseId));
     Context context = ApplicationProvider.getApplicationContext();
     SQLitePersistence persistence =
         new SQLitePersistence(context, name, databaseId, serializer, params);
+    if (collectionIndexEnabled) {
+      persistence.enableCollectionIndex();
+    }
+    if (writeCoalescingEnabled) {
+      persistence.enableWriteCoalescing();
+    }
     persistence.start();
     return persistence;
   }
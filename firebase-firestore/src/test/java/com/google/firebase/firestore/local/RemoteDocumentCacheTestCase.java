@@ -17,8 +17,10 @@ package com.google.firebase.firestore.local;
 import static com.google.firebase.firestore.testutil.TestUtil.assertDoesNotThrow;
 import static com.google.firebase.firestore.testutil.TestUtil.deletedDoc;
 import static com.google.firebase.firestore.testutil.TestUtil.doc;
+import static com.google.firebase.firestore.testutil.TestUtil.filter;
 import static com.google.firebase.firestore.testutil.TestUtil.key;
 import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static com.google.firebase.firestore.testutil.TestUtil.orderBy;
 import static com.google.firebase.firestore.testutil.TestUtil.path;
 import static com.google.firebase.firestore.testutil.TestUtil.values;
 import static com.google.firebase.firestore.testutil.TestUtil.version;
@@ -140,6 +142,24 @@ abstract class RemoteDocumentCacheTestCase {
     assertEquals(deletedDoc, get(path));
   }
 
+  @Test
+  public void testAddAllDocuments() {
+    List<MaybeDocument> written =
+        asList(
+            doc("a/1", 42, map("data", 1)),
+            deletedDoc("a/2", 42),
+            doc("a/3/b/1", 42, map("data", 2)),
+            doc("c/1", 42, map("data", 3)));
+    persistence.runTransaction(
+        "add entries", () -> remoteDocumentCache.addAll(written, version(42)));
+
+    Map<DocumentKey, MaybeDocument> expected = new HashMap<>();
+    for (MaybeDocument doc : written) {
+      expected.put(doc.getKey(), doc);
+    }
+    assertEquals(expected, getAll(asList("a/1", "a/2", "a/3/b/1", "c/1")));
+  }
+
   @Test
   public void testSetDocumentToNewValue() {
     String path = "a/b";
@@ -182,6 +202,73 @@ abstract class RemoteDocumentCacheTestCase {
     assertEquals(expected, values(results));
   }
 
+  @Test
+  public void testTopDocumentsMatchingQueryInKeyOrder() {
+    addTestDocumentAtPath("a/1");
+    for (int i = 1; i <= 5; ++i) {
+      addTestDocumentAtPath("b/" + i);
+    }
+    addTestDocumentAtPath("b/1/c/1");
+    addTestDocumentAtPath("c/1");
+
+    Query query = Query.atPath(path("b"));
+    assertEquals(
+        asList(key("b/1"), key("b/2")),
+        keys(remoteDocumentCache.getTopDocumentsMatchingQuery(query.limitToFirst(2), 2)));
+    // The count may exceed the limit of the query.
+    assertEquals(
+        asList(key("b/1"), key("b/2"), key("b/3")),
+        keys(remoteDocumentCache.getTopDocumentsMatchingQuery(query.limitToFirst(2), 3)));
+    assertEquals(
+        asList(key("b/4"), key("b/5")),
+        keys(remoteDocumentCache.getTopDocumentsMatchingQuery(query.limitToLast(2), 2)));
+    assertEquals(
+        asList(key("b/4"), key("b/5")),
+        keys(
+            remoteDocumentCache.getTopDocumentsMatchingQuery(
+                query.orderBy(orderBy(DocumentKey.KEY_FIELD_NAME, "desc")).limitToFirst(2), 2)));
+  }
+
+  @Test
+  public void testTopDocumentsMatchingQueryInFieldOrder() {
+    List<Integer> values = asList(3, 1, 4, 5, 9, 2, 6);
+    for (int i = 0; i < values.size(); ++i) {
+      add(doc("b/" + i, 42, map("sort", values.get(i))), version(42));
+    }
+
+    Query query = Query.atPath(path("b")).orderBy(orderBy("sort"));
+    // The documents with the values 1 and 2.
+    assertEquals(
+        asList(key("b/1"), key("b/5")),
+        keys(remoteDocumentCache.getTopDocumentsMatchingQuery(query.limitToFirst(2), 2)));
+    // The documents with the values 6 and 9.
+    assertEquals(
+        asList(key("b/4"), key("b/6")),
+        keys(remoteDocumentCache.getTopDocumentsMatchingQuery(query.limitToLast(2), 2)));
+    // The documents with the values 4 and 5, which are the first ones matching the filter.
+    assertEquals(
+        asList(key("b/2"), key("b/3")),
+        keys(
+            remoteDocumentCache.getTopDocumentsMatchingQuery(
+                query.filter(filter("sort", ">", 3)).limitToFirst(2), 2)));
+  }
+
+  @Test
+  public void testDocumentsMatchingQueryExcludesSubcollections() {
+    Map<String, Object> docData = map("data", 2);
+    addTestDocumentAtPath("a/1");
+    addTestDocumentAtPath("a/1/b/1");
+    addTestDocumentAtPath("a/1/b/1/c/1");
+    addTestDocumentAtPath("a/2");
+    addTestDocumentAtPath("a/2/b/2");
+
+    Query query = Query.atPath(path("a"));
+    ImmutableSortedMap<DocumentKey, Document> results =
+        remoteDocumentCache.getAllDocumentsMatchingQuery(query, SnapshotVersion.NONE);
+    List<Document> expected = asList(doc("a/1", 42, docData), doc("a/2", 42, docData));
+    assertEquals(expected, values(results));
+  }
+
   @Test
   public void testDocumentsMatchingQuerySinceReadTime() {
     Map<String, Object> docData = map("data", 2);
@@ -209,6 +296,14 @@ abstract class RemoteDocumentCacheTestCase {
     assertEquals(expected, values(results));
   }
 
+  private static List<DocumentKey> keys(ImmutableSortedMap<DocumentKey, Document> documents) {
+    List<DocumentKey> keys = new ArrayList<>();
+    for (Map.Entry<DocumentKey, Document> entry : documents) {
+      keys.add(entry.getKey());
+    }
+    return keys;
+  }
+
   private Document addTestDocumentAtPath(String path) {
     return addTestDocumentAtPath(path, 42, 42);
   }
@@ -0,0 +1,200 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.local;
+
+import static com.google.firebase.firestore.testutil.TestUtil.key;
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static com.google.firebase.firestore.testutil.TestUtil.patchMutation;
+import static com.google.firebase.firestore.testutil.TestUtil.setMutation;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.auth.User;
+import com.google.firebase.firestore.model.mutation.Mutation;
+import com.google.firebase.firestore.model.mutation.MutationBatch;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class SQLiteMutationQueueCoalescingTest {
+
+  private SQLitePersistence persistence;
+  private MutationQueue mutationQueue;
+
+  @Before
+  public void setUp() {
+    persistence = PersistenceTestHelpers.createSQLitePersistenceWithWriteCoalescing();
+    persistence.getReferenceDelegate().setInMemoryPins(new ReferenceSet());
+    mutationQueue = persistence.getMutationQueue(User.UNAUTHENTICATED);
+    mutationQueue.start();
+  }
+
+  @After
+  public void tearDown() {
+    persistence.shutdown();
+  }
+
+  @Test
+  public void testCoalescesUnsentWritesToTheSameDocument() {
+    MutationBatch batch1 = addMutationBatch(setMutation("foo/bar", map("a", 1)));
+    MutationBatch batch2 = addMutationBatch(patchMutation("foo/bar", map("b", 2)));
+
+    assertEquals(batch1.getBatchId(), batch2.getBatchId());
+    assertEquals(batch1.getLocalWriteTime(), batch2.getLocalWriteTime());
+    assertEquals(
+        singletonList(setMutation("foo/bar", map("a", 1, "b", 2))), batch2.getMutations());
+
+    List<MutationBatch> batches = mutationQueue.getAllMutationBatches();
+    assertEquals(singletonList(batch2), batches);
+    assertEquals(
+        singletonList(batch2),
+        mutationQueue.getAllMutationBatchesAffectingDocumentKey(key("foo/bar")));
+  }
+
+  @Test
+  public void testDoesNotCoalesceWritesToDifferentDocuments() {
+    MutationBatch batch1 = addMutationBatch(setMutation("foo/bar", map("a", 1)));
+    MutationBatch batch2 = addMutationBatch(setMutation("foo/baz", map("a", 1)));
+
+    assertNotEquals(batch1.getBatchId(), batch2.getBatchId());
+    assertEquals(2, mutationQueue.getAllMutationBatches().size());
+  }
+
+  @Test
+  public void testDoesNotCoalesceIntoRetrievedBatches() {
+    MutationBatch batch1 = addMutationBatch(setMutation("foo/bar", map("a", 1)));
+    assertEquals(batch1, mutationQueue.getNextMutationBatchAfterBatchId(MutationBatch.UNKNOWN));
+
+    MutationBatch batch2 = addMutationBatch(patchMutation("foo/bar", map("b", 2)));
+    assertNotEquals(batch1.getBatchId(), batch2.getBatchId());
+    assertEquals(2, mutationQueue.getAllMutationBatches().size());
+
+    // Batches that are added after the last retrieved batch can be coalesced again.
+    MutationBatch batch3 = addMutationBatch(patchMutation("foo/bar", map("c", 3)));
+    assertEquals(batch2.getBatchId(), batch3.getBatchId());
+    assertEquals(2, mutationQueue.getAllMutationBatches().size());
+  }
+
+  @Test
+  public void testDoesNotCoalesceIntoRemovedBatches() {
+    MutationBatch batch1 = addMutationBatch(setMutation("foo/bar", map("a", 1)));
+    persistence.runTransaction(
+        "Remove mutation batch", () -> mutationQueue.removeMutationBatch(batch1));
+
+    MutationBatch batch2 = addMutationBatch(patchMutation("foo/bar", map("b", 2)));
+    assertNotEquals(batch1.getBatchId(), batch2.getBatchId());
+    assertEquals(singletonList(batch2), mutationQueue.getAllMutationBatches());
+  }
+
+  @Test
+  public void testPersistsCoalescedBatches() {
+    addMutationBatch(patchMutation("foo/bar", map("a", 1)));
+    MutationBatch batch = addMutationBatch(patchMutation("foo/bar", map("b", 2)));
+
+    MutationQueue restartedQueue = persistence.getMutationQueue(User.UNAUTHENTICATED);
+    restartedQueue.start();
+    assertEquals(batch, restartedQueue.lookupMutationBatch(batch.getBatchId()));
+  }
+
+  @Test
+  public void testRetrievedBatchesKeepTheirEncodedMutations() {
+    addMutationBatch(setMutation("foo/bar", map("a", 1)));
+    MutationBatch batch = addMutationBatch(patchMutation("foo/bar", map("b", 2)));
+    assertNotNull(batch.getEncodedMutations());
+
+    MutationBatch next = mutationQueue.getNextMutationBatchAfterBatchId(MutationBatch.UNKNOWN);
+    assertEquals(batch, next);
+
+    MutationQueue restartedQueue = persistence.getMutationQueue(User.UNAUTHENTICATED);
+    restartedQueue.start();
+    MutationBatch stored = restartedQueue.getNextMutationBatchAfterBatchId(MutationBatch.UNKNOWN);
+    assertEquals(stored.getEncodedMutations(), next.getEncodedMutations());
+  }
+
+  @Test
+  public void testDoesNotRetrieveBatchesOfAbortedTransactions() {
+    try {
+      persistence.runTransaction(
+          "Aborted mutation batch",
+          () -> {
+            mutationQueue.addMutationBatch(
+                Timestamp.now(),
+                Collections.emptyList(),
+                singletonList(setMutation("foo/bar", map("a", 1))));
+            throw new RuntimeException("Simulated failure");
+          });
+      fail("Expected the transaction to fail");
+    } catch (RuntimeException e) {
+      // Expected.
+    }
+
+    assertNull(mutationQueue.getNextMutationBatchAfterBatchId(MutationBatch.UNKNOWN));
+    MutationBatch batch = addMutationBatch(setMutation("foo/baz", map("b", 2)));
+    assertEquals(batch, mutationQueue.getNextMutationBatchAfterBatchId(MutationBatch.UNKNOWN));
+  }
+
+  @Test
+  public void testDoesNotCoalesceIntoBatchesOfAbortedTransactions() {
+    try {
+      persistence.runTransaction(
+          "Aborted mutation batch",
+          () -> {
+            mutationQueue.addMutationBatch(
+                Timestamp.now(),
+                Collections.emptyList(),
+                singletonList(setMutation("foo/bar", map("a", 1))));
+            throw new RuntimeException("Simulated failure");
+          });
+      fail("Expected the transaction to fail");
+    } catch (RuntimeException e) {
+      // Expected.
+    }
+
+    MutationBatch batch = addMutationBatch(patchMutation("foo/bar", map("b", 2)));
+    assertEquals(singletonList(patchMutation("foo/bar", map("b", 2))), batch.getMutations());
+    assertEquals(singletonList(batch), mutationQueue.getAllMutationBatches());
+  }
+
+  @Test
+  public void testDoesNotCoalesceIntoBatchesOfEarlierSessions() {
+    MutationBatch batch1 = addMutationBatch(setMutation("foo/bar", map("a", 1)));
+
+    mutationQueue = persistence.getMutationQueue(User.UNAUTHENTICATED);
+    mutationQueue.start();
+    MutationBatch batch2 = addMutationBatch(patchMutation("foo/bar", map("b", 2)));
+    assertNotEquals(batch1.getBatchId(), batch2.getBatchId());
+    assertEquals(2, mutationQueue.getAllMutationBatches().size());
+  }
+
+  private MutationBatch addMutationBatch(Mutation mutation) {
+    return persistence.runTransaction(
+        "New mutation batch",
+        () ->
+            mutationQueue.addMutationBatch(
+                Timestamp.now(), Collections.emptyList(), singletonList(mutation)));
+  }
+}
@@ -14,6 +14,20 @@
 
 package com.google.firebase.firestore.local;
 
+import static com.google.firebase.firestore.testutil.TestUtil.doc;
+import static com.google.firebase.firestore.testutil.TestUtil.filter;
+import static com.google.firebase.firestore.testutil.TestUtil.key;
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static com.google.firebase.firestore.testutil.TestUtil.query;
+import static com.google.firebase.firestore.testutil.TestUtil.version;
+import static org.junit.Assert.assertEquals;
+
+import com.google.firebase.database.collection.ImmutableSortedMap;
+import com.google.firebase.firestore.model.Document;
+import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.model.SnapshotVersion;
+import java.util.Map;
+import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
@@ -26,4 +40,120 @@ public final class SQLiteRemoteDocumentCacheTest extends RemoteDocumentCacheTest
   Persistence getPersistence() {
     return PersistenceTestHelpers.createSQLitePersistence();
   }
+
+  @Test
+  public void testCollectionScanSkipsSubcollections() {
+    int roomCount = 10;
+    int messagesPerRoom = 100;
+
+    SQLitePersistence persistence = PersistenceTestHelpers.createSQLitePersistence();
+    SQLiteRemoteDocumentCache remoteDocumentCache =
+        (SQLiteRemoteDocumentCache) persistence.getRemoteDocumentCache();
+    persistence.runTransaction(
+        "populate",
+        () -> {
+          for (int i = 0; i < roomCount; ++i) {
+            remoteDocumentCache.add(doc("rooms/" + i, 1, map()), version(1));
+            for (int j = 0; j < messagesPerRoom; ++j) {
+              remoteDocumentCache.add(
+                  doc("rooms/" + i + "/messages/" + j, 1, map("text", "hi")), version(1));
+            }
+          }
+        });
+
+    long rowCountBefore = remoteDocumentCache.getCollectionScanRowCount();
+    ImmutableSortedMap<DocumentKey, Document> results =
+        remoteDocumentCache.getAllDocumentsMatchingQuery(query("rooms"), SnapshotVersion.NONE);
+
+    assertEquals(roomCount, results.size());
+    // Only the rooms are read, not the messages in their subcollections.
+    assertEquals(roomCount, remoteDocumentCache.getCollectionScanRowCount() - rowCountBefore);
+
+    persistence.shutdown();
+  }
+
+  @Test
+  public void testCollectionScanDecodesMultipleBatches() {
+    // Use enough documents to span several decode batches, including a partial final batch.
+    int documentCount = 1000;
+
+    SQLitePersistence persistence = PersistenceTestHelpers.createSQLitePersistence();
+    RemoteDocumentCache remoteDocumentCache = persistence.getRemoteDocumentCache();
+    persistence.runTransaction(
+        "populate",
+        () -> {
+          for (int i = 0; i < documentCount; ++i) {
+            remoteDocumentCache.add(
+                doc(String.format("coll/%04d", i), 1, map("even", i % 2 == 0)), version(1));
+          }
+        });
+
+    ImmutableSortedMap<DocumentKey, Document> results =
+        remoteDocumentCache.getAllDocumentsMatchingQuery(
+            query("coll").filter(filter("even", "==", true)), SnapshotVersion.NONE);
+
+    assertEquals(documentCount / 2, results.size());
+    int expected = 0;
+    for (Map.Entry<DocumentKey, Document> entry : results) {
+      assertEquals(key(String.format("coll/%04d", expected)), entry.getKey());
+      expected += 2;
+    }
+
+    persistence.shutdown();
+  }
+
+  @Test
+  public void testTopDocumentsInKeyOrderReadSeveralPages() {
+    int documentCount = 250;
+
+    SQLitePersistence persistence = PersistenceTestHelpers.createSQLitePersistence();
+    RemoteDocumentCache remoteDocumentCache = persistence.getRemoteDocumentCache();
+    persistence.runTransaction(
+        "populate",
+        () -> {
+          for (int i = 0; i < documentCount; ++i) {
+            remoteDocumentCache.add(
+                doc(String.format("coll/%04d", i), 1, map("even", i % 2 == 0)), version(1));
+          }
+        });
+
+    // The first 60 even documents are spread over the first two pages of 100 rows.
+    ImmutableSortedMap<DocumentKey, Document> results =
+        remoteDocumentCache.getTopDocumentsMatchingQuery(
+            query("coll").filter(filter("even", "==", true)).limitToFirst(60), 60);
+
+    assertEquals(60, results.size());
+    int expected = 0;
+    for (Map.Entry<DocumentKey, Document> entry : results) {
+      assertEquals(key(String.format("coll/%04d", expected)), entry.getKey());
+      expected += 2;
+    }
+
+    persistence.shutdown();
+  }
+
+  @Test
+  public void testTopDocumentsInKeyOrderHandleIdsThatSortDifferentlyInSQLite() {
+    SQLitePersistence persistence = PersistenceTestHelpers.createSQLitePersistence();
+    RemoteDocumentCache remoteDocumentCache = persistence.getRemoteDocumentCache();
+    persistence.runTransaction(
+        "populate",
+        () -> {
+          // SQLite orders U+FF01 before U+1F600, but document keys sort U+1F600 first. The
+          // documents starting with U+FF01 fill the entire first page of the scan.
+          for (int i = 0; i < 100; ++i) {
+            remoteDocumentCache.add(
+                doc(String.format("coll/\uFF01%03d", i), 1, map()), version(1));
+          }
+          remoteDocumentCache.add(doc("coll/\uD83D\uDE00", 1, map()), version(1));
+        });
+
+    ImmutableSortedMap<DocumentKey, Document> results =
+        remoteDocumentCache.getTopDocumentsMatchingQuery(query("coll").limitToFirst(1), 1);
+
+    assertEquals(1, results.size());
+    assertEquals(key("coll/\uD83D\uDE00"), results.getMinKey());
+
+    persistence.shutdown();
+  }
 }
@@ -569,7 +569,54 @@ public class SQLiteSchemaTest {
             });
   }
 
+  @Test
+  public void addsPathLength() {
+    schema.runMigrations(0, 11);
+
+    // Insert more documents than the migration batch size, which is 100.
+    int documentCount = 250;
+    for (int i = 0; i < documentCount; i++) {
+      db.execSQL(
+          "INSERT INTO remote_documents (path, contents) VALUES (?, ?)",
+          new Object[] {encode(path("coll/doc_" + i)), createDummyDocument("coll/doc_" + i)});
+    }
+    db.execSQL(
+        "INSERT INTO remote_documents (path, contents) VALUES (?, ?)",
+        new Object[] {
+          encode(path("coll/doc_0/sub/nested")), createDummyDocument("coll/doc_0/sub/nested")
+        });
+
+    schema.runMigrations(11, SQLiteSchema.VERSION);
+
+    new SQLitePersistence.Query(db, "SELECT path, path_length FROM remote_documents")
+        .forEach(
+            row -> {
+              ResourcePath path = decodeResourcePath(row.getString(0));
+              assertEquals(path.length(), row.getInt(1));
+            });
+
+    SQLiteRemoteDocumentCache remoteDocumentCache = createRemoteDocumentCache();
+    ImmutableSortedMap<DocumentKey, com.google.firebase.firestore.model.Document> results =
+        remoteDocumentCache.getAllDocumentsMatchingQuery(query("coll"), version(0));
+    assertEquals(documentCount, results.size());
+    assertFalse(results.containsKey(key("coll/doc_0/sub/nested")));
+  }
+
+  @Test
+  public void createsSequenceNumberIndexes() {
+    schema.runMigrations(0, 14);
+    schema.runMigrations(14, SQLiteSchema.VERSION);
+
+    Set<String> indexes = new HashSet<>();
+    new SQLitePersistence.Query(db, "SELECT name FROM sqlite_master WHERE type = \"index\"")
+        .forEach(row -> indexes.add(row.getString(0)));
+    assertTrue(indexes.contains("target_sequence_numbers"));
+    assertTrue(indexes.contains("target_document_sequence_numbers"));
+  }
+
   private SQLiteRemoteDocumentCache createRemoteDocumentCache() {
+    // Bring the schema up to date, as SQLitePersistence does when it opens an older database.
+    schema.runMigrations();
     SQLitePersistence persistence =
         new SQLitePersistence(serializer, LruGarbageCollector.Params.Default(), opener);
     persistence.start();
@@ -0,0 +1,176 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.local;
+
+import static com.google.firebase.firestore.testutil.TestUtil.doc;
+import static com.google.firebase.firestore.testutil.TestUtil.key;
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static com.google.firebase.firestore.testutil.TestUtil.query;
+import static com.google.firebase.firestore.testutil.TestUtil.version;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.FirebaseFirestoreException.Code;
+import com.google.firebase.firestore.core.Query;
+import com.google.firebase.firestore.model.DatabaseId;
+import com.google.firebase.firestore.proto.SnapshotFileElement;
+import com.google.firebase.firestore.proto.SnapshotFileMetadata;
+import com.google.firebase.firestore.proto.SnapshotFileQuery;
+import com.google.firebase.firestore.remote.RemoteSerializer;
+import com.google.firestore.v1.Value;
+import com.google.protobuf.ByteString;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public final class SnapshotFileReaderTest {
+
+  private final RemoteSerializer serializer =
+      new RemoteSerializer(DatabaseId.forDatabase("p", "d"));
+
+  private SnapshotFileElement metadata(int totalDocuments, long totalBytes) {
+    return SnapshotFileElement.newBuilder()
+        .setMetadata(
+            SnapshotFileMetadata.newBuilder()
+                .setCreateTime(serializer.encodeTimestamp(version(10).getTimestamp()))
+                .setTotalDocuments(totalDocuments)
+                .setTotalBytes(totalBytes))
+        .build();
+  }
+
+  private static SnapshotFileElement document(String name, String field, long value) {
+    return SnapshotFileElement.newBuilder()
+        .setDocument(
+            com.google.firestore.v1.Document.newBuilder()
+                .setName(name)
+                .putFields(field, Value.newBuilder().setIntegerValue(value).build())
+                .setUpdateTime(com.google.protobuf.Timestamp.newBuilder().setSeconds(1)))
+        .build();
+  }
+
+  private static byte[] write(SnapshotFileElement... elements) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    for (SnapshotFileElement element : elements) {
+      element.writeDelimitedTo(output);
+    }
+    return output.toByteArray();
+  }
+
+  private SnapshotFileReader reader(byte[] file) {
+    return new SnapshotFileReader(serializer, new ByteArrayInputStream(file));
+  }
+
+  @Test
+  public void testReadsDocumentsAndQueries() throws Exception {
+    Query query = query("coll");
+    SnapshotFileElement queryElement =
+        SnapshotFileElement.newBuilder()
+            .setQuery(
+                SnapshotFileQuery.newBuilder()
+                    .setQuery(serializer.encodeQueryTarget(query.toTarget()))
+                    .setReadTime(serializer.encodeTimestamp(version(10).getTimestamp()))
+                    .setResumeToken(ByteString.copyFromUtf8("token"))
+                    .addDocumentNames("projects/p/databases/d/documents/coll/a"))
+            .build();
+    SnapshotFileElement document =
+        document("projects/p/databases/d/documents/coll/a", "value", 1);
+    byte[] body = write(queryElement, document);
+    byte[] file = concat(write(metadata(1, body.length)), body);
+
+    SnapshotFileReader reader = reader(file);
+    assertEquals(version(10), reader.getCreateTime());
+    assertEquals(1, reader.getTotalDocuments());
+    assertEquals(body.length, reader.getTotalBytes());
+
+    SnapshotFileReader.Batch batch = reader.readBatch();
+    assertEquals(asList(doc("coll/a", 1000000, map("value", 1))), batch.getDocuments());
+    assertEquals(1, batch.getQueries().size());
+    SnapshotFileReader.QueryResults results = batch.getQueries().get(0);
+    assertEquals(query.toTarget(), results.getTarget());
+    assertEquals(version(10), results.getReadTime());
+    assertEquals(ByteString.copyFromUtf8("token"), results.getResumeToken());
+    assertEquals(asList(key("coll/a")), results.getKeys());
+
+    assertNull(reader.readBatch());
+    assertEquals(file.length, reader.getBytesRead());
+  }
+
+  @Test
+  public void testReadsDocumentsInBatches() throws Exception {
+    List<SnapshotFileElement> elements = new ArrayList<>();
+    elements.add(metadata(1200, 0));
+    for (int i = 0; i < 1200; ++i) {
+      elements.add(document("projects/p/databases/d/documents/coll/doc" + i, "value", i));
+    }
+    SnapshotFileReader reader = reader(write(elements.toArray(new SnapshotFileElement[0])));
+
+    assertEquals(500, reader.readBatch().getDocuments().size());
+    assertEquals(500, reader.readBatch().getDocuments().size());
+    assertEquals(200, reader.readBatch().getDocuments().size());
+    assertNull(reader.readBatch());
+  }
+
+  @Test
+  public void testRejectsFilesWithoutMetadata() throws Exception {
+    SnapshotFileReader reader =
+        reader(write(document("projects/p/databases/d/documents/coll/a", "value", 1)));
+    assertInvalid(reader);
+  }
+
+  @Test
+  public void testRejectsDocumentsOfOtherDatabases() throws Exception {
+    SnapshotFileReader reader =
+        reader(
+            write(
+                metadata(1, 0), document("projects/other/databases/d/documents/coll/a", "v", 1)));
+    assertInvalid(reader);
+  }
+
+  @Test
+  public void testRejectsTruncatedFiles() throws Exception {
+    byte[] file =
+        write(metadata(1, 0), document("projects/p/databases/d/documents/coll/a", "v", 1));
+    byte[] truncated = new byte[file.length - 1];
+    System.arraycopy(file, 0, truncated, 0, truncated.length);
+    assertInvalid(reader(truncated));
+  }
+
+  private static void assertInvalid(SnapshotFileReader reader) {
+    try {
+      reader.readBatch();
+      fail("Expected the snapshot file to be rejected");
+    } catch (FirebaseFirestoreException e) {
+      assertEquals(Code.INVALID_ARGUMENT, e.getCode());
+    }
+  }
+
+  private static byte[] concat(byte[] first, byte[] second) {
+    byte[] result = new byte[first.length + second.length];
+    System.arraycopy(first, 0, result, 0, first.length);
+    System.arraycopy(second, 0, result, first.length, second.length);
+    return result;
+  }
+}
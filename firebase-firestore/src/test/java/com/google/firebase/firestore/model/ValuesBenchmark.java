@@ -0,0 +1,106 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.model;
+
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static com.google.firebase.firestore.testutil.TestUtil.wrap;
+import static org.junit.Assume.assumeTrue;
+
+import com.google.firebase.firestore.testutil.BenchmarkRunner;
+import com.google.firestore.v1.Value;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Benchmarks the comparison of values, which is used to order the results of queries.
+ *
+ * <p>Run with {@code ./gradlew :firebase-firestore:testReleaseUnitTest -PrunBenchmarks=true
+ * --tests '*Benchmark'}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ValuesBenchmark {
+
+  /** The number of comparisons per operation. */
+  private static final int COMPARISONS = 100000;
+
+  private static BenchmarkRunner runner;
+
+  @BeforeClass
+  public static void setUpRunner() {
+    runner = new BenchmarkRunner("ValuesBenchmark");
+  }
+
+  @AfterClass
+  public static void finishRunner() throws Exception {
+    runner.finish();
+  }
+
+  @Before
+  public void setUp() {
+    assumeTrue("Benchmarks are only run if 'runBenchmarks' is set", BenchmarkRunner.isEnabled());
+  }
+
+  @Test
+  public void compare() throws Exception {
+    List<Value> integers = new ArrayList<>();
+    List<Value> doubles = new ArrayList<>();
+    List<Value> strings = new ArrayList<>();
+    List<Value> arrays = new ArrayList<>();
+    List<Value> maps = new ArrayList<>();
+    for (int i = 0; i < 1000; ++i) {
+      int value = (i * 7919) % 10007;
+      integers.add(wrap(value));
+      doubles.add(wrap(value + 0.5));
+      strings.add(wrap("a somewhat longer string with a common prefix " + value));
+      arrays.add(wrap(Arrays.asList(1, 2, 3, "a", "b", value)));
+      maps.add(wrap(map("a", 1, "b", "two", "c", map("d", value))));
+    }
+
+    measureCompare("integers", integers);
+    measureCompare("doubles", doubles);
+    measureCompare("strings", strings);
+    measureCompare("arrays", arrays);
+    measureCompare("maps", maps);
+
+    List<Value> mixed = new ArrayList<>();
+    for (int i = 0; i < 1000; ++i) {
+      mixed.add(i % 2 == 0 ? integers.get(i) : doubles.get(i));
+    }
+    measureCompare("integers and doubles", mixed);
+  }
+
+  private void measureCompare(String name, List<Value> values) throws Exception {
+    runner.measure(
+        "Values.compare " + name + " (" + COMPARISONS + " comparisons)",
+        () -> {
+          int result = 0;
+          for (int i = 0; i < COMPARISONS; ++i) {
+            Value left = values.get(i % values.size());
+            Value right = values.get((i + 1) % values.size());
+            result += Values.compare(left, right);
+          }
+          BenchmarkRunner.sink = result;
+        });
+  }
+}
@@ -0,0 +1,144 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.remote;
+
+import static com.google.firebase.firestore.testutil.TestUtil.deletedDoc;
+import static com.google.firebase.firestore.testutil.TestUtil.doc;
+import static com.google.firebase.firestore.testutil.TestUtil.key;
+import static com.google.firebase.firestore.testutil.TestUtil.keySet;
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static com.google.firebase.firestore.testutil.TestUtil.version;
+import static org.junit.Assert.assertEquals;
+
+import com.google.firebase.firestore.ExistenceFilterStats;
+import com.google.firebase.firestore.model.Document;
+import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.model.MaybeDocument;
+import com.google.firebase.firestore.model.SnapshotVersion;
+import com.google.protobuf.ByteString;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ExistenceFilterRecoveryTest {
+
+  @Test
+  public void testPlanFetchesMissingAndOutdatedDocuments() {
+    Map<DocumentKey, SnapshotVersion> backendVersions = new HashMap<>();
+    backendVersions.put(key("coll/current"), version(2));
+    backendVersions.put(key("coll/outdated"), version(3));
+    backendVersions.put(key("coll/missing"), version(1));
+    backendVersions.put(key("coll/deleted"), version(4));
+    backendVersions.put(key("coll/committed"), version(5));
+
+    Map<DocumentKey, MaybeDocument> cachedDocuments = new HashMap<>();
+    cachedDocuments.put(key("coll/current"), doc("coll/current", 2, map("value", 1)));
+    cachedDocuments.put(key("coll/outdated"), doc("coll/outdated", 2, map("value", 1)));
+    cachedDocuments.put(key("coll/missing"), null);
+    cachedDocuments.put(key("coll/deleted"), deletedDoc("coll/deleted", 3));
+    cachedDocuments.put(
+        key("coll/committed"),
+        doc("coll/committed", 5, map("value", 1), Document.DocumentState.COMMITTED_MUTATIONS));
+
+    ExistenceFilterRecovery.Plan plan =
+        ExistenceFilterRecovery.createPlan(backendVersions, cachedDocuments);
+
+    Set<DocumentKey> expected = new HashSet<>();
+    expected.add(key("coll/outdated"));
+    expected.add(key("coll/missing"));
+    expected.add(key("coll/deleted"));
+    expected.add(key("coll/committed"));
+    assertEquals(expected, new HashSet<>(plan.getDocumentsToFetch()));
+    assertEquals(1, plan.getReusedDocumentCount());
+  }
+
+  @Test
+  public void testTargetChangeReconcilesTargetWithBackend() {
+    Map<DocumentKey, SnapshotVersion> backendVersions = new HashMap<>();
+    // Cached in its latest version.
+    backendVersions.put(key("coll/a"), version(1));
+    // Changed on the backend.
+    backendVersions.put(key("coll/b"), version(2));
+    // Cached in its latest version by another target.
+    backendVersions.put(key("coll/c"), version(1));
+    // Not cached.
+    backendVersions.put(key("coll/d"), version(1));
+    // Deleted after the keys-only query ran.
+    backendVersions.put(key("coll/e"), version(2));
+
+    Map<DocumentKey, MaybeDocument> cachedDocuments = new HashMap<>();
+    cachedDocuments.put(key("coll/a"), doc("coll/a", 1, map()));
+    cachedDocuments.put(key("coll/b"), doc("coll/b", 1, map()));
+    cachedDocuments.put(key("coll/c"), doc("coll/c", 1, map()));
+    cachedDocuments.put(key("coll/e"), doc("coll/e", 1, map()));
+    ExistenceFilterRecovery.Plan plan =
+        ExistenceFilterRecovery.createPlan(backendVersions, cachedDocuments);
+
+    Map<DocumentKey, MaybeDocument> fetchedDocuments = new HashMap<>();
+    fetchedDocuments.put(key("coll/b"), doc("coll/b", 2, map()));
+    fetchedDocuments.put(key("coll/d"), doc("coll/d", 1, map()));
+    fetchedDocuments.put(key("coll/e"), deletedDoc("coll/e", 3));
+
+    TargetChange targetChange =
+        ExistenceFilterRecovery.createTargetChange(
+            // coll/f no longer matches the query.
+            keySet(key("coll/a"), key("coll/b"), key("coll/e"), key("coll/f")),
+            backendVersions.keySet(),
+            plan,
+            fetchedDocuments);
+
+    assertEquals(
+        new TargetChange(
+            ByteString.EMPTY,
+            /* current= */ true,
+            keySet(key("coll/c"), key("coll/d")),
+            keySet(key("coll/b")),
+            keySet(key("coll/e"), key("coll/f"))),
+        targetChange);
+  }
+
+  @Test
+  public void testKeepsStatistics() {
+    Map<DocumentKey, SnapshotVersion> backendVersions = new HashMap<>();
+    backendVersions.put(key("coll/a"), version(1));
+    backendVersions.put(key("coll/b"), version(2));
+
+    Document cachedDocument = doc("coll/a", 1, map("value", "foo"));
+    Map<DocumentKey, MaybeDocument> cachedDocuments = new HashMap<>();
+    cachedDocuments.put(key("coll/a"), cachedDocument);
+    ExistenceFilterRecovery.Plan plan =
+        ExistenceFilterRecovery.createPlan(backendVersions, cachedDocuments);
+
+    ExistenceFilterRecovery recovery = new ExistenceFilterRecovery();
+    recovery.handleMismatch();
+    recovery.handleTargetRecovered(plan, /* queryResponseBytes= */ 10);
+    recovery.handleMismatch();
+    recovery.handleTargetReset();
+
+    ExistenceFilterStats stats = recovery.getStats();
+    assertEquals(2, stats.getMismatchCount());
+    assertEquals(1, stats.getRecoveredQueryCount());
+    assertEquals(1, stats.getResetQueryCount());
+    assertEquals(1, stats.getReusedDocumentCount());
+    assertEquals(cachedDocument.getEncodedDataSize() - 10, stats.getBytesSaved());
+  }
+}
@@ -0,0 +1,154 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.remote;
+
+import static com.google.firebase.firestore.testutil.TestUtil.deletedDoc;
+import static com.google.firebase.firestore.testutil.TestUtil.doc;
+import static com.google.firebase.firestore.testutil.TestUtil.key;
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.model.MaybeDocument;
+import com.google.firebase.firestore.util.AsyncQueue;
+import com.google.firebase.firestore.util.Consumer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class LookupBatcherTest {
+
+  private static final MaybeDocument DOC_A = doc("coll/a", 1, map("foo", "a"));
+  private static final MaybeDocument DOC_B = doc("coll/b", 1, map("foo", "b"));
+  private static final MaybeDocument DOC_C = deletedDoc("coll/c", 1);
+
+  private AsyncQueue queue;
+  private List<Collection<DocumentKey>> requests;
+  private Consumer<MaybeDocument> onDocument;
+  private TaskCompletionSource<Void> rpcCompletion;
+  private LookupBatcher batcher;
+
+  @Before
+  public void setUp() {
+    queue = new AsyncQueue();
+    requests = new ArrayList<>();
+    batcher =
+        new LookupBatcher(
+            queue,
+            (keys, onDocument) -> {
+              requests.add(new ArrayList<>(keys));
+              this.onDocument = onDocument;
+              rpcCompletion = new TaskCompletionSource<>();
+              return rpcCompletion.getTask();
+            });
+  }
+
+  /** Waits until the worker queue has sent the pending batch. */
+  private void waitForBatch() throws InterruptedException {
+    // A lookup is added to the batch by one task on the worker queue, which schedules the batch in
+    // another task.
+    queue.runSync(() -> {});
+    queue.runSync(() -> {});
+  }
+
+  @Test
+  public void testBatchesConcurrentLookups() throws Exception {
+    List<Task<List<MaybeDocument>>> lookups = new ArrayList<>();
+    queue.runSync(
+        () -> {
+          lookups.add(batcher.lookup(singletonList(key("coll/a"))));
+          lookups.add(batcher.lookup(asList(key("coll/b"), key("coll/c"), key("coll/a"))));
+        });
+    waitForBatch();
+
+    assertEquals(singletonList(asList(key("coll/a"), key("coll/b"), key("coll/c"))), requests);
+
+    // Each lookup completes as soon as its documents have been received.
+    queue.runSync(() -> onDocument.accept(DOC_A));
+    assertTrue(lookups.get(0).isSuccessful());
+    assertEquals(singletonList(DOC_A), lookups.get(0).getResult());
+    assertFalse(lookups.get(1).isComplete());
+
+    queue.runSync(
+        () -> {
+          onDocument.accept(DOC_C);
+          onDocument.accept(DOC_B);
+        });
+    assertTrue(lookups.get(1).isSuccessful());
+    assertEquals(asList(DOC_B, DOC_C, DOC_A), lookups.get(1).getResult());
+  }
+
+  @Test
+  public void testSendsSeparateBatchesForSequentialLookups() throws Exception {
+    Task<List<MaybeDocument>> first = batcher.lookup(singletonList(key("coll/a")));
+    waitForBatch();
+    queue.runSync(
+        () -> {
+          onDocument.accept(DOC_A);
+          rpcCompletion.setResult(null);
+        });
+    assertEquals(singletonList(DOC_A), first.getResult());
+
+    Task<List<MaybeDocument>> second = batcher.lookup(singletonList(key("coll/b")));
+    waitForBatch();
+    queue.runSync(
+        () -> {
+          onDocument.accept(DOC_B);
+          rpcCompletion.setResult(null);
+        });
+    assertEquals(singletonList(DOC_B), second.getResult());
+
+    assertEquals(asList(singletonList(key("coll/a")), singletonList(key("coll/b"))), requests);
+  }
+
+  @Test
+  public void testFailsAllLookupsOfFailedBatch() throws Exception {
+    List<Task<List<MaybeDocument>>> lookups = new ArrayList<>();
+    queue.runSync(
+        () -> {
+          lookups.add(batcher.lookup(singletonList(key("coll/a"))));
+          lookups.add(batcher.lookup(singletonList(key("coll/b"))));
+        });
+    waitForBatch();
+
+    FirebaseFirestoreException error =
+        new FirebaseFirestoreException("Unavailable", FirebaseFirestoreException.Code.UNAVAILABLE);
+    queue.runSync(
+        () -> {
+          onDocument.accept(DOC_A);
+          rpcCompletion.setException(error);
+        });
+    // Flush the completion listener.
+    queue.runSync(() -> {});
+
+    assertTrue(lookups.get(0).isSuccessful());
+    assertFalse(lookups.get(1).isSuccessful());
+    assertEquals(error, lookups.get(1).getException());
+  }
+}
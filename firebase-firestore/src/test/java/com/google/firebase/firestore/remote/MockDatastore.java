@@ -22,6 +22,7 @@ import com.google.firebase.firestore.core.DatabaseInfo;
 import com.google.firebase.firestore.local.TargetData;
 import com.google.firebase.firestore.model.SnapshotVersion;
 import com.google.firebase.firestore.model.mutation.Mutation;
+import com.google.firebase.firestore.model.mutation.MutationBatch;
 import com.google.firebase.firestore.model.mutation.MutationResult;
 import com.google.firebase.firestore.remote.WatchChange.WatchTargetChange;
 import com.google.firebase.firestore.spec.SpecTestCase;
@@ -182,6 +183,11 @@ public class MockDatastore extends Datastore {
       sentWrites.add(mutations);
     }
 
+    @Override
+    public void writeMutationBatch(MutationBatch batch) {
+      writeMutations(batch.getMutations());
+    }
+
     /** Injects a write ack as though it had come from the backend in response to a write. */
     void ackWrite(SnapshotVersion commitVersion, List<MutationResult> results) {
       listener.onWriteResponse(commitVersion, results);
@@ -489,6 +489,39 @@ public class RemoteEventTest {
     assertEquals(mapping1, event.getTargetChanges().get(1));
   }
 
+  @Test
+  public void testExistenceFilterMismatchKeepsTargetIfRecoveryIsEnabled() {
+    Map<Integer, TargetData> targetMap = activeQueries(1);
+    Document doc1 = doc("docs/1", 1, map("value", 1));
+    Document doc2 = doc("docs/2", 2, map("value", 2));
+    targetMetadataProvider.setSyncedKeys(targetMap.get(1), keySet(doc1.getKey(), doc2.getKey()));
+
+    WatchChangeAggregator aggregator =
+        new WatchChangeAggregator(
+            targetMetadataProvider, /* existenceFilterRecoveryEnabled= */ true);
+    aggregator.handleTargetChange(
+        new WatchTargetChange(WatchTargetChangeType.Current, asList(1), resumeToken));
+    aggregator.createRemoteEvent(version(3));
+
+    WatchChange.ExistenceFilterWatchChange existenceFilter =
+        new WatchChange.ExistenceFilterWatchChange(1, new ExistenceFilter(1));
+    aggregator.handleExistenceFilter(existenceFilter);
+
+    // The documents stay in the target, but the target is no longer current.
+    RemoteEvent event = aggregator.createRemoteEvent(version(4));
+    assertEquals(Collections.singleton(1), event.getTargetMismatches());
+    assertEquals(0, event.getDocumentUpdates().size());
+    assertEquals(
+        targetChange(resumeToken, false, null, null, null), event.getTargetChanges().get(1));
+
+    aggregator.markTargetRecovered(1);
+
+    event = aggregator.createRemoteEvent(version(5));
+    assertTrue(event.getTargetMismatches().isEmpty());
+    assertEquals(
+        targetChange(resumeToken, true, null, null, null), event.getTargetChanges().get(1));
+  }
+
   @Test
   public void testDocumentUpdate() {
     Map<Integer, TargetData> targetMap = activeQueries(1);
@@ -0,0 +1,153 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.remote;
+
+import static com.google.firebase.firestore.remote.WritePipelineController.DEFAULT_PIPELINE_SIZE;
+import static com.google.firebase.firestore.remote.WritePipelineController.MAX_PIPELINE_SIZE;
+import static com.google.firebase.firestore.remote.WritePipelineController.MIN_PIPELINE_SIZE;
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class WritePipelineControllerTest {
+
+  private static final long RTT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private long now = 0;
+
+  /**
+   * Simulates a saturated pipeline: fills it, waits for one round trip and then acknowledges each
+   * batch, immediately replacing it with a new one.
+   */
+  private void runSaturatedRoundTrip(WritePipelineController controller, long latencyNanos) {
+    while (controller.getInFlightCount() < controller.getPipelineSize()) {
+      controller.handleBatchAdded(now);
+      controller.handleBatchSent(now);
+    }
+    controller.handlePipelineFull(now);
+
+    now += latencyNanos;
+    int inFlight = controller.getInFlightCount();
+    for (int i = 0; i < inFlight; ++i) {
+      controller.handleBatchAcknowledged(now);
+      if (controller.getInFlightCount() < controller.getPipelineSize()) {
+        controller.handleBatchAdded(now);
+        controller.handleBatchSent(now);
+      }
+      controller.handlePipelineFull(now);
+    }
+  }
+
+  @Test
+  public void testFixedPipelineSizeDoesNotChange() {
+    WritePipelineController controller = new WritePipelineController(/* adaptive= */ false);
+    for (int i = 0; i < 10; ++i) {
+      runSaturatedRoundTrip(controller, RTT_NANOS);
+    }
+    assertEquals(DEFAULT_PIPELINE_SIZE, controller.getPipelineSize());
+
+    controller.handleStreamClosed(/* transientError= */ true);
+    assertEquals(DEFAULT_PIPELINE_SIZE, controller.getPipelineSize());
+  }
+
+  @Test
+  public void testAdaptivePipelineGrowsWhileSaturated() {
+    WritePipelineController controller = new WritePipelineController(/* adaptive= */ true);
+    runSaturatedRoundTrip(controller, RTT_NANOS);
+    assertEquals(2 * DEFAULT_PIPELINE_SIZE, controller.getPipelineSize());
+
+    for (int i = 0; i < 10; ++i) {
+      runSaturatedRoundTrip(controller, RTT_NANOS);
+    }
+    assertEquals(MAX_PIPELINE_SIZE, controller.getPipelineSize());
+  }
+
+  @Test
+  public void testAdaptivePipelineDoesNotGrowWithoutPendingBatches() {
+    WritePipelineController controller = new WritePipelineController(/* adaptive= */ true);
+    controller.handlePipelineFull(now);
+    controller.handlePipelineDrained();
+    controller.handleBatchAdded(now);
+    assertEquals(DEFAULT_PIPELINE_SIZE, controller.getPipelineSize());
+    assertEquals(0, controller.getBlockedTimeMs());
+  }
+
+  @Test
+  public void testAdaptivePipelineShrinksOnIncreasedLatency() {
+    WritePipelineController controller = new WritePipelineController(/* adaptive= */ true);
+    runSaturatedRoundTrip(controller, RTT_NANOS);
+    int size = controller.getPipelineSize();
+    int inFlight = controller.getInFlightCount();
+
+    // Queueing delay in the backend raises the latency of the acknowledgements.
+    now += 10 * RTT_NANOS;
+    controller.handleBatchAcknowledged(now);
+    assertEquals(size / 2, controller.getPipelineSize());
+
+    // The pipeline size is only decreased once per round trip.
+    for (int i = 1; i < inFlight; ++i) {
+      controller.handleBatchAcknowledged(now);
+    }
+    assertEquals(size / 2, controller.getPipelineSize());
+  }
+
+  @Test
+  public void testAdaptivePipelineShrinksOnStreamErrors() {
+    WritePipelineController controller = new WritePipelineController(/* adaptive= */ true);
+    controller.handleStreamClosed(/* transientError= */ false);
+    assertEquals(DEFAULT_PIPELINE_SIZE, controller.getPipelineSize());
+
+    controller.handleStreamClosed(/* transientError= */ true);
+    assertEquals(DEFAULT_PIPELINE_SIZE / 2, controller.getPipelineSize());
+
+    for (int i = 0; i < 10; ++i) {
+      controller.handleStreamClosed(/* transientError= */ true);
+    }
+    assertEquals(MIN_PIPELINE_SIZE, controller.getPipelineSize());
+  }
+
+  @Test
+  public void testCountsInFlightBatches() {
+    WritePipelineController controller = new WritePipelineController(/* adaptive= */ false);
+    controller.handleBatchSent(now);
+    controller.handleBatchSent(now);
+    controller.handleBatchSent(now);
+    controller.handleBatchAcknowledged(now);
+    controller.handleBatchRejected();
+    assertEquals(1, controller.getInFlightCount());
+    assertEquals(3, controller.getMaxInFlightCount());
+
+    controller.handleStreamClosed(/* transientError= */ true);
+    assertEquals(0, controller.getInFlightCount());
+  }
+
+  @Test
+  public void testCountsBlockedTime() {
+    WritePipelineController controller = new WritePipelineController(/* adaptive= */ false);
+    controller.handlePipelineFull(0);
+    controller.handlePipelineFull(TimeUnit.MILLISECONDS.toNanos(10));
+    controller.handleBatchAdded(TimeUnit.MILLISECONDS.toNanos(25));
+    assertEquals(25, controller.getBlockedTimeMs());
+
+    controller.handleBatchAdded(TimeUnit.MILLISECONDS.toNanos(50));
+    assertEquals(25, controller.getBlockedTimeMs());
+  }
+}
@@ -16,14 +16,18 @@ package com.google.firebase.firestore.util;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import com.google.android.gms.tasks.Task;
 import com.google.firebase.firestore.util.AsyncQueue.DelayedTask;
 import com.google.firebase.firestore.util.AsyncQueue.TimerId;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import org.junit.Before;
 import org.junit.Test;
 import org.robolectric.annotation.Config;
@@ -139,4 +143,144 @@ public class AsyncQueueTest {
     queue.getExecutor().execute(runnableForStep(5));
     waitForExpectedSteps();
   }
+
+  @Test
+  public void readsRunOnSerialLaneIfReaderLanesAreDisabled() throws Exception {
+    String[] threadName = new String[1];
+    Semaphore done = new Semaphore(0);
+    queue.enqueueRead(
+        () -> {
+          threadName[0] = Thread.currentThread().getName();
+          done.release();
+          return null;
+        });
+    done.acquire();
+    assertEquals("FirestoreWorker", threadName[0]);
+  }
+
+  @Test
+  public void readsRunConcurrentlyWithSerialLane() throws Exception {
+    queue.runSync(() -> queue.enableReaderLanes(2));
+
+    // The read can only complete once a task on the serial lane has run after it.
+    CountDownLatch serialTaskRan = new CountDownLatch(1);
+    Semaphore readCompleted = new Semaphore(0);
+    queue.enqueueRead(
+        () -> {
+          assertTrue(serialTaskRan.await(5, TimeUnit.SECONDS));
+          readCompleted.release();
+          return null;
+        });
+    queue.enqueueAndForget(serialTaskRan::countDown);
+
+    assertTrue(readCompleted.tryAcquire(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void readsObserveEarlierTasks() throws Exception {
+    queue.runSync(() -> queue.enableReaderLanes(2));
+
+    int[] value = new int[1];
+    int[] observed = new int[1];
+    Semaphore readCompleted = new Semaphore(0);
+    queue.enqueueAndForget(() -> value[0] = 42);
+    queue.enqueueRead(
+        () -> {
+          observed[0] = value[0];
+          readCompleted.release();
+          return null;
+        });
+
+    assertTrue(readCompleted.tryAcquire(5, TimeUnit.SECONDS));
+    assertEquals(42, observed[0]);
+  }
+
+  @Test
+  public void failedReadsFailTheirTask() throws Exception {
+    queue.runSync(() -> queue.enableReaderLanes(1));
+
+    IllegalStateException error = new IllegalStateException("Simulated read failure");
+    Semaphore readCompleted = new Semaphore(0);
+    Task<Void> failedRead =
+        queue.enqueueRead(
+            () -> {
+              throw error;
+            });
+    failedRead.addOnCompleteListener(Executors.DIRECT_EXECUTOR, task -> readCompleted.release());
+    assertTrue(readCompleted.tryAcquire(5, TimeUnit.SECONDS));
+    assertSame(error, failedRead.getException());
+
+    // Both the reader lane and the serial lane keep running tasks.
+    Task<Integer> nextRead = queue.enqueueRead(() -> 42);
+    nextRead.addOnCompleteListener(Executors.DIRECT_EXECUTOR, task -> readCompleted.release());
+    assertTrue(readCompleted.tryAcquire(5, TimeUnit.SECONDS));
+    assertEquals(42, (int) nextRead.getResult());
+    queue.runSync(() -> {});
+  }
+
+  @Test
+  public void shutdownWaitsForReads() throws Exception {
+    queue.runSync(() -> queue.enableReaderLanes(1));
+
+    CountDownLatch readStarted = new CountDownLatch(1);
+    boolean[] readCompleted = new boolean[1];
+    boolean[] readCompletedBeforeShutdown = new boolean[1];
+    Semaphore shutdownRan = new Semaphore(0);
+    queue.enqueueRead(
+        () -> {
+          readStarted.countDown();
+          Thread.sleep(50);
+          readCompleted[0] = true;
+          return null;
+        });
+    assertTrue(readStarted.await(5, TimeUnit.SECONDS));
+    queue.enqueueAndInitiateShutdown(
+        () -> {
+          readCompletedBeforeShutdown[0] = readCompleted[0];
+          shutdownRan.release();
+        });
+
+    assertTrue(shutdownRan.tryAcquire(5, TimeUnit.SECONDS));
+    assertTrue(readCompletedBeforeShutdown[0]);
+  }
+
+  @Test
+  public void reportsLaneStatistics() throws Exception {
+    queue.runSync(() -> queue.enableReaderLanes(1));
+
+    Semaphore readCompleted = new Semaphore(0);
+    queue.enqueueRead(
+        () -> {
+          readCompleted.release();
+          return null;
+        });
+    assertTrue(readCompleted.tryAcquire(5, TimeUnit.SECONDS));
+    queue.runSync(() -> {});
+
+    List<AsyncQueue.LaneStatistics> lanes = queue.getLaneStatistics();
+    assertEquals(2, lanes.size());
+    assertEquals("FirestoreWorker", lanes.get(0).getName());
+    // runSync() twice, plus the task that dispatched the read.
+    assertEquals(3, lanes.get(0).getTaskCount());
+    assertEquals(1, lanes.get(1).getTaskCount());
+    assertTrue(lanes.get(1).getUtilization() >= 0.0);
+    assertTrue(lanes.get(1).getUtilization() <= 1.0);
+  }
+
+  @Test
+  public void logsLaneStatisticsWhileReaderLanesAreEnabled() throws Exception {
+    assertFalse(queue.containsDelayedTask(TimerId.LANE_STATISTICS));
+
+    queue.runSync(() -> queue.enableReaderLanes(1));
+    assertTrue(queue.containsDelayedTask(TimerId.LANE_STATISTICS));
+
+    // Logging the statistics schedules the next time they are logged.
+    queue.runDelayedTasksUntil(TimerId.LANE_STATISTICS);
+    assertTrue(queue.containsDelayedTask(TimerId.LANE_STATISTICS));
+
+    Semaphore shutdownRan = new Semaphore(0);
+    queue.enqueueAndInitiateShutdown(shutdownRan::release);
+    assertTrue(shutdownRan.tryAcquire(5, TimeUnit.SECONDS));
+    assertFalse(queue.containsDelayedTask(TimerId.LANE_STATISTICS));
+  }
 }
@@ -0,0 +1,197 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.util;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import com.google.firebase.firestore.DocumentId;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.Mappable;
+import com.google.firebase.firestore.PropertyName;
+import com.google.firebase.firestore.ServerTimestamp;
+import com.google.firebase.firestore.TestUtil;
+import com.google.firebase.firestore.ThrowOnExtraProperties;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.robolectric.annotation.Config;
+
+/**
+ * Tests that CustomClassMapper uses the mappers that the Firestore annotation processor generates
+ * for the classes in this file.
+ */
+@org.junit.runner.RunWith(org.robolectric.RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class GeneratedMapperTest {
+
+  @Mappable
+  static class Address {
+    String city;
+    int zip;
+
+    public String getCity() {
+      return city;
+    }
+
+    public int getZip() {
+      return zip;
+    }
+  }
+
+  @Mappable
+  @ThrowOnExtraProperties
+  static class Person {
+    @DocumentId String id;
+    String name;
+    List<Address> addresses;
+    @ServerTimestamp Date updated;
+    public boolean active;
+
+    public String getId() {
+      return id;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    void setName(String name) {
+      this.name = "setter:" + name;
+    }
+
+    @PropertyName("addressList")
+    public List<Address> getAddresses() {
+      return addresses;
+    }
+
+    @PropertyName("addressList")
+    void setAddresses(List<Address> addresses) {
+      this.addresses = addresses;
+    }
+
+    public Date getUpdated() {
+      return updated;
+    }
+  }
+
+  static class Unannotated {
+    public String value;
+  }
+
+  @Test
+  public void generatedMapperIsFound() throws ClassNotFoundException {
+    String mapperName = CustomClassMapper.generatedMapperClassName(Person.class);
+    assertEquals(
+        "com.google.firebase.firestore.util.AutoGeneratedMapperTestPersonMapper", mapperName);
+    Class.forName(mapperName);
+  }
+
+  @Test
+  public void serializesWithGeneratedMapper() {
+    Address address = new Address();
+    address.city = "Springfield";
+    address.zip = 12345;
+    Person person = new Person();
+    person.id = "ignored";
+    person.name = "Jane";
+    person.addresses = asList(address);
+    person.active = true;
+
+    Map<String, Object> serialized = CustomClassMapper.convertToPlainJavaTypes(map("p", person));
+
+    assertEquals(
+        map(
+            "p",
+            map(
+                "name",
+                "Jane",
+                "addressList",
+                asList(map("city", "Springfield", "zip", 12345)),
+                "updated",
+                FieldValue.serverTimestamp(),
+                "active",
+                true)),
+        serialized);
+  }
+
+  @Test
+  public void deserializesWithGeneratedMapper() {
+    DocumentReference ref = TestUtil.documentReference("coll/doc123");
+    Date updated = new Date(1000);
+    Person person =
+        CustomClassMapper.convertToCustomClass(
+            map(
+                "name",
+                "Jane",
+                "addressList",
+                asList(map("city", "Springfield", "zip", 12345L)),
+                "updated",
+                updated,
+                "active",
+                true),
+            Person.class,
+            ref);
+
+    assertEquals("doc123", person.id);
+    assertEquals("setter:Jane", person.name);
+    assertEquals(1, person.addresses.size());
+    assertEquals("Springfield", person.addresses.get(0).city);
+    assertEquals(12345, person.addresses.get(0).zip);
+    assertEquals(updated, person.updated);
+    assertEquals(true, person.active);
+  }
+
+  @Test
+  public void generatedMapperReportsErrors() {
+    DocumentReference ref = TestUtil.documentReference("coll/doc123");
+
+    assertExceptionContains(
+        "No setter/field for unknown found on class",
+        () -> CustomClassMapper.convertToCustomClass(map("unknown", 1), Person.class, ref));
+    assertExceptionContains(
+        "'id' was found from document coll/doc123",
+        () -> CustomClassMapper.convertToCustomClass(map("id", "foo"), Person.class, ref));
+    assertExceptionContains(
+        "(found in field 'addressList.[0].zip')",
+        () ->
+            CustomClassMapper.convertToCustomClass(
+                map("addressList", asList(map("zip", Long.MAX_VALUE))), Person.class, ref));
+  }
+
+  @Test
+  public void unannotatedClassesUseReflection() {
+    Unannotated value =
+        CustomClassMapper.convertToCustomClass(map("value", "foo"), Unannotated.class, null);
+    assertEquals("foo", value.value);
+    assertNull(CustomClassMapper.convertToCustomClass(map(), Unannotated.class, null).value);
+  }
+
+  private static void assertExceptionContains(String partialMessage, Runnable run) {
+    try {
+      run.run();
+      fail("Expected exception not thrown");
+    } catch (RuntimeException e) {
+      assertThat(e).hasMessageThat().contains(partialMessage);
+    }
+  }
+}
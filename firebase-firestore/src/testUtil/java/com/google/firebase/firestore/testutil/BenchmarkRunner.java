@@ -0,0 +1,140 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.testutil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * Measures the benchmarks of a benchmark class and compares them with the committed baseline.
+ *
+ * <p>Each benchmark runs a number of warmup iterations followed by measured iterations and prints
+ * the average time per operation. Benchmarks are skipped unless the JVM is started with {@code
+ * -DrunBenchmarks=true} (or Gradle with {@code -PrunBenchmarks=true}).
+ *
+ * <p>A benchmark class creates its runner in a {@code @BeforeClass} method and calls {@link
+ * #finish} in an {@code @AfterClass} method, so that the results of all of its benchmarks are
+ * written together to {@code build/benchmarks/<name>.properties}. If a baseline with the same name
+ * exists in {@code benchmarks/}, benchmarks that are more than {@link #REGRESSION_THRESHOLD} times
+ * slower than their baseline are reported as regressions. To update a baseline, copy the results
+ * over the baseline and commit it.
+ */
+public final class BenchmarkRunner {
+
+  private static final int WARMUP_ITERATIONS = 3;
+  private static final int MEASURED_ITERATIONS = 10;
+
+  /** The factor by which a benchmark must be slower than its baseline to be reported. */
+  private static final double REGRESSION_THRESHOLD = 1.2;
+
+  /** Prevents the JIT from eliminating the benchmarked code. */
+  public static volatile Object sink;
+
+  private final String name;
+  private final Properties results = new Properties();
+
+  /** A benchmarked operation, which may be preceded by an untimed setup. */
+  public interface Operation {
+    void run() throws Exception;
+  }
+
+  public BenchmarkRunner(String name) {
+    this.name = name;
+  }
+
+  /** Returns whether benchmarks are enabled for this JVM. */
+  public static boolean isEnabled() {
+    return Boolean.getBoolean("runBenchmarks");
+  }
+
+  /** Measures the average time of the given operation. */
+  public void measure(String benchmark, Operation operation) throws Exception {
+    measure(benchmark, () -> {}, operation);
+  }
+
+  /**
+   * Measures the average time of the given operation. The setup runs before each iteration and is
+   * not included in the measured time.
+   */
+  public void measure(String benchmark, Operation setup, Operation operation) throws Exception {
+    for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+      setup.run();
+      operation.run();
+    }
+
+    long totalNanos = 0;
+    for (int i = 0; i < MEASURED_ITERATIONS; ++i) {
+      setup.run();
+      long start = System.nanoTime();
+      operation.run();
+      totalNanos += System.nanoTime() - start;
+    }
+
+    double millisPerOp = totalNanos / 1e6 / MEASURED_ITERATIONS;
+    results.setProperty(benchmark, String.format(Locale.US, "%.3f", millisPerOp));
+    System.out.println(String.format(Locale.US, "%s: %.3f ms/op", benchmark, millisPerOp));
+  }
+
+  /** Writes the results and reports the benchmarks that regressed compared to the baseline. */
+  public void finish() throws IOException {
+    if (results.isEmpty()) {
+      // The benchmarks were skipped.
+      return;
+    }
+
+    File output = new File("build/benchmarks", name + ".properties");
+    output.getParentFile().mkdirs();
+    try (OutputStream stream = new FileOutputStream(output)) {
+      results.store(stream, "Average time per operation in milliseconds");
+    }
+
+    File baselineFile = new File("benchmarks", name + ".properties");
+    if (!baselineFile.exists()) {
+      System.out.println(
+          "No baseline for " + name + ", skipping the regression check. Results are in " + output);
+      return;
+    }
+
+    Properties baseline = new Properties();
+    try (InputStream stream = new FileInputStream(baselineFile)) {
+      baseline.load(stream);
+    }
+    for (String benchmark : new TreeSet<>(results.stringPropertyNames())) {
+      String expected = baseline.getProperty(benchmark);
+      if (expected == null) {
+        continue;
+      }
+      double ratio =
+          Double.parseDouble(results.getProperty(benchmark)) / Double.parseDouble(expected);
+      if (ratio > REGRESSION_THRESHOLD) {
+        System.out.println(
+            String.format(
+                Locale.US,
+                "REGRESSION %s: %s ms/op (baseline %s ms/op, %.0f%% slower)",
+                benchmark,
+                results.getProperty(benchmark),
+                expected,
+                (ratio - 1) * 100));
+      }
+    }
+  }
+}